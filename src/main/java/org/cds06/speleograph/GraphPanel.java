@@ -22,13 +22,15 @@
 package org.cds06.speleograph;
 
 import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.actions.ExportImageAction;
 import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.graph.BackgroundChartRenderer;
 import org.cds06.speleograph.graph.DateAxisEditor;
+import org.cds06.speleograph.graph.SpeleoChart;
 import org.cds06.speleograph.graph.SpeleoXYPlot;
 import org.cds06.speleograph.graph.ValueAxisEditor;
 import org.jetbrains.annotations.NonNls;
 import org.jfree.chart.*;
-import org.jfree.chart.axis.AxisLocation;
 import org.jfree.chart.axis.DateAxis;
 import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.entity.AxisEntity;
@@ -40,10 +42,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.event.ActionEvent;
 import java.awt.event.MouseEvent;
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -84,6 +83,10 @@ public class GraphPanel extends JPanel implements DatasetChangeListener, ChartMo
      * The panel which encapsulate {@link #chart}. We use it to interact by {@link ChartMouseEvent} with the graph.
      */
     private final ChartPanel chartPanel;
+    /**
+     * Draw the {@link #chart} on a background thread for the {@link #chartPanel}.
+     */
+    private final BackgroundChartRenderer backgroundRenderer;
 
     /**
      * Getter for the linked application instance
@@ -105,9 +108,12 @@ public class GraphPanel extends JPanel implements DatasetChangeListener, ChartMo
         setLayout(new BorderLayout());
         dateAxis = new DateAxis();
         plot = new SpeleoXYPlot();
-        chart = new JFreeChart(plot);
+        SpeleoChart speleoChart = new SpeleoChart(plot);
+        chart = speleoChart;
         new StandardChartTheme("JFree").apply(chart); // NON-NLS
         chartPanel = new ChartPanel(chart, false, true, false, true, true);
+        backgroundRenderer = new BackgroundChartRenderer(chartPanel);
+        speleoChart.setBackgroundRenderer(backgroundRenderer);
         chartPanel.addChartMouseListener(this);
         setupEmptyChart();
         Series.setGraphPanel(this);
@@ -138,32 +144,7 @@ public class GraphPanel extends JPanel implements DatasetChangeListener, ChartMo
      */
     @Override
     public void datasetChanged(DatasetChangeEvent event) {
-        for (int i = 0, max = plot.getDatasetCount(); i < max; i++) {
-            plot.setDataset(i, null);
-            plot.setRangeAxis(i, null);
-            plot.setRenderer(i, null);
-        }
-        final ArrayList<NumberAxis> shownAxis = new ArrayList<>(series.size());
-        for (final Series set : series) {
-            if (set == null) continue;
-            NumberAxis rangeAxis = set.getAxis();
-            if (set.isShow()) {
-                int id = series.indexOf(set);
-                plot.setDataset(id, set);
-                plot.setRenderer(id, set.getRenderer(), false);
-                int index = shownAxis.indexOf(rangeAxis);
-                if (index == -1) {
-                    shownAxis.add(rangeAxis);
-                    index = shownAxis.indexOf(rangeAxis);
-                    plot.setRangeAxis(index, rangeAxis, false);
-                    plot.setRangeAxisLocation(index, AxisLocation.BOTTOM_OR_LEFT);
-                }
-                plot.mapDatasetToRangeAxis(id, index);
-                plot.getRenderer().setSeriesItemLabelsVisible(0, true, true);
-                plot.datasetChanged(new DatasetChangeEvent(this, set));
-            }
-        }
-        if (shownAxis.size() == 0) {
+        if (!plot.showSeries(series)) {
             setupEmptyChart();
         } else {
             plot.setDomainAxis(dateAxis);
@@ -221,26 +202,8 @@ public class GraphPanel extends JPanel implements DatasetChangeListener, ChartMo
         return chartPanel;
     }
 
-    public final Action saveImageAction = new AbstractAction() {
-
-        {
-            putValue(NAME, I18nSupport.translate("actions.exportAsImage"));
-        }
-
-        @Override
-        public void actionPerformed(ActionEvent e) {
-            try {
-                chartPanel.setDefaultDirectoryForSaveAs(SpeleoGraphApp.getWorkingDirectory());
-                chartPanel.doSaveAs();
-            } catch (IOException e1) {
-                JOptionPane.showMessageDialog(
-                        GraphPanel.this,
-                        "Erreur lors de l'enregistrement du fichier, merci de signaler le bug suivant :\n" +
-                                e1.getLocalizedMessage() + "\nEn présisant ce que vous faisiez.",
-                        "Erreur lors de la sauvegarde",
-                        JOptionPane.ERROR_MESSAGE
-                );
-            }
-        }
-    };
+    /**
+     * Export the chart in an image file.
+     */
+    public final Action saveImageAction = new ExportImageAction(this);
 }
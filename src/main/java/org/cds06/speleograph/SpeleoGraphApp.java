@@ -25,9 +25,12 @@ package org.cds06.speleograph;
 import org.cds06.speleograph.actions.*;
 import org.cds06.speleograph.actions.data.ImportAction;
 import org.cds06.speleograph.data.fileio.*;
+import org.cds06.speleograph.data.store.ColdStorage;
 import org.cds06.speleograph.graph.EditMenu;
 import org.cds06.speleograph.graph.GraphEditor;
 import org.cds06.speleograph.graph.SeriesMenu;
+import org.cds06.speleograph.graph.export.ArchiveCommand;
+import org.cds06.speleograph.graph.export.BatchExport;
 import org.cds06.speleograph.utils.About;
 import org.jetbrains.annotations.NonNls;
 import org.slf4j.Logger;
@@ -36,10 +39,13 @@ import org.slf4j.LoggerFactory;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.prefs.Preferences;
 
 /**
@@ -80,6 +86,13 @@ public class SpeleoGraphApp extends JFrame {
      */
     private final JSplitPane splitPane;
 
+    private final AutoSave autoSave;
+
+    /**
+     * What is read when files are opened.
+     */
+    private final ReadOptions readOptions = new ReadOptions();
+
     /**
      * The class who manages menus for Series.
      */
@@ -125,6 +138,10 @@ public class SpeleoGraphApp extends JFrame {
 
         // Configure the frame
         setContentPane(panel);
+        final FileDropHandler dropHandler = new FileDropHandler(panel);
+        panel.setTransferHandler(dropHandler);
+        graphPanel.setTransferHandler(dropHandler);
+        list.setTransferHandler(dropHandler);
         seriesMenu = new SeriesMenu(this);
         final JMenuBar menus = createMenus();
         setJMenuBar(menus);
@@ -136,6 +153,31 @@ public class SpeleoGraphApp extends JFrame {
         setLocation(50, 50);
         setExtendedState(JFrame.MAXIMIZED_BOTH);
         setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+
+        // Compress the series which are not used
+        new ColdStorage().start();
+
+        // The autosave is only kept if we do not close normally
+        autoSave = new AutoSave(AutoSave.getDefaultFile(), AutoSave.DEFAULT_DELAY);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                autoSave.shutdown();
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                autoSave.shutdown();
+            }
+        });
+    }
+
+    public AutoSave getAutoSave() {
+        return autoSave;
+    }
+
+    public ReadOptions getReadOptions() {
+        return readOptions;
     }
 
     public JSplitPane getSplitPane() {
@@ -156,10 +198,16 @@ public class SpeleoGraphApp extends JFrame {
         importMenu.add(new OpenAction(panel, ReefnetFileReader.class));
         importMenu.add(new OpenAction(panel, HoboFileReader.class));
         importMenu.add(new OpenAction(panel, WundergroundFileReader.class));
+        importMenu.add(new OpenAction(panel, ColumnarFileReader.class));
+        importMenu.add(new ArchiveQueryAction(panel));
         importMenu.addSeparator();
         importMenu.add(new ImportAction(panel));
+        importMenu.add(new ReadOptionsAction(panel, readOptions));
         fileMenu.add(importMenu);
+        fileMenu.add(new WatchDirectoryAction(panel));
         fileMenu.add(((GraphPanel) getSplitPane().getLeftComponent()).saveImageAction);
+        fileMenu.add(new ExportColumnarAction(panel));
+        fileMenu.add(new ArchiveAddAction(panel));
         fileMenu.addSeparator();
         fileMenu.add(new QuitAction(panel, this));
         bar.add(fileMenu);
@@ -229,14 +277,25 @@ public class SpeleoGraphApp extends JFrame {
 
     /**
      * Start the application using this function.
-     * No arguments are currently read by the program.
+     * When the first argument is {@value BatchExport#COMMAND}, charts are exported without opening the application
+     * (see {@link BatchExport}), other arguments are not read. The {@value ArchiveCommand#COMMAND} command manages an
+     * archive (see {@link ArchiveCommand}).
      * This function try to use the Nimbus LaF or System if not found.
      *
-     * @param args Arguments sent to the JVM (not used)
+     * @param args Arguments sent to the JVM
      */
     @NonNls
     public static void main(String... args) {
 
+        if (args.length > 0 && BatchExport.COMMAND.equals(args[0])) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(BatchExport.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && ArchiveCommand.COMMAND.equals(args[0])) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(ArchiveCommand.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
         if (isMac()) {
             System.setProperty("apple.laf.useScreenMenuBar", "true"); //On déporte la barre de menus
             try { //On essaie de spécifier à Mac que l'image du dock est celle des ressources avec la reflective API
@@ -281,6 +340,8 @@ public class SpeleoGraphApp extends JFrame {
 
         // Start application
         instance.setVisible(true);
+        instance.autoSave.offerRecovery(instance);
+        instance.autoSave.start();
     }
 
     /**
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.actions;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.SpeleoGraphApp;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.fileio.Archive;
+import org.cds06.speleograph.data.fileio.ColumnarFileWriter;
+import org.jetbrains.annotations.NonNls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Add the displayed series to an archive, as the data of a site.
+ *
+ * @author Philippe VIENNE
+ * @see Archive
+ * @since 2.0
+ */
+public class ArchiveAddAction extends AbstractAction {
+
+    private static final long serialVersionUID = 1L;
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(ArchiveAddAction.class);
+
+    private final JComponent parent;
+
+    private final JFileChooser chooser = new JFileChooser();
+
+    /**
+     * Construct the action.
+     *
+     * @param parent The parent component used to display dialogs.
+     */
+    public ArchiveAddAction(JComponent parent) {
+        super(I18nSupport.translate("actions.archiveAdd"));
+        Validate.notNull(parent);
+        this.parent = parent;
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+    }
+
+    /**
+     * Invoked when an action occurs.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        final List<Series> series = new ArrayList<>();
+        for (Series s : Series.getInstances()) {
+            if (s.isShow()) series.add(s);
+        }
+        if (series.isEmpty()) {
+            JOptionPane.showMessageDialog(parent, I18nSupport.translate("actions.archiveAdd.empty"),
+                    I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        chooser.setCurrentDirectory(SpeleoGraphApp.getWorkingDirectory());
+        if (chooser.showSaveDialog(parent) != JFileChooser.APPROVE_OPTION) return;
+        final File directory = chooser.getSelectedFile();
+        SpeleoGraphApp.setWorkingDirectory(directory);
+        final Archive archive;
+        try {
+            archive = Archive.open(directory);
+        } catch (IOException e1) {
+            log.error("Can not open the archive " + directory, e1);
+            JOptionPane.showMessageDialog(parent, I18nSupport.translate("actions.archive.error", directory.getName()),
+                    I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        final JComboBox<String> sites = new JComboBox<>(archive.getSites().toArray(new String[0]));
+        sites.setEditable(true);
+        final File folder = series.get(0).getOrigin().getAbsoluteFile().getParentFile();
+        if (sites.getItemCount() == 0 && folder != null) sites.setSelectedItem(folder.getName());
+        final int result = JOptionPane.showConfirmDialog(parent,
+                new Object[]{I18nSupport.translate("actions.archive.site"), sites},
+                I18nSupport.translate("actions.archiveAdd"), JOptionPane.OK_CANCEL_OPTION);
+        final Object selected = sites.getSelectedItem();
+        if (result != JOptionPane.OK_OPTION || selected == null || selected.toString().trim().isEmpty()) return;
+        final String site = selected.toString().trim();
+        final List<ColumnarFileWriter.Entry> entries = ColumnarFileWriter.snapshot(series);
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                archive.add(site, entries);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    log.error("Can not add series to " + directory, e);
+                    JOptionPane.showMessageDialog(parent,
+                            I18nSupport.translate("actions.archive.error", directory.getName()),
+                            I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+}
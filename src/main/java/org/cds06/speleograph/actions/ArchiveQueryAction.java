@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.actions;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.SpeleoGraphApp;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.Type;
+import org.cds06.speleograph.data.fileio.Archive;
+import org.cds06.speleograph.data.fileio.ReadOptions;
+import org.cds06.speleograph.utils.DateSelector;
+import org.jetbrains.annotations.NonNls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Read the data of a site from an archive, for the chosen types and dates.
+ *
+ * @author Philippe VIENNE
+ * @see Archive
+ * @since 2.0
+ */
+public class ArchiveQueryAction extends AbstractAction {
+
+    private static final long serialVersionUID = 1L;
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(ArchiveQueryAction.class);
+
+    private final JComponent parent;
+
+    private final JFileChooser chooser = new JFileChooser();
+
+    /**
+     * Construct the action.
+     *
+     * @param parent The parent component used to display dialogs.
+     */
+    public ArchiveQueryAction(JComponent parent) {
+        super(I18nSupport.translate("actions.archiveQuery"));
+        Validate.notNull(parent);
+        this.parent = parent;
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+    }
+
+    /**
+     * Invoked when an action occurs.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        chooser.setCurrentDirectory(SpeleoGraphApp.getWorkingDirectory());
+        if (chooser.showOpenDialog(parent) != JFileChooser.APPROVE_OPTION) return;
+        final File directory = chooser.getSelectedFile();
+        SpeleoGraphApp.setWorkingDirectory(directory);
+        final Archive archive;
+        try {
+            if (!Archive.isArchive(directory)) throw new IOException("No catalog in " + directory); // NON-NLS
+            archive = Archive.open(directory);
+        } catch (IOException e1) {
+            log.error("Can not open the archive " + directory, e1);
+            JOptionPane.showMessageDialog(parent, I18nSupport.translate("actions.archive.error", directory.getName()),
+                    I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        final JPanel panel = new JPanel(new GridLayout(0, 1));
+        final JComboBox<String> sites = new JComboBox<>(archive.getSites().toArray(new String[0]));
+        panel.add(new JLabel(I18nSupport.translate("actions.archive.site")));
+        panel.add(sites);
+        final JPanel typePanel = new JPanel(new GridLayout(0, 1));
+        final Map<Type, JCheckBox> boxes = new LinkedHashMap<>();
+        final DateSelector start = new DateSelector(), end = new DateSelector();
+        final ActionListener siteListener = new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                final String site = (String) sites.getSelectedItem();
+                boxes.clear();
+                typePanel.removeAll();
+                Date first = null, last = null;
+                for (Archive.Partition partition : archive.getPartitions()) {
+                    if (!partition.getSite().equals(site)) continue;
+                    if (first == null || partition.getFirstDate().before(first)) first = partition.getFirstDate();
+                    if (last == null || partition.getLastDate().after(last)) last = partition.getLastDate();
+                }
+                for (Type type : archive.getTypes(site)) {
+                    final JCheckBox box = new JCheckBox(type.toString(), true);
+                    boxes.put(type, box);
+                    typePanel.add(box);
+                }
+                if (first != null) {
+                    start.setDate(first);
+                    end.setDate(last);
+                }
+                typePanel.revalidate();
+                final Window window = SwingUtilities.getWindowAncestor(typePanel);
+                if (window != null) window.pack();
+            }
+        };
+        sites.addActionListener(siteListener);
+        siteListener.actionPerformed(null);
+        final JPanel datePanel = new JPanel(new GridLayout(0, 1));
+        final JCheckBox range = new JCheckBox(I18nSupport.translate("actions.readOptions.dateRange"), false);
+        datePanel.add(range);
+        datePanel.add(start);
+        datePanel.add(end);
+        final JPanel content = new JPanel(new BorderLayout());
+        content.add(panel, BorderLayout.NORTH);
+        content.add(typePanel, BorderLayout.CENTER);
+        content.add(datePanel, BorderLayout.SOUTH);
+        final int result = JOptionPane.showConfirmDialog(parent, content,
+                I18nSupport.translate("actions.archiveQuery"), JOptionPane.OK_CANCEL_OPTION);
+        if (result != JOptionPane.OK_OPTION || sites.getSelectedItem() == null) return;
+        final String site = (String) sites.getSelectedItem();
+        final ReadOptions options = new ReadOptions();
+        final List<Type> types = new ArrayList<>();
+        for (Map.Entry<Type, JCheckBox> entry : boxes.entrySet()) {
+            if (entry.getValue().isSelected()) types.add(entry.getKey());
+        }
+        options.setTypes(types);
+        if (range.isSelected()) options.setDateRange(start.getDate(), end.getDate());
+        new SwingWorker<List<Series>, Void>() {
+            @Override
+            protected List<Series> doInBackground() throws Exception {
+                Series.startBatch();
+                try {
+                    return archive.query(site, options);
+                } finally {
+                    Series.endBatch();
+                }
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    Series.register(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    log.error("Can not read " + site + " in " + directory, e);
+                    JOptionPane.showMessageDialog(parent,
+                            I18nSupport.translate("actions.archive.error", directory.getName()),
+                            I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.actions;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.SpeleoGraphApp;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.fileio.ColumnarFileWriter;
+import org.jetbrains.annotations.NonNls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Export the displayed series in a columnar file, to exchange them with other tools.
+ *
+ * @author Philippe VIENNE
+ * @see ColumnarFileWriter
+ * @since 2.0
+ */
+public class ExportColumnarAction extends AbstractAction {
+
+    private static final long serialVersionUID = 1L;
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(ExportColumnarAction.class);
+
+    private final JComponent parent;
+
+    private final JFileChooser chooser = new JFileChooser();
+
+    /**
+     * Construct the action.
+     *
+     * @param parent The parent component used to display dialogs.
+     */
+    public ExportColumnarAction(JComponent parent) {
+        super(I18nSupport.translate("actions.exportColumnar"));
+        Validate.notNull(parent);
+        this.parent = parent;
+        chooser.setFileFilter(new FileNameExtensionFilter(I18nSupport.translate("reader.columnar"),
+                ColumnarFileWriter.EXTENSION));
+    }
+
+    /**
+     * Invoked when an action occurs.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        final List<Series> series = new ArrayList<>();
+        for (Series s : Series.getInstances()) {
+            if (s.isShow()) series.add(s);
+        }
+        if (series.isEmpty()) {
+            JOptionPane.showMessageDialog(parent, I18nSupport.translate("actions.exportColumnar.empty"),
+                    I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        chooser.setCurrentDirectory(SpeleoGraphApp.getWorkingDirectory());
+        if (chooser.showSaveDialog(parent) != JFileChooser.APPROVE_OPTION) {
+            SpeleoGraphApp.setWorkingDirectory(chooser.getCurrentDirectory());
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        if (file.isDirectory()) return;
+        SpeleoGraphApp.setWorkingDirectory(file.getParentFile());
+        if (!file.getName().endsWith("." + ColumnarFileWriter.EXTENSION)) {
+            file = new File(file.getParentFile(), file.getName() + "." + ColumnarFileWriter.EXTENSION);
+        }
+        final File destination = file;
+        final List<ColumnarFileWriter.Entry> entries = ColumnarFileWriter.snapshot(series);
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                new ColumnarFileWriter().write(destination, entries);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    log.error("Can not export series to " + destination, e);
+                    JOptionPane.showMessageDialog(parent,
+                            I18nSupport.translate("actions.exportColumnar.error", destination.getName()),
+                            I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+}
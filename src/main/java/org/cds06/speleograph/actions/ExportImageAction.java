@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.actions;
+
+import com.jgoodies.forms.builder.PanelBuilder;
+import com.jgoodies.forms.layout.FormLayout;
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.GraphPanel;
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.SpeleoGraphApp;
+import org.cds06.speleograph.graph.ChartCopy;
+import org.cds06.speleograph.graph.export.ChartExporter;
+import org.cds06.speleograph.graph.export.ExportFormat;
+import org.cds06.speleograph.utils.FormDialog;
+import org.jetbrains.annotations.NonNls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import javax.swing.filechooser.FileFilter;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Export the chart to an image (PNG, SVG or PDF) with a chosen size and resolution.
+ * <p>The chart is copied when the user validates the dialog, then the export is done on a background thread.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class ExportImageAction extends AbstractAction {
+
+    private static final long serialVersionUID = 1L;
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(ExportImageAction.class);
+
+    /**
+     * Default resolution for exports (good for prints).
+     */
+    private static final int DEFAULT_RESOLUTION = 150;
+
+    private final GraphPanel panel;
+
+    private final JFileChooser chooser = new JFileChooser();
+
+    private final ChartExporter exporter = new ChartExporter();
+
+    public ExportImageAction(GraphPanel panel) {
+        super(I18nSupport.translate("actions.exportAsImage"));
+        Validate.notNull(panel);
+        this.panel = panel;
+        for (ExportFormat format : ExportFormat.values()) {
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter(format.getDescription(), format.getExtension()));
+        }
+        chooser.setAcceptAllFileFilterUsed(false);
+        chooser.setFileFilter(chooser.getChoosableFileFilters()[0]);
+        exporter.setResolution(DEFAULT_RESOLUTION);
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        chooser.setCurrentDirectory(SpeleoGraphApp.getWorkingDirectory());
+        if (chooser.showSaveDialog(panel) != JFileChooser.APPROVE_OPTION) {
+            SpeleoGraphApp.setWorkingDirectory(chooser.getCurrentDirectory());
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        if (file.isDirectory()) return;
+        SpeleoGraphApp.setWorkingDirectory(file.getParentFile());
+        ExportFormat format = ExportFormat.forFile(file);
+        if (format == null) {
+            final FileFilter filter = chooser.getFileFilter();
+            format = ExportFormat.forExtension(filter instanceof FileNameExtensionFilter ?
+                    ((FileNameExtensionFilter) filter).getExtensions()[0] : ExportFormat.PNG.getExtension());
+            file = new File(file.getParentFile(), file.getName() + "." + format.getExtension());
+        }
+        if (panel.getChartPanel().getWidth() > 0 && panel.getChartPanel().getHeight() > 0) {
+            exporter.setWidth(panel.getChartPanel().getWidth());
+            exporter.setHeight(panel.getChartPanel().getHeight());
+        }
+        new PromptDialog(file, format).setVisible(true);
+    }
+
+    /**
+     * Export the chart on a background thread.
+     */
+    private void export(final File file, final ExportFormat format) {
+        final ChartCopy copy;
+        try {
+            copy = ChartExporter.copy(panel.getChart());
+        } catch (IOException e) {
+            showError(e);
+            return;
+        }
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                exporter.export(copy, file, format);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    showError(e.getCause() != null ? e.getCause() : e);
+                }
+            }
+        }.execute();
+    }
+
+    private void showError(Throwable e) {
+        log.error("Can not export the chart", e);
+        JOptionPane.showMessageDialog(panel,
+                I18nSupport.translate("actions.exportAsImage.error", e.getLocalizedMessage()),
+                I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+    }
+
+    private class PromptDialog extends FormDialog {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+        private final ExportFormat format;
+
+        private final JSpinner width = new JSpinner(new SpinnerNumberModel(exporter.getWidth(), 1, 20000, 10));
+        private final JSpinner height = new JSpinner(new SpinnerNumberModel(exporter.getHeight(), 1, 20000, 10));
+        private final JSpinner resolution = new JSpinner(
+                new SpinnerNumberModel(exporter.getResolution(), ChartExporter.SCREEN_RESOLUTION, 1200, 1));
+
+        private PromptDialog(File file, ExportFormat format) {
+            super();
+            this.file = file;
+            this.format = format;
+            setTitle(I18nSupport.translate("actions.exportAsImage"));
+            construct();
+        }
+
+        @Override
+        protected void setup() {
+            PanelBuilder builder = new PanelBuilder(formLayout, getPanel());
+            builder.addLabel(file.getName(), "1,1,3,1");
+            builder.addLabel(I18nSupport.translate("actions.exportAsImage.width") + " :", "1,3");
+            builder.add(width, "3,3");
+            builder.addLabel(I18nSupport.translate("actions.exportAsImage.height") + " :", "1,5");
+            builder.add(height, "3,5");
+            builder.addLabel(I18nSupport.translate("actions.exportAsImage.resolution") + " :", "1,7");
+            builder.add(resolution, "3,7");
+            builder.add(new JButton(new AbstractAction() {
+
+                {
+                    putValue(NAME, I18nSupport.translate("actions.exportAsImage.export"));
+                }
+
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    validateForm();
+                }
+            }), "1,9,3,1");
+            builder.build();
+        }
+
+        @Override
+        protected void validateForm() {
+            exporter.setWidth((Integer) width.getValue());
+            exporter.setHeight((Integer) height.getValue());
+            exporter.setResolution((Integer) resolution.getValue());
+            setVisible(false);
+            export(file, format);
+        }
+
+        private final FormLayout formLayout = new FormLayout("p,4dlu,p:grow", "p,4dlu,p,2dlu,p,2dlu,p,6dlu,p");
+
+        @Override
+        protected FormLayout getFormLayout() {
+            return formLayout;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.actions;
+
+import org.cds06.speleograph.SpeleoGraphApp;
+import org.cds06.speleograph.data.fileio.FileImporter;
+import org.jetbrains.annotations.NonNls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Import files dropped on a component.
+ * <p>The format of each file is guessed and files are read in parallel by a {@link FileImportWorker}.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class FileDropHandler extends TransferHandler {
+
+    private static final long serialVersionUID = 1L;
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(FileDropHandler.class);
+
+    private final Component parent;
+
+    /**
+     * Create the handler.
+     *
+     * @param parent The parent component for dialogs
+     */
+    public FileDropHandler(Component parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public boolean canImport(TransferSupport support) {
+        return support.isDrop() && support.isDataFlavorSupported(DataFlavor.javaFileListFlavor);
+    }
+
+    @Override
+    public boolean importData(TransferSupport support) {
+        if (!canImport(support)) return false;
+        final List<File> files = new ArrayList<>();
+        try {
+            for (Object o : (List<?>) support.getTransferable().getTransferData(DataFlavor.javaFileListFlavor)) {
+                if (o instanceof File && ((File) o).isFile()) files.add((File) o);
+            }
+        } catch (UnsupportedFlavorException | IOException e) {
+            log.error("Can not get dropped files", e);
+            return false;
+        }
+        if (files.isEmpty()) return false;
+        SpeleoGraphApp.setWorkingDirectory(files.get(0).getAbsoluteFile().getParentFile());
+        new FileImportWorker(parent, files, new FileImporter(null, SpeleoGraphApp.getInstance().getReadOptions())).start();
+        return true;
+    }
+}
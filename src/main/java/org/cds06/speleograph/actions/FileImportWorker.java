@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.actions;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.fileio.FileImporter;
+import org.cds06.speleograph.data.fileio.FileReadingError;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Read files in background with a {@link FileImporter}.
+ * <p>A progress dialog shows the read files. When all of them are read, their series are added to the application at
+ * once and errors are shown to the user.</p>
+ * <p>Files which have already been imported and have only grown are {@link FileImporter#resume(java.io.File) resumed}
+ * instead of being read again.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class FileImportWorker extends SwingWorker<List<Series>, File> {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(FileImportWorker.class);
+
+    private final Component parent;
+    private final List<File> files;
+    private final FileImporter importer;
+    private final ProgressMonitor monitor;
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    private int read = 0;
+
+    /**
+     * Create the worker, call {@link #start()} to start it.
+     *
+     * @param parent   The parent component for dialogs
+     * @param files    The files to read
+     * @param importer The importer used to read files
+     */
+    public FileImportWorker(Component parent, @NotNull List<File> files, @NotNull FileImporter importer) {
+        Validate.notNull(files);
+        Validate.notNull(importer);
+        this.parent = parent;
+        this.files = new ArrayList<>(files);
+        this.importer = importer;
+        monitor = new ProgressMonitor(parent, I18nSupport.translate("actions.import.progress"), null, 0,
+                files.size());
+        monitor.setMillisToDecideToPopup(200);
+    }
+
+    /**
+     * Resume the files already imported, then read the other ones in background.
+     * <p>Must be called on the Swing thread.</p>
+     */
+    public void start() {
+        final Iterator<File> iterator = files.iterator();
+        while (iterator.hasNext()) {
+            final File file = iterator.next();
+            try {
+                if (FileImporter.resume(file)) iterator.remove();
+            } catch (FileReadingError e) {
+                log.error("Can not read new data of " + file, e);
+                errors.add(file.getName() + " : " + e.getLocalizedMessage());
+                iterator.remove();
+            }
+        }
+        monitor.setMaximum(files.size());
+        execute();
+    }
+
+    @Override
+    protected List<Series> doInBackground() throws Exception {
+        return importer.read(files, new FileImporter.Listener() {
+            @Override
+            public void fileRead(File file, List<Series> series, Exception error) {
+                if (error != null) errors.add(file.getName() + " : " + error.getLocalizedMessage());
+                publish(file);
+            }
+        });
+    }
+
+    @Override
+    protected void process(List<File> chunks) {
+        read += chunks.size();
+        monitor.setProgress(read);
+        monitor.setNote(chunks.get(chunks.size() - 1).getName());
+        if (monitor.isCanceled()) cancel(true);
+    }
+
+    @Override
+    protected void done() {
+        monitor.close();
+        if (isCancelled()) return;
+        try {
+            Series.register(get());
+        } catch (InterruptedException | ExecutionException e) {
+            log.error("Error while reading files", e);
+            errors.add(e.getLocalizedMessage());
+        }
+        if (!errors.isEmpty()) {
+            JOptionPane.showMessageDialog(parent,
+                    I18nSupport.translate("actions.import.errors", StringUtils.join(errors, '\n')),
+                    I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
@@ -22,14 +22,13 @@
 
 package org.cds06.speleograph.actions;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.OrFileFilter;
 import org.cds06.speleograph.I18nSupport;
 import org.cds06.speleograph.SpeleoGraphApp;
 import org.cds06.speleograph.data.fileio.DataFileReader;
-import org.cds06.speleograph.data.fileio.FileReadingError;
+import org.cds06.speleograph.data.fileio.FileImporter;
 import org.jetbrains.annotations.NonNls;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +38,8 @@ import javax.swing.filechooser.FileFilter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This file is created by PhilippeGeek.
@@ -100,6 +101,7 @@ public class OpenAction extends AbstractAction {
                 return OpenAction.this.getDescription();
             }
         });
+        chooser.setMultiSelectionEnabled(true);
     }
 
     private String getDescription() {
@@ -112,27 +114,29 @@ public class OpenAction extends AbstractAction {
     @Override
     public void actionPerformed(ActionEvent e) {
         chooser.setCurrentDirectory(SpeleoGraphApp.getWorkingDirectory());
-        File file = null;
+        final List<File> files = new ArrayList<>();
         if (SpeleoGraphApp.isMac()) {
-            do {
-                if (file != null && !fileFilter.accept(file)) {
+            FileDialog chooserMac = new FileDialog(SpeleoGraphApp.getInstance());
+            chooserMac.setDirectory(SpeleoGraphApp.getWorkingDirectory().getAbsolutePath());
+            chooserMac.setMultipleMode(true);
+            chooserMac.setVisible(true);
+            for (File file : chooserMac.getFiles()) {
+                if (file.isDirectory()) continue;
+                if (!fileFilter.accept(file)) {
                     JOptionPane.showMessageDialog(SpeleoGraphApp.getInstance(),
                             I18nSupport.translate("actions.open.formaterror"),
                             I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+                    return;
                 }
-                FileDialog chooserMac = new FileDialog(SpeleoGraphApp.getInstance());
-                chooserMac.setDirectory(SpeleoGraphApp.getWorkingDirectory().getAbsolutePath());
-                chooserMac.setVisible(true);
-                if (chooserMac.getFile() == null) return;
-                file = FileUtils.getFile(chooserMac.getDirectory(), chooserMac.getFile());
-                if (file.isDirectory()) return;
-            } while (!fileFilter.accept(file));
+                files.add(file);
+            }
         } else {
             int result = chooser.showOpenDialog(parent);
             switch (result) {
                 case JFileChooser.APPROVE_OPTION:
-                    file = chooser.getSelectedFile();
-                    if (file.isDirectory()) return;
+                    for (File file : chooser.getSelectedFiles()) {
+                        if (!file.isDirectory()) files.add(file);
+                    }
                     break;
                 case JFileChooser.CANCEL_OPTION:
                 default:
@@ -140,11 +144,9 @@ public class OpenAction extends AbstractAction {
                     return;
             }
         }
-        try {
-            SpeleoGraphApp.setWorkingDirectory(file.getParentFile());
-            reader.readFile(file);
-        } catch (FileReadingError e1) {
-            log.error("Error when try to read a SpeleoGraph File", e1);
-        }
+        if (files.isEmpty()) return;
+        SpeleoGraphApp.setWorkingDirectory(files.get(0).getAbsoluteFile().getParentFile());
+        new FileImportWorker(parent, files, new FileImporter(reader.getClass(),
+                SpeleoGraphApp.getInstance().getReadOptions())).start();
     }
 }
\ No newline at end of file
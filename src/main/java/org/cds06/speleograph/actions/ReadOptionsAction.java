@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.actions;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.data.Type;
+import org.cds06.speleograph.data.fileio.ReadOptions;
+import org.cds06.speleograph.utils.DateSelector;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Choose what is read when files are opened.
+ *
+ * @author Philippe VIENNE
+ * @see ReadOptions
+ * @since 2.0
+ */
+public class ReadOptionsAction extends AbstractAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JComponent parent;
+
+    private final ReadOptions options;
+
+    /**
+     * Construct the action.
+     *
+     * @param parent  The parent component used to display dialogs.
+     * @param options The options to edit
+     */
+    public ReadOptionsAction(JComponent parent, ReadOptions options) {
+        super(I18nSupport.translate("actions.readOptions"));
+        Validate.notNull(parent);
+        Validate.notNull(options);
+        this.parent = parent;
+        this.options = options;
+    }
+
+    /**
+     * Invoked when an action occurs.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        final JPanel panel = new JPanel(new GridLayout(0, 1));
+        final JCheckBox all = new JCheckBox(I18nSupport.translate("actions.readOptions.allTypes"));
+        panel.add(all);
+        final List<Type> types = Type.getInstances();
+        final List<JCheckBox> boxes = new ArrayList<>(types.size());
+        final Set<Type> selected = options.getTypes();
+        for (Type type : types) {
+            final JCheckBox box = new JCheckBox(type.toString(), selected == null || selected.contains(type));
+            box.setEnabled(selected != null);
+            boxes.add(box);
+            panel.add(box);
+        }
+        all.setSelected(selected == null);
+        all.addActionListener(new java.awt.event.ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                for (JCheckBox box : boxes) box.setEnabled(!all.isSelected());
+            }
+        });
+        final JPanel datePanel = new JPanel(new GridLayout(0, 1));
+        final JCheckBox range = new JCheckBox(I18nSupport.translate("actions.readOptions.dateRange"),
+                options.hasDateRange());
+        final DateSelector start = new DateSelector(), end = new DateSelector();
+        final Date now = new Date();
+        start.setDate(options.getStart() == null ? now : options.getStart());
+        end.setDate(options.getEnd() == null ? now : options.getEnd());
+        final JCheckBox sorted = new JCheckBox(I18nSupport.translate("actions.readOptions.sorted"),
+                options.isSorted() || !options.hasDateRange());
+        datePanel.add(range);
+        datePanel.add(start);
+        datePanel.add(end);
+        datePanel.add(sorted);
+        final java.awt.event.ActionListener rangeListener = new java.awt.event.ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                sorted.setEnabled(range.isSelected());
+            }
+        };
+        range.addActionListener(rangeListener);
+        rangeListener.actionPerformed(null);
+        final JPanel content = new JPanel(new BorderLayout());
+        content.add(panel, BorderLayout.CENTER);
+        content.add(datePanel, BorderLayout.SOUTH);
+        final int result = JOptionPane.showConfirmDialog(parent, content,
+                I18nSupport.translate("actions.readOptions.title"), JOptionPane.OK_CANCEL_OPTION);
+        if (result != JOptionPane.OK_OPTION) return;
+        if (range.isSelected()) {
+            options.setDateRange(start.getDate(), end.getDate());
+            options.setSorted(sorted.isSelected());
+        } else {
+            options.setDateRange(null, null);
+        }
+        if (all.isSelected()) {
+            options.setTypes(null);
+            return;
+        }
+        final List<Type> chosen = new ArrayList<>();
+        for (int i = 0; i < types.size(); i++) {
+            if (boxes.get(i).isSelected()) chosen.add(types.get(i));
+        }
+        options.setTypes(chosen);
+    }
+}
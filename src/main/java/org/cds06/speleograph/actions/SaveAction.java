@@ -25,7 +25,11 @@ package org.cds06.speleograph.actions;
 import org.apache.commons.lang3.Validate;
 import org.cds06.speleograph.I18nSupport;
 import org.cds06.speleograph.SpeleoGraphApp;
-import org.cds06.speleograph.data.fileio.SpeleoFileWriter;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.fileio.SpeleoFileJournal;
+import org.jetbrains.annotations.NonNls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
@@ -38,6 +42,9 @@ import java.io.IOException;
  */
 public class SaveAction extends AbstractAction {
 
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(SaveAction.class);
+
 
     /**
      * File Chooser for save location.
@@ -46,8 +53,6 @@ public class SaveAction extends AbstractAction {
 
     private JComponent parent = null;
 
-    private SpeleoFileWriter writer = new SpeleoFileWriter();
-
     /**
      * Construct the import action.
      *
@@ -79,9 +84,13 @@ public class SaveAction extends AbstractAction {
         }
         try {
             SpeleoGraphApp.setWorkingDirectory(file.getParentFile());
-            writer.save(file);
+            // After the first save of a file, only changes are written in its journal
+            SpeleoFileJournal.forProject(file).save(Series.getInstances());
+            if (SpeleoGraphApp.getInstance() != null) SpeleoGraphApp.getInstance().getAutoSave().discard();
         } catch (IOException e1) {
-            //log.error("Error when try to read a SpeleoGraph File", e1);
+            log.error("Error when try to write a SpeleoGraph File", e1);
+            JOptionPane.showMessageDialog(parent, I18nSupport.translate("actions.save.error", file.getName()),
+                    I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
         }
     }
 }
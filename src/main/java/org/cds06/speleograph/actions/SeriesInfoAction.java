@@ -5,7 +5,9 @@ import com.jgoodies.forms.builder.PanelBuilder;
 import com.jgoodies.forms.layout.FormLayout;
 import org.cds06.speleograph.I18nSupport;
 import org.cds06.speleograph.SpeleoGraphApp;
+import org.cds06.speleograph.data.SamplingIndex;
 import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.SeriesStatistics;
 import org.cds06.speleograph.utils.FormDialog;
 import org.jetbrains.annotations.NonNls;
 import org.slf4j.Logger;
@@ -15,6 +17,8 @@ import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.text.DateFormat;
+import java.util.Date;
 
 /**
  * Created by Gabriel Augendre.
@@ -30,6 +34,11 @@ public class SeriesInfoAction extends AbstractAction {
     @NonNls
     private static Logger log = LoggerFactory.getLogger(SpeleoGraphApp.class);
 
+    /**
+     * Maximal number of gaps listed in the dialog.
+     */
+    private static final int MAX_GAPS = 10;
+
     public SeriesInfoAction(Series series) {
         super();
         putValue(NAME, I18nSupport.translate("actions.info"));
@@ -42,8 +51,18 @@ public class SeriesInfoAction extends AbstractAction {
         dialog.setVisible(true);
     }
 
+    /**
+     * Write a duration with its days, hours and minutes (or seconds for short durations).
+     */
+    private static String formatDuration(long millis) {
+        final long seconds = millis / 1000, minutes = seconds / 60, hours = minutes / 60, days = hours / 24;
+        if (minutes == 0) return seconds + " s"; // NON-NLS
+        String text = (days > 0 ? days + " j " : "") + (hours > 0 ? hours % 24 + " h " : ""); // NON-NLS
+        return text + minutes % 60 + " min"; // NON-NLS
+    }
+
     private class PromptDialog extends FormDialog {
-        private final FormLayout layout = new FormLayout("p","p,p,p,p,p");
+        private final FormLayout layout = new FormLayout("p","p,p,p,p,p,p,p");
         private int clickCount = 0;
 
         public PromptDialog() {
@@ -91,6 +110,29 @@ public class SeriesInfoAction extends AbstractAction {
             builder.addLabel("<HTML><h3 style=\"margin-bottom:0;\">" + I18nSupport.translate("actions.info.dateRange") + "</h3><ul style=\"margin-top:0;\"><li>" +
                     series.getRange().toString() + "</li></ul></HTML>");
 
+            builder.nextLine();
+            final SeriesStatistics statistics = series.getStatistics();
+            final SamplingIndex index = series.getSamplingIndex();
+            builder.addLabel("<HTML><h3 style=\"margin-bottom:0;\">" + I18nSupport.translate("actions.info.statistics") + "</h3><ul style=\"margin-top:0;\"><li>" +
+                    I18nSupport.translate("actions.info.statistics.values", statistics.getCount(),
+                            statistics.getMean(), statistics.getStandardDeviation()) + "</li><li>" +
+                    I18nSupport.translate("actions.info.statistics.intervals",
+                            index.getDominantInterval() / 1000.0, index.getGapCount()) +
+                    "</li></ul></HTML>");
+
+            builder.nextLine();
+            String gaps = "<HTML><h3 style=\"margin-bottom:0;\">" + I18nSupport.translate("actions.info.gaps") + "</h3><ul style=\"margin-top:0;\">";
+            final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+            for (int g = 0; g < Math.min(MAX_GAPS, index.getGapCount()); g++) {
+                gaps += "<li>" + I18nSupport.translate("actions.info.gaps.gap",
+                        dateFormat.format(new Date(index.getGapStart(g))), formatDuration(index.getGapDuration(g))) + "</li>";
+            }
+            if (index.getGapCount() == 0) gaps += "<li>" + I18nSupport.translate("actions.info.gaps.none") + "</li>";
+            if (index.getGapCount() > MAX_GAPS) {
+                gaps += "<li>" + I18nSupport.translate("actions.info.gaps.more", index.getGapCount() - MAX_GAPS) + "</li>";
+            }
+            builder.addLabel(gaps + "</ul></HTML>");
+
             builder.nextLine();
             String seriesStringBlack = "<HTML><h3 style=\"margin-bottom:0;\">" +
                     I18nSupport.translate("actions.info.sameFileSeries") +
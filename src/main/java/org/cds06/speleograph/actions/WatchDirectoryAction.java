@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.actions;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.SpeleoGraphApp;
+import org.cds06.speleograph.data.fileio.DirectoryWatcher;
+import org.jetbrains.annotations.NonNls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Start or stop watching a directory where data files are downloaded.
+ *
+ * @author Philippe VIENNE
+ * @see DirectoryWatcher
+ * @since 2.0
+ */
+public class WatchDirectoryAction extends AbstractAction {
+
+    private static final long serialVersionUID = 1L;
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(WatchDirectoryAction.class);
+
+    private final JComponent parent;
+
+    private final JFileChooser chooser = new JFileChooser();
+
+    /**
+     * The current watcher, null if no directory is watched.
+     */
+    private DirectoryWatcher watcher;
+
+    /**
+     * Construct the action.
+     *
+     * @param parent The parent component used to display dialogs.
+     */
+    public WatchDirectoryAction(JComponent parent) {
+        super(I18nSupport.translate("actions.watch"));
+        Validate.notNull(parent);
+        this.parent = parent;
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+    }
+
+    /**
+     * Invoked when an action occurs.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e1) {
+                log.error("Can not stop watching " + watcher.getDirectory(), e1);
+            }
+            watcher = null;
+            putValue(NAME, I18nSupport.translate("actions.watch"));
+            return;
+        }
+        chooser.setCurrentDirectory(SpeleoGraphApp.getWorkingDirectory());
+        if (chooser.showOpenDialog(parent) != JFileChooser.APPROVE_OPTION) return;
+        final File directory = chooser.getSelectedFile();
+        try {
+            watcher = new DirectoryWatcher(directory);
+        } catch (IOException e1) {
+            log.error("Can not watch " + directory, e1);
+            JOptionPane.showMessageDialog(parent,
+                    I18nSupport.translate("actions.watch.error", directory.getName()),
+                    I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        SpeleoGraphApp.setWorkingDirectory(directory);
+        watcher.start();
+        putValue(NAME, I18nSupport.translate("actions.watch.stop", directory.getName()));
+    }
+}
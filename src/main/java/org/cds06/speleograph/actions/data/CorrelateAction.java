@@ -4,8 +4,9 @@ import com.jgoodies.forms.builder.PanelBuilder;
 import com.jgoodies.forms.layout.FormLayout;
 import org.cds06.speleograph.I18nSupport;
 import org.cds06.speleograph.SpeleoGraphApp;
-import org.cds06.speleograph.data.Item;
 import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.store.Kernels;
+import org.cds06.speleograph.data.store.StoreBuilder;
 import org.cds06.speleograph.utils.DateSelector;
 import org.cds06.speleograph.utils.FormDialog;
 import org.jetbrains.annotations.NonNls;
@@ -16,8 +17,7 @@ import org.slf4j.LoggerFactory;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.util.ArrayList;
-import java.util.ListIterator;
+import java.io.IOException;
 
 /**
  * Created by Gabriel Augendre.
@@ -28,16 +28,9 @@ public class CorrelateAction extends AbstractAction {
 
     private final Series series;
 
-    /**
-     * A value in minute.
-     * We consider two points of data taken at the same moment if they are spaced-out of at maximum this value.
-     */
-    private static final int TEMPORAL_RANGE_ACCEPTED = 3;
-
     /**
      * Logger for errors and info.
      */
-    @SuppressWarnings("UnusedDeclaration")
     @NonNls
     private static Logger log = LoggerFactory.getLogger(SpeleoGraphApp.class);
 
@@ -110,34 +103,56 @@ public class CorrelateAction extends AbstractAction {
 
         @Override
         protected void validateForm() {
-            ArrayList<Item> itemsStandards = ((Series) seriesList.getSelectedItem()).extractSubSerie(startDateSelector.getDate(), endDateSelector.getDate());
-            ArrayList<Item> itemsToCorrelate = series.extractSubSerie(startDateSelector.getDate(), endDateSelector.getDate());
-
-            double difference = 0;
-            int itemCount = 0;
-
-            for (Item item : itemsStandards) {
-                ListIterator<Item> iter = itemsToCorrelate.listIterator();
-                while (iter.hasNext()) {
-                    Item itemCor = iter.next();
-                    // Divided by 60000 to transform milliseconds into minutes.
-                    if ((item.getDate().getTime() - itemCor.getDate().getTime())/60000 > TEMPORAL_RANGE_ACCEPTED) {
-                        iter.remove();
-                    } else if ((itemCor.getDate().getTime() - item.getDate().getTime())/60000 > TEMPORAL_RANGE_ACCEPTED) {
-                        break;
+            final Series standard = (Series) seriesList.getSelectedItem();
+            final long start = startDateSelector.getDate().getTime(), end = endDateSelector.getDate().getTime();
+
+            // Items of both series in the range
+            final int standardSize = standard.getItemCount(), size = series.getItemCount();
+            final long[] standardTimes = new long[standardSize], times = new long[size];
+            final double[] standardValues = new double[standardSize], values = new double[size];
+            standard.readItems(0, standardSize, standardTimes, standardValues, null, null);
+            series.readItems(0, size, times, values, null, null);
+            final int standardCount = Kernels.select(standardTimes, standardValues, null, null, 0, standardSize,
+                    start, end);
+            final int count = Kernels.select(times, values, null, null, 0, size, start, end);
+
+            // Mean of the differences between the items taken at the same moment
+            final int[] standardIndexes = new int[count], indexes = new int[count];
+            final int pairs = Kernels.match(standardTimes, standardCount, times, count, Kernels.PAIRING_DISTANCE,
+                    standardIndexes, indexes);
+            final double[] differences = new double[pairs], paired = new double[pairs];
+            Kernels.gather(values, indexes, differences, pairs);
+            Kernels.gather(standardValues, standardIndexes, paired, pairs);
+            Kernels.subtract(differences, paired, differences, 0, pairs);
+            final double differenceMoyenne = Kernels.sum(differences, 0, pairs) / pairs;
+
+            final boolean minMax = series.isMinMax();
+            final long[] chunkTimes = new long[Kernels.CHUNK_SIZE];
+            final double[] chunkValues = minMax ? null : new double[Kernels.CHUNK_SIZE];
+            final double[] low = minMax ? new double[Kernels.CHUNK_SIZE] : null;
+            final double[] high = minMax ? new double[Kernels.CHUNK_SIZE] : null;
+            StoreBuilder builder = null;
+            try {
+                builder = new StoreBuilder(minMax, size);
+                for (int first = 0; first < size; first += Kernels.CHUNK_SIZE) {
+                    final int chunk = Math.min(Kernels.CHUNK_SIZE, size - first);
+                    series.readItems(first, chunk, chunkTimes, chunkValues, low, high);
+                    if (minMax) {
+                        Kernels.add(low, 0, chunk, -differenceMoyenne);
+                        Kernels.add(high, 0, chunk, -differenceMoyenne);
                     } else {
-                        difference += (itemCor.getValue() - item.getValue());
-                        itemCount++;
-                        iter.remove();
+                        Kernels.add(chunkValues, 0, chunk, -differenceMoyenne);
                     }
+                    builder.append(chunkTimes, chunkValues, low, high, chunk);
                 }
+            } catch (IOException e) {
+                if (builder != null) builder.discard();
+                log.error("Can not correlate " + series.getName(), e);
+                JOptionPane.showMessageDialog(this, I18nSupport.translate("actions.data.error"),
+                        I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+                return;
             }
-            final double differenceMoyenne = difference/itemCount;
-            ArrayList<Item> newItems = new ArrayList<>(series.getItems().size());
-            for (Item item : series.getItems()) {
-                newItems.add(new Item (item.getSeries(), item.getDate(), item.getValue() - differenceMoyenne));
-            }
-            series.setItems(newItems, (String) getValue(NAME));
+            series.setItems(builder.build(), (String) getValue(NAME));
             InfoDialog iD = new InfoDialog(differenceMoyenne);
             iD.setVisible(true);
             setVisible(false);
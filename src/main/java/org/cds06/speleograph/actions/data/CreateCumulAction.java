@@ -4,8 +4,9 @@ import com.jgoodies.forms.builder.PanelBuilder;
 import com.jgoodies.forms.layout.FormLayout;
 import org.cds06.speleograph.I18nSupport;
 import org.cds06.speleograph.SpeleoGraphApp;
-import org.cds06.speleograph.data.Item;
 import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.store.Kernels;
+import org.cds06.speleograph.data.store.StoreBuilder;
 import org.cds06.speleograph.utils.DateSelector;
 import org.cds06.speleograph.utils.FormDialog;
 import org.jetbrains.annotations.NonNls;
@@ -16,7 +17,7 @@ import org.slf4j.LoggerFactory;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.util.ArrayList;
+import java.io.IOException;
 
 /**
  * Created by Gabriel Augendre.
@@ -30,7 +31,6 @@ public class CreateCumulAction extends AbstractAction {
     /**
      * Logger for errors and info.
      */
-    @SuppressWarnings("UnusedDeclaration")
     @NonNls
     private static Logger log = LoggerFactory.getLogger(SpeleoGraphApp.class);
 
@@ -100,17 +100,30 @@ public class CreateCumulAction extends AbstractAction {
             }
             final Series newSeries = new Series(series.getOrigin(), type);
 
-            ArrayList<Item> items = new ArrayList<>(series.getItemCount());
-
-            for (int i = 0; i < series.getItemCount(); i++) {
-                Item item = series.getItems().get(i);
-                double value = item.getValue();
-                if (i > 0)
-                    value += items.get(i-1).getValue();
-                items.add(new Item(newSeries, item.getDate(), value));
+            // The cumul keeps the dates of the series: its sampling index has the same gaps, where it is not drawn.
+            final int size = series.getItemCount();
+            final long[] times = new long[Kernels.CHUNK_SIZE];
+            final double[] values = new double[Kernels.CHUNK_SIZE];
+            double sum = 0;
+            StoreBuilder builder = null;
+            try {
+                builder = new StoreBuilder(false, size);
+                for (int start = 0; start < size; start += Kernels.CHUNK_SIZE) {
+                    final int count = Math.min(Kernels.CHUNK_SIZE, size - start);
+                    series.readItems(start, count, times, values, null, null);
+                    sum = Kernels.prefixSum(values, 0, count, sum);
+                    builder.append(times, values, null, null, count);
+                }
+            } catch (IOException e) {
+                if (builder != null) builder.discard();
+                newSeries.delete();
+                log.error("Can not create the cumul of " + series.getName(), e);
+                JOptionPane.showMessageDialog(this, I18nSupport.translate("actions.data.error"),
+                        I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+                return;
             }
 
-            newSeries.setItems(items, (String) getValue(NAME));
+            newSeries.setItems(builder.build(), (String) getValue(NAME));
 
 
             setVisible(false);
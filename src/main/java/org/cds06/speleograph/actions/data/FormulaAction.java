@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.actions.data;
+
+import com.jgoodies.forms.builder.PanelBuilder;
+import com.jgoodies.forms.layout.FormLayout;
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.expression.Formula;
+import org.cds06.speleograph.data.expression.FormulaError;
+import org.cds06.speleograph.utils.FormDialog;
+import org.jetbrains.annotations.NonNls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Create a series computed by a formula from other series, see {@link Formula}.
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class FormulaAction extends AbstractAction {
+
+    private static final long serialVersionUID = 1L;
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(FormulaAction.class);
+
+    private final Series series;
+
+    /**
+     * Create the action.
+     *
+     * @param series The series written in the formula when the dialog opens
+     */
+    public FormulaAction(Series series) {
+        super(I18nSupport.translate("actions.formula"));
+        this.series = series;
+    }
+
+    /**
+     * Invoked when an action occurs.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        PromptDialog dialog = new PromptDialog();
+        dialog.setVisible(true);
+    }
+
+    private class PromptDialog extends FormDialog {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, Series> variables = Formula.getVariables(new ArrayList<>(Series.getInstances()));
+        private final JTextField formula = new JTextField(30);
+        private final JTextField name = new JTextField();
+        private final JTextField typeName = new JTextField(series.getType().getName());
+        private final JTextField unit = new JTextField(series.getType().getUnit());
+
+        private final FormLayout formLayout = new FormLayout("p:grow,4dlu,p:grow",
+                "p,p,4dlu,p,p:grow,4dlu,p,p,4dlu,p,p,6dlu,p");
+
+        private PromptDialog() {
+            super();
+            for (Map.Entry<String, Series> entry : variables.entrySet()) {
+                if (entry.getValue() == series) formula.setText(entry.getKey());
+            }
+            construct();
+            setTitle(I18nSupport.translate("actions.formula"));
+        }
+
+        @Override
+        protected void setup() {
+            PanelBuilder builder = new PanelBuilder(formLayout, getPanel());
+
+            builder.addLabel(I18nSupport.translate("actions.formula.formula") + " :", "1,1,3,1");
+            builder.add(formula, "1,2,3,1");
+
+            final StringBuilder help = new StringBuilder();
+            for (Map.Entry<String, Series> entry : variables.entrySet()) {
+                help.append(entry.getKey()).append(" : ").append(entry.getValue().getName()).append('\n');
+            }
+            final JTextArea identifiers = new JTextArea(help.toString().trim(), Math.min(8, variables.size()), 30);
+            identifiers.setEditable(false);
+            builder.addLabel(I18nSupport.translate("actions.formula.series") + " :", "1,4,3,1");
+            builder.add(new JScrollPane(identifiers), "1,5,3,1");
+
+            builder.addLabel(I18nSupport.translate("actions.formula.type") + " :", "1,7");
+            builder.add(typeName, "1,8");
+            builder.addLabel(I18nSupport.translate("actions.formula.unit") + " :", "3,7");
+            builder.add(unit, "3,8");
+
+            builder.addLabel(I18nSupport.translate("actions.sample.serieName") + " :", "1,10,3,1");
+            builder.add(name, "1,11,3,1");
+
+            builder.add(new JButton(new AbstractAction() {
+
+                {
+                    putValue(NAME, I18nSupport.translate("ok"));
+                }
+
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    validateForm();
+                }
+            }), "1,13,3,1");
+
+            builder.build();
+            final Dimension dim = getPanel().getPreferredSize();
+            getPanel().setPreferredSize(new Dimension(dim.width + 50, dim.height));
+        }
+
+        @Override
+        protected void validateForm() {
+            final Formula parsed;
+            try {
+                parsed = Formula.parse(formula.getText(), variables);
+            } catch (FormulaError e) {
+                formula.requestFocusInWindow();
+                formula.setCaretPosition(Math.min(e.getPosition(), formula.getText().length()));
+                JOptionPane.showMessageDialog(this, e.getMessage(), I18nSupport.translate("error"),
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            final String text = typeName.getText().trim(), unitText = unit.getText().trim();
+            final org.cds06.speleograph.data.Type type = org.cds06.speleograph.data.Type.getType(
+                    text.isEmpty() ? I18nSupport.translate("actions.formula") : text,
+                    unitText.isEmpty() ? null : unitText);
+            try {
+                final Series newSeries = parsed.createSeries(type);
+                newSeries.setName(name.getText().isEmpty() ? parsed.toString() : name.getText());
+                newSeries.setShow(true);
+            } catch (IOException e) {
+                log.error("Can not compute the formula " + parsed, e);
+                JOptionPane.showMessageDialog(this, I18nSupport.translate("actions.formula.error"),
+                        I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            setVisible(false);
+        }
+
+        @Override
+        protected FormLayout getFormLayout() {
+            return formLayout;
+        }
+    }
+}
@@ -5,8 +5,9 @@ import com.jgoodies.forms.layout.CellConstraints;
 import com.jgoodies.forms.layout.FormLayout;
 import org.cds06.speleograph.I18nSupport;
 import org.cds06.speleograph.SpeleoGraphApp;
-import org.cds06.speleograph.data.Item;
 import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.store.Kernels;
+import org.cds06.speleograph.data.store.StoreBuilder;
 import org.cds06.speleograph.utils.FormDialog;
 import org.jetbrains.annotations.NonNls;
 import org.slf4j.Logger;
@@ -15,9 +16,7 @@ import org.slf4j.LoggerFactory;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.io.IOException;
 
 /**
  * Created by Gabriel Augendre.
@@ -89,8 +88,6 @@ public class HourSettingAction extends AbstractAction {
 
         @Override
         protected void validateForm() {
-            List<Item> items = series.getItems();
-
             int modifier = 1000;
             if (offsetUnit.getSelectedItem().equals(HOUR))
                 modifier *= 3600;
@@ -105,18 +102,30 @@ public class HourSettingAction extends AbstractAction {
                 log.error(offsetValue.getText() + " " + I18nSupport.translate("notInt") + ".");
             }
 
-            ArrayList<Item> newItems = new ArrayList<>(items.size());
-
-            if (!series.isMinMax()) {
-                for (Item i : items) {
-                    newItems.add(new Item(series, new Date(i.getDate().getTime() + value * modifier), i.getValue()));
-                }
-            } else {
-                for (Item i : items) {
-                    newItems.add(new Item(series, new Date(i.getDate().getTime() + value * modifier), i.getLow(), i.getHigh()));
+            final long offset = (long) value * modifier;
+            final boolean minMax = series.isMinMax();
+            final int size = series.getItemCount();
+            final long[] times = new long[Kernels.CHUNK_SIZE];
+            final double[] values = minMax ? null : new double[Kernels.CHUNK_SIZE];
+            final double[] low = minMax ? new double[Kernels.CHUNK_SIZE] : null;
+            final double[] high = minMax ? new double[Kernels.CHUNK_SIZE] : null;
+            StoreBuilder builder = null;
+            try {
+                builder = new StoreBuilder(minMax, size);
+                for (int start = 0; start < size; start += Kernels.CHUNK_SIZE) {
+                    final int count = Math.min(Kernels.CHUNK_SIZE, size - start);
+                    series.readItems(start, count, times, values, low, high);
+                    Kernels.add(times, 0, count, offset);
+                    builder.append(times, values, low, high, count);
                 }
+            } catch (IOException e) {
+                if (builder != null) builder.discard();
+                log.error("Can not shift the dates of " + series.getName(), e);
+                JOptionPane.showMessageDialog(this, I18nSupport.translate("actions.data.error"),
+                        I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+                return;
             }
-            series.setItems(newItems, (String) getValue(NAME));
+            series.setItems(builder.build(), (String) getValue(NAME));
             setVisible(false);
         }
 
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.actions.data;
+
+import com.jgoodies.forms.builder.PanelBuilder;
+import com.jgoodies.forms.layout.FormLayout;
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.data.RollingWindow;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.utils.FormDialog;
+import org.jetbrains.annotations.NonNls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.io.IOException;
+
+/**
+ * Create a series with a statistic of a series on a sliding window (mean, median, minimum ...).
+ *
+ * @author Philippe VIENNE
+ * @see RollingWindow
+ * @since 2.0
+ */
+public class RollingAction extends AbstractAction {
+
+    private static final long serialVersionUID = 1L;
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(RollingAction.class);
+
+    /**
+     * Units of the window length, in seconds.
+     */
+    private static final int[] UNITS = {1, 60, 60 * 60, 60 * 60 * 24};
+
+    private final Series series;
+
+    public RollingAction(Series series) {
+        super(I18nSupport.translate("actions.rolling"));
+        this.series = series;
+    }
+
+    /**
+     * Invoked when an action occurs.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        PromptDialog dialog = new PromptDialog();
+        dialog.setVisible(true);
+    }
+
+    private class PromptDialog extends FormDialog {
+
+        private static final long serialVersionUID = 1L;
+
+        private final JTextField name = new JTextField();
+        private final JComboBox<RollingWindow.Operator> operatorBox = new JComboBox<>(RollingWindow.Operator.values());
+        private final JSpinner spinner = new JSpinner(new SpinnerNumberModel(1.0, 0.1, 3600, 0.1));
+        private final JComboBox<String> unitBox = new JComboBox<>(new String[]{
+                I18nSupport.translate("actions.sample.second"),
+                I18nSupport.translate("actions.sample.minute"),
+                I18nSupport.translate("actions.sample.hour"),
+                I18nSupport.translate("actions.sample.day")
+        });
+
+        private final FormLayout formLayout = new FormLayout("p:grow,4dlu,p", "p,p,p,p,p,p,4dlu:grow,p");
+
+        private PromptDialog() {
+            super();
+            construct();
+            setTitle(I18nSupport.translate("actions.rolling"));
+        }
+
+        @Override
+        protected void setup() {
+            unitBox.setSelectedIndex(2);
+
+            PanelBuilder builder = new PanelBuilder(formLayout, getPanel());
+
+            builder.addLabel(I18nSupport.translate("actions.rolling.operator") + " :", "1,1,3,1");
+            builder.add(operatorBox, "1,2,3,1");
+
+            builder.addLabel(I18nSupport.translate("actions.rolling.length") + " :", "1,3,3,1");
+            builder.add(spinner, "1,4");
+            builder.add(unitBox, "3,4");
+
+            builder.addLabel(I18nSupport.translate("actions.sample.serieName") + " :", "1,5,3,1");
+            builder.add(name, "1,6,3,1");
+
+            builder.add(new JButton(new AbstractAction() {
+
+                {
+                    putValue(NAME, I18nSupport.translate("ok"));
+                }
+
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    validateForm();
+                }
+            }), "1,8,3,1");
+
+            builder.build();
+        }
+
+        @Override
+        protected void validateForm() {
+            final RollingWindow.Operator operator = (RollingWindow.Operator) operatorBox.getSelectedItem();
+            final double length = (Double) spinner.getValue();
+            final long millis = (long) (length * UNITS[unitBox.getSelectedIndex()] * 1000);
+            try {
+                final Series newSeries = series.generateRollingSeries(operator, millis);
+                newSeries.setName(name.getText().isEmpty() ?
+                        I18nSupport.translate("actions.rolling.name", series.getName(), operator,
+                                length, unitBox.getSelectedItem()) :
+                        name.getText());
+                newSeries.setShow(series.isShow());
+            } catch (IOException e) {
+                log.error("Can not create the rolling series of " + series.getName(), e);
+                JOptionPane.showMessageDialog(this, I18nSupport.translate("actions.rolling.error"),
+                        I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            setVisible(false);
+        }
+
+        @Override
+        protected FormLayout getFormLayout() {
+            return formLayout;
+        }
+    }
+}
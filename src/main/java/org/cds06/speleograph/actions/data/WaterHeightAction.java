@@ -4,8 +4,10 @@ import com.jgoodies.forms.builder.PanelBuilder;
 import com.jgoodies.forms.layout.FormLayout;
 import org.cds06.speleograph.I18nSupport;
 import org.cds06.speleograph.SpeleoGraphApp;
-import org.cds06.speleograph.data.Item;
 import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.store.Kernels;
+import org.cds06.speleograph.data.store.SeriesStore;
+import org.cds06.speleograph.data.store.StoreBuilder;
 import org.cds06.speleograph.utils.FormDialog;
 import org.jetbrains.annotations.NonNls;
 import org.jfree.data.time.DateRange;
@@ -15,9 +17,7 @@ import org.slf4j.LoggerFactory;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.ListIterator;
+import java.io.IOException;
 
 /**
  * Created by Gabriel Augendre.
@@ -28,16 +28,9 @@ public class WaterHeightAction extends AbstractAction {
 
     private final Series series;
 
-    /**
-     * A value in minute.
-     * We consider two points of data taken at the same moment if they are spaced-out of at maximum this value.
-     */
-    private static final int TEMPORAL_RANGE_ACCEPTED = 3;
-
     /**
      * Logger for errors and info.
      */
-    @SuppressWarnings("UnusedDeclaration")
     @NonNls
     private static Logger log = LoggerFactory.getLogger(SpeleoGraphApp.class);
 
@@ -103,10 +96,7 @@ public class WaterHeightAction extends AbstractAction {
 
         @Override
         protected void validateForm() {
-            DateRange range = series.getRange();
-            List<Item> itemsStandards = ((Series) seriesList.getSelectedItem()).getItems();
-            List<Item> itemsToCompute = series.extractSubSerie(range.getLowerDate(), range.getUpperDate());
-            ArrayList<Item> newItems = new ArrayList<>(itemsToCompute.size());
+            final Series standard = (Series) seriesList.getSelectedItem();
             final Series newSerie;
             final String seriesUnit = (String) (unitList.getSelectedItem());
 
@@ -139,22 +129,41 @@ public class WaterHeightAction extends AbstractAction {
             else if (unit.equalsIgnoreCase("in"))
                 multiplier /= 2.54;
 
-            for (Item item : itemsStandards) {
-                ListIterator<Item> iter = itemsToCompute.listIterator();
-                while (iter.hasNext()) {
-                    Item itemCom = iter.next();
-                    // Divided by 60000 to transform milliseconds into minutes.
-                    if ((item.getDate().getTime() - itemCom.getDate().getTime())/60000 > TEMPORAL_RANGE_ACCEPTED) {
-                        iter.remove();
-                    } else if ((itemCom.getDate().getTime() - item.getDate().getTime())/60000 > TEMPORAL_RANGE_ACCEPTED) {
-                        break;
-                    } else {
-                        newItems.add(new Item(newSerie, itemCom.getDate(), (itemCom.getValue() - item.getValue()) * multiplier));
-                        iter.remove();
-                    }
-                }
+            // Items of the series strictly inside its range, and items of the reference
+            final DateRange range = series.getRange();
+            final int standardCount = standard.getItemCount(), size = series.getItemCount();
+            final long[] standardTimes = new long[standardCount], times = new long[size];
+            final double[] standardValues = new double[standardCount], values = new double[size];
+            standard.readItems(0, standardCount, standardTimes, standardValues, null, null);
+            series.readItems(0, size, times, values, null, null);
+            final int count = Kernels.select(times, values, null, null, 0, size, range.getLowerDate().getTime(),
+                    range.getUpperDate().getTime());
+
+            // Difference between the items taken at the same moment
+            final int[] standardIndexes = new int[count], indexes = new int[count];
+            final int pairs = Kernels.match(standardTimes, standardCount, times, count, Kernels.PAIRING_DISTANCE,
+                    standardIndexes, indexes);
+            final long[] newTimes = new long[pairs];
+            final double[] newValues = new double[pairs], paired = new double[pairs];
+            Kernels.gather(times, indexes, newTimes, pairs);
+            Kernels.gather(values, indexes, newValues, pairs);
+            Kernels.gather(standardValues, standardIndexes, paired, pairs);
+            Kernels.subtract(newValues, paired, newValues, 0, pairs);
+            Kernels.scale(newValues, 0, pairs, multiplier);
+
+            final SeriesStore store;
+            try {
+                final StoreBuilder builder = new StoreBuilder(false, pairs);
+                builder.append(newTimes, newValues, null, null, pairs);
+                store = builder.build();
+            } catch (IOException e) {
+                newSerie.delete();
+                log.error("Can not compute the water height of " + series.getName(), e);
+                JOptionPane.showMessageDialog(this, I18nSupport.translate("actions.data.error"),
+                        I18nSupport.translate("error"), JOptionPane.ERROR_MESSAGE);
+                return;
             }
-            newSerie.setItems(newItems, (String) getValue(NAME));
+            newSerie.setItems(store, (String) getValue(NAME));
 
             setVisible(false);
         }
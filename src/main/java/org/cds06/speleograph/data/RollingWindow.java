@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.I18nSupport;
+
+/**
+ * Statistic of the values of a series on a sliding time window.
+ * <p>Values are added in the order of their dates with {@link #add(long, double)}, which returns the statistic of the
+ * values added during the window length before the date, the added value included. Values are kept in arrays of
+ * primitives and each addition costs a constant amortized time (a logarithmic one for the median), so a series is
+ * processed in one pass whatever its size.</p>
+ * <p>The exponential mean does not keep values: the weight of a value is divided by <i>e</i> each time the window
+ * length passes.</p>
+ *
+ * @author Philippe VIENNE
+ * @see Series#generateRollingSeries(Operator, long)
+ * @since 2.0
+ */
+public abstract class RollingWindow {
+
+    /**
+     * Statistics which can be computed on a window.
+     */
+    public enum Operator {
+        MEAN, MEDIAN, MIN, MAX, STANDARD_DEVIATION, EXPONENTIAL_MEAN;
+
+        /**
+         * Create an empty window.
+         *
+         * @param length The length of the window in milliseconds
+         * @return The window
+         */
+        public RollingWindow create(long length) {
+            switch (this) {
+                case MEAN:
+                    return new Mean(length, false);
+                case STANDARD_DEVIATION:
+                    return new Mean(length, true);
+                case MEDIAN:
+                    return new Median(length);
+                case MIN:
+                    return new Extremum(length, false);
+                case MAX:
+                    return new Extremum(length, true);
+                default:
+                    return new ExponentialMean(length);
+            }
+        }
+
+        /**
+         * Get the name of the statistic.
+         *
+         * @return The localized name
+         */
+        @Override
+        public String toString() {
+            return I18nSupport.translate("actions.rolling." + name().toLowerCase()); // NON-NLS
+        }
+    }
+
+    protected final long length;
+
+    protected RollingWindow(long length) {
+        Validate.isTrue(length > 0, "The window length must be positive"); // NON-NLS
+        this.length = length;
+    }
+
+    /**
+     * Add the next value of the series.
+     *
+     * @param time  The date of the value in milliseconds, not before the previous one
+     * @param value The value, not NaN
+     * @return The statistic on the values since {@code time - length} (excluded) to {@code time}.
+     */
+    public abstract double add(long time, double value);
+
+    /**
+     * Window which keeps the values of the window in a circular buffer.
+     * <p>Values are identified by their number since the first added one, so sub-classes can keep references to
+     * values which do not change when the buffer grows.</p>
+     */
+    private abstract static class Buffered extends RollingWindow {
+        private long[] times = new long[16];
+        private double[] values = new double[16];
+        /**
+         * Data attached by sub-classes to each value of the window.
+         */
+        protected int[] marks = new int[16];
+        private int mask = 15;
+        /**
+         * Number of the oldest value of the window, and of the next added value.
+         */
+        protected long first = 0, end = 0;
+
+        protected Buffered(long length) {
+            super(length);
+        }
+
+        @Override
+        public double add(long time, double value) {
+            while (first < end && times[(int) first & mask] <= time - length) {
+                removed(first);
+                first++;
+            }
+            if (end - first == times.length) grow();
+            final int slot = (int) end & mask;
+            times[slot] = time;
+            values[slot] = value;
+            added(end);
+            end++;
+            return result();
+        }
+
+        private void grow() {
+            final int capacity = times.length * 2;
+            final long[] newTimes = new long[capacity];
+            final double[] newValues = new double[capacity];
+            final int[] newMarks = new int[capacity];
+            for (long n = first; n < end; n++) {
+                newTimes[(int) n & (capacity - 1)] = times[(int) n & mask];
+                newValues[(int) n & (capacity - 1)] = values[(int) n & mask];
+                newMarks[(int) n & (capacity - 1)] = marks[(int) n & mask];
+            }
+            times = newTimes;
+            values = newValues;
+            marks = newMarks;
+            mask = capacity - 1;
+        }
+
+        /**
+         * Get a value of the window.
+         *
+         * @param n The number of the value
+         * @return The value
+         */
+        protected final double value(long n) {
+            return values[(int) n & mask];
+        }
+
+        /**
+         * Get the slot of a value in {@link #marks}, it changes when the buffer grows.
+         *
+         * @param n The number of the value
+         * @return The index in marks
+         */
+        protected final int slot(long n) {
+            return (int) n & mask;
+        }
+
+        /**
+         * Called when a value enters the window.
+         *
+         * @param n The number of the value
+         */
+        protected abstract void added(long n);
+
+        /**
+         * Called before a value leaves the window.
+         *
+         * @param n The number of the value
+         */
+        protected abstract void removed(long n);
+
+        /**
+         * Compute the statistic of the current window.
+         *
+         * @return The statistic
+         */
+        protected abstract double result();
+    }
+
+    /**
+     * Mean and standard deviation, with Welford's algorithm which stays accurate with a big mean.
+     */
+    private static final class Mean extends Buffered {
+        private final boolean deviation;
+        private double mean = 0, squares = 0;
+
+        private Mean(long length, boolean deviation) {
+            super(length);
+            this.deviation = deviation;
+        }
+
+        @Override
+        protected void added(long n) {
+            final double value = value(n);
+            final double delta = value - mean;
+            mean += delta / (end - first + 1);
+            squares += delta * (value - mean);
+        }
+
+        @Override
+        protected void removed(long n) {
+            final long count = end - first - 1;
+            if (count == 0) {
+                mean = squares = 0;
+                return;
+            }
+            final double value = value(n);
+            final double delta = value - mean;
+            mean -= delta / count;
+            squares -= delta * (value - mean);
+        }
+
+        @Override
+        protected double result() {
+            return deviation ? Math.sqrt(Math.max(0, squares) / (end - first)) : mean;
+        }
+    }
+
+    /**
+     * Minimum or maximum, with a monotonic queue: it keeps the values which may become the extremum when the older
+     * ones leave the window, the first one is the extremum.
+     */
+    private static final class Extremum extends Buffered {
+        private final boolean max;
+        private long[] queue = new long[16];
+        private int head = 0, size = 0;
+
+        private Extremum(long length, boolean max) {
+            super(length);
+            this.max = max;
+        }
+
+        @Override
+        protected void added(long n) {
+            final double value = value(n);
+            // Values which are not better than the new one will never be the extremum again
+            while (size > 0) {
+                final double last = value(queue[(head + size - 1) & (queue.length - 1)]);
+                if (max ? last > value : last < value) break;
+                size--;
+            }
+            if (size == queue.length) {
+                final long[] newQueue = new long[queue.length * 2];
+                for (int i = 0; i < size; i++) newQueue[i] = queue[(head + i) & (queue.length - 1)];
+                queue = newQueue;
+                head = 0;
+            }
+            queue[(head + size) & (queue.length - 1)] = n;
+            size++;
+        }
+
+        @Override
+        protected void removed(long n) {
+            if (queue[head] == n) {
+                head = (head + 1) & (queue.length - 1);
+                size--;
+            }
+        }
+
+        @Override
+        protected double result() {
+            return value(queue[head]);
+        }
+    }
+
+    /**
+     * Median, with two heaps: a max heap of the lower half of values and a min heap of the upper half. Each value
+     * knows its place in the heaps by its mark, so a value which leaves the window is removed in a logarithmic time.
+     * <p>Marks are positions in the lower heap, or {@code ~position} in the upper heap.</p>
+     */
+    private static final class Median extends Buffered {
+        private long[] lower = new long[16], upper = new long[16];
+        private int lowerSize = 0, upperSize = 0;
+
+        private Median(long length) {
+            super(length);
+        }
+
+        @Override
+        protected void added(long n) {
+            if (lowerSize == 0 || value(n) <= value(lower[0])) {
+                if (lowerSize == lower.length) lower = grow(lower);
+                set(lower, lowerSize, n, false);
+                siftUp(lower, lowerSize++, false);
+            } else {
+                if (upperSize == upper.length) upper = grow(upper);
+                set(upper, upperSize, n, true);
+                siftUp(upper, upperSize++, true);
+            }
+            balance();
+        }
+
+        @Override
+        protected void removed(long n) {
+            final int mark = marks[slot(n)];
+            if (mark >= 0) {
+                lowerSize = remove(lower, lowerSize, mark, false);
+            } else {
+                upperSize = remove(upper, upperSize, ~mark, true);
+            }
+            balance();
+        }
+
+        @Override
+        protected double result() {
+            return lowerSize > upperSize ? value(lower[0]) : (value(lower[0]) + value(upper[0])) / 2;
+        }
+
+        /**
+         * Move a value from a heap to the other one, so the lower heap has as many values as the upper one or one
+         * more.
+         */
+        private void balance() {
+            if (lowerSize > upperSize + 1) {
+                final long n = lower[0];
+                lowerSize = remove(lower, lowerSize, 0, false);
+                if (upperSize == upper.length) upper = grow(upper);
+                set(upper, upperSize, n, true);
+                siftUp(upper, upperSize++, true);
+            } else if (upperSize > lowerSize) {
+                final long n = upper[0];
+                upperSize = remove(upper, upperSize, 0, true);
+                if (lowerSize == lower.length) lower = grow(lower);
+                set(lower, lowerSize, n, false);
+                siftUp(lower, lowerSize++, false);
+            }
+        }
+
+        private static long[] grow(long[] heap) {
+            final long[] newHeap = new long[heap.length * 2];
+            System.arraycopy(heap, 0, newHeap, 0, heap.length);
+            return newHeap;
+        }
+
+        /**
+         * Remove the value at a position of a heap.
+         *
+         * @return The new size of the heap
+         */
+        private int remove(long[] heap, int size, int position, boolean min) {
+            final int last = size - 1;
+            if (position != last) {
+                set(heap, position, heap[last], min);
+                siftDown(heap, last, position, min);
+                siftUp(heap, position, min);
+            }
+            return last;
+        }
+
+        /**
+         * Determine if a value must be nearer of the top of the heap than another one.
+         */
+        private boolean before(long a, long b, boolean min) {
+            return min ? value(a) < value(b) : value(a) > value(b);
+        }
+
+        private void siftUp(long[] heap, int position, boolean min) {
+            final long n = heap[position];
+            while (position > 0) {
+                final int parent = (position - 1) >>> 1;
+                if (!before(n, heap[parent], min)) break;
+                set(heap, position, heap[parent], min);
+                position = parent;
+            }
+            set(heap, position, n, min);
+        }
+
+        private void siftDown(long[] heap, int size, int position, boolean min) {
+            final long n = heap[position];
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) break;
+                if (child + 1 < size && before(heap[child + 1], heap[child], min)) child++;
+                if (!before(heap[child], n, min)) break;
+                set(heap, position, heap[child], min);
+                position = child;
+            }
+            set(heap, position, n, min);
+        }
+
+        private void set(long[] heap, int position, long n, boolean upper) {
+            heap[position] = n;
+            marks[slot(n)] = upper ? ~position : position;
+        }
+    }
+
+    /**
+     * Exponentially weighted mean for irregular dates: the weight of the previous mean is {@code exp(-dt / length)}.
+     */
+    private static final class ExponentialMean extends RollingWindow {
+        private double mean = Double.NaN;
+        private long previous;
+
+        private ExponentialMean(long length) {
+            super(length);
+        }
+
+        @Override
+        public double add(long time, double value) {
+            if (Double.isNaN(mean)) {
+                mean = value;
+            } else {
+                final double weight = Math.exp(-Math.max(0, time - previous) / (double) length);
+                mean = value + weight * (mean - value);
+            }
+            previous = time;
+            return mean;
+        }
+    }
+}
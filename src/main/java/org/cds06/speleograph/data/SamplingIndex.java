@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data;
+
+import org.cds06.speleograph.data.store.SeriesStore;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the dates of a series: its regular segments and its gaps.
+ * <p>A segment is a run of items where the time between an item and the next one is always the same, so the date of
+ * an item of a segment is computed from the start of the segment. Consecutive segments share an item: the last item of
+ * a segment is the first one of the next segment. A logger which samples at a fixed interval gives a few segments, so
+ * dates are searched in them without reading items. When there are too many segments (dates at irregular intervals)
+ * or when items are not sorted, segments are not kept and {@link #isRegular()} is false.</p>
+ * <p>The dominant interval is the interval between most items. A gap is a time between two items longer than
+ * {@link #GAP_FACTOR} times the dominant interval, when the logger has stopped or lost samples.</p>
+ * <p>An index is immutable: series build a new one when their items change (see {@link Series#getSamplingIndex()}).
+ * </p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public final class SamplingIndex {
+
+    /**
+     * A time between two items is a gap when it is longer than this number of dominant intervals.
+     */
+    public static final int GAP_FACTOR = 2;
+
+    /**
+     * Segments are always kept up to this number, above it only if there is less than one segment each
+     * {@link #ITEMS_BY_SEGMENT} items.
+     */
+    private static final int MIN_SEGMENTS = 1024;
+    private static final int ITEMS_BY_SEGMENT = 8;
+
+    private final int count;
+    private final long dominant;
+
+    private int segmentCount = 0;
+    private int[] segmentFirst = new int[16];
+    private long[] segmentStart = new long[16];
+    private long[] segmentInterval = new long[16];
+    private boolean regular = true;
+
+    private int gapCount = 0;
+    private int[] gapIndex = new int[16];
+    private long[] gapStart = new long[16];
+    private long[] gapDuration = new long[16];
+
+    /**
+     * Index the dates of items.
+     *
+     * @param times The dates
+     * @param count The number of items
+     */
+    private SamplingIndex(Times times, int count) {
+        this.count = count;
+        final int[] histogram = new int[SeriesStatistics.HISTOGRAM_SIZE];
+        final long[] samples = new long[SeriesStatistics.HISTOGRAM_SIZE];
+        final int maxSegments = Math.max(MIN_SEGMENTS, count / ITEMS_BY_SEGMENT);
+        long previous = count > 0 ? times.get(0) : 0;
+        for (int i = 1; i < count; i++) {
+            final long time = times.get(i), interval = time - previous;
+            if (interval < 0) {
+                regular = false;
+            } else {
+                final int bucket = SeriesStatistics.getBucket(interval);
+                histogram[bucket]++;
+                samples[bucket] = interval;
+            }
+            if (regular && (segmentCount == 0 || segmentInterval[segmentCount - 1] != interval)) {
+                if (segmentCount == maxSegments) {
+                    regular = false;
+                } else {
+                    addSegment(i - 1, previous, interval);
+                }
+            }
+            previous = time;
+        }
+        if (count == 1) addSegment(0, previous, 0);
+        dominant = regular ? getDominantInterval(segmentCount) : getDominantInterval(histogram, samples);
+        if (!regular) {
+            segmentCount = 0;
+            segmentFirst = new int[0];
+            segmentStart = segmentInterval = new long[0];
+        }
+        final long threshold = getGapThreshold();
+        if (regular) {
+            for (int s = 0; s < segmentCount; s++) {
+                if (segmentInterval[s] <= threshold) continue;
+                for (int i = segmentFirst[s] + 1; i <= getSegmentLastIndex(s); i++) {
+                    addGap(i, getSegmentTime(s, i - 1), segmentInterval[s]);
+                }
+            }
+        } else {
+            previous = count > 0 ? times.get(0) : 0;
+            for (int i = 1; i < count; i++) {
+                final long time = times.get(i);
+                if (time - previous > threshold) addGap(i, previous, time - previous);
+                previous = time;
+            }
+        }
+        gapIndex = Arrays.copyOf(gapIndex, gapCount);
+        gapStart = Arrays.copyOf(gapStart, gapCount);
+        gapDuration = Arrays.copyOf(gapDuration, gapCount);
+    }
+
+    /**
+     * Index the dates of the items of a store.
+     *
+     * @param store The store
+     * @return The index
+     */
+    static SamplingIndex of(final SeriesStore store) {
+        return new SamplingIndex(new Times() {
+            @Override
+            long get(int index) {
+                return store.getTime(index);
+            }
+        }, store.size());
+    }
+
+    /**
+     * Index the dates of items.
+     *
+     * @param items The items, in the series order
+     * @return The index
+     */
+    static SamplingIndex of(final List<Item> items) {
+        return new SamplingIndex(new Times() {
+            @Override
+            long get(int index) {
+                return items.get(index).getDate().getTime();
+            }
+        }, items.size());
+    }
+
+    private void addSegment(int first, long start, long interval) {
+        if (segmentCount == segmentFirst.length) {
+            segmentFirst = Arrays.copyOf(segmentFirst, segmentCount * 2);
+            segmentStart = Arrays.copyOf(segmentStart, segmentCount * 2);
+            segmentInterval = Arrays.copyOf(segmentInterval, segmentCount * 2);
+        }
+        segmentFirst[segmentCount] = first;
+        segmentStart[segmentCount] = start;
+        segmentInterval[segmentCount] = interval;
+        segmentCount++;
+    }
+
+    private void addGap(int index, long start, long duration) {
+        if (gapCount == gapIndex.length) {
+            gapIndex = Arrays.copyOf(gapIndex, gapCount * 2);
+            gapStart = Arrays.copyOf(gapStart, gapCount * 2);
+            gapDuration = Arrays.copyOf(gapDuration, gapCount * 2);
+        }
+        gapIndex[gapCount] = index;
+        gapStart[gapCount] = start;
+        gapDuration[gapCount] = duration;
+        gapCount++;
+    }
+
+    /**
+     * Find the interval of the segments which have the most items.
+     */
+    private long getDominantInterval(int segments) {
+        final Map<Long, Integer> intervals = new HashMap<>();
+        long dominant = 0;
+        int best = 0;
+        for (int s = 0; s < segments; s++) {
+            final Integer previous = intervals.get(segmentInterval[s]);
+            final int total = (previous == null ? 0 : previous) + getSegmentLastIndex(s) - segmentFirst[s];
+            intervals.put(segmentInterval[s], total);
+            if (total > best) {
+                best = total;
+                dominant = segmentInterval[s];
+            }
+        }
+        return dominant;
+    }
+
+    /**
+     * Find an interval of the most counted bucket, when there are too many segments to count each interval.
+     */
+    private static long getDominantInterval(int[] histogram, long[] samples) {
+        int typical = 0;
+        for (int b = 1; b < histogram.length; b++) {
+            if (histogram[b] > histogram[typical]) typical = b;
+        }
+        return samples[typical];
+    }
+
+    /**
+     * Get the number of indexed items.
+     *
+     * @return The number of items of the series when the index was built
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the usual time between two items.
+     *
+     * @return The interval in milliseconds, 0 if there are less than two items.
+     */
+    public long getDominantInterval() {
+        return dominant;
+    }
+
+    /**
+     * Get the time between two items above which there is a gap.
+     *
+     * @return The duration in milliseconds
+     */
+    public long getGapThreshold() {
+        return dominant > 0 ? GAP_FACTOR * dominant : Long.MAX_VALUE;
+    }
+
+    /**
+     * Determine if the dates are kept as segments.
+     *
+     * @return true if items are sorted and are in few enough segments to be kept.
+     */
+    public boolean isRegular() {
+        return regular;
+    }
+
+    /**
+     * Get the number of regular segments.
+     *
+     * @return The number of segments, 0 if the index is not {@link #isRegular() regular}.
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Get the index of the first item of a segment.
+     *
+     * @param segment The segment number
+     * @return The item index
+     */
+    public int getSegmentFirstIndex(int segment) {
+        return segmentFirst[segment];
+    }
+
+    /**
+     * Get the index of the last item of a segment, it is the first item of the next segment.
+     *
+     * @param segment The segment number
+     * @return The item index
+     */
+    public int getSegmentLastIndex(int segment) {
+        return segment + 1 < segmentCount ? segmentFirst[segment + 1] : count - 1;
+    }
+
+    /**
+     * Get the date of the first item of a segment.
+     *
+     * @param segment The segment number
+     * @return The date in milliseconds
+     */
+    public long getSegmentStart(int segment) {
+        return segmentStart[segment];
+    }
+
+    /**
+     * Get the time between the items of a segment.
+     *
+     * @param segment The segment number
+     * @return The interval in milliseconds
+     */
+    public long getSegmentInterval(int segment) {
+        return segmentInterval[segment];
+    }
+
+    private long getSegmentTime(int segment, int index) {
+        return segmentStart[segment] + (index - segmentFirst[segment]) * segmentInterval[segment];
+    }
+
+    /**
+     * Compute the date of an item, the index must be {@link #isRegular() regular}.
+     *
+     * @param index The item index
+     * @return The date in milliseconds
+     */
+    public long getTime(int index) {
+        int segment = Arrays.binarySearch(segmentFirst, 0, segmentCount, index);
+        if (segment < 0) segment = -segment - 2;
+        return getSegmentTime(segment, index);
+    }
+
+    /**
+     * Search the first item which is at or after a date, the index must be {@link #isRegular() regular}.
+     * <p>Only the segments are read, in a logarithmic time of their number.</p>
+     *
+     * @param time The date in milliseconds
+     * @return The item index, or the number of items if all items are before the date.
+     */
+    public int indexOf(long time) {
+        // Last segment which starts before the date
+        int low = 0, high = segmentCount;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (segmentStart[middle] < time) low = middle + 1;
+            else high = middle;
+        }
+        final int segment = low - 1;
+        if (segment < 0) return 0;
+        final int first = segmentFirst[segment], last = getSegmentLastIndex(segment);
+        final long interval = segmentInterval[segment];
+        // Dates of the segment are before the date up to the first item of the next segment
+        final long steps = interval == 0 ? last - first + 1 : (time - segmentStart[segment] + interval - 1) / interval;
+        return (int) Math.min(first + steps, last + 1);
+    }
+
+    /**
+     * Get the number of gaps.
+     *
+     * @return The number of times between two items longer than the {@link #getGapThreshold() threshold}.
+     */
+    public int getGapCount() {
+        return gapCount;
+    }
+
+    /**
+     * Get the index of the item after a gap.
+     *
+     * @param gap The gap number, gaps are sorted by index
+     * @return The item index
+     */
+    public int getGapIndex(int gap) {
+        return gapIndex[gap];
+    }
+
+    /**
+     * Get the date of the item before a gap.
+     *
+     * @param gap The gap number
+     * @return The date in milliseconds
+     */
+    public long getGapStart(int gap) {
+        return gapStart[gap];
+    }
+
+    /**
+     * Get the time without item of a gap.
+     *
+     * @param gap The gap number
+     * @return The duration in milliseconds
+     */
+    public long getGapDuration(int gap) {
+        return gapDuration[gap];
+    }
+
+    /**
+     * Determine if there is a gap between two items.
+     *
+     * @param from  An item index
+     * @param to    A following item index
+     * @return true if there is a gap after {@code from} and before or at {@code to}.
+     */
+    public boolean hasGap(int from, int to) {
+        int gap = Arrays.binarySearch(gapIndex, 0, gapCount, from + 1);
+        if (gap < 0) gap = -gap - 1;
+        return gap < gapCount && gapIndex[gap] <= to;
+    }
+
+    /**
+     * Access to the dates of the indexed items.
+     */
+    private abstract static class Times {
+        abstract long get(int index);
+    }
+}
@@ -25,28 +25,39 @@ package org.cds06.speleograph.data;
 import org.apache.commons.lang3.Validate;
 import org.cds06.speleograph.GraphPanel;
 import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.data.store.AppendableStore;
+import org.cds06.speleograph.data.store.CompressedStore;
+import org.cds06.speleograph.data.store.Kernels;
+import org.cds06.speleograph.data.store.MappedStore;
+import org.cds06.speleograph.data.store.RegularStore;
+import org.cds06.speleograph.data.store.SeriesStore;
+import org.cds06.speleograph.data.store.StoreBuilder;
+import org.cds06.speleograph.data.store.StoreItemList;
 import org.cds06.speleograph.graph.DrawStyle;
+import org.cds06.speleograph.graph.SeriesRenderer;
 import org.cds06.speleograph.utils.Modification;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
-import org.jfree.chart.LegendItem;
 import org.jfree.chart.axis.NumberAxis;
-import org.jfree.chart.plot.Plot;
-import org.jfree.chart.renderer.xy.HighLowRenderer;
-import org.jfree.chart.renderer.xy.XYAreaRenderer;
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYItemRenderer;
-import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.data.DomainOrder;
+import org.jfree.data.Range;
 import org.jfree.data.general.DatasetChangeEvent;
 import org.jfree.data.general.DatasetChangeListener;
 import org.jfree.data.general.DatasetGroup;
 import org.jfree.data.time.DateRange;
 import org.jfree.data.xy.OHLCDataset;
+import org.jfree.data.xy.XYDataset;
+import org.jfree.data.xy.XYDomainInfo;
+import org.jfree.data.xy.XYRangeInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.*;
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.List;
 
@@ -54,12 +65,11 @@ import java.util.List;
  * Represent a Series of Data.
  * A series is coherent set of Data.
  */
-public class Series implements Comparable, OHLCDataset, Cloneable {
+public class Series implements Comparable, OHLCDataset, XYDomainInfo, XYRangeInfo, Cloneable {
 
     /**
      * Logger for debug and errors in Series instances.
      */
-    @SuppressWarnings("UnusedDeclaration")
     @NonNls
     private static final Logger log = LoggerFactory.getLogger(Series.class);
     private static GraphPanel graphPanel;
@@ -79,7 +89,9 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
         Series.lastOpenedFile = origin;
         this.type = type;
         this.itemsName = "Initialisation";
-        instances.add(this);
+        final List<Series> batch = Series.batch.get();
+        if (batch != null) batch.add(this);
+        else instances.add(this);
         setStyle(DrawStyle.AUTO);
         notifyListeners();
     }
@@ -101,7 +113,19 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
     /**
      * Series items, children of series.
      */
-    private ArrayList<Item> items = new ArrayList<>();
+    private List<Item> items = new ArrayList<>();
+
+    /**
+     * The store which contains the items when they are not kept as objects, null otherwise.
+     * When it is set, {@link #items} is a {@link StoreItemList} on it.
+     */
+    private SeriesStore store = null;
+
+    /**
+     * Incremented each time the items list is replaced (modification, undo, redo, deletion).
+     * Appending items with {@link #add(Item)} does not change it.
+     */
+    private int version = 0;
 
     /**
      * Are the current items linked to others ? (modification on more than one series cancelled, for example)
@@ -140,6 +164,48 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
 
     private static final ArrayList<Series> instances = new ArrayList<>(20);
 
+    /**
+     * Series created by the current thread since it has {@link #startBatch() started a batch}, null if it has not.
+     */
+    private static final ThreadLocal<List<Series>> batch = new ThreadLocal<>();
+
+    /**
+     * Start a batch on the current thread.
+     * <p>Series created by this thread are not added to instances and do not send events until the batch is
+     * {@link #endBatch() ended} and they are {@link #register(java.util.Collection) registered}. This lets a file be read
+     * on another thread than the Swing one.</p>
+     */
+    public static void startBatch() {
+        batch.set(new ArrayList<Series>());
+    }
+
+    /**
+     * End the batch of the current thread.
+     *
+     * <p>The items of the series are {@link #pack() packed}.</p>
+     *
+     * @return The series created (and not deleted) during the batch.
+     */
+    public static List<Series> endBatch() {
+        final List<Series> created = batch.get();
+        batch.remove();
+        if (created == null) return Collections.emptyList();
+        for (Series series : created) series.pack(); // Readers add items one by one, they are packed once read
+        return created;
+    }
+
+    /**
+     * Add series created in a batch to instances, then notify instance listeners once.
+     * <p>Must be called on the Swing thread.</p>
+     *
+     * @param series The series to add
+     */
+    public static void register(@NotNull Collection<Series> series) {
+        Validate.notNull(series);
+        instances.addAll(series);
+        notifyInstanceListeners();
+    }
+
     /**
      * Get all series currently in the SpeleoGraph Instance
      *
@@ -167,8 +233,17 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
         return instances.indexOf(this) == instances.size() - 1;
     }
 
-    private double seriesMaxValue;
-    private double seriesMinValue;
+    /**
+     * Statistics of items, they are valid while the version has not changed.
+     */
+    private SeriesStatistics statistics;
+    private int statisticsVersion;
+
+    /**
+     * Index of dates, valid while the version and the number of items have not changed.
+     */
+    private SamplingIndex samplingIndex;
+    private int samplingIndexVersion;
 
     /**
      * Move the current series to n-1 position.
@@ -218,33 +293,62 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
     }
 
     public double getSeriesMaxValue() {
-        return seriesMaxValue;
+        return getStatistics().getMax();
     }
 
     public double getSeriesMinValue() {
-        return seriesMinValue;
+        return getStatistics().getMin();
+    }
+
+    /**
+     * Get the statistics of the items.
+     * <p>They are kept up to date when items are appended, and computed again the first time they are read after
+     * another modification.</p>
+     *
+     * @return The statistics, they must not be kept: they can be updated when items are appended.
+     */
+    public SeriesStatistics getStatistics() {
+        if (statistics == null || statisticsVersion != version) computeStatistics();
+        return statistics;
+    }
+
+    private void computeStatistics() {
+        statistics = store != null ? SeriesStatistics.of(store) : SeriesStatistics.of(items);
+        statisticsVersion = version;
+    }
+
+    /**
+     * Get the index of the dates of the items: regular segments, dominant interval and gaps.
+     * <p>It is built when items are loaded, and built again the first time it is read after a modification or after
+     * items have been appended.</p>
+     *
+     * @return The index, it can be kept: it does not change.
+     */
+    public SamplingIndex getSamplingIndex() {
+        final SamplingIndex index = samplingIndex;
+        if (index != null && samplingIndexVersion == version && index.getCount() == items.size()) return index;
+        return computeSamplingIndex();
+    }
+
+    private SamplingIndex computeSamplingIndex() {
+        final SamplingIndex index = store != null ? SamplingIndex.of(store) : SamplingIndex.of(items);
+        samplingIndexVersion = version;
+        samplingIndex = index;
+        return index;
     }
 
     /**
-     * Compute the date range of the items in this set.
+     * Get the date range of the items in this set.
      *
      * @return A date range which contains the lower and upper bounds of data.
      */
     public DateRange getRange() {
-        int max = getItemCount();
-        DateRange range;
-        if (max == 0) {
+        final SeriesStatistics statistics = getStatistics();
+        if (statistics.getCount() == 0) {
             Date now = Calendar.getInstance().getTime();
             return new DateRange(now, now);
         }
-        Date minDate = new Date(Long.MAX_VALUE), maxDate = new Date(Long.MIN_VALUE);
-        for (int i = 0; i < max; i++) {
-            Item item = items.get(i);
-            if (item.getDate().before(minDate)) minDate = item.getDate();
-            if (item.getDate().after(maxDate)) maxDate = item.getDate();
-        }
-        range = new DateRange(minDate, maxDate);
-        return range;
+        return new DateRange(statistics.getFirstDate(), statistics.getLastDate());
     }
 
     /**
@@ -322,6 +426,7 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
      * Notify listeners about something changed into the series.
      */
     public void notifyListeners() {
+        if (batch.get() != null) return; // Nobody knows series of a batch yet
         final DatasetChangeEvent event = new DatasetChangeEvent(this, this);
         if (graphPanel != null)
             graphPanel.datasetChanged(event);
@@ -387,16 +492,42 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
 
     /**
      * Add an item to this series.
+     * <p>Items of a series which is in a store are appended to the store: a packed series gets an
+     * {@link AppendableStore} which keeps new items after the packed ones, until it is {@link #pack() packed}
+     * again.</p>
      *
      * @param item The item to add.
      */
     public void add(Item item) {
         Validate.notNull(item);
-        items.add(item);
-        if (item.getValue() > seriesMaxValue)
-            seriesMaxValue = item.getValue();
-        else if (item.getValue() < seriesMinValue)
-            seriesMinValue = item.getValue();
+        if (store instanceof MappedStore) {
+            try {
+                ((MappedStore) store).append(item);
+            } catch (IOException e) {
+                throw new IllegalStateException("Can not add item to the mapped store", e); // NON-NLS
+            }
+        } else if (store != null) {
+            if (!(store instanceof AppendableStore)) setStore(new AppendableStore(store));
+            ((AppendableStore) store).append(item);
+            if (store.size() == MappedStore.getSpillThreshold()) spill();
+        } else {
+            items.add(item);
+            if (items.size() == MappedStore.getSpillThreshold()) spill();
+        }
+        if (statistics != null && statisticsVersion == version) statistics.add(item);
+    }
+
+    /**
+     * Move the items of this series to a {@link MappedStore}, so they do not take space in the heap.
+     */
+    private void spill() {
+        try {
+            setStore(store != null ? MappedStore.copyOf(store) : MappedStore.copyOf(items, isMinMax()));
+            log.info("Series " + getName() + " has " + items.size() + " items, they are moved to "
+                    + MappedStore.getCacheDirectory());
+        } catch (IOException e) {
+            log.warn("Can not move items to a mapped store, keep them in memory", e);
+        }
     }
 
     /**
@@ -422,8 +553,9 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
     @Override
     public double getHighValue(int series, int item) {
         if (isMinMax())
-            if (isShow() && (item > -1 && item < items.size()))
-                return items.get(item).getHigh();
+            if (isShow() && (item > -1 && item < items.size())) {
+                return store != null ? store.getHigh(item) : items.get(item).getHigh();
+            }
             else
                 return Double.NaN;
         else
@@ -453,8 +585,9 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
     @Override
     public double getLowValue(int series, int item) {
         if (isMinMax())
-            if (isShow() && (item > -1 && item < items.size()))
-                return items.get(item).getLow();
+            if (isShow() && (item > -1 && item < items.size())) {
+                return store != null ? store.getLow(item) : items.get(item).getLow();
+            }
             else
                 return Double.NaN;
         else
@@ -546,6 +679,73 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
         return DomainOrder.ASCENDING;
     }
 
+    /**
+     * Get the bounds of dates for the auto-range of the domain axis, from the {@link #getStatistics() statistics}.
+     *
+     * @param visibleSeriesKeys The keys of the visible series
+     * @param includeInterval   Not used, items have no date interval
+     * @return The range of dates, or null if the series is not shown or empty.
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Range getDomainBounds(List visibleSeriesKeys, boolean includeInterval) {
+        final SeriesStatistics statistics = getStatistics();
+        if (!isVisible(visibleSeriesKeys) || statistics.getCount() == 0) return null;
+        return new Range(statistics.getFirstDate().getTime(), statistics.getLastDate().getTime());
+    }
+
+    /**
+     * Get the bounds of values for the auto-range of the value axis.
+     * <p>Like JFreeChart would find them, values are used without interval and low and high values with interval. The
+     * bounds of the {@link #getStatistics() statistics} are used when all dates are in the range, otherwise sorted items
+     * are only read between the bounds of the range.</p>
+     *
+     * @param visibleSeriesKeys The keys of the visible series
+     * @param xRange            The range of dates
+     * @param includeInterval   true to use low and high values
+     * @return The range of values, or null if no value is in the dates range.
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Range getRangeBounds(List visibleSeriesKeys, Range xRange, boolean includeInterval) {
+        if (!isVisible(visibleSeriesKeys) || includeInterval != isMinMax()) return null;
+        final SeriesStatistics statistics = getStatistics();
+        if (statistics.getValueCount() == 0) return null;
+        if (xRange.contains(statistics.getFirstDate().getTime()) && xRange.contains(statistics.getLastDate().getTime()))
+            return new Range(statistics.getMin(), statistics.getMax());
+        int from = 0, to = items.size();
+        if (statistics.isSorted()) {
+            from = indexOfTime(xRange.getLowerBound());
+            to = indexOfTime(Math.nextUp(xRange.getUpperBound()));
+        }
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            if (!xRange.contains(getXValue(0, i))) continue;
+            final double low = includeInterval ? getLowValue(0, i) : getYValue(0, i);
+            final double high = includeInterval ? getHighValue(0, i) : low;
+            if (low < min) min = low; // NaN values are not compared
+            if (high > max) max = high;
+        }
+        return min <= max ? new Range(min, max) : null;
+    }
+
+    private boolean isVisible(List<?> visibleSeriesKeys) {
+        return isShow() && visibleSeriesKeys.contains(getSeriesKey(0));
+    }
+
+    /**
+     * Search the first item which is at or after a date, items must be sorted.
+     */
+    private int indexOfTime(double time) {
+        int low = 0, high = items.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (getXValue(0, middle) < time) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
     /**
      * Returns the number of items in a series.
      * <br><br>
@@ -590,8 +790,9 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
     @Override
     public double getXValue(int series, int item) {
         try {
-            if (isShow() && (item > -1 && item < items.size()))
-                return items.get(item).getDate().getTime();
+            if (isShow() && (item > -1 && item < items.size())) {
+                return store != null ? store.getTime(item) : items.get(item).getDate().getTime();
+            }
             else
                 return Double.NaN;
         } catch (NullPointerException e) {
@@ -624,8 +825,9 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
      */
     @Override
     public double getYValue(int series, int item) {
-        if (isShow() && (item > -1 && item < items.size()))
-            return items.get(item).getValue();
+        if (isShow() && (item > -1 && item < items.size())) {
+            return store != null ? store.getValue(item) : items.get(item).getValue();
+        }
         else
             return Double.NaN;
     }
@@ -720,8 +922,13 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
     }
 
     public void delete() {
-        instances.remove(this);
-        items.clear();
+        final List<Series> batch = Series.batch.get();
+        if (batch != null) batch.remove(this);
+        else instances.remove(this);
+        items = new ArrayList<>(); // Do not clear the list, it can be read by a chart snapshot.
+        if (store instanceof MappedStore) ((MappedStore) store).close();
+        store = null;
+        version++;
         notifyListeners();
     }
 
@@ -735,48 +942,259 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
         return renderer;
     }
 
-    //TODO Write doc
+    /**
+     * Create a stepped series with the variation of the value of this series on each period.
+     * <p>Periods start at the first item. The value of a period is the difference between the value of its last item
+     * and the value of the last item before it. Periods without item have a zero value and are merged in one step.
+     * After a gap of the {@link #getSamplingIndex() sampling index}, periods start again at the first item after the
+     * gap: the logger has stopped, so the periods are not counted from the old start. When the dates are
+     * {@link SamplingIndex#isRegular() regular}, the end of a period is searched in the segments instead of reading the
+     * date of each item.</p>
+     *
+     * @param length The length of a period in milliseconds
+     * @return The new series
+     */
     public Series generateSampledSeries(long length) {
         final Series newSeries = new Series(origin, Type.WATER);
         newSeries.setStepped(true);
         final int itemsCount = getItemCount();
-        final ArrayList<Item> newItems = newSeries.items;
-        double bufferValue = 0D;
-        DateRange range = getRange();
-        long lastStartBuffer = range.getLowerMillis();
-        newItems.add(new Item(newSeries, new Date(lastStartBuffer), 0.0));
-        for (int i = 1; i < itemsCount; i++) {
-            final Item originalItem = items.get(i), previousOriginalItem = items.get(i - 1);
-            if (lastStartBuffer + length <= originalItem.getDate().getTime()) {
-                newItems.add(new Item(newSeries, new Date(lastStartBuffer), bufferValue));
-                newItems.add(new Item(newSeries, new Date(lastStartBuffer + length), bufferValue));
-                final long time = originalItem.getDate().getTime();
-                lastStartBuffer = lastStartBuffer + length;
-                if (lastStartBuffer + 2 * length < time) {
-                    newItems.add(new Item(newSeries, new Date(lastStartBuffer), 0));
-                    lastStartBuffer = time -
-                            ((originalItem.getDate().getTime() - lastStartBuffer) % length);
-                    newItems.add(new Item(newSeries, new Date(lastStartBuffer), 0));
+        final List<Item> newItems = newSeries.items;
+        final SamplingIndex index = getSamplingIndex();
+        final DateRange range = getRange();
+        long start = range.getLowerMillis();
+        newItems.add(new Item(newSeries, new Date(start), 0.0));
+        // Last item of the previous period
+        int last = 0;
+        while (true) {
+            final long end = start + length;
+            // First item of the next periods
+            int next = last + 1;
+            if (index.isRegular()) {
+                next = Math.max(next, index.indexOf(end));
+            } else {
+                while (next < itemsCount && items.get(next).getDate().getTime() < end) next++;
+            }
+            final double value = next - 1 > last ? items.get(next - 1).getValue() - items.get(last).getValue() : 0;
+            newItems.add(new Item(newSeries, new Date(start), value));
+            if (next >= itemsCount) {
+                newItems.add(new Item(newSeries, new Date(range.getUpperMillis()), value));
+                break;
+            }
+            newItems.add(new Item(newSeries, new Date(end), value));
+            last = next - 1;
+            final long time = index.isRegular() ? index.getTime(next) : items.get(next).getDate().getTime();
+            final long nextStart = index.hasGap(last, next) ? time : time - (time - start) % length;
+            if (nextStart > end) {
+                newItems.add(new Item(newSeries, new Date(end), 0));
+                newItems.add(new Item(newSeries, new Date(nextStart), 0));
+            }
+            start = nextStart;
+        }
+        return newSeries;
+    }
+
+    /**
+     * Create a series with a statistic of this series on a sliding window.
+     * <p>The new series has an item at the date of each item of this series which has a value. For min/max items, the
+     * minimum uses low values, the maximum high values and the other statistics the middle of low and high values.
+     * Items are read in one pass by chunks of {@link Kernels#CHUNK_SIZE} without creating objects when they are in a
+     * store, and the result is built by a {@link StoreBuilder}.</p>
+     * <p>Windows need items in the order of their dates: when this series is not sorted, items are read in the
+     * {@link Kernels#order(long[], int) order} of their dates and the new series is sorted.</p>
+     *
+     * @param operator The statistic to compute
+     * @param length   The length of the window in milliseconds
+     * @return The new series, with the type of this one
+     * @throws IOException If the mapped store of a big result can not be written
+     * @see RollingWindow
+     */
+    public Series generateRollingSeries(@NotNull RollingWindow.Operator operator, long length) throws IOException {
+        final RollingWindow window = operator.create(length);
+        final int size = items.size();
+        final int chunk = Kernels.CHUNK_SIZE;
+        long[] times = new long[chunk];
+        double[] values = new double[chunk], low = new double[chunk], high = new double[chunk];
+        int[] order = null;
+        long[] allTimes = null;
+        double[] allValues = null, allLow = null, allHigh = null;
+        if (!getStatistics().isSorted()) {
+            allTimes = new long[size];
+            allValues = new double[size];
+            allLow = new double[size];
+            allHigh = new double[size];
+            readItems(0, size, allTimes, allValues, allLow, allHigh);
+            order = Kernels.order(allTimes, size);
+        }
+        final int[] indexes = order != null ? new int[chunk] : null;
+        final Series newSeries = new Series(origin, type);
+        newSeries.setStepped(stepped);
+        StoreBuilder builder = null;
+        try {
+            builder = new StoreBuilder(false, size);
+            for (int start = 0; start < size; start += chunk) {
+                final int count = Math.min(chunk, size - start);
+                if (order == null) {
+                    readItems(start, count, times, values, low, high);
+                } else {
+                    System.arraycopy(order, start, indexes, 0, count);
+                    Kernels.gather(allTimes, indexes, times, count);
+                    Kernels.gather(allValues, indexes, values, count);
+                    Kernels.gather(allLow, indexes, low, count);
+                    Kernels.gather(allHigh, indexes, high, count);
+                }
+                int results = 0;
+                for (int i = 0; i < count; i++) {
+                    double value = values[i];
+                    if (Double.isNaN(value)) value = getWindowValue(operator, low[i], high[i]);
+                    if (Double.isNaN(value)) continue;
+                    times[results] = times[i];
+                    values[results] = window.add(times[i], value);
+                    results++;
                 }
-                bufferValue = 0D;
+                builder.append(times, values, null, null, results);
             }
-            bufferValue = bufferValue + (originalItem.getValue() - previousOriginalItem.getValue());
+        } catch (IOException | RuntimeException e) {
+            if (builder != null) builder.discard();
+            newSeries.delete();
+            throw e;
         }
-        newItems.add(new Item(newSeries, new Date(lastStartBuffer), bufferValue));
-        newItems.add(new Item(newSeries, new Date(range.getUpperMillis()), bufferValue));
+        newSeries.resetStore(builder.build());
         return newSeries;
     }
 
+    /**
+     * Get the value of a min/max item used by a window.
+     */
+    private static double getWindowValue(RollingWindow.Operator operator, double low, double high) {
+        switch (operator) {
+            case MIN:
+                return low;
+            case MAX:
+                return high;
+            default:
+                return (low + high) / 2;
+        }
+    }
+
     private static final HashSet<DatasetChangeListener> staticListeners = new HashSet<>(2);
 
     public static void addListener(DatasetChangeListener listener) {
         staticListeners.add(listener);
     }
 
+    /**
+     * Get the version of the items list.
+     * <p>Two calls which return the same version see the same items, except the ones appended between them.</p>
+     *
+     * @return The current version
+     */
+    public int getVersion() {
+        return version;
+    }
+
     public List<Item> getItems() {
         return Collections.unmodifiableList(items);
     }
 
+    /**
+     * Get the store which contains the items.
+     *
+     * @return The store, or null if items are kept in a list.
+     */
+    public SeriesStore getStore() {
+        return store;
+    }
+
+    /**
+     * Copy the dates and values of items to arrays, without creating items when they are in a store.
+     *
+     * @param from   The index of the first item
+     * @param count  The number of items
+     * @param times  The array of the dates in milliseconds
+     * @param values The array of the values, or null
+     * @param low    The array of the low values, or null
+     * @param high   The array of the high values, or null
+     */
+    public void readItems(int from, int count, @NotNull long[] times, double[] values, double[] low, double[] high) {
+        Validate.isTrue(from >= 0 && from + count <= items.size(), "Items out of the series"); // NON-NLS
+        final SeriesStore store = this.store;
+        if (store != null) {
+            for (int i = 0; i < count; i++) times[i] = store.getTime(from + i);
+            if (values != null) for (int i = 0; i < count; i++) values[i] = store.getValue(from + i);
+            if (low != null) for (int i = 0; i < count; i++) low[i] = store.getLow(from + i);
+            if (high != null) for (int i = 0; i < count; i++) high[i] = store.getHigh(from + i);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            final Item item = items.get(from + i);
+            times[i] = item.getDate().getTime();
+            if (values != null) values[i] = item.getValue();
+            if (low != null) low[i] = item.getLow();
+            if (high != null) high[i] = item.getHigh();
+        }
+    }
+
+    /**
+     * Move the items of this series to a store, or back to a list.
+     * <p>The content of the series does not change, so listeners are not notified and the {@link #getVersion()
+     * version} stays the same. Added items are appended to the store, see {@link #add(Item)}.</p>
+     *
+     * @param store A store with the same items than the series, or null to keep items as objects in a list.
+     */
+    public void setStore(SeriesStore store) {
+        final SeriesStore previous = this.store;
+        if (store == null) {
+            if (!(items instanceof ArrayList)) items = new ArrayList<>(items);
+            this.store = null;
+            release(previous);
+            return;
+        }
+        Validate.isTrue(store.size() == items.size(), "The store does not contain the series items"); // NON-NLS
+        this.store = store;
+        this.items = new StoreItemList(this, store);
+        release(previous);
+    }
+
+    /**
+     * Close a mapped store which is not used any more by the series or by one of its modifications.
+     * <p>Chart snapshots can still read the items of a closed store, see {@link MappedStore#close()}.</p>
+     *
+     * @param dropped The store which was replaced, or null
+     */
+    private void release(SeriesStore dropped) {
+        if (!(dropped instanceof MappedStore) || dropped == store) return;
+        for (Modification m : previousModifs) if (storeOf(m.getItems()) == dropped) return;
+        for (Modification m : nextModifs) if (storeOf(m.getItems()) == dropped) return;
+        ((MappedStore) dropped).close();
+        log.debug("Mapped items of " + getName() + " are not used any more, their files are closed");
+    }
+
+    private static SeriesStore storeOf(List<Item> items) {
+        return items instanceof StoreItemList ? ((StoreItemList) items).getStore() : null;
+    }
+
+    /**
+     * Move the items kept as objects in a list to a {@link RegularStore}.
+     * <p>The store keeps values in arrays and computes the dates of regularly sampled items, it takes about ten times
+     * less memory than a list of items. Like {@link #setStore(SeriesStore)}, it does not change the content or the
+     * version of the series. Items appended to a packed series are packed with the other ones, in a
+     * {@link CompressedStore} if the series was compressed. Series which are already in another store are left as
+     * they are.</p>
+     */
+    public void pack() {
+        if (store instanceof AppendableStore) {
+            final SeriesStore head = ((AppendableStore) store).getHead();
+            setStore(head instanceof CompressedStore ? CompressedStore.compress(store) : RegularStore.copyOf(store));
+            log.debug("Series " + getName() + " packed with its appended items");
+            return;
+        }
+        if (store != null || items.isEmpty()) return;
+        final RegularStore packed = RegularStore.copyOf(items, isMinMax());
+        setStore(packed);
+        log.debug("Series " + getName() + " packed, " + packed.size() + " items in " + packed.getRunCount()
+                + " runs and " + packed.getIrregularCount() + " irregular dates");
+    }
+
     public String getItemsName() {
         return itemsName;
     }
@@ -796,72 +1214,19 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
             case AUTO:
                 setupRendererAuto();
                 break;
-            case AREA:
-                renderer = new NewAreaRenderer(XYAreaRenderer.AREA);
-                break;
-            case HIGH_LOW:
-                renderer = new NewHighLowRenderer();
-                break;
             default:
-            case LINE:
-                renderer = new NewLineAndShapeRenderer(true, false);
-
+                renderer = new SeriesRenderer(style, isStepped());
         }
         notifyListeners();
     }
 
     private void setupRendererAuto() {
         if (isMinMax()) {
-            renderer = new NewHighLowRenderer();
+            renderer = new SeriesRenderer(DrawStyle.HIGH_LOW, isStepped());
         } else if (isStepped()) {
-            renderer = new NewAreaRenderer(XYAreaRenderer.AREA);
+            renderer = new SeriesRenderer(DrawStyle.AREA, true);
         } else {
-            renderer = new NewLineAndShapeRenderer(true, false);
-        }
-    }
-
-    /**
-     * Used to override the display of the legend
-     */
-    private static class NewLineAndShapeRenderer extends XYLineAndShapeRenderer {
-        public NewLineAndShapeRenderer(boolean a, boolean b) {
-            super(a,b);
-        }
-
-        @Override
-        public LegendItem getLegendItem(int datasetIndex, int series) {
-            LegendItem legend = super.getLegendItem(datasetIndex, series);
-            return new LegendItem(legend.getLabel(), legend.getDescription(), legend.getToolTipText(), legend.getURLText(), Plot.DEFAULT_LEGEND_ITEM_BOX, legend.getFillPaint());
-        }
-    }
-
-    /**
-     * Used to override the display of the legend
-     */
-    private static class NewAreaRenderer extends XYAreaRenderer {
-        public NewAreaRenderer(int a) {
-            super(a);
-        }
-
-        @Override
-        public LegendItem getLegendItem(int datasetIndex, int series) {
-            LegendItem legend = super.getLegendItem(datasetIndex, series);
-            return new LegendItem(legend.getLabel(), legend.getDescription(), legend.getToolTipText(), legend.getURLText(), Plot.DEFAULT_LEGEND_ITEM_BOX, legend.getFillPaint());
-        }
-    }
-
-    /**
-     * Used to override the display of the legend
-     */
-    private static class NewHighLowRenderer extends HighLowRenderer {
-        public NewHighLowRenderer() {
-            super();
-        }
-
-        @Override
-        public LegendItem getLegendItem(int datasetIndex, int series) {
-            LegendItem legend = super.getLegendItem(datasetIndex, series);
-            return new LegendItem(legend.getLabel(), legend.getDescription(), legend.getToolTipText(), legend.getURLText(), Plot.DEFAULT_LEGEND_ITEM_BOX, legend.getFillPaint());
+            renderer = new SeriesRenderer(DrawStyle.LINE, false);
         }
     }
 
@@ -888,6 +1253,7 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
      * <p>Note: This function will refresh graphics, so it could occur thread blocking</p>
      */
     public static void notifyInstanceListeners() {
+        if (batch.get() != null) return; // Listeners will be notified when the batch is registered
         final DatasetChangeEvent event = new DatasetChangeEvent(Series.class, null);
         if (graphPanel != null)
             graphPanel.datasetChanged(event);
@@ -902,6 +1268,7 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
 
     public void setStepped(boolean stepped) {
         this.stepped = stepped;
+        if (renderer instanceof SeriesRenderer) ((SeriesRenderer) renderer).setStepped(stepped);
     }
 
     public boolean isStepped() {
@@ -986,25 +1353,89 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
      * @param applyToAll Is the modification applied to more than one series ?
      */
     public void setItems(ArrayList<Item> items, String name, boolean applyToAll) {
+        replaceItems(items, null, name, applyToAll);
+    }
+
+    /**
+     * Setter for items, which are in a store, stores the old items so they can be retrieved by {@link #undo()}.
+     * <p>Used by transformations which compute the new items by columns, see
+     * {@link org.cds06.speleograph.data.store.Kernels}.</p>
+     *
+     * @param store The store with the new items
+     * @param name  The name of the modification that occurred.
+     */
+    public void setItems(@NotNull SeriesStore store, String name) {
+        Validate.notNull(store);
+        replaceItems(new StoreItemList(this, store), store, name, false);
+    }
+
+    private void replaceItems(List<Item> items, SeriesStore store, String name, boolean applyToAll) {
+        if (this.store instanceof AppendableStore) pack(); // The saved items must not grow
         Modification m = new Modification(this.itemsName, new Date(), this.items, this , applyToAll);
         this.applyToAll = applyToAll;
         this.previousModifs.add(m);
+        final List<Modification> dropped = new ArrayList<>(this.nextModifs);
         this.nextModifs.clear();
         Modification.clearRedoList();
         Modification.addToUndoList(m);
 
         this.items = items;
-        setMinMaxValue();
+        this.store = store;
+        version++;
 
         this.itemsName = name;
         if (this.previousModifs.size() > MAX_UNDO_ITEMS)
-            this.previousModifs.remove(0);
+            dropped.add(this.previousModifs.remove(0));
+        for (Modification d : dropped) release(storeOf(d.getItems()));
+        notifyListeners();
+    }
+
+    /**
+     * Replace the items of the series without saving a modification, so it can not be undone.
+     * <p>This is used when the series is loaded again, for instance from a project journal. The items are
+     * {@link #pack() packed}.</p>
+     *
+     * @param items The new items
+     */
+    public void resetItems(@NotNull List<Item> items) {
+        Validate.notNull(items);
+        final SeriesStore previous = this.store;
+        this.items = new ArrayList<>(items);
+        this.store = null;
+        version++;
+        pack();
+        release(previous);
+        computeStatistics(); // Items are often reset by a reader thread, statistics will not be computed by Swing
+        computeSamplingIndex();
         notifyListeners();
     }
 
-    private void setMinMaxValue() {
-        seriesMaxValue = Collections.max(items).getValue();
-        seriesMinValue = Collections.min(items).getValue();
+    /**
+     * Replace the items of the series by the ones of a store, without saving a modification.
+     * <p>This is used when a series is loaded from a file which keeps items in the format of a store, the items are
+     * not created as objects.</p>
+     *
+     * @param store The store with the new items
+     */
+    public void resetStore(@NotNull SeriesStore store) {
+        Validate.notNull(store);
+        final SeriesStore previous = this.store;
+        this.items = new StoreItemList(this, store);
+        this.store = store;
+        version++;
+        release(previous);
+        computeStatistics();
+        computeSamplingIndex();
+        notifyListeners();
+    }
+
+    /**
+     * Replace the items by a list coming from a modification.
+     */
+    private void setItemsList(List<Item> items) {
+        this.items = items;
+        this.store = items instanceof StoreItemList ? ((StoreItemList) items).getStore() : null;
+        version++;
     }
 
     /**
@@ -1020,8 +1451,7 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
         this.nextModifs.add(m);
         Modification.addToRedoList(m);
         Modification old = this.previousModifs.get(previousModifsSize - 1);
-        this.items = old.getItems();
-        setMinMaxValue();
+        setItemsList(old.getItems());
         this.applyToAll = old.isApplyToAll();
         this.previousModifs.remove(previousModifsSize - 1);
         Modification.removeLastUndo();
@@ -1052,8 +1482,7 @@ public class Series implements Comparable, OHLCDataset, Cloneable {
         this.previousModifs.add(m);
         Modification.addToUndoList(m);
         Modification next = this.nextModifs.get(nextModifsSize-1);
-        this.items = next.getItems();
-        setMinMaxValue();
+        setItemsList(next.getItems());
         this.applyToAll = next.isApplyToAll();
         this.nextModifs.remove(nextModifsSize-1);
         Modification.removeLastRedo();
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data;
+
+import org.cds06.speleograph.data.store.SeriesStore;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Summary of the items of a series: number of items, bounds and mean of values, dates and sampling intervals.
+ * <p>Statistics are kept by the series (see {@link Series#getStatistics()}): they are updated when items are appended
+ * and computed again after other modifications, so reading them does not scan the items.</p>
+ * <p>For min/max items, the low and high values are used for the bounds and their middle for the mean.</p>
+ * <p>Sampling intervals (the time between an item and the previous one) are counted in a histogram of
+ * {@link #HISTOGRAM_SIZE} buckets: bucket 0 counts intervals of 0 ms and bucket {@code b} counts intervals from
+ * 2<sup>b-1</sup> to 2<sup>b</sup>-1 ms. The typical interval is one of the most counted bucket, and an interval is a
+ * gap when it is at least two buckets above it, so at least twice as long as any typical interval.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class SeriesStatistics {
+
+    /**
+     * Number of buckets of the sampling intervals histogram.
+     */
+    public static final int HISTOGRAM_SIZE = 64;
+
+    private int count = 0;
+    private int valueCount = 0;
+    private double min = Double.NaN, max = Double.NaN;
+    private double mean = 0, squares = 0;
+    private long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+    private long previous;
+    private final int[] intervals = new int[HISTOGRAM_SIZE];
+    /**
+     * For each bucket, the last interval counted in it.
+     */
+    private final long[] samples = new long[HISTOGRAM_SIZE];
+    private int backwards = 0;
+
+    SeriesStatistics() {
+    }
+
+    /**
+     * Compute the statistics of items.
+     *
+     * @param items The items, in the series order
+     * @return The statistics
+     */
+    static SeriesStatistics of(Iterable<Item> items) {
+        final SeriesStatistics statistics = new SeriesStatistics();
+        for (Item item : items) statistics.add(item);
+        return statistics;
+    }
+
+    /**
+     * Compute the statistics of the items of a store.
+     *
+     * @param store The store
+     * @return The statistics
+     */
+    static SeriesStatistics of(SeriesStore store) {
+        final SeriesStatistics statistics = new SeriesStatistics();
+        final int size = store.size();
+        for (int i = 0; i < size; i++) {
+            statistics.add(store.getTime(i), store.getValue(i), store.getLow(i), store.getHigh(i));
+        }
+        return statistics;
+    }
+
+    void add(Item item) {
+        add(item.getDate().getTime(), item.getValue(), item.getLow(), item.getHigh());
+    }
+
+    /**
+     * Count an item appended to the series.
+     */
+    void add(long time, double value, double low, double high) {
+        if (count > 0) {
+            final long interval = time - previous;
+            if (interval < 0) {
+                backwards++;
+            } else {
+                final int bucket = getBucket(interval);
+                intervals[bucket]++;
+                samples[bucket] = interval;
+            }
+        }
+        previous = time;
+        count++;
+        if (time < first) first = time;
+        if (time > last) last = time;
+        if (Double.isNaN(value)) {
+            if (Double.isNaN(low) || Double.isNaN(high)) return;
+            value = (low + high) / 2;
+        } else {
+            low = high = value;
+        }
+        if (valueCount == 0 || low < min) min = low;
+        if (valueCount == 0 || high > max) max = high;
+        valueCount++;
+        // Welford's algorithm, stable even with a big mean
+        final double delta = value - mean;
+        mean += delta / valueCount;
+        squares += delta * (value - mean);
+    }
+
+    /**
+     * Get the histogram bucket of an interval.
+     *
+     * @param interval The interval in milliseconds, 0 or more
+     * @return The bucket index
+     */
+    public static int getBucket(long interval) {
+        return 64 - Long.numberOfLeadingZeros(interval);
+    }
+
+    /**
+     * Get the number of items.
+     *
+     * @return The number of items
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the number of items which have a value (the other ones have NaN values).
+     *
+     * @return The number of items used for the bounds and the mean
+     */
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    /**
+     * Get the smallest value (the smallest low value for min/max items).
+     *
+     * @return The minimum, NaN if no item has a value.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Get the biggest value (the biggest high value for min/max items).
+     *
+     * @return The maximum, NaN if no item has a value.
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Get the mean of values.
+     *
+     * @return The mean, NaN if no item has a value.
+     */
+    public double getMean() {
+        return valueCount == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * Get the variance of values.
+     *
+     * @return The population variance, NaN if no item has a value.
+     */
+    public double getVariance() {
+        return valueCount == 0 ? Double.NaN : squares / valueCount;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Get the earliest date of items.
+     *
+     * @return The date, or null if there is no item.
+     */
+    @Nullable
+    public Date getFirstDate() {
+        return count == 0 ? null : new Date(first);
+    }
+
+    /**
+     * Get the latest date of items.
+     *
+     * @return The date, or null if there is no item.
+     */
+    @Nullable
+    public Date getLastDate() {
+        return count == 0 ? null : new Date(last);
+    }
+
+    /**
+     * Get the histogram of sampling intervals.
+     *
+     * @return A copy of the histogram, see the class description for its buckets.
+     */
+    public int[] getIntervalHistogram() {
+        return Arrays.copyOf(intervals, HISTOGRAM_SIZE);
+    }
+
+    private int getTypicalBucket() {
+        int typical = -1;
+        for (int b = 0; b < HISTOGRAM_SIZE; b++) {
+            if (intervals[b] > 0 && (typical < 0 || intervals[b] > intervals[typical])) typical = b;
+        }
+        return typical;
+    }
+
+    /**
+     * Get the usual time between two items.
+     *
+     * @return An interval of the most counted bucket in milliseconds, or -1 if there are less than two items.
+     */
+    public long getTypicalInterval() {
+        final int typical = getTypicalBucket();
+        return typical < 0 ? -1 : samples[typical];
+    }
+
+    /**
+     * Get the number of gaps, intervals much longer than the typical interval.
+     *
+     * @return The number of gaps
+     */
+    public int getGapCount() {
+        final int typical = getTypicalBucket();
+        int gaps = 0;
+        for (int b = typical + 2; typical >= 0 && b < HISTOGRAM_SIZE; b++) gaps += intervals[b];
+        return gaps;
+    }
+
+    /**
+     * Determine if items are sorted by date.
+     *
+     * @return true if no item is before the previous one.
+     */
+    public boolean isSorted() {
+        return backwards == 0;
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.store.SeriesStore;
+import org.cds06.speleograph.data.store.StoreItemList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line up the items of several series on common dates: a table with a date column and a column for each series.
+ * <p>Rows are read one by one with {@link #next()}, like lines of a file, so the table is never built in memory.
+ * Items are read from the store of a series when it has one, without creating them. The items of each series must be
+ * sorted by date.</p>
+ * <p>The {@link Mode} decides which rows there are and which item of each series is in a row. Items of series which
+ * are edited during the join are not seen: the join only reads the items present when it was created.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public final class TimeJoin {
+
+    /**
+     * How series are lined up.
+     */
+    public enum Mode {
+        /**
+         * A row for each date of any series, with the series which have an item at this date. Items less than the
+         * tolerance after the date of a row are put in this row. Each item is in a row, so no item is lost.
+         */
+        OUTER,
+        /**
+         * A row for each date where all series have an item, up to the tolerance after the date of the row.
+         */
+        INNER,
+        /**
+         * A row for each item of the first series, with the last item of each other series at or before its date if
+         * it is less than the tolerance before it.
+         */
+        AS_OF,
+        /**
+         * A row for each item of the first series, with the values of other series interpolated at its date between
+         * their items before and after it. There is no value out of the range of a series, in one of its
+         * {@link SamplingIndex gaps} or between two items farther than the tolerance.
+         */
+        INTERPOLATED
+    }
+
+    private final Source[] sources;
+    private final Mode mode;
+    private final long tolerance;
+    /**
+     * Index of the next item of each series which is not in a row yet (or which is after the row for
+     * {@link Mode#AS_OF} and {@link Mode#INTERPOLATED}).
+     */
+    private final int[] next;
+    /**
+     * Index of the item of each series in the current row, -1 if the series has no item in it.
+     */
+    private final int[] row;
+    private final double[] interpolated;
+    private long time;
+
+    private TimeJoin(Source[] sources, Mode mode, long tolerance) {
+        Validate.isTrue(tolerance >= 0, "The tolerance can not be negative"); // NON-NLS
+        this.sources = sources;
+        this.mode = mode;
+        this.tolerance = tolerance;
+        next = new int[sources.length];
+        row = new int[sources.length];
+        interpolated = new double[sources.length];
+        Arrays.fill(row, -1);
+    }
+
+    /**
+     * Join series.
+     * <p>Must be called on the thread which edits series (the Swing thread), the join can then be read by any
+     * thread.</p>
+     *
+     * @param series    The series, the first one gives the rows for {@link Mode#AS_OF} and {@link Mode#INTERPOLATED}
+     * @param mode      How series are lined up
+     * @param tolerance The time between two dates which are considered the same, see {@link Mode}, in milliseconds
+     * @return The join, positioned before its first row
+     */
+    public static TimeJoin of(@NotNull List<Series> series, @NotNull Mode mode, long tolerance) {
+        Validate.notNull(series);
+        Validate.notNull(mode);
+        final Source[] sources = new Source[series.size()];
+        for (int s = 0; s < sources.length; s++) {
+            final Series source = series.get(s);
+            sources[s] = Source.of(source.getItems(), source.getStore(), source.getSamplingIndex());
+        }
+        return new TimeJoin(sources, mode, tolerance);
+    }
+
+    /**
+     * Join lists of items, for instance kept by a writer while series can be edited.
+     *
+     * @param items     The items of each series, the first one gives the rows for {@link Mode#AS_OF} and
+     *                  {@link Mode#INTERPOLATED}
+     * @param mode      How series are lined up
+     * @param tolerance The time between two dates which are considered the same, see {@link Mode}, in milliseconds
+     * @return The join, positioned before its first row
+     */
+    public static TimeJoin ofItems(@NotNull List<? extends List<Item>> items, @NotNull Mode mode, long tolerance) {
+        Validate.notNull(items);
+        Validate.notNull(mode);
+        final Source[] sources = new Source[items.size()];
+        for (int s = 0; s < sources.length; s++) {
+            final List<Item> list = items.get(s);
+            sources[s] = Source.of(list, list instanceof StoreItemList ? ((StoreItemList) list).getStore() : null,
+                    null);
+        }
+        return new TimeJoin(sources, mode, tolerance);
+    }
+
+    /**
+     * Get the number of series.
+     *
+     * @return The number of value columns
+     */
+    public int getColumnCount() {
+        return sources.length;
+    }
+
+    /**
+     * Move to the next row.
+     *
+     * @return false if there is no more row
+     */
+    public boolean next() {
+        if (sources.length == 0) return false;
+        switch (mode) {
+            case OUTER:
+                return nextOuter();
+            case INNER:
+                return nextInner();
+            default:
+                return nextAsOf();
+        }
+    }
+
+    private boolean nextOuter() {
+        long first = Long.MAX_VALUE;
+        boolean found = false;
+        for (int s = 0; s < sources.length; s++) {
+            if (next[s] < sources[s].size) {
+                first = Math.min(first, sources[s].getTime(next[s]));
+                found = true;
+            }
+        }
+        if (!found) return false;
+        time = first;
+        for (int s = 0; s < sources.length; s++) {
+            if (next[s] < sources[s].size && sources[s].getTime(next[s]) - first <= tolerance) {
+                row[s] = next[s]++;
+            } else {
+                row[s] = -1;
+            }
+        }
+        return true;
+    }
+
+    private boolean nextInner() {
+        while (true) {
+            long first = Long.MAX_VALUE;
+            int earliest = -1;
+            for (int s = 0; s < sources.length; s++) {
+                if (next[s] == sources[s].size) return false;
+                final long date = sources[s].getTime(next[s]);
+                if (date < first) {
+                    first = date;
+                    earliest = s;
+                }
+            }
+            boolean complete = true;
+            for (int s = 0; s < sources.length && complete; s++) {
+                complete = sources[s].getTime(next[s]) - first <= tolerance;
+            }
+            if (!complete) {
+                next[earliest]++; // This item is in no row
+                continue;
+            }
+            time = first;
+            for (int s = 0; s < sources.length; s++) row[s] = next[s]++;
+            return true;
+        }
+    }
+
+    private boolean nextAsOf() {
+        final Source reference = sources[0];
+        if (next[0] == reference.size) return false;
+        row[0] = next[0]++;
+        time = reference.getTime(row[0]);
+        interpolated[0] = reference.getMiddle(row[0]);
+        for (int s = 1; s < sources.length; s++) {
+            final Source source = sources[s];
+            next[s] = source.indexAfter(time, next[s]);
+            final int before = next[s] - 1;
+            row[s] = -1;
+            if (before < 0) continue;
+            final long date = source.getTime(before);
+            if (mode == Mode.AS_OF) {
+                if (time - date <= tolerance) row[s] = before;
+            } else if (date == time) {
+                row[s] = before;
+                interpolated[s] = source.getMiddle(before);
+            } else if (next[s] < source.size && !source.hasGap(before, next[s])) {
+                final long after = source.getTime(next[s]);
+                if (after - date > tolerance) continue;
+                final double ratio = (time - date) / (double) (after - date);
+                final double value = source.getMiddle(before);
+                row[s] = before;
+                interpolated[s] = value + ratio * (source.getMiddle(next[s]) - value);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the next rows in arrays, for instance to compute an {@link org.cds06.speleograph.data.expression.Formula
+     * expression} on them.
+     * <p>Values are the ones of {@link #getMiddle(int)}, NaN when a series has no value in a row.</p>
+     *
+     * @param times  The array of the dates of rows
+     * @param values The array of the values of each series
+     * @param max    The maximal number of rows to read
+     * @return The number of rows read, less than {@code max} only after the last row
+     */
+    public int read(long[] times, double[][] values, int max) {
+        int count = 0;
+        while (count < max && next()) {
+            times[count] = time;
+            for (int s = 0; s < sources.length; s++) values[s][count] = row[s] < 0 ? Double.NaN : getMiddle(s);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Get the date of the current row.
+     *
+     * @return The date in milliseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Determine if a series has a value in the current row.
+     *
+     * @param column The series index
+     * @return true if the series has a value
+     */
+    public boolean hasValue(int column) {
+        return row[column] >= 0;
+    }
+
+    /**
+     * Get the item of a series in the current row.
+     *
+     * @param column The series index
+     * @return The item index in the series, -1 if the series has no value in the row. For
+     *         {@link Mode#INTERPOLATED}, this is the item before the date of the row.
+     */
+    public int getIndex(int column) {
+        return row[column];
+    }
+
+    /**
+     * Get the date of the item of a series in the current row.
+     * <p>It may differ from the date of the row, up to the tolerance.</p>
+     *
+     * @param column The series index, it must have a value in the row
+     * @return The date in milliseconds
+     */
+    public long getItemTime(int column) {
+        return sources[column].getTime(row[column]);
+    }
+
+    /**
+     * Get the value of a series in the current row.
+     *
+     * @param column The series index, it must have a value in the row
+     * @return The value (NaN for min/max items)
+     */
+    public double getValue(int column) {
+        return sources[column].getValue(row[column]);
+    }
+
+    /**
+     * Get the low value of a series in the current row.
+     *
+     * @param column The series index, it must have a value in the row
+     * @return The low value (NaN if items are not min/max ones)
+     */
+    public double getLow(int column) {
+        return sources[column].getLow(row[column]);
+    }
+
+    /**
+     * Get the high value of a series in the current row.
+     *
+     * @param column The series index, it must have a value in the row
+     * @return The high value (NaN if items are not min/max ones)
+     */
+    public double getHigh(int column) {
+        return sources[column].getHigh(row[column]);
+    }
+
+    /**
+     * Get a single value of a series in the current row: the value of the item, or the middle of its low and high
+     * values for min/max items. For {@link Mode#INTERPOLATED}, it is the interpolated value.
+     *
+     * @param column The series index, it must have a value in the row
+     * @return The value
+     */
+    public double getMiddle(int column) {
+        if (mode == Mode.INTERPOLATED) return interpolated[column];
+        return sources[column].getMiddle(row[column]);
+    }
+
+    /**
+     * Items of a series, read from its store or from a list.
+     */
+    private abstract static class Source {
+        final int size;
+        private final SamplingIndex index;
+
+        private Source(int size, SamplingIndex index) {
+            this.size = size;
+            this.index = index != null && index.getCount() == size ? index : null;
+        }
+
+        static Source of(final List<Item> items, final SeriesStore store, SamplingIndex index) {
+            if (store != null) {
+                return new Source(items.size(), index) {
+                    @Override
+                    long getTime(int i) {
+                        return store.getTime(i);
+                    }
+
+                    @Override
+                    double getValue(int i) {
+                        return store.getValue(i);
+                    }
+
+                    @Override
+                    double getLow(int i) {
+                        return store.getLow(i);
+                    }
+
+                    @Override
+                    double getHigh(int i) {
+                        return store.getHigh(i);
+                    }
+                };
+            }
+            return new Source(items.size(), index) {
+                @Override
+                long getTime(int i) {
+                    return items.get(i).getDate().getTime();
+                }
+
+                @Override
+                double getValue(int i) {
+                    return items.get(i).getValue();
+                }
+
+                @Override
+                double getLow(int i) {
+                    return items.get(i).getLow();
+                }
+
+                @Override
+                double getHigh(int i) {
+                    return items.get(i).getHigh();
+                }
+            };
+        }
+
+        abstract long getTime(int i);
+
+        abstract double getValue(int i);
+
+        abstract double getLow(int i);
+
+        abstract double getHigh(int i);
+
+        double getMiddle(int i) {
+            final double value = getValue(i);
+            return Double.isNaN(value) ? (getLow(i) + getHigh(i)) / 2 : value;
+        }
+
+        /**
+         * Search the first item after a date, from an item which is not after it.
+         */
+        int indexAfter(long time, int from) {
+            if (index != null && index.isRegular() && time < Long.MAX_VALUE) {
+                return Math.max(from, index.indexOf(time + 1)); // Dates of segments are not read
+            }
+            int i = from;
+            while (i < size && getTime(i) <= time) i++;
+            return i;
+        }
+
+        boolean hasGap(int from, int to) {
+            return index != null && index.hasGap(from, to);
+        }
+    }
+}
@@ -40,8 +40,15 @@ public class Type extends DatasetGroup implements Comparable<Type>, Cloneable {
     public static final int DEFAULT_SIZE = 7;
     private static final ArrayList<Type> instances = new ArrayList<>(DEFAULT_SIZE);
 
+    /**
+     * Get all known types.
+     *
+     * @return A copy of the types list.
+     */
     public static ArrayList<Type> getInstances() {
-        return instances;
+        synchronized (instances) {
+            return new ArrayList<>(instances);
+        }
     }
 
     public static final Type UNKNOWN = Type.getType("Data", null);
@@ -62,13 +69,15 @@ public class Type extends DatasetGroup implements Comparable<Type>, Cloneable {
      */
     public static Type getType(@NotNull @NonNls String name, @NonNls String unit) {
         Validate.notBlank(name, "Type name can not be blank"); // NON-NLS
-        for (Type type : instances) {
-            if (type.name.equals(name) &&
-                    type.unit.equals(unit)) {
-                return type;
+        synchronized (instances) { // Files can be read in parallel
+            for (Type type : instances) {
+                if (type.name.equals(name) &&
+                        type.unit.equals(unit)) {
+                    return type;
+                }
             }
+            return new Type(unit, name);
         }
-        return new Type(unit, name);
     }
 
     /**
@@ -104,7 +113,9 @@ public class Type extends DatasetGroup implements Comparable<Type>, Cloneable {
 
     public Type(String unit) {
         if (unit != null) this.unit = unit;
-        instances.add(this);
+        synchronized (instances) {
+            instances.add(this);
+        }
     }
 
     public Type(String unit, String name) {
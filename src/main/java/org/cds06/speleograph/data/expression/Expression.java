@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.expression;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.util.Arrays;
+
+/**
+ * Node of the syntax tree of a formula.
+ * <p>A node computes its values for a chunk of rows at once: {@link #evaluate(double[][], int)} gets the values of
+ * the series for each row and returns the values of the node in a buffer of the node. So each operation is a simple
+ * loop over primitive arrays, and a formula costs a few loops by chunk instead of a walk in the tree by row.</p>
+ * <p>Nodes keep buffers and the state of functions like {@code cumsum}, so a tree is evaluated by one thread, in the
+ * order of rows.</p>
+ *
+ * @author Philippe VIENNE
+ * @see Formula
+ * @since 2.0
+ */
+abstract class Expression {
+
+    /**
+     * Maximal number of rows evaluated at once.
+     */
+    static final int CHUNK_SIZE = 1024;
+
+    protected final double[] buffer = new double[CHUNK_SIZE];
+
+    /**
+     * Compute the values of the node.
+     *
+     * @param columns The values of each series of the formula for the rows
+     * @param count   The number of rows
+     * @return An array with the value of each row in its first cells, it must not be modified.
+     */
+    abstract double[] evaluate(double[][] columns, int count);
+
+    /**
+     * Simplify the node, operations on constants are computed once.
+     *
+     * @return The simplified node
+     */
+    Expression simplify() {
+        return this;
+    }
+
+    /**
+     * Determine if the node always has the same value.
+     */
+    boolean isConstant() {
+        return false;
+    }
+
+    /**
+     * A number.
+     */
+    static final class Constant extends Expression {
+        private final double value;
+
+        Constant(double value) {
+            this.value = value;
+            Arrays.fill(buffer, value);
+        }
+
+        @Override
+        double[] evaluate(double[][] columns, int count) {
+            return buffer;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return Double.toString(value);
+        }
+    }
+
+    /**
+     * The value of a series.
+     */
+    static final class Variable extends Expression {
+        private final int column;
+        private final String name;
+
+        Variable(int column, String name) {
+            this.column = column;
+            this.name = name;
+        }
+
+        @Override
+        double[] evaluate(double[][] columns, int count) {
+            return columns[column];
+        }
+
+        @Override
+        public String toString() {
+            return "[" + name + "]";
+        }
+    }
+
+    /**
+     * An arithmetic operation.
+     */
+    static final class Binary extends Expression {
+        private final char operator;
+        private Expression left, right;
+
+        Binary(char operator, Expression left, Expression right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double[] evaluate(double[][] columns, int count) {
+            final double[] a = left.evaluate(columns, count), b = right.evaluate(columns, count), out = buffer;
+            switch (operator) {
+                case '+':
+                    for (int i = 0; i < count; i++) out[i] = a[i] + b[i];
+                    break;
+                case '-':
+                    for (int i = 0; i < count; i++) out[i] = a[i] - b[i];
+                    break;
+                case '*':
+                    for (int i = 0; i < count; i++) out[i] = a[i] * b[i];
+                    break;
+                case '/':
+                    for (int i = 0; i < count; i++) out[i] = a[i] / b[i];
+                    break;
+                default:
+                    for (int i = 0; i < count; i++) out[i] = Math.pow(a[i], b[i]);
+            }
+            return out;
+        }
+
+        @Override
+        Expression simplify() {
+            left = left.simplify();
+            right = right.simplify();
+            if (left.isConstant() && right.isConstant()) return new Constant(evaluate(null, 1)[0]);
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " " + operator + " " + right + ")";
+        }
+    }
+
+    /**
+     * A function call.
+     */
+    static final class Function extends Expression {
+
+        /**
+         * Names of functions, with their number of arguments.
+         */
+        @NonNls
+        static final String[] NAMES = {"abs", "sqrt", "exp", "ln", "log10", "min", "max", "cumsum", "diff"};
+        static final int[] ARGUMENTS = {1, 1, 1, 1, 1, 2, 2, 1, 1};
+
+        private final String name;
+        private final Expression[] arguments;
+        /**
+         * State of functions which depend on previous rows.
+         */
+        private double state = 0;
+        private boolean started = false;
+
+        Function(String name, Expression... arguments) {
+            this.name = name;
+            this.arguments = arguments;
+        }
+
+        @Override
+        double[] evaluate(double[][] columns, int count) {
+            final double[] a = arguments[0].evaluate(columns, count), out = buffer;
+            switch (name) {
+                case "abs":
+                    for (int i = 0; i < count; i++) out[i] = Math.abs(a[i]);
+                    break;
+                case "sqrt":
+                    for (int i = 0; i < count; i++) out[i] = Math.sqrt(a[i]);
+                    break;
+                case "exp":
+                    for (int i = 0; i < count; i++) out[i] = Math.exp(a[i]);
+                    break;
+                case "ln":
+                    for (int i = 0; i < count; i++) out[i] = Math.log(a[i]);
+                    break;
+                case "log10":
+                    for (int i = 0; i < count; i++) out[i] = Math.log10(a[i]);
+                    break;
+                case "min": {
+                    final double[] b = arguments[1].evaluate(columns, count);
+                    for (int i = 0; i < count; i++) out[i] = Math.min(a[i], b[i]);
+                    break;
+                }
+                case "max": {
+                    final double[] b = arguments[1].evaluate(columns, count);
+                    for (int i = 0; i < count; i++) out[i] = Math.max(a[i], b[i]);
+                    break;
+                }
+                case "cumsum": {
+                    // Rows without value do not change the sum
+                    double sum = state;
+                    for (int i = 0; i < count; i++) {
+                        if (!Double.isNaN(a[i])) sum += a[i];
+                        out[i] = sum;
+                    }
+                    state = sum;
+                    break;
+                }
+                default: {
+                    // diff: difference with the previous row which has a value
+                    for (int i = 0; i < count; i++) {
+                        out[i] = started ? a[i] - state : Double.NaN;
+                        if (!Double.isNaN(a[i])) {
+                            state = a[i];
+                            started = true;
+                        }
+                    }
+                }
+            }
+            return out;
+        }
+
+        @Override
+        Expression simplify() {
+            boolean constant = true;
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = arguments[i].simplify();
+                constant &= arguments[i].isConstant();
+            }
+            if (constant && !"cumsum".equals(name) && !"diff".equals(name)) { // NON-NLS
+                return new Constant(evaluate(null, 1)[0]);
+            }
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder(name).append('(');
+            for (int i = 0; i < arguments.length; i++) {
+                if (i > 0) builder.append(", ");
+                builder.append(arguments[i]);
+            }
+            return builder.append(')').toString();
+        }
+    }
+}
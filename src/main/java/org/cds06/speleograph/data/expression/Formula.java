@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.expression;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.data.SamplingIndex;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.TimeJoin;
+import org.cds06.speleograph.data.Type;
+import org.cds06.speleograph.data.store.StoreBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Formula which computes a new series from other ones, for instance {@code (P_cave - P_surface) * 1.02 / 100} or
+ * {@code cumsum(rain)}.
+ * <p>A formula uses numbers, the operators {@code + - * / ^}, parenthesis, the functions {@code abs sqrt exp ln log10}
+ * of a value, {@code min max} of two values, {@code cumsum} (sum of the values since the first item) and {@code diff}
+ * (difference with the previous value). Series are named by their identifier (see {@link #getVariables(List)}) or by
+ * their name between brackets: {@code [Pression cave]}.</p>
+ * <p>The new series has an item at the date of each item of the first series of the formula. Values of the other
+ * series are interpolated at this date, between their items before and after it: dates out of the range of a series,
+ * or in one of its {@link SamplingIndex gaps}, get no item. For min/max items, the middle of low and high values is
+ * used.</p>
+ * <p>Rows are read from a {@link TimeJoin} and computed by chunks of primitive values, see {@link Expression}.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class Formula {
+
+    private final String text;
+    private final Expression expression;
+    private final List<Series> series;
+
+    private Formula(String text, Expression expression, List<Series> series) {
+        this.text = text;
+        this.expression = expression;
+        this.series = series;
+    }
+
+    /**
+     * Read a formula.
+     *
+     * @param text      The formula
+     * @param variables The series which can be used by their identifier, see {@link #getVariables(List)}
+     * @return The formula
+     * @throws FormulaError If the text is not a valid formula or does not use a series.
+     */
+    public static Formula parse(@NotNull String text, @NotNull Map<String, Series> variables) throws FormulaError {
+        Validate.notNull(text);
+        final FormulaParser parser = new FormulaParser(text, variables);
+        final Expression expression = parser.parse();
+        if (parser.series.isEmpty()) throw new FormulaError(I18nSupport.translate("formula.error.noSeries"), 0);
+        return new Formula(text, expression, parser.series);
+    }
+
+    /**
+     * Give an identifier to series, it can be written in a formula without brackets.
+     * <p>The identifier is the name of the series where characters other than letters and digits are replaced by
+     * {@code _}. Series with the same identifier get a number after it.</p>
+     *
+     * @param series The series
+     * @return The series by identifier, in the order of the list
+     */
+    public static Map<String, Series> getVariables(@NotNull List<Series> series) {
+        final Map<String, Series> variables = new LinkedHashMap<>();
+        for (Series s : series) {
+            final StringBuilder builder = new StringBuilder();
+            for (char c : s.getName().trim().toCharArray()) {
+                if (Character.isLetterOrDigit(c)) builder.append(c);
+                else if (builder.length() > 0 && builder.charAt(builder.length() - 1) != '_') builder.append('_');
+            }
+            while (builder.length() > 0 && builder.charAt(builder.length() - 1) == '_') {
+                builder.setLength(builder.length() - 1);
+            }
+            if (builder.length() == 0 || Character.isDigit(builder.charAt(0))) builder.insert(0, "s_"); // NON-NLS
+            String identifier = builder.toString();
+            for (int n = 2; variables.containsKey(identifier); n++) identifier = builder.toString() + "_" + n;
+            variables.put(identifier, s);
+        }
+        return variables;
+    }
+
+    /**
+     * Get the series used by the formula.
+     *
+     * @return The series, the first one gives the dates of the result.
+     */
+    public List<Series> getSeries() {
+        return Collections.unmodifiableList(series);
+    }
+
+    /**
+     * Compute the formula in a new series.
+     * <p>The result is built by a {@link StoreBuilder}, a big one is written directly in a mapped store.</p>
+     *
+     * @param type The type of the new series
+     * @return The new series, with the origin of the first series of the formula
+     * @throws IOException If the mapped store of a big result can not be written
+     */
+    public Series createSeries(@NotNull Type type) throws IOException {
+        final Series reference = series.get(0);
+        final TimeJoin join = TimeJoin.of(series, TimeJoin.Mode.INTERPOLATED, Long.MAX_VALUE);
+        final int size = reference.getItemCount();
+        final Series newSeries = new Series(reference.getOrigin(), type);
+        final long[] times = new long[Expression.CHUNK_SIZE];
+        final double[][] values = new double[series.size()][Expression.CHUNK_SIZE];
+        // Rows with a finite result, the arrays of the join and of the expression are not modified
+        final long[] finiteTimes = new long[Expression.CHUNK_SIZE];
+        final double[] finiteResults = new double[Expression.CHUNK_SIZE];
+        StoreBuilder builder = null;
+        try {
+            builder = new StoreBuilder(false, size);
+            int count;
+            while ((count = join.read(times, values, Expression.CHUNK_SIZE)) > 0) {
+                final double[] results = expression.evaluate(values, count);
+                int finite = 0;
+                for (int i = 0; i < count; i++) {
+                    if (Double.isNaN(results[i]) || Double.isInfinite(results[i])) continue;
+                    finiteTimes[finite] = times[i];
+                    finiteResults[finite] = results[i];
+                    finite++;
+                }
+                builder.append(finiteTimes, finiteResults, null, null, finite);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (builder != null) builder.discard();
+            newSeries.delete();
+            throw e;
+        }
+        newSeries.resetStore(builder.build());
+        return newSeries;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
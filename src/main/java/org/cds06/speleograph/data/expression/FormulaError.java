@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.expression;
+
+import org.jetbrains.annotations.Nls;
+
+/**
+ * Represents an error in the text of a formula.
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class FormulaError extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int position;
+
+    public FormulaError(@Nls String message, int position) {
+        super(message);
+        this.position = position;
+    }
+
+    /**
+     * Get the place of the error.
+     *
+     * @return The index of the character in the formula where the error has been found.
+     */
+    public int getPosition() {
+        return position;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.expression;
+
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.data.Series;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recursive descent parser of formulas.
+ * <p>Grammar, from the lowest priority to the highest one:</p>
+ * <pre>
+ * sum     = product (("+" | "-") product)*
+ * product = unary (("*" | "/") unary)*
+ * unary   = "-" unary | power
+ * power   = primary ("^" unary)?
+ * primary = number | identifier | "[" series name "]" | function "(" sum ("," sum)* ")" | "(" sum ")"
+ * </pre>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+class FormulaParser {
+
+    private final String text;
+    private final Map<String, Series> variables;
+    private int position = 0;
+
+    /**
+     * Series used by the formula, the index of a series is its column.
+     */
+    final List<Series> series = new ArrayList<>();
+
+    FormulaParser(String text, Map<String, Series> variables) {
+        this.text = text;
+        this.variables = variables;
+    }
+
+    Expression parse() throws FormulaError {
+        final Expression expression = parseSum();
+        skipSpaces();
+        if (position < text.length()) throw unexpected();
+        return expression.simplify();
+    }
+
+    private Expression parseSum() throws FormulaError {
+        Expression expression = parseProduct();
+        while (true) {
+            if (accept('+')) expression = new Expression.Binary('+', expression, parseProduct());
+            else if (accept('-')) expression = new Expression.Binary('-', expression, parseProduct());
+            else return expression;
+        }
+    }
+
+    private Expression parseProduct() throws FormulaError {
+        Expression expression = parseUnary();
+        while (true) {
+            if (accept('*')) expression = new Expression.Binary('*', expression, parseUnary());
+            else if (accept('/')) expression = new Expression.Binary('/', expression, parseUnary());
+            else return expression;
+        }
+    }
+
+    private Expression parseUnary() throws FormulaError {
+        if (accept('-')) return new Expression.Binary('-', new Expression.Constant(0), parseUnary());
+        final Expression expression = parsePrimary();
+        if (accept('^')) return new Expression.Binary('^', expression, parseUnary());
+        return expression;
+    }
+
+    private Expression parsePrimary() throws FormulaError {
+        skipSpaces();
+        if (position >= text.length()) {
+            throw new FormulaError(I18nSupport.translate("formula.error.end"), position);
+        }
+        final int start = position;
+        final char c = text.charAt(position);
+        if (accept('(')) {
+            final Expression expression = parseSum();
+            expect(')');
+            return expression;
+        }
+        if (accept('[')) {
+            final int end = text.indexOf(']', position);
+            if (end < 0) throw new FormulaError(I18nSupport.translate("formula.error.end"), text.length());
+            position = end + 1;
+            return variable(text.substring(start + 1, end), start);
+        }
+        if (Character.isDigit(c) || c == '.') {
+            while (position < text.length() && (Character.isDigit(text.charAt(position)) ||
+                    text.charAt(position) == '.')) position++;
+            if (position < text.length() && Character.toLowerCase(text.charAt(position)) == 'e') {
+                position++;
+                if (position < text.length() && (text.charAt(position) == '+' || text.charAt(position) == '-')) {
+                    position++;
+                }
+                while (position < text.length() && Character.isDigit(text.charAt(position))) position++;
+            }
+            try {
+                return new Expression.Constant(Double.parseDouble(text.substring(start, position)));
+            } catch (NumberFormatException e) {
+                position = start;
+                throw unexpected();
+            }
+        }
+        if (Character.isLetter(c) || c == '_') {
+            while (position < text.length() && (Character.isLetterOrDigit(text.charAt(position)) ||
+                    text.charAt(position) == '_')) position++;
+            final String name = text.substring(start, position);
+            if (accept('(')) return function(name, start);
+            return variable(name, start);
+        }
+        throw unexpected();
+    }
+
+    private Expression function(String name, int start) throws FormulaError {
+        final List<Expression> arguments = new ArrayList<>(2);
+        arguments.add(parseSum());
+        while (accept(',')) arguments.add(parseSum());
+        expect(')');
+        for (int f = 0; f < Expression.Function.NAMES.length; f++) {
+            if (!Expression.Function.NAMES[f].equals(name)) continue;
+            if (arguments.size() != Expression.Function.ARGUMENTS[f]) {
+                throw new FormulaError(I18nSupport.translate("formula.error.arguments", name,
+                        Expression.Function.ARGUMENTS[f]), start);
+            }
+            return new Expression.Function(name, arguments.toArray(new Expression[arguments.size()]));
+        }
+        throw new FormulaError(I18nSupport.translate("formula.error.unknownFunction", name), start);
+    }
+
+    private Expression variable(String name, int start) throws FormulaError {
+        Series s = variables.get(name);
+        for (Iterator<Series> i = variables.values().iterator(); s == null && i.hasNext(); ) {
+            final Series candidate = i.next();
+            if (candidate.getName().equals(name)) s = candidate;
+        }
+        if (s == null) throw new FormulaError(I18nSupport.translate("formula.error.unknownSeries", name), start);
+        int column = series.indexOf(s);
+        if (column < 0) {
+            column = series.size();
+            series.add(s);
+        }
+        return new Expression.Variable(column, name);
+    }
+
+    private void skipSpaces() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) position++;
+    }
+
+    /**
+     * Read a character if it is the next one.
+     *
+     * @return true if the character has been read
+     */
+    private boolean accept(char c) {
+        skipSpaces();
+        if (position < text.length() && text.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) throws FormulaError {
+        if (!accept(c)) {
+            if (position >= text.length()) {
+                throw new FormulaError(I18nSupport.translate("formula.error.end"), position);
+            }
+            throw unexpected();
+        }
+    }
+
+    private FormulaError unexpected() {
+        return new FormulaError(I18nSupport.translate("formula.error.unexpected", text.charAt(position),
+                position + 1), position);
+    }
+}
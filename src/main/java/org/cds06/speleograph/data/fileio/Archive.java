@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.fileio;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Item;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.Type;
+import org.cds06.speleograph.data.store.CompressedStore;
+import org.cds06.speleograph.data.store.SeriesStore;
+import org.cds06.speleograph.data.store.StoreItemList;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Archive of the data of several sites, to compare them over years without reading the original files again.
+ * <p>An archive is a directory. Each series added to it is saved as a partition: a {@link ColumnarFileWriter columnar
+ * file} with the items of one type for one site, sorted by date. The catalog file of the directory lists the
+ * partitions with their site, type and dates, so a query like "all temperatures of a site between two dates" only
+ * opens the partitions of this site and type which have data in the range, then only reads their chunks which may be
+ * in it.</p>
+ * <p>An archive is not meant to be modified by two applications at the same time.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class Archive {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(Archive.class);
+
+    /**
+     * Name of the catalog file in the archive directory.
+     */
+    @NonNls
+    public static final String CATALOG = "catalog.sgarc";
+
+    private static final int MAGIC = 0x53474152; // "SGAR"
+    private static final int VERSION = 1;
+
+    private final File directory;
+    private final List<Partition> partitions = new ArrayList<>();
+    private int nextId = 1;
+
+    private Archive(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Open an archive, it is created if the directory has no catalog.
+     *
+     * @param directory The directory of the archive
+     * @return The archive
+     * @throws IOException If the directory can not be created or the catalog can not be read.
+     */
+    public static Archive open(@NotNull File directory) throws IOException {
+        Validate.notNull(directory);
+        final Archive archive = new Archive(directory.getAbsoluteFile());
+        final File catalog = new File(archive.directory, CATALOG);
+        if (!catalog.isFile()) {
+            if (!archive.directory.isDirectory() && !archive.directory.mkdirs()) {
+                throw new IOException("Can not create the archive " + directory);
+            }
+            return archive;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(catalog)))) {
+            if (in.readInt() != MAGIC || in.readInt() > VERSION) {
+                throw new IOException(catalog + " is not an archive catalog");
+            }
+            archive.nextId = in.readInt();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) archive.partitions.add(new Partition(in));
+        }
+        return archive;
+    }
+
+    /**
+     * Determine if a directory is an archive.
+     *
+     * @param directory The directory to check
+     * @return true if it contains an archive catalog.
+     */
+    public static boolean isArchive(@NotNull File directory) {
+        return new File(directory, CATALOG).isFile();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the partitions of the archive.
+     *
+     * @return Unmodifiable list of partitions, in the order they have been added.
+     */
+    public List<Partition> getPartitions() {
+        return Collections.unmodifiableList(partitions);
+    }
+
+    /**
+     * Get the sites of the archive.
+     *
+     * @return The names of sites, sorted.
+     */
+    public List<String> getSites() {
+        final Set<String> sites = new TreeSet<>();
+        for (Partition partition : partitions) sites.add(partition.site);
+        return new ArrayList<>(sites);
+    }
+
+    /**
+     * Get the types archived for a site.
+     *
+     * @param site The site name
+     * @return The types, in the order they have been added.
+     */
+    public List<Type> getTypes(@NotNull String site) {
+        final Set<Type> types = new LinkedHashSet<>();
+        for (Partition partition : partitions) {
+            if (partition.site.equals(site)) types.add(partition.getType());
+        }
+        return new ArrayList<>(types);
+    }
+
+    /**
+     * Add series to the archive, each one in a new partition.
+     * <p>Items do not have to be sorted, they are sorted in the partition. Empty series are not added. The catalog is
+     * saved once all partitions are written: if one of them fails, nothing is added.</p>
+     *
+     * @param site    The site where the series have been measured
+     * @param entries The series to add and their items, see {@link ColumnarFileWriter#snapshot(java.util.List)}
+     * @return The new partitions
+     * @throws IOException If a partition or the catalog can not be written.
+     */
+    public List<Partition> add(@NotNull String site, @NotNull List<ColumnarFileWriter.Entry> entries)
+            throws IOException {
+        Validate.notBlank(site);
+        final List<Partition> added = new ArrayList<>();
+        final int firstId = nextId;
+        boolean done = false;
+        try {
+            for (ColumnarFileWriter.Entry entry : entries) {
+                final List<Item> sorted = sortByDate(entry.getItems());
+                if (sorted.isEmpty()) continue;
+                final Partition partition = new Partition(nextId++, site.trim(), entry.getTypeName(), entry.getUnit(),
+                        entry.getOrigin(), sorted.get(0).getDate().getTime(),
+                        sorted.get(sorted.size() - 1).getDate().getTime(), sorted.size());
+                new ColumnarFileWriter().write(getFile(partition), Collections.singletonList(entry.withItems(sorted)));
+                added.add(partition);
+            }
+            partitions.addAll(added);
+            saveCatalog();
+            done = true;
+        } finally {
+            if (!done) {
+                partitions.removeAll(added);
+                for (Partition partition : added) Files.deleteIfExists(getFile(partition).toPath());
+                nextId = firstId;
+            }
+        }
+        log.info(added.size() + " partitions added to " + directory + " for " + site);
+        return added;
+    }
+
+    /**
+     * Get the items of a list sorted by date, the list is returned if it is already sorted.
+     */
+    private static List<Item> sortByDate(List<Item> items) {
+        final SeriesStore store = items instanceof StoreItemList ? ((StoreItemList) items).getStore() : null;
+        for (int i = 1; i < items.size(); i++) {
+            final boolean before = store != null ? store.getTime(i) < store.getTime(i - 1) :
+                    items.get(i).getDate().before(items.get(i - 1).getDate());
+            if (before) {
+                final List<Item> sorted = new ArrayList<>(items);
+                Collections.sort(sorted, DATE_ORDER);
+                return sorted;
+            }
+        }
+        return items;
+    }
+
+    private static final Comparator<Item> DATE_ORDER = new Comparator<Item>() {
+        @Override
+        public int compare(Item o1, Item o2) {
+            return o1.getDate().compareTo(o2.getDate());
+        }
+    };
+
+    /**
+     * Read the data of a site.
+     * <p>A series is created for each type of the site accepted by options, with the items in the date range of
+     * options. Series are created on the current thread, see {@link Series#startBatch()}.</p>
+     *
+     * @param site    The site name
+     * @param options The types and the date range to read
+     * @return The created series
+     * @throws IOException If a partition can not be read.
+     */
+    public List<Series> query(@NotNull String site, @NotNull ReadOptions options) throws IOException {
+        Validate.notNull(site);
+        Validate.notNull(options);
+        final long start = System.nanoTime();
+        final long from = options.getStart() == null ? Long.MIN_VALUE : options.getStart().getTime();
+        final long to = options.getEnd() == null ? Long.MAX_VALUE : options.getEnd().getTime();
+        final List<Series> created = new ArrayList<>();
+        int itemCount = 0;
+        for (Type type : getTypes(site)) {
+            if (!options.accept(type)) continue;
+            final List<Partition> selected = new ArrayList<>();
+            for (Partition partition : partitions) {
+                if (partition.site.equals(site) && partition.getType().equals(type) && partition.last >= from &&
+                        partition.first <= to) selected.add(partition);
+            }
+            if (selected.isEmpty()) continue;
+            Collections.sort(selected, new Comparator<Partition>() {
+                @Override
+                public int compare(Partition o1, Partition o2) {
+                    return Long.compare(o1.first, o2.first);
+                }
+            });
+            final List<Part> parts = new ArrayList<>(selected.size());
+            for (Partition partition : selected) {
+                final CompressedStore store = ColumnarFileReader.readStores(getFile(partition), options).get(0);
+                if (store == null) continue;
+                final Part part = new Part(store, lowerBound(store, from), upperBound(store, to));
+                if (part.from < part.to) parts.add(part);
+            }
+            if (parts.isEmpty()) continue;
+            final Series series = new Series(new File(directory, site), type);
+            series.setMinMax(parts.get(0).store.isMinMax());
+            if (isSequence(parts)) {
+                series.resetStore(concat(parts));
+            } else {
+                series.resetItems(merge(series, parts));
+            }
+            itemCount += series.getItemCount();
+            created.add(series);
+        }
+        log.info(itemCount + " items of " + site + " read in " + (System.nanoTime() - start) / 1000000 + " ms");
+        return created;
+    }
+
+    /**
+     * Get the index of the first item at or after a date in a sorted store.
+     */
+    private static int lowerBound(SeriesStore store, long time) {
+        int low = 0, high = store.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (store.getTime(middle) < time) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Get the index after the last item at or before a date in a sorted store.
+     */
+    private static int upperBound(SeriesStore store, long time) {
+        int low = 0, high = store.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (store.getTime(middle) <= time) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Determine if each part starts after the end of the previous one.
+     */
+    private static boolean isSequence(List<Part> parts) {
+        for (int i = 1; i < parts.size(); i++) {
+            final Part previous = parts.get(i - 1), part = parts.get(i);
+            if (part.store.getTime(part.from) <= previous.store.getTime(previous.to - 1)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Join parts which follow each other. A part which is a whole store is used as it is.
+     */
+    private static CompressedStore concat(final List<Part> parts) {
+        final Part first = parts.get(0);
+        if (parts.size() == 1 && first.from == 0 && first.to == first.store.size()) return first.store;
+        int size = 0;
+        for (Part part : parts) size += part.to - part.from;
+        return CompressedStore.compress(new PartsStore(parts, size));
+    }
+
+    /**
+     * Merge parts whose dates overlap, for instance when a file has been added twice. An item is kept once when
+     * several parts have an item at the same date.
+     */
+    private static List<Item> merge(Series series, List<Part> parts) {
+        final List<Item> items = new ArrayList<>();
+        for (Part part : parts) {
+            items.addAll(new StoreItemList(series, part.store).subList(part.from, part.to));
+        }
+        Collections.sort(items, DATE_ORDER);
+        final List<Item> merged = new ArrayList<>(items.size());
+        for (Item item : items) {
+            if (merged.isEmpty() || !merged.get(merged.size() - 1).getDate().equals(item.getDate())) merged.add(item);
+        }
+        return merged;
+    }
+
+    private File getFile(Partition partition) {
+        return new File(directory, partition.id + "." + ColumnarFileWriter.EXTENSION);
+    }
+
+    /**
+     * Save the catalog, the previous one is atomically replaced.
+     */
+    private void saveCatalog() throws IOException {
+        final File catalog = new File(directory, CATALOG);
+        final Path temp = Files.createTempFile(directory.toPath(), CATALOG + ".", ".tmp"); // NON-NLS
+        boolean done = false;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(nextId);
+                out.writeInt(partitions.size());
+                for (Partition partition : partitions) partition.write(out);
+            }
+            SpeleoFileWriter.replace(temp.toFile(), catalog);
+            done = true;
+        } finally {
+            if (!done) Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Description of a partition in the catalog.
+     */
+    public static class Partition {
+        private final int id;
+        private final String site, type, unit, source;
+        private final long first, last;
+        private final int size;
+
+        private Partition(int id, String site, String type, @Nullable String unit, String source, long first,
+                          long last, int size) {
+            this.id = id;
+            this.site = site;
+            this.type = type;
+            this.unit = unit;
+            this.source = source;
+            this.first = first;
+            this.last = last;
+            this.size = size;
+        }
+
+        private Partition(DataInputStream in) throws IOException {
+            id = in.readInt();
+            site = in.readUTF();
+            type = in.readUTF();
+            unit = in.readBoolean() ? in.readUTF() : null;
+            source = in.readUTF();
+            first = in.readLong();
+            last = in.readLong();
+            size = in.readInt();
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeInt(id);
+            out.writeUTF(site);
+            out.writeUTF(type);
+            out.writeBoolean(unit != null);
+            if (unit != null) out.writeUTF(unit);
+            out.writeUTF(source);
+            out.writeLong(first);
+            out.writeLong(last);
+            out.writeInt(size);
+        }
+
+        public String getSite() {
+            return site;
+        }
+
+        public Type getType() {
+            return Type.getType(type, unit);
+        }
+
+        /**
+         * Get the name of the file the data come from.
+         *
+         * @return The file name
+         */
+        public String getSource() {
+            return source;
+        }
+
+        public Date getFirstDate() {
+            return new Date(first);
+        }
+
+        public Date getLastDate() {
+            return new Date(last);
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return site + " - " + getType() + " - " + source + " (" + size + ")"; // NON-NLS
+        }
+    }
+
+    /**
+     * Items {@code [from, to[} of a store read from a partition.
+     */
+    private static class Part {
+        private final CompressedStore store;
+        private final int from, to;
+
+        private Part(CompressedStore store, int from, int to) {
+            this.store = store;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Store which reads parts one after the other, it is only used to compress them in one store.
+     */
+    private static class PartsStore implements SeriesStore {
+        private final List<Part> parts;
+        private final int size;
+        private final boolean minMax;
+        private int current = 0, offset = 0;
+
+        private PartsStore(List<Part> parts, int size) {
+            this.parts = parts;
+            this.size = size;
+            minMax = parts.get(0).store.isMinMax();
+        }
+
+        /**
+         * Get the index in the store of its part of an item. Items are read in order, so the part is looked for from
+         * the part of the previous item.
+         */
+        private int locate(int index) {
+            if (index < offset) {
+                current = 0;
+                offset = 0;
+            }
+            Part part = parts.get(current);
+            while (index - offset >= part.to - part.from) {
+                offset += part.to - part.from;
+                part = parts.get(++current);
+            }
+            return part.from + index - offset;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public long getTime(int index) {
+            final int i = locate(index);
+            return parts.get(current).store.getTime(i);
+        }
+
+        @Override
+        public double getValue(int index) {
+            final int i = locate(index);
+            return parts.get(current).store.getValue(i);
+        }
+
+        @Override
+        public double getLow(int index) {
+            final int i = locate(index);
+            return parts.get(current).store.getLow(i);
+        }
+
+        @Override
+        public double getHigh(int index) {
+            final int i = locate(index);
+            return parts.get(current).store.getHigh(i);
+        }
+
+        @Override
+        public boolean isMinMax() {
+            return minMax;
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return 0;
+        }
+    }
+}
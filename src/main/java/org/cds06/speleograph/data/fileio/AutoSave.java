@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.fileio;
+
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.data.Item;
+import org.cds06.speleograph.data.Series;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Save periodically all series in a recovery file.
+ * <p>Every {@link #DEFAULT_DELAY} milliseconds, if series have changed since the last save, the headers and the items
+ * of series are taken on the Swing thread (see {@link SpeleoFileWriter#items(List)}) and a SpeleoGraph File is written
+ * on a background thread, which never reads the series. The file is written in a temporary file and renamed over the
+ * recovery file, so a crash during an autosave does not break the previous one.</p>
+ * <p>The recovery file is deleted when the application is closed normally, so if it exists on startup, the last session
+ * has crashed and the user can {@link #offerRecovery(Component) recover} it.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class AutoSave implements ActionListener {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(AutoSave.class);
+
+    /**
+     * Delay between two autosaves (in milliseconds).
+     */
+    public static final int DEFAULT_DELAY = 2 * 60 * 1000;
+
+    private final File file;
+    private final Timer timer;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@SuppressWarnings("NullableProblems") Runnable r) {
+            Thread thread = new Thread(r, "SpeleoGraph autosave"); // NON-NLS
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * Description of the series at the last autosave (only used on the Swing thread).
+     */
+    private String lastState = "";
+
+    /**
+     * True while an autosave is written (only used on the Swing thread).
+     */
+    private boolean saving = false;
+
+    /**
+     * Number of discards, an autosave started before a discard does not describe the saved series (only used on the
+     * Swing thread).
+     */
+    private int generation = 0;
+
+    /**
+     * Create an autosave.
+     *
+     * @param file  The recovery file
+     * @param delay Delay between two autosaves (in milliseconds)
+     */
+    public AutoSave(@NotNull File file, int delay) {
+        this.file = file;
+        this.timer = new Timer(delay, this);
+    }
+
+    /**
+     * Get the default recovery file.
+     *
+     * @return A file in the ".speleograph" directory of the user.
+     */
+    public static File getDefaultFile() {
+        return new File(new File(System.getProperty("user.home"), ".speleograph"), "autosave.speleo"); // NON-NLS
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Start to save series.
+     */
+    public void start() {
+        timer.start();
+    }
+
+    /**
+     * Stop to save series and delete the recovery file, it should be called when the application is closed normally.
+     */
+    public void shutdown() {
+        if (worker.isShutdown()) return;
+        timer.stop();
+        discard();
+        worker.shutdown();
+        try {
+            worker.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Delete the recovery file because the series have been saved by the user.
+     * <p>Must be called on the Swing thread.</p>
+     */
+    public void discard() {
+        generation++;
+        lastState = describe(Series.getInstances());
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Files.deleteIfExists(file.toPath());
+                } catch (IOException e) {
+                    log.warn("Can not delete the autosave " + file, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Save series if they have changed (called by the timer on the Swing thread).
+     *
+     * @param e The timer event
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (saving) return;
+        final List<Series> series = new ArrayList<>(Series.getInstances());
+        final String state = describe(series);
+        if (state.equals(lastState)) return;
+        if (series.isEmpty()) {
+            discard();
+            return;
+        }
+        final SpeleoFileWriter.Headers headers = SpeleoFileWriter.headers(series);
+        final List<List<Item>> items = SpeleoFileWriter.items(series);
+        final int started = generation;
+        saving = true;
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean saved = false;
+                try {
+                    final File directory = file.getAbsoluteFile().getParentFile();
+                    if (!directory.isDirectory() && !directory.mkdirs())
+                        throw new IOException("Can not create directory " + directory);
+                    SpeleoFileWriter.replace(new SpeleoFileWriter().writeTemporary(file, headers, items, null), file);
+                    saved = true;
+                    log.debug("Autosave written in " + file);
+                } catch (IOException | RuntimeException e) {
+                    log.error("Can not write the autosave", e);
+                }
+                final boolean success = saved;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        saving = false;
+                        if (success && generation == started) lastState = state;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Describe what would be saved of series, to know if they have changed.
+     */
+    private static String describe(List<Series> series) {
+        StringBuilder builder = new StringBuilder();
+        for (Series s : series) {
+            builder.append(System.identityHashCode(s)).append(':').append(s.getVersion()).append(':')
+                    .append(s.getItemCount()).append(':').append(s.getName()).append(':').append(s.getColor())
+                    .append(':').append(s.isShow()).append(':').append(s.getStyle()).append(':')
+                    .append(s.getAxis().getLowerBound()).append(':').append(s.getAxis().getUpperBound()).append(';');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Ask to the user if he wants to recover the series of the last session, if it has not been closed normally.
+     *
+     * @param parent The parent component for dialogs
+     * @return true if series have been recovered
+     */
+    public boolean offerRecovery(Component parent) {
+        if (!file.isFile() || file.length() == 0) return false;
+        final String date = DateFormat.getDateTimeInstance().format(new Date(file.lastModified()));
+        int result = JOptionPane.showConfirmDialog(parent,
+                I18nSupport.translate("autosave.recover.message", date),
+                I18nSupport.translate("autosave.recover.title"),
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.QUESTION_MESSAGE);
+        if (result != JOptionPane.YES_OPTION) {
+            discard();
+            return false;
+        }
+        try {
+            SpeleoFileReader.getInstance().readFile(file);
+        } catch (FileReadingError e) {
+            log.error("Can not read the autosave", e);
+            JOptionPane.showMessageDialog(parent, e.getLocalizedMessage(), I18nSupport.translate("error"),
+                    JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        lastState = describe(Series.getInstances());
+        return true;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.fileio;
+
+import org.apache.commons.io.IOCase;
+import org.apache.commons.io.filefilter.*;
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.data.Item;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.Type;
+import org.cds06.speleograph.data.store.CompressedStore;
+import org.cds06.speleograph.data.store.StoreItemList;
+import org.cds06.speleograph.graph.DrawStyle;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reader for SpeleoGraph columnar files.
+ * <p>The compressed chunks of the file are kept as they are in a {@link CompressedStore}, so series are read without
+ * creating an object by item. Chunks of series which are not asked by the options, or whose dates are out of the date
+ * range, are skipped without being read.</p>
+ *
+ * @author Philippe VIENNE
+ * @see ColumnarFileWriter The description of the file format
+ * @since 2.0
+ */
+public class ColumnarFileReader implements DataFileReader {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(ColumnarFileReader.class);
+
+    private static final AndFileFilter filter = new AndFileFilter();
+
+    static {
+        filter.addFileFilter(FileFileFilter.FILE);
+        filter.addFileFilter(CanReadFileFilter.CAN_READ);
+        filter.addFileFilter(EmptyFileFilter.NOT_EMPTY);
+        filter.addFileFilter(new SuffixFileFilter("." + ColumnarFileWriter.EXTENSION, IOCase.INSENSITIVE));
+    }
+
+    @Override
+    public void readFile(File file) throws FileReadingError {
+        readFile(file, new ReadOptions());
+    }
+
+    @Override
+    public void readFile(File file, ReadOptions options) throws FileReadingError {
+        final long start = System.nanoTime();
+        try (DataInputStream in = open(file)) {
+            if (!readHeader(in)) {
+                throw new FileReadingError(I18nSupport.translate("error.unknownFormat", file.getName()),
+                        FileReadingError.Part.HEAD);
+            }
+            for (Description description : readDescriptions(in)) {
+                readSeries(in, file, description, options);
+            }
+        } catch (IOException e) {
+            log.error("Can not read " + file, e);
+            throw new FileReadingError(I18nSupport.translate("error.canNotReadFileOrEmpty"),
+                    FileReadingError.Part.DATA, e);
+        }
+        log.info("File " + file.getName() + " read in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Read the chunks of the series of a file without creating series, types of options are not checked.
+     * <p>Used to read the partitions of an {@link Archive}.</p>
+     *
+     * @param file    The columnar file
+     * @param options The options with the date range
+     * @return For each series of the file, a store with its chunks which may have items in the date range, or null if
+     *         no chunk has.
+     * @throws IOException If the file can not be read or is not a columnar file.
+     */
+    static List<CompressedStore> readStores(File file, ReadOptions options) throws IOException {
+        try (DataInputStream in = open(file)) {
+            if (!readHeader(in)) throw new IOException(file + " is not a columnar file");
+            final List<CompressedStore> stores = new ArrayList<>();
+            for (Description description : readDescriptions(in)) {
+                stores.add(readChunks(in, description, options, true));
+            }
+            return stores;
+        }
+    }
+
+    private static DataInputStream open(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    /**
+     * Read the start of a file.
+     *
+     * @return false if it is not a columnar file or if it has been written by a newer version.
+     */
+    private static boolean readHeader(DataInputStream in) throws IOException {
+        return in.readInt() == ColumnarFileWriter.MAGIC && in.readInt() <= ColumnarFileWriter.VERSION;
+    }
+
+    private static Description[] readDescriptions(DataInputStream in) throws IOException {
+        final String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) strings[i] = in.readUTF();
+        final Description[] descriptions = new Description[in.readInt()];
+        for (int i = 0; i < descriptions.length; i++) descriptions[i] = new Description(in, strings);
+        return descriptions;
+    }
+
+    /**
+     * Read the chunks of a series, or skip them if the series is not asked.
+     */
+    private static void readSeries(DataInputStream in, File file, Description description, ReadOptions options)
+            throws IOException {
+        final Type type = Type.getType(description.type, description.unit);
+        final boolean read = options.accept(type);
+        final CompressedStore store = readChunks(in, description, options, read);
+        if (!read) return;
+        final Series series = new Series(file, type);
+        if ((description.flags & ColumnarFileWriter.SHOW) != 0) series.setShow(true);
+        if ((description.flags & ColumnarFileWriter.STEPPED) != 0) series.setStepped(true);
+        if ((description.flags & ColumnarFileWriter.HAS_COLOR) != 0) series.setColor(new Color(description.color));
+        if (description.style != null) {
+            for (DrawStyle style : DrawStyle.values()) {
+                if (style.toString().equals(description.style)) series.setStyle(style);
+            }
+        }
+        if (description.name != null) series.setName(description.name);
+        series.setMinMax((description.flags & ColumnarFileWriter.MIN_MAX) != 0);
+        if (store == null) return;
+        if (!isCut(options, description)) {
+            series.resetStore(store);
+            return;
+        }
+        // Chunks at the bounds of the date range have items out of it
+        final List<Item> items = new ArrayList<>();
+        for (Item item : new StoreItemList(series, store)) {
+            if (options.accept(item.getDate())) items.add(item);
+        }
+        series.resetItems(items);
+    }
+
+    /**
+     * Read the chunks of a series which may be in the date range, skip the other ones.
+     *
+     * @param read false to skip all chunks
+     * @return The store of read chunks, null if there is none.
+     */
+    private static CompressedStore readChunks(DataInputStream in, Description description, ReadOptions options,
+                                              boolean read) throws IOException {
+        final List<byte[]> chunks = new ArrayList<>(description.lengths.length);
+        int size = 0;
+        for (int c = 0; c < description.lengths.length; c++) {
+            if (!read || !overlaps(options, description.firsts[c], description.lasts[c])) {
+                skip(in, description.lengths[c]);
+                continue;
+            }
+            final byte[] chunk = new byte[description.lengths[c]];
+            in.readFully(chunk);
+            chunks.add(chunk);
+            size += Math.min(CompressedStore.CHUNK_SIZE, description.size - c * CompressedStore.CHUNK_SIZE);
+        }
+        if (chunks.isEmpty()) return null;
+        return CompressedStore.of(chunks.toArray(new byte[chunks.size()][]), size,
+                (description.flags & ColumnarFileWriter.MIN_MAX) != 0);
+    }
+
+    /**
+     * Determine if some of the read chunks have items out of the date range.
+     */
+    private static boolean isCut(ReadOptions options, Description description) {
+        for (int c = 0; c < description.lengths.length; c++) {
+            if (overlaps(options, description.firsts[c], description.lasts[c]) &&
+                    (!options.accept(new Date(description.firsts[c])) ||
+                            !options.accept(new Date(description.lasts[c])))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determine if dates between first and last may be in the date range of options.
+     */
+    private static boolean overlaps(ReadOptions options, long first, long last) {
+        return (options.getStart() == null || last >= options.getStart().getTime()) &&
+                (options.getEnd() == null || first <= options.getEnd().getTime());
+    }
+
+    private static void skip(DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            final int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) throw new EOFException();
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Get the name of file read by this class.
+     *
+     * @return The localized name of file.
+     */
+    @Override
+    public String getName() {
+        return I18nSupport.translate("reader.columnar");
+    }
+
+    /**
+     * Get the text for buttons or menus.
+     *
+     * @return The localized text.
+     */
+    @Override
+    public String getButtonText() {
+        return I18nSupport.translate("actions.openColumnarFile");
+    }
+
+    /**
+     * Get the FileFilter to use.
+     *
+     * @return A file filter
+     */
+    @NotNull
+    @Override
+    public IOFileFilter getFileFilter() {
+        return filter;
+    }
+
+    /**
+     * Description of a series in the file.
+     */
+    private static class Description {
+        private final String name, type, unit, style;
+        private final int flags, color, size;
+        private final long[] firsts, lasts;
+        private final int[] lengths;
+
+        private Description(DataInputStream in, String[] strings) throws IOException {
+            name = string(strings, in.readInt());
+            type = string(strings, in.readInt());
+            unit = string(strings, in.readInt());
+            style = string(strings, in.readInt());
+            flags = in.readInt();
+            color = in.readInt();
+            size = in.readInt();
+            final int count = in.readInt();
+            firsts = new long[count];
+            lasts = new long[count];
+            lengths = new int[count];
+            for (int c = 0; c < count; c++) {
+                firsts[c] = in.readLong();
+                lasts[c] = in.readLong();
+                lengths[c] = in.readInt();
+            }
+        }
+
+        private static String string(String[] strings, int index) {
+            return index < 0 ? null : strings[index];
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.fileio;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Item;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.store.AppendableStore;
+import org.cds06.speleograph.data.store.CompressedStore;
+import org.cds06.speleograph.data.store.MappedStore;
+import org.cds06.speleograph.data.store.RegularStore;
+import org.cds06.speleograph.data.store.SeriesStore;
+import org.cds06.speleograph.data.store.StoreItemList;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer for SpeleoGraph columnar files.
+ * <p>Columnar files are used to exchange big series: items are not written as text lines but as compressed columns,
+ * which are read back without parsing (see {@link ColumnarFileReader}). The file is written with a
+ * {@link DataOutputStream}:</p>
+ * <pre>
+ * "SGCF", version
+ * strings: count, then each string                 names, types, units and styles, written once
+ * series:  count, then for each series:
+ *          name, type, unit, style                 indexes in strings, -1 for none
+ *          flags, color, number of items
+ *          number of chunks, then for each chunk:  first date, last date, size in bytes
+ * data:    the chunks of all series, in the order of the descriptions
+ * </pre>
+ * <p>A chunk contains {@link CompressedStore#CHUNK_SIZE} items (less for the last one of a series) in the format of
+ * {@link CompressedStore}: the dates column is written as delta of deltas, then the values, lows and highs columns as
+ * XOR with the previous value. Regularly sampled data needs one or two bytes by item.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class ColumnarFileWriter {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(ColumnarFileWriter.class);
+
+    /**
+     * Extension of columnar files.
+     */
+    @NonNls
+    public static final String EXTENSION = "sgcol";
+
+    static final int MAGIC = 0x53474346; // "SGCF"
+    static final int VERSION = 1;
+
+    static final int SHOW = 1, MIN_MAX = 2, STEPPED = 4, HAS_COLOR = 8;
+
+    /**
+     * Take the description and the items of series to write them later.
+     * <p>Must be called on the Swing thread, the writer then only reads the returned entries. Compressed series are
+     * not copied, their chunks are written as they are. Regular stores are not copied either, they are never modified
+     * but replaced. Items of mapped or appendable stores are read from the store when the file is written: items can
+     * only be appended to these stores, so the items present now will not change.</p>
+     *
+     * @param series The series to write
+     * @return An entry for each series
+     */
+    public static List<Entry> snapshot(@NotNull List<Series> series) {
+        final List<Entry> entries = new ArrayList<>(series.size());
+        for (Series s : series) {
+            final SeriesStore store = s.getStore();
+            final List<Item> items;
+            if (store instanceof CompressedStore || store instanceof RegularStore) {
+                items = new StoreItemList(s, store);
+            } else if (store instanceof MappedStore || store instanceof AppendableStore) {
+                items = new StoreItemList(s, store, store.size());
+            } else {
+                items = new ArrayList<>(s.getItems());
+            }
+            entries.add(new Entry(s, items));
+        }
+        return entries;
+    }
+
+    /**
+     * Write series in a columnar file.
+     * <p>The destination is replaced only once the file is completely written. It can be called on any thread, series
+     * are not read.</p>
+     *
+     * @param destination The file to write
+     * @param entries     The series to write, see {@link #snapshot(java.util.List)}
+     * @throws IOException On write errors, the destination is not modified.
+     */
+    public void write(@NotNull File destination, @NotNull List<Entry> entries) throws IOException {
+        Validate.notNull(destination);
+        final long start = System.nanoTime();
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        final List<CompressedStore> stores = new ArrayList<>(entries.size());
+        final List<int[]> descriptions = new ArrayList<>(entries.size());
+        long itemCount = 0;
+        for (Entry entry : entries) {
+            final List<Item> list = entry.items;
+            final CompressedStore store;
+            if (list instanceof StoreItemList && ((StoreItemList) list).getStore() instanceof CompressedStore) {
+                store = (CompressedStore) ((StoreItemList) list).getStore();
+            } else if (list instanceof StoreItemList) {
+                store = CompressedStore.compress(((StoreItemList) list).getStore(), list.size());
+            } else {
+                store = CompressedStore.compress(list, entry.minMax);
+            }
+            stores.add(store);
+            itemCount += store.size();
+            int flags = 0;
+            if (entry.show) flags |= SHOW;
+            if (store.isMinMax()) flags |= MIN_MAX;
+            if (entry.stepped) flags |= STEPPED;
+            if (entry.color != null) flags |= HAS_COLOR;
+            descriptions.add(new int[]{
+                    entry.name != null ? index(strings, entry.name) : -1,
+                    index(strings, entry.typeName),
+                    entry.unit == null ? -1 : index(strings, entry.unit),
+                    entry.style == null ? -1 : index(strings, entry.style),
+                    flags,
+                    entry.color == null ? 0 : entry.color.getRGB()
+            });
+        }
+        final File directory = destination.getAbsoluteFile().getParentFile();
+        final Path temp = Files.createTempFile(directory.toPath(), destination.getName() + ".", ".tmp"); // NON-NLS
+        boolean done = false;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp),
+                    1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(strings.size());
+                for (String string : strings.keySet()) out.writeUTF(string);
+                out.writeInt(entries.size());
+                for (int i = 0; i < entries.size(); i++) {
+                    for (int value : descriptions.get(i)) out.writeInt(value);
+                    writeChunks(out, stores.get(i));
+                }
+                for (CompressedStore store : stores) {
+                    for (int c = 0; c < store.getChunkCount(); c++) out.write(store.getChunkData(c));
+                }
+            }
+            SpeleoFileWriter.replace(temp.toFile(), destination);
+            done = true;
+        } finally {
+            if (!done) Files.deleteIfExists(temp);
+        }
+        log.info(itemCount + " items written to " + destination.getName() + " (" + destination.length() +
+                " bytes) in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Write the number of items and the description of chunks of a store.
+     */
+    private static void writeChunks(DataOutputStream out, CompressedStore store) throws IOException {
+        out.writeInt(store.size());
+        out.writeInt(store.getChunkCount());
+        for (int c = 0; c < store.getChunkCount(); c++) {
+            final int end = Math.min(store.size(), (c + 1) * CompressedStore.CHUNK_SIZE);
+            long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+            for (int i = c * CompressedStore.CHUNK_SIZE; i < end; i++) {
+                final long time = store.getTime(i);
+                if (time < first) first = time;
+                if (time > last) last = time;
+            }
+            out.writeLong(first);
+            out.writeLong(last);
+            out.writeInt(store.getChunkData(c).length);
+        }
+    }
+
+    /**
+     * Get the index of a string in the strings of the file, the string is added if needed.
+     */
+    private static int index(Map<String, Integer> strings, String string) {
+        Integer index = strings.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.put(string, index);
+        }
+        return index;
+    }
+
+    /**
+     * A series to write: its description and its items, taken on the Swing thread.
+     */
+    public static final class Entry {
+        private final String name;
+        private final String typeName;
+        private final String unit;
+        private final String style;
+        private final String origin;
+        private final boolean show;
+        private final boolean stepped;
+        private final boolean minMax;
+        private final Color color;
+        private final List<Item> items;
+
+        private Entry(Series series, List<Item> items) {
+            name = series.isNameHumanSet() ? series.getName() : null;
+            typeName = series.getType().getName();
+            unit = series.getType().getUnit();
+            style = series.getStyle() == null ? null : series.getStyle().toString();
+            origin = series.getOrigin().getName();
+            show = series.isShow();
+            stepped = series.isStepped();
+            minMax = series.isMinMax();
+            color = series.getColor();
+            this.items = items;
+        }
+
+        private Entry(Entry entry, List<Item> items) {
+            name = entry.name;
+            typeName = entry.typeName;
+            unit = entry.unit;
+            style = entry.style;
+            origin = entry.origin;
+            show = entry.show;
+            stepped = entry.stepped;
+            minMax = entry.minMax;
+            color = entry.color;
+            this.items = items;
+        }
+
+        public String getTypeName() {
+            return typeName;
+        }
+
+        public String getUnit() {
+            return unit;
+        }
+
+        /**
+         * Get the name of the file the series was read from.
+         *
+         * @return The file name
+         */
+        public String getOrigin() {
+            return origin;
+        }
+
+        public List<Item> getItems() {
+            return items;
+        }
+
+        /**
+         * Get the same series with other items.
+         *
+         * @param items The items to write
+         * @return The new entry
+         */
+        public Entry withItems(@NotNull List<Item> items) {
+            Validate.notNull(items);
+            return new Entry(this, items);
+        }
+    }
+}
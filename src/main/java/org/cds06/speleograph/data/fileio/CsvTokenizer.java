@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.fileio;
+
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Split a CSV text into records and fields.
+ * <p>Contrary to {@link au.com.bytecode.opencsv.CSVReader}, fields are not copied into strings when a record is read:
+ * the tokenizer only keeps where each field starts and ends in its buffer. A field becomes a string only when it is
+ * {@link #get(int) asked}, so the columns which are not read cost nothing more than looking for the separators.</p>
+ * <p>Fields may be quoted, a quote inside a quoted field is written twice. An empty line is a record with one empty
+ * field, as with opencsv.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class CsvTokenizer {
+
+    private static final int BUFFER_SIZE = 16384;
+
+    private final Reader reader;
+    private final char separator;
+    private final char quote;
+
+    private char[] buffer = new char[BUFFER_SIZE];
+
+    /**
+     * Position of the next record in the buffer.
+     */
+    private int position = 0;
+
+    /**
+     * Number of chars in the buffer.
+     */
+    private int limit = 0;
+
+    private boolean endOfInput = false;
+
+    /**
+     * Number of chars removed from the start of the buffer.
+     */
+    private long discarded = 0;
+
+    /**
+     * Bounds of fields of the current record: field i is between starts[i] (included) and ends[i] (excluded).
+     */
+    private int[] starts = new int[32], ends = new int[32];
+
+    /**
+     * true for fields which contain a doubled quote.
+     */
+    private boolean[] escaped = new boolean[32];
+
+    private int size = 0;
+
+    /**
+     * Create a tokenizer.
+     *
+     * @param reader    The text to split, it is not closed by the tokenizer.
+     * @param separator The separator between fields
+     * @param quote     The char which surrounds quoted fields
+     */
+    public CsvTokenizer(@NotNull Reader reader, char separator, char quote) {
+        Validate.notNull(reader);
+        this.reader = reader;
+        this.separator = separator;
+        this.quote = quote;
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return false if there is no more record.
+     * @throws IOException If the text can not be read.
+     */
+    public boolean next() throws IOException {
+        size = 0;
+        if (position >= limit && !fill()) return false;
+        int i = position, start = position;
+        boolean quoted = false, inQuotes = false, hasEscape = false;
+        while (true) {
+            if (i >= limit) {
+                final int shift = position;
+                if (!fill()) {
+                    // The last record has no line break
+                    i -= shift;
+                    start -= shift;
+                    addField(start, quoted ? closingQuote(start, i) : trimReturn(start, i), hasEscape);
+                    position = limit;
+                    return true;
+                }
+                i -= shift;
+                start -= shift;
+            }
+            final char c = buffer[i];
+            if (inQuotes) {
+                if (c == quote) {
+                    if (i + 1 >= limit) {
+                        final int shift = position;
+                        fill();
+                        i -= shift;
+                        start -= shift;
+                    }
+                    if (i + 1 < limit && buffer[i + 1] == quote) {
+                        hasEscape = true;
+                        i += 2;
+                        continue;
+                    }
+                    inQuotes = false;
+                }
+                i++;
+                continue;
+            }
+            if (c == separator || c == '\n') {
+                addField(start, quoted ? closingQuote(start, i) : (c == '\n' ? trimReturn(start, i) : i), hasEscape);
+                i++;
+                if (c == '\n') {
+                    position = i;
+                    return true;
+                }
+                start = i;
+                quoted = false;
+                hasEscape = false;
+                continue;
+            }
+            if (i == start && c == quote) {
+                quoted = true;
+                inQuotes = true;
+                start = i + 1;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Get the position of the next record.
+     *
+     * @return The number of chars read from the reader before the next record.
+     */
+    public long getOffset() {
+        return discarded + position;
+    }
+
+    /**
+     * Get the number of fields of the current record.
+     *
+     * @return The number of fields.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if a field is empty.
+     *
+     * @param field The field index
+     * @return true if the field is empty or does not exist.
+     */
+    public boolean isEmpty(int field) {
+        return field >= size || ends[field] <= starts[field];
+    }
+
+    /**
+     * Get a field of the current record.
+     *
+     * @param field The field index
+     * @return The field value, an empty string if the record has not this field.
+     */
+    public String get(int field) {
+        if (field >= size) return "";
+        final String value = new String(buffer, starts[field], ends[field] - starts[field]);
+        if (!escaped[field]) return value;
+        final String doubled = new String(new char[]{quote, quote});
+        return value.replace(doubled, String.valueOf(quote));
+    }
+
+    /**
+     * Check if a field is equal to a string, without creating a string for the field.
+     *
+     * @param field The field index
+     * @param value The string to compare with
+     * @return true if the field has this value.
+     */
+    public boolean equals(int field, String value) {
+        if (field >= size || escaped[field]) return get(field).equals(value);
+        final int length = ends[field] - starts[field];
+        if (length != value.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (buffer[starts[field] + i] != value.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get all the fields of the current record.
+     *
+     * @return A new array with the fields values.
+     */
+    public String[] toArray() {
+        final String[] fields = new String[size];
+        for (int i = 0; i < size; i++) fields[i] = get(i);
+        return fields;
+    }
+
+    private void addField(int start, int end, boolean hasEscape) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            escaped = Arrays.copyOf(escaped, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        escaped[size] = hasEscape;
+        size++;
+    }
+
+    /**
+     * Find the end of a quoted field, the chars between the closing quote and the separator are ignored.
+     */
+    private int closingQuote(int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (buffer[i] == quote) return i;
+        }
+        return trimReturn(start, end);
+    }
+
+    /**
+     * Remove the carriage return before a line break.
+     */
+    private int trimReturn(int start, int end) {
+        return end > start && buffer[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * Move the current record at the start of the buffer and read more chars after it.
+     * <p>Field bounds and indexes of the current record are always shifted by {@link #position} (before the call),
+     * even if nothing is read.</p>
+     *
+     * @return false if no char has been read.
+     */
+    private boolean fill() throws IOException {
+        final int shift = position;
+        final int remaining = limit - position;
+        if (remaining == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        } else if (shift > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        for (int i = 0; i < size; i++) {
+            starts[i] -= shift;
+            ends[i] -= shift;
+        }
+        discarded += shift;
+        position = 0;
+        limit = remaining;
+        if (endOfInput) return false;
+        final int read = reader.read(buffer, limit, buffer.length - limit);
+        if (read <= 0) {
+            endOfInput = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+}
@@ -39,6 +39,14 @@ public interface DataFileReader {
      */
     public void readFile(File file) throws FileReadingError;
 
+    /**
+     * Open a part of a file with the class format.
+     * @param file The file to open
+     * @param options What to read in the file
+     * @throws FileReadingError When an error makes file read impossible.
+     */
+    public void readFile(File file, ReadOptions options) throws FileReadingError;
+
     /**
      * Get the name of file read by this class.
      * @return The localized name of file.
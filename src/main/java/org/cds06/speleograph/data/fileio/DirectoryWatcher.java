@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.fileio;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Series;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.*;
+import java.util.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watch a directory and import the data files written into it.
+ * <p>New files are read with the reader which accepts them. When a file already read grows, an
+ * {@link IncrementalFileReader} only reads the new lines and adds their items to the existing series; files of other
+ * readers, and files which have been rewritten, are read again and replace their previous series.</p>
+ * <p>Events are grouped by file: a file is read once it has not changed during {@link #QUIET_DELAY} milliseconds, so
+ * a download is not read in many small pieces. A file which changes often does not delay the other ones.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class DirectoryWatcher implements Closeable {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+    /**
+     * Time without event on a file before reading it (in milliseconds).
+     */
+    public static final long QUIET_DELAY = 1000;
+
+    private final Path directory;
+
+    private final WatchService service;
+
+    /**
+     * Files already read, only used by the watching thread.
+     */
+    private final Map<File, WatchedFile> files = new HashMap<>();
+
+    private final Thread thread;
+
+    /**
+     * Create a watcher, call {@link #start()} to begin.
+     *
+     * @param directory The directory to watch
+     * @throws IOException If the directory can not be watched.
+     */
+    public DirectoryWatcher(@NotNull File directory) throws IOException {
+        Validate.notNull(directory);
+        this.directory = directory.toPath();
+        service = this.directory.getFileSystem().newWatchService();
+        try {
+            this.directory.register(service, ENTRY_CREATE, ENTRY_MODIFY);
+        } catch (IOException | RuntimeException e) {
+            service.close();
+            throw e;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "SpeleoGraph directory watcher"); // NON-NLS
+        thread.setDaemon(true);
+    }
+
+    public File getDirectory() {
+        return directory.toFile();
+    }
+
+    /**
+     * Read the files which are in the directory, then watch it.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop watching, series already read are kept.
+     */
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        service.close();
+    }
+
+    /**
+     * Main loop of the watching thread.
+     */
+    private void watch() {
+        log.info("Start watching " + directory);
+        // Date at which each modified file can be read, if it is not modified again before
+        final Map<File, Long> deadlines = new LinkedHashMap<>();
+        listDirectory(deadlines, System.currentTimeMillis());
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long now = System.currentTimeMillis();
+                final Iterator<Map.Entry<File, Long>> iterator = deadlines.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    final Map.Entry<File, Long> entry = iterator.next();
+                    if (entry.getValue() > now) continue;
+                    iterator.remove();
+                    read(entry.getKey());
+                }
+                now = System.currentTimeMillis();
+                long wait = QUIET_DELAY;
+                for (long deadline : deadlines.values()) wait = Math.min(wait, Math.max(deadline - now, 1));
+                final WatchKey key = service.poll(wait, java.util.concurrent.TimeUnit.MILLISECONDS);
+                if (key == null) continue;
+                final long quiet = System.currentTimeMillis() + QUIET_DELAY;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) listDirectory(deadlines, quiet);
+                    else deadlines.put(directory.resolve((Path) event.context()).toFile(), quiet);
+                }
+                if (!key.reset()) {
+                    log.warn("The directory " + directory + " can not be watched anymore");
+                    break;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("Watching stopped", e);
+        }
+        log.info("Stop watching " + directory);
+    }
+
+    private void listDirectory(Map<File, Long> deadlines, long deadline) {
+        final File[] content = directory.toFile().listFiles();
+        if (content == null) return;
+        Arrays.sort(content);
+        for (File file : content) deadlines.put(file, deadline);
+    }
+
+    /**
+     * Read a file which has been created or modified (on the watching thread).
+     */
+    private void read(File file) {
+        if (!file.isFile() || TimeIndex.isIndexFile(file)) return;
+        final WatchedFile watched = files.get(file);
+        try {
+            if (watched == null) {
+                load(file);
+            } else if (watched.cursor != null && watched.cursor.canResume()) {
+                if (!append(watched)) reload(watched);
+            } else {
+                reload(watched);
+            }
+        } catch (FileReadingError e) {
+            log.info("Can not read " + file + ", it will be tried again on its next modification", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Read a file for the first time.
+     */
+    private void load(File file) throws FileReadingError {
+        final WatchedFile watched = new WatchedFile(FileImporter.guessReader(file));
+        final List<Series> series = readAll(watched, file);
+        files.put(file, watched);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                Series.register(series);
+            }
+        });
+    }
+
+    /**
+     * Read again a file, its previous series are replaced.
+     */
+    private void reload(final WatchedFile watched) throws FileReadingError {
+        final List<Series> previous = watched.series;
+        final List<Series> series = readAll(watched, watched.file);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                for (Series s : previous) s.delete();
+                Series.register(series);
+            }
+        });
+    }
+
+    /**
+     * Read a file from its start in a batch, so series are not shown before the end.
+     */
+    private List<Series> readAll(WatchedFile watched, File file) throws FileReadingError {
+        watched.file = file;
+        final ReadCursor cursor = watched.reader instanceof IncrementalFileReader ? new ReadCursor(file, true) : null;
+        boolean done = false;
+        Series.startBatch();
+        try {
+            if (cursor != null) ((IncrementalFileReader) watched.reader).readFile(cursor);
+            else watched.reader.readFile(file);
+            done = true;
+        } finally {
+            final List<Series> series = Series.endBatch();
+            // A partially read file is dropped, the previous series are kept until the file can be read again
+            if (done) {
+                watched.series = series;
+                watched.cursor = cursor;
+            }
+        }
+        return watched.series;
+    }
+
+    /**
+     * Read the lines appended to a file.
+     * <p>Items are added to series shown by the chart, so it is done on the Swing thread. Only new lines are read, it
+     * is quick.</p>
+     *
+     * @return false if the file must be read from its start because its series have been deleted
+     */
+    private boolean append(final WatchedFile watched) throws FileReadingError, InterruptedException {
+        final FileReadingError[] error = new FileReadingError[1];
+        final boolean[] deleted = new boolean[1];
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    if (!Series.getInstances().containsAll(watched.cursor.getSeries())) {
+                        deleted[0] = true;
+                        return;
+                    }
+                    try {
+                        final long consumed = FileImporter.append(
+                                (IncrementalFileReader) watched.reader, watched.cursor);
+                        log.debug(consumed + " bytes appended to " + watched.file);
+                    } catch (FileReadingError e) {
+                        error[0] = e;
+                    }
+                }
+            });
+        } catch (InvocationTargetException e) {
+            log.error("Error while appending data of " + watched.file, e.getCause());
+        }
+        if (error[0] != null) throw error[0];
+        return !deleted[0];
+    }
+
+    /**
+     * A file read by the watcher.
+     */
+    private static class WatchedFile {
+        private final DataFileReader reader;
+        private File file;
+        private List<Series> series = Collections.emptyList();
+
+        /**
+         * Position in the file, null if the reader is not incremental.
+         */
+        private ReadCursor cursor;
+
+        private WatchedFile(DataFileReader reader) {
+            this.reader = reader;
+        }
+    }
+}
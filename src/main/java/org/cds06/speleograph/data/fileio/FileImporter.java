@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.fileio;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.I18nSupport;
+import org.cds06.speleograph.data.Series;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Read several files in parallel.
+ * <p>Each file is read by a new reader on a thread of a pool, in a {@link Series#startBatch() batch}: its series are
+ * created without being added to the application. Once all files are read, the series can be added at once with
+ * {@link Series#register(java.util.Collection)}, so the chart is refreshed only one time.</p>
+ * <p>Files read by an {@link IncrementalFileReader} are remembered: when such a file is imported again after data have
+ * been appended to it, {@link #resume(java.io.File)} only reads the new data.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class FileImporter {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(FileImporter.class);
+
+    /**
+     * Readers used to guess the format of a file, in the order they are tried.
+     * The Wunderground reader accepts any text file, so it is never guessed.
+     */
+    private static final List<Class<? extends DataFileReader>> READERS =
+            Arrays.<Class<? extends DataFileReader>>asList(
+                    SpeleoFileReader.class, ColumnarFileReader.class, ReefnetFileReader.class,
+                    HoboFileReader.class);
+
+    /**
+     * Files read by an incremental reader, by absolute file.
+     */
+    private static final Map<File, Resumable> resumables = Collections.synchronizedMap(new HashMap<File, Resumable>());
+
+    /**
+     * Listener of the reading progress.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a file has been read (on the thread which has read it).
+         *
+         * @param file   The file
+         * @param series The series read in the file (empty on error)
+         * @param error  The error which stopped the reading, null on success
+         */
+        public void fileRead(File file, List<Series> series, Exception error);
+    }
+
+    /**
+     * The class of readers to use, null to guess it for each file.
+     */
+    private final Class<? extends DataFileReader> readerClass;
+
+    private final ReadOptions options;
+
+    private final int threads;
+
+    /**
+     * Create an importer which guesses the format of files.
+     */
+    public FileImporter() {
+        this(null);
+    }
+
+    /**
+     * Create an importer.
+     *
+     * @param readerClass The class of readers to use, null to guess it for each file.
+     */
+    public FileImporter(Class<? extends DataFileReader> readerClass) {
+        this(readerClass, new ReadOptions());
+    }
+
+    /**
+     * Create an importer which reads a part of files.
+     *
+     * @param readerClass The class of readers to use, null to guess it for each file.
+     * @param options     What to read in files, they are copied.
+     */
+    public FileImporter(Class<? extends DataFileReader> readerClass, @NotNull ReadOptions options) {
+        Validate.notNull(options);
+        this.readerClass = readerClass;
+        this.options = new ReadOptions(options);
+        this.threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Find a reader for a file.
+     *
+     * @param file The file to read
+     * @return A new reader which accepts the file.
+     * @throws FileReadingError If no reader accepts the file.
+     */
+    public static DataFileReader guessReader(@NotNull File file) throws FileReadingError {
+        Validate.notNull(file);
+        for (Class<? extends DataFileReader> candidate : READERS) {
+            final DataFileReader reader = createReader(candidate);
+            if (reader.getFileFilter().accept(file)) return reader;
+        }
+        throw new FileReadingError(I18nSupport.translate("error.unknownFormat", file.getName()),
+                FileReadingError.Part.HEAD);
+    }
+
+    private static DataFileReader createReader(Class<? extends DataFileReader> readerClass) {
+        try {
+            return readerClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Can not create reader " + readerClass.getName(), e); // NON-NLS
+        }
+    }
+
+    /**
+     * Read files.
+     * <p>The series are not added to the application, call {@link Series#register(java.util.Collection)} on the Swing
+     * thread to do it.</p>
+     *
+     * @param files    The files to read
+     * @param listener A listener called when each file has been read, or null
+     * @return The series read, in the order of files.
+     * @throws InterruptedException If the thread has been interrupted, files which are still read are abandoned.
+     */
+    public List<Series> read(@NotNull List<File> files, final Listener listener) throws InterruptedException {
+        Validate.notNull(files);
+        if (files.isEmpty()) return Collections.emptyList();
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, files.size()), new ThreadFactory() {
+            @Override
+            public Thread newThread(@SuppressWarnings("NullableProblems") Runnable r) {
+                Thread thread = new Thread(r, "SpeleoGraph file reader"); // NON-NLS
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            final List<Future<List<Series>>> results = new ArrayList<>(files.size());
+            for (final File file : files) {
+                results.add(pool.submit(new Callable<List<Series>>() {
+                    @Override
+                    public List<Series> call() {
+                        return readFile(file, listener);
+                    }
+                }));
+            }
+            final List<Series> series = new ArrayList<>();
+            for (Future<List<Series>> result : results) {
+                try {
+                    series.addAll(result.get());
+                } catch (ExecutionException e) {
+                    log.error("Error in a file reader", e.getCause());
+                }
+            }
+            return series;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Read a file in a batch (on a thread of the pool).
+     */
+    private List<Series> readFile(File file, Listener listener) {
+        Exception error = null;
+        List<Series> series;
+        Series.startBatch();
+        try {
+            final DataFileReader reader = readerClass != null ? createReader(readerClass) : guessReader(file);
+            if (reader instanceof IncrementalFileReader) {
+                final ReadCursor cursor = new ReadCursor(file, false, options);
+                ((IncrementalFileReader) reader).readFile(cursor);
+                resumables.put(file.getAbsoluteFile(), new Resumable((IncrementalFileReader) reader, cursor));
+            } else {
+                reader.readFile(file, options);
+            }
+        } catch (FileReadingError | RuntimeException e) {
+            log.error("Can not read " + file, e);
+            error = e;
+        } finally {
+            series = Series.endBatch();
+        }
+        if (error != null) series = Collections.emptyList(); // Do not keep a partially read file
+        if (listener != null) listener.fileRead(file, series, error);
+        return series;
+    }
+
+    /**
+     * Read the data appended to a file since it has been imported.
+     * <p>Must be called on the Swing thread as items are added to series which are shown.</p>
+     *
+     * @param file The file to import again
+     * @return false if the file must be read from its start: it has not been read by an incremental reader, its
+     *         series have been deleted or it has been modified before the end of the data already read.
+     * @throws FileReadingError If the new data can not be read.
+     */
+    public static boolean resume(@NotNull File file) throws FileReadingError {
+        Validate.notNull(file);
+        synchronized (resumables) {
+            final Iterator<Resumable> iterator = resumables.values().iterator();
+            while (iterator.hasNext()) {
+                if (!Series.getInstances().containsAll(iterator.next().cursor.getSeries())) iterator.remove();
+            }
+        }
+        final Resumable resumable = resumables.get(file.getAbsoluteFile());
+        if (resumable == null) return false;
+        if (!resumable.cursor.canResume()) {
+            resumables.remove(file.getAbsoluteFile());
+            return false;
+        }
+        final long consumed = append(resumable.reader, resumable.cursor);
+        log.info("Resumed " + file + ", " + consumed + " new bytes");
+        return true;
+    }
+
+    /**
+     * Read the data appended to a file and refresh the series which have new items.
+     * <p>Must be called on the Swing thread.</p>
+     *
+     * @return The number of bytes read.
+     */
+    static long append(IncrementalFileReader reader, ReadCursor cursor) throws FileReadingError {
+        final List<Series> series = cursor.getSeries();
+        final int[] counts = new int[series.size()];
+        for (int i = 0; i < counts.length; i++) counts[i] = series.get(i).getItemCount();
+        try {
+            return reader.readFile(cursor);
+        } finally {
+            for (int i = 0; i < counts.length; i++) {
+                if (series.get(i).getItemCount() == counts[i]) continue;
+                series.get(i).pack(); // Appended items are packed with the other ones
+                series.get(i).notifyListeners();
+            }
+        }
+    }
+
+    /**
+     * A file which can be read again from where its reader stopped.
+     */
+    private static class Resumable {
+        private final IncrementalFileReader reader;
+        private final ReadCursor cursor;
+
+        private Resumable(IncrementalFileReader reader, ReadCursor cursor) {
+            this.reader = reader;
+            this.cursor = cursor;
+        }
+    }
+}
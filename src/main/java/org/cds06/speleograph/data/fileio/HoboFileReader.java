@@ -22,8 +22,8 @@
 
 package org.cds06.speleograph.data.fileio;
 
-import au.com.bytecode.opencsv.CSVReader;
 import org.apache.commons.io.IOCase;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.*;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -37,9 +37,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -81,99 +80,140 @@ import java.util.HashMap;
  * @author PhilippeGeek
  * @since 1.0
  */
-public class HoboFileReader implements DataFileReader {
+public class HoboFileReader implements IncrementalFileReader {
 
     @NonNls
     private static final Logger log = LoggerFactory.getLogger(HoboFileReader.class);
 
     /**
-     * Hobo Date Format.
+     * Hobo Date Format (one for each reader as files can be read in parallel).
      */
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("d/M/y H:m:s");
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("d/M/y H:m:s");
 
     @Override
     public void readFile(File file) throws FileReadingError {
-        FileReader fileReader;
+        readFile(new ReadCursor(file, false));
+    }
+
+    @Override
+    public void readFile(File file, ReadOptions options) throws FileReadingError {
+        readFile(new ReadCursor(file, false, options));
+    }
+
+    /**
+     * Read the lines added to a Hobo File.
+     * <p>Only the columns of the types asked by the cursor options are parsed, the other ones are skipped by the
+     * tokenizer. Lines out of the date range of the options are skipped after their date is parsed, the reading stops
+     * after the end of the range if the file is sorted.</p>
+     */
+    @Override
+    public long readFile(ReadCursor cursor) throws FileReadingError {
+        final File file = cursor.getFile();
+        Reader fileReader;
         try {
-            fileReader = new FileReader(file);
-        } catch (FileNotFoundException e) {
+            fileReader = cursor.openNewLines();
+        } catch (IOException e) {
             throw new FileReadingError(
                     I18nSupport.translate("error.canNotOpenFile", file.getName()),
                     FileReadingError.Part.HEAD,
                     e
             );
         }
-        CSVReader csvReader = new CSVReader(fileReader, ';');
-        String[] line;
+        if (fileReader == null) return 0;
+        CsvTokenizer line = new CsvTokenizer(fileReader, ';', '"');
+        boolean hasLine;
         try {
-            line = csvReader.readNext();
+            hasLine = line.next();
         } catch (IOException e) {
+            IOUtils.closeQuietly(fileReader);
             throw new FileReadingError(
                     I18nSupport.translate("error.canNotReadFileOrEmpty"),
                     FileReadingError.Part.HEAD,
                     e
             );
         }
-        Headers headers = null;
+        Headers headers = (Headers) cursor.getState();
         Series[] availableSeries = new Series[]{};
         int[][] columns = new int[][]{};
         int dateColumn = -1, timeColumn = -1;
-        while (line != null) {
-            if (line.length <= 1) { // Title Line (just skip it)
-                log.info("Head line", line);
-            } else if (headers == null) { // The first line is headers
-                headers = Headers.parseHeaderLine(file, line);
-                availableSeries = headers.availableSeries;
-                columns = headers.typeColumns;
-                dateColumn = headers.dateColumns[0];
-                timeColumn = headers.dateColumns[1];
-                if (!(dateColumn != -1 && timeColumn != -1 && availableSeries.length > 0)) {
-                    headers = null;
-                    log.error("Error while parsing", line);
-                }
-            } else {
-
-                // Now, this is a data line
-                Date day;
-                try {
-                    day = dateFormat.parse(line[dateColumn] + " " + line[timeColumn]);
-                } catch (ParseException e) {
-                    day = Calendar.getInstance().getTime();
-                }
-                for (int i = 0; i < availableSeries.length; i++) {
-                    if (line[columns[i][0]].length() > 0) {
-                        Item item = null;
-                        switch (columns[i].length) {
-                            case 1:
-                                item = new Item(
-                                        availableSeries[i],
-                                        day,
-                                        Double.valueOf(line[columns[i][0]].replace(',', '.'))
-                                );
-                                break;
-                            case 2:
-                                if (!(line[columns[i][1]].length() > 0)) break;
-                                item = new Item(
-                                        availableSeries[i],
-                                        day,
-                                        Double.valueOf(line[columns[i][0]].replace(',', '.')),
-                                        Double.valueOf(line[columns[i][1]].replace(',', '.'))
-                                );
-                                break;
-                            default:
-                                log.error("Strange things happened");
-                        }
-                        if (item != null) {
-                            availableSeries[i].add(item);
+        if (headers != null) {
+            availableSeries = headers.availableSeries;
+            columns = headers.typeColumns;
+            dateColumn = headers.dateColumns[0];
+            timeColumn = headers.dateColumns[1];
+        }
+        try {
+            while (hasLine) {
+                if (line.size() <= 1) { // Title Line (just skip it)
+                    log.info("Head line", line.get(0));
+                } else if (headers == null) { // The first line is headers
+                    headers = Headers.parseHeaderLine(file, line.toArray(), cursor.getOptions());
+                    availableSeries = headers.availableSeries;
+                    columns = headers.typeColumns;
+                    dateColumn = headers.dateColumns[0];
+                    timeColumn = headers.dateColumns[1];
+                    if (!(dateColumn != -1 && timeColumn != -1 && availableSeries.length > 0)) {
+                        headers = null;
+                        log.error("Error while parsing", line.toArray());
+                    } else {
+                        cursor.setState(headers);
+                        for (Series series : availableSeries) cursor.addSeries(series);
+                    }
+                } else {
+                    // Now, this is a data line
+                    Date day;
+                    try {
+                        day = dateFormat.parse(line.get(dateColumn) + " " + line.get(timeColumn));
+                    } catch (ParseException e) {
+                        day = Calendar.getInstance().getTime();
+                    }
+                    if (!cursor.getOptions().accept(day)) {
+                        if (cursor.getOptions().isAfterEnd(day)) break;
+                        hasLine = nextLine(line);
+                        continue;
+                    }
+                    for (int i = 0; i < availableSeries.length; i++) {
+                        if (!line.isEmpty(columns[i][0])) {
+                            Item item = null;
+                            switch (columns[i].length) {
+                                case 1:
+                                    item = new Item(
+                                            availableSeries[i],
+                                            day,
+                                            Double.valueOf(line.get(columns[i][0]).replace(',', '.'))
+                                    );
+                                    break;
+                                case 2:
+                                    if (line.isEmpty(columns[i][1])) break;
+                                    item = new Item(
+                                            availableSeries[i],
+                                            day,
+                                            Double.valueOf(line.get(columns[i][0]).replace(',', '.')),
+                                            Double.valueOf(line.get(columns[i][1]).replace(',', '.'))
+                                    );
+                                    break;
+                                default:
+                                    log.error("Strange things happened");
+                            }
+                            if (item != null) {
+                                availableSeries[i].add(item);
+                            }
                         }
                     }
                 }
+                hasLine = nextLine(line);
             }
-            try {
-                line = csvReader.readNext();
-            } catch (IOException e) {
-                line = null;
-            }
+        } finally {
+            IOUtils.closeQuietly(fileReader);
+        }
+        return cursor.advance();
+    }
+
+    private static boolean nextLine(CsvTokenizer line) {
+        try {
+            return line.next();
+        } catch (IOException e) {
+            return false;
         }
     }
 
@@ -254,13 +294,17 @@ public class HoboFileReader implements DataFileReader {
         /**
          * Parse all data into a header line.
          *
+         * @param f       The file which is read
+         * @param line    The header line
+         * @param options The options which select the series to create
          * @return Header Data in an object
          */
-        public static Headers parseHeaderLine(File f, String[] line) {
+        public static Headers parseHeaderLine(File f, String[] line, ReadOptions options) {
             Headers headers = new Headers();
             ArrayList<Series> availableSeries = new ArrayList<>();
             ArrayList<int[]> columns = new ArrayList<>();
             for (Type t : headerConditions.keySet()) {
+                if (!options.accept(t)) continue;
                 findHeader(f, line, t, availableSeries, columns);
             }
             headers.availableSeries = availableSeries.toArray(new Series[availableSeries.size()]);
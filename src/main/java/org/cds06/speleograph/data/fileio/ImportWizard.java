@@ -22,7 +22,6 @@
 
 package org.cds06.speleograph.data.fileio;
 
-import au.com.bytecode.opencsv.CSVReader;
 import com.jgoodies.forms.builder.PanelBuilder;
 import com.jgoodies.forms.layout.CellConstraints;
 import com.jgoodies.forms.layout.FormLayout;
@@ -38,7 +37,6 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.List;
 
 /**
  * This file is created by PhilippeGeek.
@@ -118,23 +116,22 @@ public class ImportWizard {
     }
 
     /**
-     * The ten first lines of data read from the file.
+     * Number of lines shown to the user to choose the columns.
      */
-    private String[][] data = new String[50][];
+    private static final int PREVIEW_LINES = 50;
 
     /**
-     * All lines read from the file.
+     * The first lines of data read from the file.
      */
-    private List<String[]> lines;
+    private String[][] data = new String[PREVIEW_LINES][];
 
     private void openImportTable() {
-        try {
-            CSVReader reader = new CSVReader(new FileReader(file), separatorChar, '"');
-            lines = reader.readAll();
-            List<String[]> subList = lines.subList(0, 50);
+        try (FileReader fileReader = new FileReader(file)) {
+            // Only the preview is read now, the file is read again with the chosen columns
+            CsvTokenizer reader = new CsvTokenizer(fileReader, separatorChar, '"');
             int columns = 0;
-            for (int i = 0; i < subList.size(); i++) {
-                String[] s = subList.get(i);
+            for (int i = 0; i < PREVIEW_LINES && reader.next(); i++) {
+                String[] s = reader.toArray();
                 data[i] = s;
                 columns = columns < s.length ? s.length : columns;
             }
@@ -458,18 +455,19 @@ public class ImportWizard {
         }
     }
 
+    /**
+     * Read the file, only the columns linked to a date or a series are parsed.
+     */
     private void readFile(
             SpeleoFileReader.HeaderInformation headerInformation,
             int lineStart) {
-        for (int i = 0, linesSize = lines.size(); i < linesSize; i++) {
-            String[] line = lines.get(i);
-            if (i < lineStart) continue;
-            try {
-                headerInformation.read(line);
-            } catch (Exception e) {
-                System.err.println("Error while importing : " + e.getMessage()); // NON-NLS
-                e.printStackTrace(System.err);
-            }
+        headerInformation.setColumnSeparator(separatorChar);
+        headerInformation.setFirstLineOfData(lineStart);
+        try {
+            SpeleoFileReader.read(file, headerInformation);
+        } catch (IOException e) {
+            System.err.println("Error while importing : " + e.getMessage()); // NON-NLS
+            e.printStackTrace(System.err);
         }
     }
 }
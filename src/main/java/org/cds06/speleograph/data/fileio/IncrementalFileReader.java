@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.fileio;
+
+/**
+ * A reader which can continue to read a file when data are appended to it.
+ * <p>The first call creates the series of the file, next calls with the same {@link ReadCursor} only read the new
+ * lines and add their items to these series.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public interface IncrementalFileReader extends DataFileReader {
+
+    /**
+     * Read what has been added to a file since the last call with this cursor.
+     *
+     * <p>Only complete lines are read when the cursor follows a file which is still written, the end of the last
+     * line is read by the next call.</p>
+     *
+     * @param cursor The position in the file, it is moved after the read data.
+     * @return The number of bytes read.
+     * @throws FileReadingError When an error makes file read impossible.
+     */
+    public long readFile(ReadCursor cursor) throws FileReadingError;
+}
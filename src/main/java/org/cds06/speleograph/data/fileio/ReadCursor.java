@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.fileio;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Series;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Position of an {@link IncrementalFileReader} in a file.
+ * <p>The cursor keeps the number of bytes already read, the series created from the file and the state of the reader
+ * (headers, current date ...), so a reader can continue where it stopped when data are appended to the file.</p>
+ * <p>The last bytes read are remembered with a checksum: if they change, the file has been rewritten and it must be
+ * read again with a new cursor (see {@link #canResume()}).</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class ReadCursor {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(ReadCursor.class);
+
+    /**
+     * Size of blocks read when searching the end of the last line.
+     */
+    private static final int BLOCK_SIZE = 8192;
+
+    /**
+     * Number of bytes before the offset which are checked to see if the file has only grown.
+     */
+    private static final int CHECKED_SIZE = 4096;
+
+    private final File file;
+
+    /**
+     * true if the file is still written, so its last line is only read once terminated.
+     */
+    private final boolean follow;
+
+    private final ReadOptions options;
+
+    private final List<Series> series = new ArrayList<>();
+
+    /**
+     * Number of bytes already read.
+     */
+    private long offset = 0;
+
+    /**
+     * Offset after the lines given by the last {@link #openNewLines()}.
+     */
+    private long end = 0;
+
+    /**
+     * Checksum of the bytes before the offset, and of the ones before the end.
+     */
+    private long checksum = 0, endChecksum = 0;
+
+    /**
+     * State of the reader.
+     */
+    private Object state;
+
+    /**
+     * Create a cursor at the start of a file.
+     *
+     * @param file   The file to read
+     * @param follow true if the file is still written: the last line is only read once it is terminated.
+     */
+    public ReadCursor(@NotNull File file, boolean follow) {
+        this(file, follow, new ReadOptions());
+    }
+
+    /**
+     * Create a cursor at the start of a file.
+     *
+     * @param file    The file to read
+     * @param follow  true if the file is still written: the last line is only read once it is terminated.
+     * @param options What to read in the file
+     */
+    public ReadCursor(@NotNull File file, boolean follow, @NotNull ReadOptions options) {
+        Validate.notNull(file);
+        Validate.notNull(options);
+        this.file = file;
+        this.follow = follow;
+        this.options = options;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public ReadOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Get the number of bytes already read.
+     *
+     * @return The offset where the next read starts.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the series created by reading the file.
+     *
+     * @return Unmodifiable list of series.
+     */
+    public List<Series> getSeries() {
+        return Collections.unmodifiableList(series);
+    }
+
+    /**
+     * Add a series created by the reader.
+     *
+     * @param s The series read from the file.
+     */
+    public void addSeries(@NotNull Series s) {
+        Validate.notNull(s);
+        series.add(s);
+    }
+
+    /**
+     * Get the state saved by the reader.
+     *
+     * @return The state, null before the first read.
+     */
+    public Object getState() {
+        return state;
+    }
+
+    public void setState(Object state) {
+        this.state = state;
+    }
+
+    /**
+     * Open the lines which have been added to the file since the last read.
+     * <p>The reader must call {@link #advance()} once it has read them.</p>
+     *
+     * @return A reader over new lines, null if there is no new line.
+     * @throws IOException If the file can not be read.
+     */
+    public Reader openNewLines() throws IOException {
+        final RandomAccessFile input = new RandomAccessFile(file, "r"); // NON-NLS
+        try {
+            end = follow ? findLinesEnd(input) : input.length();
+            if (end <= offset) {
+                input.close();
+                return null;
+            }
+            endChecksum = checksum(input, end);
+            input.seek(offset);
+            return new BufferedReader(new InputStreamReader(
+                    new BoundedInputStream(Channels.newInputStream(input.getChannel()), end - offset),
+                    Charset.defaultCharset()));
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Mark the lines given by the last {@link #openNewLines()} as read.
+     *
+     * @return The number of bytes read since the previous call.
+     */
+    public long advance() {
+        if (end <= offset) return 0;
+        final long consumed = end - offset;
+        offset = end;
+        checksum = endChecksum;
+        return consumed;
+    }
+
+    /**
+     * Check if the file can be read from the offset.
+     *
+     * @return false if the file has been truncated or if the bytes already read have changed.
+     */
+    public boolean canResume() {
+        if (!file.isFile() || file.length() < offset) return false;
+        if (offset == 0) return true;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) { // NON-NLS
+            return checksum(input, offset) == checksum;
+        } catch (IOException e) {
+            log.info("Can not check " + file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Compute the checksum of the bytes before a position.
+     */
+    private static long checksum(RandomAccessFile input, long position) throws IOException {
+        final int length = (int) Math.min(CHECKED_SIZE, position);
+        final byte[] bytes = new byte[length];
+        input.seek(position - length);
+        input.readFully(bytes);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**
+     * Find the position after the last line break of the file, searching backward until the offset.
+     */
+    private long findLinesEnd(RandomAccessFile input) throws IOException {
+        final byte[] block = new byte[BLOCK_SIZE];
+        long position = input.length();
+        while (position > offset) {
+            final int length = (int) Math.min(BLOCK_SIZE, position - offset);
+            position -= length;
+            input.seek(position);
+            input.readFully(block, 0, length);
+            for (int i = length - 1; i >= 0; i--) {
+                if (block[i] == '\n') return position + i + 1;
+            }
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.fileio;
+
+import org.cds06.speleograph.data.Type;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Options given to a {@link DataFileReader} to read only a part of a file.
+ * <p>By default, everything is read. When {@link #setTypes(java.util.Collection) types} are set, the readers only
+ * create series of these types and do not parse the columns of the other ones.</p>
+ * <p>When a {@link #setDateRange(java.util.Date, java.util.Date) date range} is set, rows outside of it are rejected
+ * just after their date is parsed, before their values. If the files are {@link #setSorted(boolean) sorted} by date,
+ * readers stop at the first row after the end of the range.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class ReadOptions {
+
+    /**
+     * Types of the series to read, null to read all of them.
+     */
+    private Set<Type> types;
+
+    /**
+     * Bounds of the dates to read (in milliseconds, included), {@link Long#MIN_VALUE} and {@link Long#MAX_VALUE} when
+     * there is no bound.
+     */
+    private long start = Long.MIN_VALUE, end = Long.MAX_VALUE;
+
+    /**
+     * Hint that rows of files are sorted by date.
+     */
+    private boolean sorted = false;
+
+    /**
+     * Create options which read everything.
+     */
+    public ReadOptions() {
+    }
+
+    /**
+     * Copy options.
+     *
+     * @param options The options to copy
+     */
+    public ReadOptions(ReadOptions options) {
+        setTypes(options.types);
+        start = options.start;
+        end = options.end;
+        sorted = options.sorted;
+    }
+
+    /**
+     * Get the types of the series to read.
+     *
+     * @return An unmodifiable set, or null if all series are read.
+     */
+    public Set<Type> getTypes() {
+        return types == null ? null : Collections.unmodifiableSet(types);
+    }
+
+    /**
+     * Read only series of some types.
+     *
+     * @param types The types to read, null to read all series.
+     */
+    public void setTypes(Collection<Type> types) {
+        this.types = types == null ? null : new HashSet<>(types);
+    }
+
+    /**
+     * Check if series of a type must be read.
+     *
+     * @param type The type of the series
+     * @return true if the series must be created and its columns parsed.
+     */
+    public boolean accept(Type type) {
+        return types == null || types.contains(type);
+    }
+
+    /**
+     * Read only the rows between two dates.
+     *
+     * @param start The first date to read (included), null to read from the start of files.
+     * @param end   The last date to read (included), null to read until the end of files.
+     */
+    public void setDateRange(Date start, Date end) {
+        this.start = start == null ? Long.MIN_VALUE : start.getTime();
+        this.end = end == null ? Long.MAX_VALUE : end.getTime();
+    }
+
+    /**
+     * Get the first date to read.
+     *
+     * @return The date, or null if files are read from their start.
+     */
+    public Date getStart() {
+        return start == Long.MIN_VALUE ? null : new Date(start);
+    }
+
+    /**
+     * Get the last date to read.
+     *
+     * @return The date, or null if files are read until their end.
+     */
+    public Date getEnd() {
+        return end == Long.MAX_VALUE ? null : new Date(end);
+    }
+
+    /**
+     * Check if only a part of the dates is read.
+     *
+     * @return true if a start or an end date is set.
+     */
+    public boolean hasDateRange() {
+        return start != Long.MIN_VALUE || end != Long.MAX_VALUE;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Tell readers that the rows of files are sorted by date, so they can stop after the end of the date range.
+     *
+     * @param sorted true if rows are sorted.
+     */
+    public void setSorted(boolean sorted) {
+        this.sorted = sorted;
+    }
+
+    /**
+     * Check if a row must be read.
+     *
+     * @param date The date of the row
+     * @return true if the date is in the date range.
+     */
+    public boolean accept(Date date) {
+        final long time = date.getTime();
+        return start <= time && time <= end;
+    }
+
+    /**
+     * Check if the reading can stop.
+     *
+     * @param date The date of a row
+     * @return true if files are sorted and the date is after the end of the date range.
+     */
+    public boolean isAfterEnd(Date date) {
+        return sorted && date.getTime() > end;
+    }
+
+    /**
+     * Check if these options read only a part of the files.
+     *
+     * @return false if everything is read.
+     */
+    public boolean isRestricted() {
+        return types != null || hasDateRange();
+    }
+}
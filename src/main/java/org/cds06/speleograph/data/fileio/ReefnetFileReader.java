@@ -24,6 +24,7 @@ package org.cds06.speleograph.data.fileio;
 
 import au.com.bytecode.opencsv.CSVReader;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.*;
 import org.apache.commons.lang3.StringUtils;
 import org.cds06.speleograph.I18nSupport;
@@ -36,12 +37,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 
@@ -70,7 +70,7 @@ import java.util.Date;
  * @author Philippe VIENNE
  * @since 1.0
  */
-public class ReefnetFileReader implements DataFileReader {
+public class ReefnetFileReader implements IncrementalFileReader {
 
     /**
      * Logger for errors and information.
@@ -112,92 +112,157 @@ public class ReefnetFileReader implements DataFileReader {
 
     /**
      * Date format used to parse date in ReefNet entries.
-     * This variable must not be altered without editing {@link #readDate(String[], java.util.Calendar)}
+     * This variable must not be altered without editing {@link #readDate(CsvTokenizer, java.util.Calendar)}
      */
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("y:M:d:H:m:s");
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("y:M:d:H:m:s");
 
     /**
      * Read a ReefNet File.
      *
      * @param file The file to read.
      * @throws FileReadingError When an error occurs when read the file.
-     * @see #readReefnetEntry(String[], org.cds06.speleograph.data.Series, org.cds06.speleograph.data.Series, String, java.util.Calendar)
-     * @see #readDate(String[], java.util.Calendar)
+     * @see #readFile(ReadCursor)
      */
     @Override
     public void readFile(File file) throws FileReadingError {
-        log.info("Start reading file: " + file);
-        FileReader fileReader;
+        readFile(new ReadCursor(file, false));
+    }
+
+    /**
+     * Read a part of a ReefNet File.
+     *
+     * @param file    The file to read.
+     * @param options What to read in the file
+     * @throws FileReadingError When an error occurs when read the file.
+     * @see #readFile(ReadCursor)
+     */
+    @Override
+    public void readFile(File file, ReadOptions options) throws FileReadingError {
+        readFile(new ReadCursor(file, false, options));
+    }
+
+    /**
+     * Read the lines added to a ReefNet File.
+     * <p>Series whose type is not asked by the cursor options are not created and their column is not parsed. Entries
+     * out of the date range of the options are skipped, the reading stops after the end of the range if the file is
+     * sorted.</p>
+     *
+     * @param cursor The position in the file.
+     * @return The number of bytes read.
+     * @throws FileReadingError When an error occurs when read the file.
+     * @see #readReefnetEntry(CsvTokenizer, State, ReadOptions)
+     * @see #readDate(CsvTokenizer, java.util.Calendar)
+     */
+    @Override
+    public long readFile(ReadCursor cursor) throws FileReadingError {
+        final File file = cursor.getFile();
+        log.info("Start reading file: " + file + " from " + cursor.getOffset());
+        Reader fileReader;
         try {
-            fileReader = new FileReader(file);
-        } catch (FileNotFoundException e) {
+            fileReader = cursor.openNewLines();
+        } catch (IOException e) {
             throw new FileReadingError(
                     I18nSupport.translate("error.canNotOpenFile", file.getName()),
                     FileReadingError.Part.HEAD,
                     e
             );
         }
-        CSVReader reader = new CSVReader(fileReader, ',');
-        String[] line;
+        State state = (State) cursor.getState();
+        if (state == null) {
+            state = new State(file, cursor.getOptions());
+            cursor.setState(state);
+            if (state.pressureSeries != null) cursor.addSeries(state.pressureSeries);
+            if (state.temperatureSeries != null) cursor.addSeries(state.temperatureSeries);
+        }
+        if (fileReader == null) return 0;
+        CsvTokenizer line = new CsvTokenizer(fileReader, ',', '"');
+        boolean hasLine;
         try {
-            line = reader.readNext();
+            hasLine = line.next();
         } catch (IOException e) {
+            IOUtils.closeQuietly(fileReader);
             throw new FileReadingError(
                     I18nSupport.translate("error.canNotReadFileOrEmpty"),
                     FileReadingError.Part.HEAD,
                     e
             );
         }
-        Series pressureSeries = new Series(file, Type.PRESSURE),
-                temperatureSeries = new Series(file, Type.TEMPERATURE);
-        String seriesId = "";
-        final Calendar calendar = Calendar.getInstance();
-        while (line != null) {
-            if (11 < line.length && line.length < 14) {
-                seriesId = readReefnetEntry(line, pressureSeries, temperatureSeries, seriesId, calendar);
-            } else {
-                log.info("Not a Reefnet line: " + StringUtils.join(line, ',')); //NON-NLS
-            }
-            try {
-                line = reader.readNext();
-            } catch (IOException e) {
-                line = null;
+        try {
+            while (hasLine) {
+                if (11 < line.size() && line.size() < 14) {
+                    if (!readReefnetEntry(line, state, cursor.getOptions())) {
+                        log.info("End of the date range reached in " + file.getName()); //NON-NLS
+                        break;
+                    }
+                } else {
+                    log.info("Not a Reefnet line: " + StringUtils.join(line.toArray(), ',')); //NON-NLS
+                }
+                try {
+                    hasLine = line.next();
+                } catch (IOException e) {
+                    hasLine = false;
+                }
             }
+        } finally {
+            IOUtils.closeQuietly(fileReader);
+        }
+        final long consumed = cursor.advance();
+        log.info("Reefnet File (" + file.getName() + ") has been read, " + consumed + " bytes."); //NON-NLS
+        return consumed;
+    }
+
+    /**
+     * State of the reader between two reads of a file.
+     */
+    private static class State {
+
+        /**
+         * The series of the file, null if their type is not read.
+         */
+        private final Series pressureSeries, temperatureSeries;
+        private String seriesId = "";
+        private final Calendar calendar = Calendar.getInstance();
+
+        private State(File file, ReadOptions options) {
+            pressureSeries = options.accept(Type.PRESSURE) ? new Series(file, Type.PRESSURE) : null;
+            temperatureSeries = options.accept(Type.TEMPERATURE) ? new Series(file, Type.TEMPERATURE) : null;
         }
-        log.info("Reefnet File (" + file.getName() + ") has been read."); //NON-NLS
     }
 
     /**
      * Read an entry from a Reefnet File.
+     * <p>The values are only parsed if the date of the entry is in the date range of the options.</p>
      *
-     * @param line              The line extracted from the file (length must be 12 or 13)
-     * @param pressureSeries    The series where add pressure data
-     * @param temperatureSeries The series where add temperature data
-     * @param seriesId          The ReefNet's Series ID
-     * @param calendar          The calendar which contains the start date of the current series.
-     * @return The modified ReefNet's Series ID.
+     * @param line    The line extracted from the file (length must be 12 or 13)
+     * @param state   The state of the reader, with the series where add data
+     * @param options The options of the reading
+     * @return false if the entry is after the end of the date range and the file is sorted.
      * @throws FileReadingError When can not parse the date.
-     * @see #readDate(String[], java.util.Calendar)
-     * @see #readFile(java.io.File)
+     * @see #readDate(CsvTokenizer, java.util.Calendar)
+     * @see #readFile(ReadCursor)
      */
-    private String readReefnetEntry(
-            String[] line, Series pressureSeries, Series temperatureSeries, String seriesId, Calendar calendar)
-            throws FileReadingError {
-        double temperature = 0;
-        if (line.length == 12) {
-            temperature = Double.parseDouble(line[11]) - 273.15;
-        } else if (line.length == 13) {
-            temperature = Double.parseDouble(line[11] + '.' + line[12]) - 273.15;
+    private boolean readReefnetEntry(CsvTokenizer line, State state, ReadOptions options) throws FileReadingError {
+        if (!line.equals(2, state.seriesId)) {
+            state.seriesId = readDate(line, state.calendar);
         }
-        int pressure = Integer.parseInt(line[10]);
-        if (!seriesId.equals(line[2])) {
-            seriesId = readDate(line, calendar);
+        Calendar clone = (Calendar) state.calendar.clone();
+        clone.add(Calendar.SECOND, Integer.parseInt(line.get(9)));
+        final Date date = clone.getTime();
+        if (!options.accept(date)) return !options.isAfterEnd(date);
+        if (state.temperatureSeries != null) {
+            double temperature = 0;
+            if (line.size() == 12) {
+                temperature = Double.parseDouble(line.get(11)) - 273.15;
+            } else if (line.size() == 13) {
+                temperature = Double.parseDouble(line.get(11) + '.' + line.get(12)) - 273.15;
+            }
+            state.temperatureSeries.add(new Item(state.temperatureSeries, date, temperature));
         }
-        Calendar clone = (Calendar) calendar.clone();
-        clone.add(Calendar.SECOND, Integer.parseInt(line[9]));
-        temperatureSeries.add(new Item(temperatureSeries, clone.getTime(), temperature));
-        pressureSeries.add(new Item(pressureSeries, clone.getTime(), pressure));
-        return seriesId;
+        if (state.pressureSeries != null) {
+            int pressure = Integer.parseInt(line.get(10));
+            state.pressureSeries.add(new Item(state.pressureSeries, date, pressure));
+        }
+        return true;
     }
 
     /**
@@ -207,15 +272,17 @@ public class ReefnetFileReader implements DataFileReader {
      * @param calendar The calendar to update with the read date
      * @return The new ReefNet series ID which comes with this date.
      * @throws FileReadingError
-     * @see #readFile(java.io.File)
-     * @see #readReefnetEntry(String[], Series, Series, String, java.util.Calendar)
+     * @see #readFile(ReadCursor)
+     * @see #readReefnetEntry(CsvTokenizer, State, ReadOptions)
      */
-    private String readDate(String[] line, Calendar calendar) throws FileReadingError {
+    private String readDate(CsvTokenizer line, Calendar calendar) throws FileReadingError {
         String seriesId;
-        seriesId = line[2];
+        seriesId = line.get(2);
+        final StringBuilder date = new StringBuilder(line.get(3));
+        for (int i = 4; i < 9; i++) date.append(':').append(line.get(i));
         Date d;
         try {
-            d = dateFormat.parse(StringUtils.join(Arrays.copyOfRange(line, 3, 9), ':'));
+            d = dateFormat.parse(date.toString());
         } catch (ParseException e) {
             log.error("Can not parse a date", e);
             throw new FileReadingError(
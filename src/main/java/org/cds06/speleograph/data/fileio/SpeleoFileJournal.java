@@ -0,0 +1,732 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.fileio;
+
+import au.com.bytecode.opencsv.CSVReader;
+import au.com.bytecode.opencsv.CSVWriter;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Item;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.Type;
+import org.cds06.speleograph.data.store.SeriesStore;
+import org.cds06.speleograph.data.store.StoreItemList;
+import org.cds06.speleograph.graph.DrawStyle;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jfree.chart.axis.NumberAxis;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Journal of the saves of a SpeleoGraph File.
+ * <p>Writing a whole project is long when it contains big series. Once a project has been written, next saves only
+ * append to a journal (the project file name followed by {@value #JOURNAL_EXTENSION}) what changed since the previous
+ * save: properties of a series, its items if they were modified, or only the new items if some were added. Each save
+ * ends with a commit line, a save interrupted by a crash is ignored when the journal is read.</p>
+ * <p>When the journal becomes bigger than half of the project file, the project is written again by a background
+ * thread (it is compacted) and the journal is emptied. Saves done meanwhile are written both in the current journal
+ * and in the journal of the compacted project.</p>
+ * <p>A project file contains a random token which is also written at the head of its journal, so a journal is only
+ * read with the project file it was written for.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class SpeleoFileJournal {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(SpeleoFileJournal.class);
+
+    /**
+     * First element of the line which contains the journal token in a project file.
+     */
+    @NonNls
+    public static final String JOURNAL_LINE = "journal";
+
+    /**
+     * First element of the first line of a journal.
+     */
+    @NonNls
+    public static final String JOURNAL_HEADER = "SpeleoGraph Journal";
+
+    @NonNls
+    public static final String JOURNAL_EXTENSION = ".journal";
+
+    /**
+     * Journals smaller than this size (in bytes) are never compacted.
+     */
+    public static final long COMPACTION_MIN_SIZE = 1024 * 1024;
+
+    @NonNls
+    private static final String META = "meta", ITEMS = "items", APPEND = "append", REMOVE = "remove",
+            COMMIT = "commit";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8"); // NON-NLS
+
+    private static final Map<File, SpeleoFileJournal> journals = new HashMap<>();
+
+    private final File project;
+    private final File journal;
+
+    /**
+     * Journal of the project being compacted.
+     */
+    private final File nextJournal;
+
+    /**
+     * Token of the project file, null if we have not written or read it.
+     */
+    private String token;
+
+    /**
+     * Identifier of series in the journal, series of the project file are numbered in the file order.
+     */
+    private Map<Series, Integer> ids = new IdentityHashMap<>();
+    private int nextId = 0;
+
+    /**
+     * What is saved of each series.
+     */
+    private final Map<Series, SavedState> states = new IdentityHashMap<>();
+
+    /**
+     * The running compaction, null if there is none.
+     */
+    private Compaction compaction;
+
+    private SpeleoFileJournal(File project) {
+        this.project = project;
+        this.journal = new File(project.getPath() + JOURNAL_EXTENSION);
+        this.nextJournal = new File(journal.getPath() + ".new"); // NON-NLS
+    }
+
+    /**
+     * Get the journal of a project.
+     *
+     * @param file The project file, if it does not end with ".speleo", the name is edited.
+     * @return The journal
+     */
+    public static synchronized SpeleoFileJournal forProject(@NotNull File file) {
+        Validate.notNull(file);
+        if (!file.getName().endsWith(".speleo")) { // NON-NLS
+            file = new File(file.getPath() + ".speleo"); // NON-NLS
+        }
+        file = file.getAbsoluteFile();
+        SpeleoFileJournal journal = journals.get(file);
+        if (journal == null) {
+            journal = new SpeleoFileJournal(file);
+            journals.put(file, journal);
+        }
+        return journal;
+    }
+
+    /**
+     * Get the project file.
+     *
+     * @return The .speleo file
+     */
+    public File getProject() {
+        return project;
+    }
+
+    /**
+     * Save series in the project.
+     * <p>If the project file has not been written by this journal (or has been changed by someone else), it is fully
+     * written. Otherwise only changes since the last save are written in the journal.</p>
+     *
+     * @param series The series to save
+     * @throws IOException On write errors, the project stays as it was at the previous save.
+     */
+    public synchronized void save(@NotNull List<Series> series) throws IOException {
+        Validate.notNull(series);
+        final List<Series> list = new ArrayList<>(series);
+        if (token == null || !token.equals(readProjectToken(project))) {
+            writeProject(list);
+            return;
+        }
+        final Map<Series, SavedState> current = new IdentityHashMap<>();
+        final List<Change> changes = getChanges(list, current);
+        if (changes.isEmpty()) return;
+        for (Change change : changes) {
+            if (!ids.containsKey(change.series)) ids.put(change.series, nextId++);
+            if (compaction != null && !compaction.ids.containsKey(change.series))
+                compaction.ids.put(change.series, compaction.nextId++);
+        }
+        write(journal, token, ids, changes);
+        if (compaction != null) {
+            try {
+                write(nextJournal, compaction.token, compaction.ids, changes);
+            } catch (IOException e) {
+                log.error("Can not write the journal of the compacted project, compaction is cancelled", e);
+                compaction = null;
+                Files.deleteIfExists(nextJournal.toPath());
+            }
+        }
+        for (Change change : changes) {
+            if (change.type.equals(REMOVE)) {
+                ids.remove(change.series);
+                if (compaction != null) compaction.ids.remove(change.series);
+            }
+        }
+        states.clear();
+        states.putAll(current);
+        log.info("Saved " + changes.size() + " changes in " + journal.getName());
+        if (compaction == null && journal.length() > Math.max(COMPACTION_MIN_SIZE, project.length() / 2)) {
+            startCompaction(list);
+        }
+    }
+
+    /**
+     * Read the journal of the project after the project file has been read.
+     *
+     * @param projectToken The token read in the project file
+     * @param loaded       The series read in the project file, in the file order
+     * @throws IOException If the journal can not be read
+     */
+    public synchronized void load(@NotNull String projectToken, @NotNull List<Series> loaded) throws IOException {
+        Validate.notNull(projectToken);
+        Validate.notNull(loaded);
+        final Map<Integer, Series> byId = new HashMap<>();
+        for (int i = 0; i < loaded.size(); i++) byId.put(i, loaded.get(i));
+        if (nextJournal.isFile() && projectToken.equals(readJournalToken(nextJournal))) {
+            // We stopped between the end of a compaction and the replacement of the journal
+            SpeleoFileWriter.replace(nextJournal, journal);
+        }
+        compaction = null;
+        token = null;
+        ids = new IdentityHashMap<>();
+        states.clear();
+        if (journal.isFile()) {
+            if (projectToken.equals(readJournalToken(journal))) {
+                replay(byId);
+            } else {
+                log.warn("The journal " + journal.getName() + " is not the one of the project file, it is ignored");
+                return;
+            }
+        }
+        nextId = 0;
+        for (Map.Entry<Integer, Series> entry : byId.entrySet()) {
+            ids.put(entry.getValue(), entry.getKey());
+            states.put(entry.getValue(), new SavedState(entry.getValue()));
+            nextId = Math.max(nextId, entry.getKey() + 1);
+        }
+        token = projectToken;
+    }
+
+    /**
+     * Compute the changes between the saved states and the series.
+     *
+     * @param series  The series to save
+     * @param current Filled with the states of series after the save
+     * @return The changes to write
+     */
+    private List<Change> getChanges(List<Series> series, Map<Series, SavedState> current) {
+        final List<Change> changes = new ArrayList<>();
+        for (Series s : series) {
+            final SavedState saved = states.get(s), now = new SavedState(s);
+            current.put(s, now);
+            if (saved == null || !Arrays.equals(saved.meta, now.meta)) {
+                changes.add(new Change(META, s, now.meta, null));
+            }
+            if (saved == null || saved.version != now.version || now.count < saved.count) {
+                changes.add(new Change(ITEMS, s, null, now.items));
+            } else if (now.count > saved.count) {
+                changes.add(new Change(APPEND, s, null, now.items.subList(saved.count, now.count)));
+            }
+        }
+        for (Series s : states.keySet()) {
+            if (!current.containsKey(s)) changes.add(new Change(REMOVE, s, null, null));
+        }
+        return changes;
+    }
+
+    /**
+     * Write the whole project file and empty the journal.
+     */
+    private void writeProject(List<Series> series) throws IOException {
+        final String newToken = UUID.randomUUID().toString();
+        final Map<Series, Integer> newIds = new IdentityHashMap<>();
+        final Map<Series, SavedState> current = new IdentityHashMap<>();
+        final List<List<Item>> items = new ArrayList<>(series.size());
+        for (Series s : series) {
+            final SavedState state = new SavedState(s);
+            newIds.put(s, newIds.size());
+            current.put(s, state);
+            items.add(state.items);
+        }
+        new SpeleoFileWriter().write(project, series, items, newToken);
+        // The old journal does not match the new token anymore, it is ignored even if we can not delete it
+        Files.deleteIfExists(journal.toPath());
+        Files.deleteIfExists(nextJournal.toPath());
+        compaction = null;
+        token = newToken;
+        ids = newIds;
+        nextId = newIds.size();
+        states.clear();
+        states.putAll(current);
+        log.info("Project written in " + project.getName());
+    }
+
+    /**
+     * Start to write the project file in background.
+     * <p>The headers and the items of series are taken now, on the Swing thread: the background thread only writes
+     * them and never reads the series.</p>
+     */
+    private void startCompaction(List<Series> series) throws IOException {
+        final Compaction c = new Compaction();
+        c.token = UUID.randomUUID().toString();
+        c.headers = SpeleoFileWriter.headers(series);
+        c.items = new ArrayList<>(series.size());
+        for (Series s : series) {
+            c.ids.put(s, c.ids.size());
+            final SavedState state = states.get(s);
+            // Stores can be read by the compaction thread, lists of items can be modified meanwhile
+            c.items.add(state.inStore ? state.items : new ArrayList<>(state.items));
+        }
+        c.nextId = c.ids.size();
+        // Create the journal of the compacted project now, so saves done during the compaction can go in it
+        new JournalOutput(nextJournal, c.token, true).close();
+        compaction = c;
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                compact(c);
+            }
+        }, "SpeleoGraph journal compaction"); // NON-NLS
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Write the project file for a compaction (in background).
+     */
+    private void compact(Compaction c) {
+        File temp = null;
+        try {
+            temp = new SpeleoFileWriter().writeTemporary(project, c.headers, c.items, c.token);
+            synchronized (this) {
+                if (compaction != c) return; // The project has been written or read meanwhile
+                SpeleoFileWriter.replace(temp, project);
+                SpeleoFileWriter.replace(nextJournal, journal);
+                token = c.token;
+                ids = c.ids;
+                nextId = c.nextId;
+                compaction = null;
+            }
+            log.info("Journal of " + project.getName() + " compacted");
+        } catch (IOException | RuntimeException e) {
+            log.error("Can not compact the journal of " + project.getName(), e);
+            synchronized (this) {
+                if (compaction == c) compaction = null;
+            }
+        } finally {
+            try {
+                if (temp != null) Files.deleteIfExists(temp.toPath());
+                synchronized (this) {
+                    if (compaction == null && nextJournal.exists() && !c.token.equals(token))
+                        Files.deleteIfExists(nextJournal.toPath());
+                }
+            } catch (IOException e) {
+                log.warn("Can not delete temporary files of the compaction", e);
+            }
+        }
+    }
+
+    /**
+     * Write changes in a journal.
+     */
+    private static void write(File file, String token, Map<Series, Integer> ids, List<Change> changes)
+            throws IOException {
+        try (JournalOutput out = new JournalOutput(file, token, false)) {
+            for (Change change : changes) {
+                final String id = Integer.toString(ids.get(change.series));
+                switch (change.type) {
+                    case META:
+                        out.record(ArrayUtils.addAll(new String[]{META, id}, change.meta));
+                        break;
+                    case ITEMS:
+                    case APPEND:
+                        out.record(change.type, id, Integer.toString(change.items.size()));
+                        out.items(change.items, change.series.isMinMax());
+                        break;
+                    case REMOVE:
+                        out.record(REMOVE, id);
+                        break;
+                    default:
+                }
+            }
+            out.commit();
+        }
+    }
+
+    /**
+     * Apply the committed changes of the journal to the series.
+     */
+    private void replay(Map<Integer, Series> byId) throws IOException {
+        final List<PendingChange> pending = new ArrayList<>();
+        int commits = 0;
+        try (CSVReader reader = new CSVReader(new InputStreamReader(new FileInputStream(journal), CHARSET), ';', '"',
+                '\\')) {
+            reader.readNext(); // Header
+            String[] line;
+            reading:
+            while ((line = reader.readNext()) != null) {
+                if (line.length < 2) break;
+                if (COMMIT.equals(line[0])) {
+                    for (PendingChange p : pending) apply(p, byId);
+                    pending.clear();
+                    commits++;
+                    continue;
+                }
+                final PendingChange change = new PendingChange(line[0], Integer.parseInt(line[1]));
+                switch (line[0]) {
+                    case META:
+                        change.meta = Arrays.copyOfRange(line, 2, line.length);
+                        break;
+                    case ITEMS:
+                    case APPEND:
+                        final int count = Integer.parseInt(line[2]);
+                        change.times = new long[count];
+                        change.values = new double[count];
+                        change.high = new double[count];
+                        for (int i = 0; i < count; i++) {
+                            final String[] item = reader.readNext();
+                            if (item == null) break reading;
+                            change.times[i] = Long.parseLong(item[0]);
+                            change.values[i] = Double.parseDouble(item[1]);
+                            change.minMax = item.length > 2;
+                            change.high[i] = change.minMax ? Double.parseDouble(item[2]) : Double.NaN;
+                        }
+                        break;
+                    case REMOVE:
+                        break;
+                    default:
+                        log.warn("Unknown journal entry " + line[0]);
+                        break reading;
+                }
+                pending.add(change);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            log.warn("Invalid entry in " + journal.getName(), e);
+        }
+        if (!pending.isEmpty()) log.warn("The last save in " + journal.getName() + " is incomplete, it is ignored");
+        for (Series series : byId.values()) series.pack(); // Appended items are packed once all saves are applied
+        log.info("Read " + commits + " saves from " + journal.getName());
+    }
+
+    /**
+     * Apply a change read in the journal.
+     */
+    private void apply(PendingChange change, Map<Integer, Series> byId) {
+        Series series = byId.get(change.id);
+        if (series == null && !change.type.equals(META)) {
+            log.warn("Journal entry for an unknown series " + change.id);
+            return;
+        }
+        switch (change.type) {
+            case META:
+                byId.put(change.id, applyMeta(series, change.meta, byId.values()));
+                break;
+            case ITEMS:
+                series.resetItems(createItems(series, change));
+                break;
+            case APPEND:
+                for (Item item : createItems(series, change)) series.add(item);
+                break;
+            case REMOVE:
+                series.delete();
+                byId.remove(change.id);
+                break;
+            default:
+        }
+    }
+
+    private static List<Item> createItems(Series series, PendingChange change) {
+        final List<Item> items = new ArrayList<>(change.times.length);
+        for (int i = 0; i < change.times.length; i++) {
+            final Date date = new Date(change.times[i]);
+            items.add(change.minMax ? new Item(series, date, change.values[i], change.high[i]) :
+                    new Item(series, date, change.values[i]));
+        }
+        return items;
+    }
+
+    /**
+     * Describe the properties of a series.
+     *
+     * @param s The series
+     * @return The type name, the unit and properties like in a SpeleoGraph File series header.
+     */
+    @NonNls
+    private static String[] describe(Series s) {
+        final List<String> fields = new ArrayList<>();
+        fields.add(StringUtils.defaultString(s.getType().getName()));
+        fields.add(StringUtils.defaultString(s.getType().getUnit()));
+        fields.add("min-max:" + (s.isMinMax() ? 1 : 0));
+        fields.add("show:" + (s.isShow() ? 1 : 0));
+        fields.add("stepped:" + (s.isStepped() ? 1 : 0));
+        if (s.getStyle() != null) fields.add("style:" + s.getStyle().toString());
+        if (s.getColor() != null) fields.add("color:" + s.getColor().getRGB());
+        if (s.isNameHumanSet()) fields.add("name:" + s.getName());
+        final NumberAxis axis = s.getAxis();
+        fields.add("own-axis:" + (s.hasOwnAxis() ? 1 : 0));
+        if (axis.getLabel() != null) fields.add("axis-label:" + axis.getLabel());
+        fields.add("axis-lower:" + axis.getLowerBound());
+        fields.add("axis-upper:" + axis.getUpperBound());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * Apply properties written by {@link #describe(Series)}.
+     *
+     * @param series The series, null to create it
+     * @param meta   The properties
+     * @param others The other series, to share their axis
+     * @return The series
+     */
+    @SuppressWarnings("HardCodedStringLiteral")
+    private Series applyMeta(Series series, String[] meta, Collection<Series> others) {
+        final Type type = Type.getType(meta[0], meta[1]);
+        if (series == null) series = new Series(project, type);
+        else if (series.getType() != type) series.setType(type);
+        final SpeleoFileReader.Properties p = new SpeleoFileReader.Properties(meta);
+        series.setMinMax(p.getBoolean("min-max"));
+        series.setShow(p.getBoolean("show"));
+        series.setStepped(p.getBoolean("stepped"));
+        if (p.get("style") != null) {
+            for (DrawStyle s : DrawStyle.values()) {
+                if (s.toString().equals(p.get("style"))) series.setStyle(s);
+            }
+        }
+        if (p.get("color") != null) series.setColor(new Color(Integer.parseInt(p.get("color"))));
+        if (p.get("name") != null) series.setName(p.get("name"));
+        final String label = p.get("axis-label");
+        NumberAxis axis;
+        if (p.getBoolean("own-axis")) {
+            axis = series.hasOwnAxis() && StringUtils.equals(series.getAxis().getLabel(), label) ?
+                    series.getAxis() : null;
+            for (Series other : others) {
+                if (axis != null) break;
+                if (other != series && other.hasOwnAxis() && StringUtils.equals(other.getAxis().getLabel(), label))
+                    axis = other.getAxis();
+            }
+            if (axis == null) axis = new NumberAxis(label);
+            if (!series.hasOwnAxis() || series.getAxis() != axis) series.setAxis(axis);
+        } else {
+            if (series.hasOwnAxis()) series.setAxis(null);
+            axis = series.getType().getAxis();
+        }
+        try {
+            axis.setRange(Double.parseDouble(p.get("axis-lower")), Double.parseDouble(p.get("axis-upper")));
+        } catch (RuntimeException e) {
+            log.warn("Invalid axis range in journal", e);
+        }
+        return series;
+    }
+
+    /**
+     * Read the token of a project file.
+     *
+     * @param file The project file
+     * @return The token, or null if the file does not exist or has no token.
+     */
+    static String readProjectToken(File file) {
+        if (!file.isFile()) return null;
+        try (CSVReader reader = new CSVReader(new InputStreamReader(new FileInputStream(file), CHARSET), ';', '"')) {
+            String[] line = reader.readNext();
+            if (line == null || !SpeleoFileReader.SPELEOGRAPH_FILE_HEADER.equals(line[0])) return null;
+            while ((line = reader.readNext()) != null) {
+                if (JOURNAL_LINE.equals(line[0]) && line.length > 1) return line[1];
+                if ("headers".equals(line[0])) return null; // NON-NLS
+            }
+        } catch (IOException e) {
+            log.warn("Can not read " + file, e);
+        }
+        return null;
+    }
+
+    /**
+     * Read the token of a journal.
+     */
+    private static String readJournalToken(File file) {
+        try (CSVReader reader = new CSVReader(new InputStreamReader(new FileInputStream(file), CHARSET), ';', '"',
+                '\\')) {
+            String[] line = reader.readNext();
+            if (line != null && line.length > 1 && JOURNAL_HEADER.equals(line[0])) return line[1];
+        } catch (IOException e) {
+            log.warn("Can not read " + file, e);
+        }
+        return null;
+    }
+
+    /**
+     * What is saved of a series.
+     */
+    private static final class SavedState {
+        private final int version;
+        private final int count;
+        private final String[] meta;
+        private final List<Item> items;
+        /**
+         * true if items are read from a store, which can be read by another thread.
+         */
+        private final boolean inStore;
+
+        private SavedState(Series series) {
+            final List<Item> list = series.getItems();
+            final SeriesStore store = series.getStore();
+            version = series.getVersion();
+            count = list.size();
+            meta = describe(series);
+            inStore = store != null;
+            items = inStore ? new StoreItemList(series, store, count) : SpeleoFileWriter.head(list, count);
+        }
+    }
+
+    /**
+     * A change to write in the journal.
+     */
+    private static final class Change {
+        private final String type;
+        private final Series series;
+        private final String[] meta;
+        private final List<Item> items;
+
+        private Change(String type, Series series, String[] meta, List<Item> items) {
+            this.type = type;
+            this.series = series;
+            this.meta = meta;
+            this.items = items;
+        }
+    }
+
+    /**
+     * A change read in the journal, applied when its save is committed.
+     */
+    private static final class PendingChange {
+        private final String type;
+        private final int id;
+        private String[] meta;
+        private long[] times;
+        private double[] values;
+        private double[] high;
+        private boolean minMax;
+
+        private PendingChange(String type, int id) {
+            this.type = type;
+            this.id = id;
+        }
+    }
+
+    /**
+     * A compaction in progress.
+     */
+    private static final class Compaction {
+        private String token;
+        private SpeleoFileWriter.Headers headers;
+        private List<List<Item>> items;
+        private final Map<Series, Integer> ids = new IdentityHashMap<>();
+        private int nextId;
+    }
+
+    /**
+     * Append entries to a journal file.
+     * <p>If the output is closed before {@link #commit()}, what has been written is removed.</p>
+     */
+    private static final class JournalOutput implements Closeable {
+        private final FileOutputStream stream;
+        private final Writer writer;
+        private final CSVWriter csv;
+        private final long start;
+        private boolean committed = false;
+
+        /**
+         * Open a journal.
+         *
+         * @param file   The journal file
+         * @param token  The token of the project
+         * @param create true to start a new journal, false to append to the existing one
+         */
+        private JournalOutput(File file, String token, boolean create) throws IOException {
+            if (!create && file.length() > 0 && !token.equals(readJournalToken(file))) {
+                log.warn("Replace the journal " + file.getName() + " which is not the one of the project");
+                create = true;
+            }
+            stream = new FileOutputStream(file, !create);
+            writer = new BufferedWriter(new OutputStreamWriter(stream, CHARSET), 1 << 16);
+            csv = new CSVWriter(writer, ';', '"', '\\', "\n");
+            if (stream.getChannel().size() == 0) {
+                record(JOURNAL_HEADER, token);
+                csv.flush();
+                stream.getFD().sync();
+            }
+            start = stream.getChannel().size();
+        }
+
+        private void record(String... fields) {
+            csv.writeNext(fields);
+        }
+
+        private void items(List<Item> items, boolean minMax) throws IOException {
+            for (Item item : items) {
+                writer.write(Long.toString(item.getDate().getTime()));
+                writer.write(';');
+                if (minMax) {
+                    writer.write(Double.toString(item.getLow()));
+                    writer.write(';');
+                    writer.write(Double.toString(item.getHigh()));
+                } else {
+                    writer.write(Double.toString(item.getValue()));
+                }
+                writer.write('\n');
+            }
+        }
+
+        private void commit() throws IOException {
+            record(COMMIT, Long.toString(System.currentTimeMillis()));
+            csv.flush();
+            stream.getFD().sync();
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                // Drop the buffered data and what has already been written
+                stream.getChannel().truncate(start);
+            }
+            stream.close();
+        }
+    }
+}
@@ -22,9 +22,9 @@
 
 package org.cds06.speleograph.data.fileio;
 
-import au.com.bytecode.opencsv.CSVReader;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOCase;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.*;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -43,11 +43,13 @@ import org.slf4j.LoggerFactory;
 
 import java.awt.*;
 import java.io.*;
+import java.nio.charset.Charset;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.List;
 
 /**
  * This file is created by PhilippeGeek.
@@ -92,9 +94,30 @@ public class SpeleoFileReader implements DataFileReader {
      * @param file The file to read
      * @throws FileReadingError On error while reading the file
      */
-    @SuppressWarnings("HardCodedStringLiteral")
     @Override
     public void readFile(File file) throws FileReadingError {
+        readFile(file, new ReadOptions());
+    }
+
+    /**
+     * Read a part of a file with SpeleoGraph File Format.
+     * <p>Series whose type is not asked are not created and their columns are not parsed. When the project has a
+     * journal, all series are needed to replay it, so they are read and the ones which are not asked are deleted
+     * after.</p>
+     * <p>Lines out of the date range of the options are skipped before their values are parsed. Data lines are
+     * written series by series, each series in date order, so with sorted options the reading of a series stops at its
+     * first value after the range and the file is closed when all series are done. With a journal, the series are
+     * cut to the range after the journal has been replayed.</p>
+     * <p>For big files, a {@link TimeIndex} is used to only read the parts of the file which may contain the date
+     * range.</p>
+     *
+     * @param file    The file to read
+     * @param options What to read in the file
+     * @throws FileReadingError On error while reading the file
+     */
+    @SuppressWarnings("HardCodedStringLiteral")
+    @Override
+    public void readFile(File file, ReadOptions options) throws FileReadingError {
         InputStreamReader streamReader;
         try {
             streamReader = new InputStreamReader(new FileInputStream(file), "UTF-8"); // NON-NLS
@@ -103,73 +126,113 @@ public class SpeleoFileReader implements DataFileReader {
             throw new FileReadingError(
                     I18nSupport.translate("error.canNotOpenFile", file.getName()), FileReadingError.Part.HEAD, e);
         }
-        CSVReader reader = new CSVReader(streamReader, ';', '"');
+        CsvTokenizer reader = new CsvTokenizer(streamReader, ';', '"');
         axes = new ArrayList<>();
         typeAxesChecker = new ArrayList<>();
-        String[] line;
+        boolean hasLine;
         try {
-            line = reader.readNext();
+            hasLine = reader.next();
         } catch (IOException e) {
+            IOUtils.closeQuietly(streamReader);
             throw new FileReadingError(
                     I18nSupport.translate("error.canNotReadFileOrEmpty"), FileReadingError.Part.HEAD, e);
         }
         int size, state = CHECKING;
         HeaderInformation headers = new HeaderInformation();
         DateInformation date = new DateInformation();
+        ArrayList<Series> loadedSeries = new ArrayList<>();
+        String journalToken = null;
         headers.setDateInformation(date);
-        while (line != null) {
-            size = line.length;
-            if (size == 0) {
-                log.info("Empty line while reading file, just continue our walk.");
-                continue;
-            }
-            String firstLineElement = line[0];
-            if (firstLineElement.equals("eof")) break; // Force end for reading NON-NLS
-            switch (state) {
-                case CHECKING:
-                    if (!SPELEOGRAPH_FILE_HEADER.equals(firstLineElement)) throw NOT_SPELEO_FILE;
-                    state = FINDING_HEADERS;
-                    break;
-                case FINDING_HEADERS:
-                    if ("headers".equals(firstLineElement)) state = READING_HEADERS; // NON-NLS
-                    break;
-                case READING_HEADERS:
-                    switch (firstLineElement) {
-                        case "data":
-                            state = READING_DATA;
+        int lineCount = 1;
+        TimeIndex index = null;
+        try {
+            while (hasLine) {
+                size = reader.size();
+                if (reader.equals(0, "eof")) break; // Force end for reading NON-NLS
+                if (state == READING_DATA) {
+                    // Data lines are the most of the file, only the columns of read series are parsed
+                    if (size > 1 && headers.read(reader) == HeaderInformation.AFTER_WINDOW) {
+                        log.info("End of the date range reached in " + file.getName());
+                        break;
+                    }
+                } else {
+                    String[] line = reader.toArray();
+                    String firstLineElement = line[0];
+                    switch (state) {
+                        case CHECKING:
+                            if (!SPELEOGRAPH_FILE_HEADER.equals(firstLineElement)) throw NOT_SPELEO_FILE;
+                            state = FINDING_HEADERS;
                             break;
-                        case "date":
-                            readDateHeaderLine(date, line);
+                        case FINDING_HEADERS:
+                            if ("headers".equals(firstLineElement)) state = READING_HEADERS; // NON-NLS
+                            else if (SpeleoFileJournal.JOURNAL_LINE.equals(firstLineElement) && size > 1)
+                                journalToken = line[1];
                             break;
-                        case "axis":
-                            try {
-                                NumberAxis axis = new NumberAxis(line[2]);
-                                axis.setLowerBound((DecimalFormat.getInstance().parse(line[3])).doubleValue());
-                                axis.setUpperBound(DecimalFormat.getInstance().parse(line[4]).doubleValue());
-                                typeAxesChecker.add(Integer.parseInt(line[1]), new Properties(line).getBoolean("type"));
-                                axes.add(Integer.parseInt(line[1]), axis);
-                            } catch (Exception e) {
-                                log.error("Can not read axis", e);
+                        case READING_HEADERS:
+                            switch (firstLineElement) {
+                                case "data":
+                                    state = READING_DATA;
+                                    headers.setReadOptions(journalToken == null ? options : null);
+                                    if (journalToken == null && options.hasDateRange())
+                                        index = getTimeIndex(file, headers, lineCount, "speleo"); // NON-NLS
+                                    break;
+                                case "date":
+                                    readDateHeaderLine(date, line);
+                                    break;
+                                case "axis":
+                                    try {
+                                        NumberAxis axis = new NumberAxis(line[2]);
+                                        axis.setLowerBound((DecimalFormat.getInstance().parse(line[3])).doubleValue());
+                                        axis.setUpperBound(DecimalFormat.getInstance().parse(line[4]).doubleValue());
+                                        typeAxesChecker.add(Integer.parseInt(line[1]), new Properties(line).getBoolean("type"));
+                                        axes.add(Integer.parseInt(line[1]), axis);
+                                    } catch (Exception e) {
+                                        log.error("Can not read axis", e);
+                                    }
+                                    break;
+                                case "chart":
+
+                                    break;
+                                default:
+                                    Series series = readSeriesHeaderLine(file, line, headers,
+                                            journalToken == null ? options : new ReadOptions());
+                                    if (series != null) loadedSeries.add(series);
                             }
-                            break;
-                        case "chart":
-
                             break;
                         default:
-                            readSeriesHeaderLine(file, line, headers);
+                            log.info("State error in reading");
                     }
-                    break;
-                case READING_DATA:
-                    if (size <= 1) break;
-                    headers.read(line);
-                    break;
-                default:
-                    log.info("State error in reading");
+                }
+                if (index != null) break; // Data are read from the index ranges
+                try {
+                    lineCount++;
+                    hasLine = reader.next();
+                } catch (IOException e) {
+                    log.debug("None next lines", e);
+                    hasLine = false;
+                }
             }
+        } finally {
+            IOUtils.closeQuietly(streamReader);
+        }
+        if (index != null) {
             try {
-                line = reader.readNext();
+                readRanges(file, headers, index, Charset.forName("UTF-8")); // NON-NLS
             } catch (IOException e) {
-                log.debug("None next lines", e);
+                log.error("Can not read data of " + file, e);
+                throw new FileReadingError(
+                        I18nSupport.translate("error.canNotReadFileOrEmpty"), FileReadingError.Part.DATA, e);
+            }
+        }
+        if (journalToken != null) {
+            try {
+                SpeleoFileJournal.forProject(file).load(journalToken, loadedSeries);
+            } catch (IOException e) {
+                log.error("Can not read the journal of " + file.getName() + ", last changes are lost", e);
+            }
+            for (Series series : loadedSeries) {
+                if (!options.accept(series.getType())) series.delete();
+                else if (options.hasDateRange()) keepDateRange(series, options);
             }
         }
         Series.notifyInstanceListeners();
@@ -200,7 +263,7 @@ public class SpeleoFileReader implements DataFileReader {
             @Override
             public boolean accept(File file) {
                 try {
-                    return new Scanner(file).nextLine().equals(SPELEOGRAPH_FILE_HEADER);
+                    return new Scanner(file, "UTF-8").nextLine().equals(SPELEOGRAPH_FILE_HEADER); // NON-NLS
                 } catch (Exception e) {
                     return false;
                 }
@@ -231,15 +294,18 @@ public class SpeleoFileReader implements DataFileReader {
      * @param file    The file used to extract the data
      * @param line    The parsed line
      * @param headers The object which represent the headers
+     * @param options The options which select the series to create
+     * @return The created series, null if the line is not valid or the series is not read
      */
-    private void readSeriesHeaderLine(File file, String[] line, HeaderInformation headers) {
+    private Series readSeriesHeaderLine(File file, String[] line, HeaderInformation headers, ReadOptions options) {
         int size = line.length, column = Integer.parseInt(line[0]);
         if (size < 3) { // A series line must have a length gather than 2
             log.info("Invalid header : " + StringUtils.join(line, ' '));
-            return;
+            return null;
         }
         @NonNls Properties p = new Properties(line);
         Type t = Type.getType(line[1], line[2]);
+        if (!options.accept(t)) return null;
         Series series = new Series(file, t);
 
         {
@@ -268,7 +334,7 @@ public class SpeleoFileReader implements DataFileReader {
 
         if (p.getBoolean("min-max")) {
             Integer min = p.getNumber("min"), max = p.getNumber("max");
-            if (min == null || max == null) return;
+            if (min == null || max == null) return series;
             if (headers.hasSeriesForColumn(min) && headers.hasSeriesForColumn(max)) {
                 series.delete();
             }
@@ -277,6 +343,7 @@ public class SpeleoFileReader implements DataFileReader {
         } else {
             headers.set(series, column);
         }
+        return series;
     }
 
     /**
@@ -298,6 +365,56 @@ public class SpeleoFileReader implements DataFileReader {
             date.set(Integer.parseInt(line[i]), line[i + 1]);
     }
 
+    /**
+     * Get the time index of a file, built with the date information of headers.
+     *
+     * @param firstLine The number of lines before data
+     * @param format    The name of the format, which is a part of the index key
+     * @return The index, or null if the file does not need one.
+     */
+    private static TimeIndex getTimeIndex(File file, final HeaderInformation headers, int firstLine, String format) {
+        final String key = format + headers.getColumnSeparator() + firstLine + headers.dateInformation.getKey();
+        return TimeIndex.get(file, key, headers.getColumnSeparator(), firstLine, new TimeIndex.Dates() {
+            @Override
+            public long parse(CsvTokenizer line) {
+                if (line.size() <= 1 || line.equals(0, "eof")) return TimeIndex.NO_DATE; // NON-NLS
+                try {
+                    return headers.dateInformation.parse(line).getTime();
+                } catch (RuntimeException e) {
+                    return TimeIndex.UNKNOWN_DATE;
+                }
+            }
+        });
+    }
+
+    /**
+     * Read the data lines of the parts of a file given by its index for the date range of headers.
+     */
+    private static void readRanges(File file, HeaderInformation headers, TimeIndex index, Charset charset)
+            throws IOException {
+        final List<long[]> ranges = index.getRanges(headers.options);
+        log.debug("Read " + ranges.size() + " parts of " + file.getName());
+        for (long[] range : ranges) {
+            try (Reader reader = TimeIndex.open(file, range, charset)) {
+                final CsvTokenizer line = new CsvTokenizer(reader, headers.getColumnSeparator(), '"');
+                while (line.next()) {
+                    if (line.size() > 1 && headers.read(line) == HeaderInformation.AFTER_WINDOW) return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the items of a series which are out of the date range of options.
+     */
+    private static void keepDateRange(Series series, ReadOptions options) {
+        ArrayList<Item> items = new ArrayList<>(series.getItems().size());
+        for (Item item : series.getItems()) {
+            if (options.accept(item.getDate())) items.add(item);
+        }
+        series.resetItems(items);
+    }
+
     /**
      * Read a file into Series.
      * <p>Series are stored into the {@link HeaderInformation}. This function will call it line by line to push the data
@@ -306,19 +423,26 @@ public class SpeleoFileReader implements DataFileReader {
      * @param headers This object contains all data usefull
      * @param file    The file which we will read
      * @throws FileNotFoundException If file does not exists.
-     * @throws IOException           If an error occurs when read line in the file, to get more information about this exception
-     *                               see {@link au.com.bytecode.opencsv.CSVReader#readNext()}.
+     * @throws IOException           If an error occurs when read line in the file.
      */
     public static void read(File file, HeaderInformation headers) throws IOException {
         Validate.notNull(file);
         Validate.notNull(headers);
-        final CSVReader reader = new CSVReader(new java.io.FileReader(file), headers.getColumnSeparator(), '"');
-        int lineId = -1;
-        String[] line;
-        while ((line = reader.readNext()) != null) {
-            lineId++;
-            if (lineId < headers.getFirstLineOfData()) continue;
-            headers.read(line);
+        if (headers.options != null && headers.options.hasDateRange()) {
+            final TimeIndex index = getTimeIndex(file, headers, headers.getFirstLineOfData(), "csv"); // NON-NLS
+            if (index != null) {
+                readRanges(file, headers, index, Charset.defaultCharset());
+                return;
+            }
+        }
+        try (java.io.FileReader fileReader = new java.io.FileReader(file)) {
+            final CsvTokenizer reader = new CsvTokenizer(fileReader, headers.getColumnSeparator(), '"');
+            int lineId = -1;
+            while (reader.next()) {
+                lineId++;
+                if (lineId < headers.getFirstLineOfData()) continue;
+                if (headers.read(reader) == HeaderInformation.AFTER_WINDOW) break;
+            }
         }
     }
 
@@ -380,10 +504,10 @@ public class SpeleoFileReader implements DataFileReader {
             return isAdding ? 1 : 0;
         }
 
-        public Date parse(String[] line) {
+        public Date parse(CsvTokenizer line) {
             String[] toJoin = new String[columns.length];
             for (int i = 0; i < columns.length; i++) {
-                toJoin[i] = line[columns[i]];
+                toJoin[i] = line.get(columns[i]);
             }
             String date = StringUtils.join(toJoin, ' ');
             try {
@@ -429,6 +553,15 @@ public class SpeleoFileReader implements DataFileReader {
         public void setTimeZone(TimeZone timeZone) {
             this.timeZone = timeZone;
         }
+
+        /**
+         * Describe how dates are read, two information with the same key read the same dates.
+         *
+         * @return A string with columns, format and time zone.
+         */
+        public String getKey() {
+            return Arrays.toString(columns) + dateFormat + '@' + format.getTimeZone().getID();
+        }
     }
 
     /**
@@ -451,9 +584,14 @@ public class SpeleoFileReader implements DataFileReader {
         static final long serialVersionUID = 1L;
 
         /**
-         * Number format is used to parse numbers in columns.
+         * Value returned by {@link #read(CsvTokenizer)} when the next lines do not have to be read.
+         */
+        public static final int AFTER_WINDOW = 2;
+
+        /**
+         * Number format is used to parse numbers in columns (one for each header as files can be read in parallel).
          */
-        private static final NumberFormat numberFormat = NumberFormat.getNumberInstance();
+        private final NumberFormat numberFormat = NumberFormat.getNumberInstance();
 
         /**
          * Number of read Series.
@@ -495,6 +633,21 @@ public class SpeleoFileReader implements DataFileReader {
          */
         private char columnSeparator = ';';
 
+        /**
+         * The options of the reading, null to read all the lines.
+         */
+        private transient ReadOptions options;
+
+        /**
+         * For each series, true when a value after the end of the date range has been read (only for sorted files).
+         */
+        private transient boolean[] ended;
+
+        /**
+         * Number of series which have not reached the end of the date range.
+         */
+        private transient int running;
+
         /**
          * Get the value of the line in the file where we will start to read data.
          *
@@ -611,25 +764,45 @@ public class SpeleoFileReader implements DataFileReader {
             return isCreated ? 0 : 1;
         }
 
+        /**
+         * Set the options used to read the lines.
+         * <p>Lines out of the date range of the options are skipped before their values are parsed. If the options say
+         * the file is sorted, each series is considered sorted on its own: once a series has a value after the end of
+         * the range, its next lines are skipped without parsing the date.</p>
+         *
+         * @param options The options, or null to read all lines.
+         */
+        public void setReadOptions(@Nullable ReadOptions options) {
+            this.options = options;
+            this.ended = null;
+        }
+
         /**
          * Read a line of data.
+         * <p>Only the date columns and the columns of series are converted to strings.</p>
          *
-         * @param line The array of columns. Should not be null.
-         * @return 0 if parse is full correct, 1 otherwise.
+         * @param line The tokenizer positioned on the line. Should not be null.
+         * @return 0 if parse is full correct, 1 otherwise, {@link #AFTER_WINDOW} if all series are after the end of the
+         *         date range of the options.
+         * @see #setReadOptions(ReadOptions)
          */
-        public int read(String[] line) {
+        public int read(CsvTokenizer line) {
             try {
+                if (ended != null && isEnded(line)) return 0;
                 final Date date = dateInformation.parse(line);
+                if (options != null && !options.accept(date)) {
+                    return options.isAfterEnd(date) && end(line) ? AFTER_WINDOW : 0;
+                }
                 for (int i = 0; i < numberOfSeriesToParse; i++) {
                     final Integer[] columnIds = columns[i];
                     Item item;
                     if (columnIds.length == 1) {
-                        if ("".equals(line[columnIds[0]])) continue;
-                        item = new Item(series[i], date, numberFormat.parse(line[columnIds[0]]).doubleValue());
+                        if (line.isEmpty(columnIds[0])) continue;
+                        item = new Item(series[i], date, numberFormat.parse(line.get(columnIds[0])).doubleValue());
                     } else if (columnIds.length == 2) {
-                        if ("".equals(line[columnIds[0]])) continue;
-                        if ("".equals(line[columnIds[1]])) continue;
-                        item = new Item(series[i], date, numberFormat.parse(line[columnIds[0]]).doubleValue(), numberFormat.parse(line[columnIds[1]]).doubleValue());
+                        if (line.isEmpty(columnIds[0])) continue;
+                        if (line.isEmpty(columnIds[1])) continue;
+                        item = new Item(series[i], date, numberFormat.parse(line.get(columnIds[0])).doubleValue(), numberFormat.parse(line.get(columnIds[1])).doubleValue());
                     } else {
                         continue;
                     }
@@ -642,6 +815,38 @@ public class SpeleoFileReader implements DataFileReader {
             }
         }
 
+        /**
+         * Determine if all the series which have a value in a line are after the end of the date range.
+         */
+        private boolean isEnded(CsvTokenizer line) {
+            boolean hasValue = false;
+            for (int i = 0; i < numberOfSeriesToParse; i++) {
+                if (line.isEmpty(columns[i][0])) continue;
+                if (!ended[i]) return false;
+                hasValue = true;
+            }
+            return hasValue;
+        }
+
+        /**
+         * Mark the series which have a value in a line as ended.
+         *
+         * @return true if all the series are ended.
+         */
+        private boolean end(CsvTokenizer line) {
+            if (ended == null) {
+                ended = new boolean[numberOfSeriesToParse];
+                running = numberOfSeriesToParse;
+            }
+            for (int i = 0; i < numberOfSeriesToParse; i++) {
+                if (!ended[i] && !line.isEmpty(columns[i][0])) {
+                    ended[i] = true;
+                    running--;
+                }
+            }
+            return running == 0;
+        }
+
         public char getColumnSeparator() {
             return columnSeparator;
         }
@@ -668,7 +873,7 @@ public class SpeleoFileReader implements DataFileReader {
      * @author Philippe VIENNE
      * @since 1.0
      */
-    private static class Properties {
+    static class Properties {
 
         /**
          * Store properties.
@@ -22,21 +22,28 @@
 
 package org.cds06.speleograph.data.fileio;
 
-import org.apache.commons.io.output.FileWriterWithEncoding;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.cds06.speleograph.data.Item;
 import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.TimeJoin;
+import org.cds06.speleograph.data.store.SeriesStore;
+import org.cds06.speleograph.data.store.StoreItemList;
 import org.jetbrains.annotations.NonNls;
 import org.jfree.chart.axis.NumberAxis;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -46,11 +53,17 @@ public class SpeleoFileWriter {
 
     @NonNls
     private static final Logger log = LoggerFactory.getLogger(SpeleoFileWriter.class);
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
-    private static final DecimalFormat DECIMAL_FORMAT = new DecimalFormat("##0.###");
-    private FileWriterWithEncoding writer;
+    // Formats are not thread safe and a writer can be used by a background thread, so they are not shared.
+    private final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
+    private final DecimalFormat DECIMAL_FORMAT = new DecimalFormat("##0.###");
+    private Writer writer;
     private Integer allocatedColumns = 0;
 
+    /**
+     * First error which occurred while writing lines, the file is not saved if it is set.
+     */
+    private IOException error;
+
     /**
      * Save all SpeleoGraph State in a .speleo File.
      *
@@ -62,21 +75,140 @@ public class SpeleoFileWriter {
         if (!destination.getName().endsWith(".speleo")) {// NON-NLS
             destination = new File(destination.getAbsolutePath() + ".speleo");
         }
-        writer = new FileWriterWithEncoding(destination, "UTF-8"); //NON-NLS
         List<Series> series = Series.getInstances();
-        Integer[][] columns = new Integer[series.size()][];
-        allocatedColumns = 0;
-        write(SpeleoFileReader.SPELEOGRAPH_FILE_HEADER);
-        write("headers");
-        writeHeaders(series, columns);
-        write("data");
-        writeSeries(series, columns);
-        write("eof");
-        writer.close();
+        List<List<Item>> items = new ArrayList<>(series.size());
+        for (Series s : series) items.add(s.getItems());
+        write(destination, series, items, null);
         return true;
     }
 
-    private Integer writeHeaders(List<Series> series, Integer[][] columns) {
+    /**
+     * Write series in a .speleo File.
+     * <p>The destination is replaced only once the file is completely written, so it is never left half written.</p>
+     *
+     * @param destination  The destination file
+     * @param series       The series to write
+     * @param items        The items to write for each series (a series can be edited while we are writing it)
+     * @param journalToken The token of the {@link SpeleoFileJournal journal} linked to the file, or null
+     * @throws IOException On write errors, the destination is not modified.
+     */
+    void write(File destination, List<Series> series, List<List<Item>> items, String journalToken)
+            throws IOException {
+        replace(writeTemporary(destination, headers(series), items, journalToken), destination);
+    }
+
+    /**
+     * Write series in a temporary file next to a .speleo File.
+     * <p>The file is synchronized on the disk before this function returns. It only reads the headers and the items,
+     * so it can be called by another thread than the Swing one.</p>
+     *
+     * @param destination  The final destination file
+     * @param headers      The headers of the series, see {@link #headers(List)}
+     * @param items        The items to write for each series, in the order of the headers
+     * @param journalToken The token of the {@link SpeleoFileJournal journal} linked to the file, or null
+     * @return The temporary file, it should be moved to the destination with {@link #replace(File, File)}.
+     * @throws IOException On write errors, the temporary file is deleted.
+     */
+    File writeTemporary(File destination, Headers headers, List<List<Item>> items, String journalToken)
+            throws IOException {
+        final File directory = destination.getAbsoluteFile().getParentFile();
+        final Path temp = Files.createTempFile(directory.toPath(), destination.getName() + ".", ".tmp"); // NON-NLS
+        boolean done = false;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), "UTF-8"), // NON-NLS
+                    1 << 16);
+            error = null;
+            allocatedColumns = headers.columnCount;
+            write(SpeleoFileReader.SPELEOGRAPH_FILE_HEADER);
+            if (journalToken != null) write(SpeleoFileJournal.JOURNAL_LINE, journalToken);
+            write("headers");
+            for (String[] line : headers.lines) write(line);
+            write("data");
+            writeSeries(items, headers.columns);
+            write("eof");
+            writer.flush();
+            if (error != null) throw error;
+            channel.force(true);
+            done = true;
+        } finally {
+            writer = null;
+            if (!done) Files.deleteIfExists(temp);
+        }
+        return temp.toFile();
+    }
+
+    /**
+     * Replace a file by another one.
+     * <p>The file is atomically renamed when the system supports it: the target file is either the old one or the new
+     * one, even if the application or the computer stops during the replacement.</p>
+     *
+     * @param source The new file
+     * @param target The file to replace
+     * @throws IOException If the file can not be moved.
+     */
+    static void replace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.info("Atomic move is not supported for " + target + ", use a simple move");
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        // Save the new directory entry on systems which allow it
+        try (FileChannel directory = FileChannel.open(target.getAbsoluteFile().getParentFile().toPath(),
+                StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            log.debug("Can not synchronize directory of " + target, e);
+        }
+    }
+
+    /**
+     * Take the items of series to write them on another thread.
+     * <p>Must be called on the Swing thread. Items in a store are not copied: stores can be read from any thread and
+     * items appended later are not in the returned list. Items in a list are copied, because the list can be modified
+     * while it is written.</p>
+     *
+     * @param series The series to write
+     * @return The items of each series
+     */
+    static List<List<Item>> items(List<Series> series) {
+        final List<List<Item>> items = new ArrayList<>(series.size());
+        for (Series s : series) {
+            final SeriesStore store = s.getStore();
+            items.add(store != null ? new StoreItemList(s, store, store.size()) : new ArrayList<>(s.getItems()));
+        }
+        return items;
+    }
+
+    /**
+     * Get the first items of a list.
+     * <p>Unlike {@link List#subList(int, int)}, the returned list can be read while items are added to the original
+     * one, as long as they are added at the end.</p>
+     */
+    static List<Item> head(final List<Item> items, final int count) {
+        return new AbstractList<Item>() {
+            @Override
+            public Item get(int index) {
+                if (index >= count) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+                return items.get(index);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Describe the axes and the series in the header lines of a file.
+     * <p>Must be called on the Swing thread, which edits series: the headers can then be written by another thread.</p>
+     *
+     * @param series The series to write
+     * @return The header lines
+     */
+    static Headers headers(List<Series> series) {
+        final Headers headers = new Headers(series.size());
         ArrayList<NumberAxis> axes = new ArrayList<>();
         for (Series s : series) {
             NumberAxis axis = s.getAxis();
@@ -85,16 +217,17 @@ public class SpeleoFileWriter {
             int id = axes.indexOf(axis);
             boolean typeAxis = axis.equals(s.getType().getAxis());
             try {
-                write("axis", Integer.toString(id),
+                headers.lines.add(new String[]{"axis", Integer.toString(id),
                         '"' + axis.getLabel() + '"',
                         DecimalFormat.getInstance().format(axis.getLowerBound()),
                         DecimalFormat.getInstance().format(axis.getUpperBound()),
-                        "type:" + (typeAxis ? "1" : "0"));
+                        "type:" + (typeAxis ? "1" : "0")});
             } catch (Exception e) {
                 log.error("Can not write axis to file", e);
             }
         }
-        write("date", "", Integer.toString(allocatedColumns), "d/M/y H:m:s");
+        int allocatedColumns = 0;
+        headers.lines.add(new String[]{"date", "", Integer.toString(allocatedColumns), "d/M/y H:m:s"});
         allocatedColumns++;
         for (Series s : series) {
             String[] seriesDescriptor = {
@@ -108,11 +241,11 @@ public class SpeleoFileWriter {
                         "min:" + Integer.toString(allocatedColumns)); // NON-NLS
                 seriesDescriptor = ArrayUtils.add(seriesDescriptor,
                         "max:" + Integer.toString(allocatedColumns + 1)); // NON-NLS
-                columns[series.indexOf(s)] = new Integer[]{allocatedColumns, allocatedColumns + 1};
+                headers.columns[series.indexOf(s)] = new Integer[]{allocatedColumns, allocatedColumns + 1};
                 allocatedColumns++;
                 allocatedColumns++;
             } else {
-                columns[series.indexOf(s)] = new Integer[]{allocatedColumns};
+                headers.columns[series.indexOf(s)] = new Integer[]{allocatedColumns};
                 allocatedColumns++;
             }
             if (s.isShow())
@@ -128,68 +261,56 @@ public class SpeleoFileWriter {
                 seriesDescriptor = ArrayUtils.add(seriesDescriptor, "name:" + s.getName()); // NON-NLS
             }
             seriesDescriptor = ArrayUtils.add(seriesDescriptor, "axis:" + axes.indexOf(s.getAxis()));
-            write(seriesDescriptor);
-        }
-        return allocatedColumns;
-    }
-
-    private void writeSeries(List<Series> series, Integer[][] columns) {
-        for (Series s : series) {
-            int seriesId = series.indexOf(s);
-            switch (columns[seriesId].length) {
-                case 1:
-                    writeColumn(columns[seriesId][0], s);
-                    break;
-                case 2:
-                    writeMinMaxColumn(columns[seriesId], s);
-                    break;
-                default:
-
-            }
-        }
-    }
-
-    private void writeColumn(Integer integer, Series s) {
-        int column = integer;
-        for (Item i : s.getItems()) {
-            String[] line = new String[allocatedColumns];
-            line[0] = DATE_FORMAT.format(i.getDate());
-            line[column] = DECIMAL_FORMAT.format(i.getValue());
-            write(resetNotNullArray(line));
-        }
-    }
-
-    private void writeMinMaxColumn(Integer[] column, Series s) {
-        int minColumn = column[0], maxColumn = column[1];
-        for (Item i : s.getItems()) {
-            String[] line = new String[allocatedColumns];
-            line[0] = DATE_FORMAT.format(i.getDate());
-            line[minColumn] = DECIMAL_FORMAT.format(i.getLow());
-            line[maxColumn] = DECIMAL_FORMAT.format(i.getHigh());
-            write(resetNotNullArray(line));
+            headers.lines.add(seriesDescriptor);
         }
+        headers.columnCount = allocatedColumns;
+        return headers;
     }
 
     /**
-     * Make sure that there is not null element in a String array.
-     *
-     * @param line The array which can contains null elements
-     * @return A String array without null elements.
+     * Write the items of all series, a line for each date with the values of the series which have an item at it.
      */
-    private static String[] resetNotNullArray(String[] line) {
-        for (int i1 = 0; i1 < line.length; i1++) {
-            if (line[i1] == null) line[i1] = "";
+    private void writeSeries(List<List<Item>> items, Integer[][] columns) {
+        final TimeJoin join = TimeJoin.ofItems(items, TimeJoin.Mode.OUTER, 0);
+        final String[] line = new String[allocatedColumns];
+        while (join.next() && error == null) {
+            Arrays.fill(line, "");
+            line[0] = DATE_FORMAT.format(new Date(join.getTime()));
+            for (int c = 0; c < columns.length; c++) {
+                if (!join.hasValue(c)) continue;
+                if (columns[c].length == 2) {
+                    line[columns[c][0]] = DECIMAL_FORMAT.format(join.getLow(c));
+                    line[columns[c][1]] = DECIMAL_FORMAT.format(join.getHigh(c));
+                } else {
+                    line[columns[c][0]] = DECIMAL_FORMAT.format(join.getValue(c));
+                }
+            }
+            write(line);
         }
-        return line;
     }
 
     private void write(@NonNls String... line) {
         final String lineToWrite = StringUtils.join(line, ';');
+        if (error != null) return;
         try {
             writer.write(lineToWrite);
             writer.write("\n");
         } catch (IOException e) {
             log.error("Can not write line '" + lineToWrite + "'", e);
+            error = e;
+        }
+    }
+
+    /**
+     * Header lines of series and the columns of their values.
+     */
+    static final class Headers {
+        private final List<String[]> lines = new ArrayList<>();
+        private final Integer[][] columns;
+        private int columnCount;
+
+        private Headers(int seriesCount) {
+            columns = new Integer[seriesCount][];
         }
     }
 
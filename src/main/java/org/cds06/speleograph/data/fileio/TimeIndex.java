@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.fileio;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sparse index of the dates of a text data file.
+ * <p>Data lines are grouped by chunks of {@link #CHUNK_SIZE} lines. For each chunk, the index stores its position in
+ * the file (in bytes) and the first and last dates of its lines. A reader which only wants a date range can then open
+ * the file directly at the chunks which may contain it, see {@link #getRanges(ReadOptions)}. Lines do not have to be
+ * sorted: a chunk is only skipped when all its dates are out of the range, so sorted files (or files sorted by blocks,
+ * like .speleo files) get the most of it.</p>
+ * <p>The index is saved in a hidden file next to the data file. It is used again while the data file has the same size
+ * and modification date, and while it is read with the same date columns (the key given by the reader).</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class TimeIndex {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(TimeIndex.class);
+
+    /**
+     * Number of lines in a chunk.
+     */
+    public static final int CHUNK_SIZE = 1000;
+
+    /**
+     * Files smaller than this size are read from their start, an index would not save time.
+     */
+    public static final long MIN_FILE_SIZE = 1 << 20;
+
+    /**
+     * Date returned by {@link Dates#parse(CsvTokenizer)} for a line which has no data, it is not indexed.
+     */
+    public static final long NO_DATE = Long.MAX_VALUE;
+
+    /**
+     * Date returned by {@link Dates#parse(CsvTokenizer)} for a line whose date can not be read: its chunk is always
+     * read.
+     */
+    public static final long UNKNOWN_DATE = Long.MIN_VALUE;
+
+    private static final int MAGIC = 0x53474958; // "SGIX"
+    private static final int VERSION = 1;
+    @NonNls
+    private static final String EXTENSION = ".sgidx";
+
+    /**
+     * Read the date of a data line while building an index.
+     */
+    public interface Dates {
+        /**
+         * Read the date of a line.
+         *
+         * @param line The tokenizer positioned on the line
+         * @return The date in milliseconds, {@link #NO_DATE} or {@link #UNKNOWN_DATE}.
+         */
+        long parse(CsvTokenizer line);
+    }
+
+    private final long length;
+    private final long lastModified;
+    private final String key;
+
+    /**
+     * For each chunk, its bounds in the file and its first and last dates.
+     */
+    private long[] starts, ends, firsts, lasts;
+    private int count = 0;
+
+    private TimeIndex(long length, long lastModified, String key, int capacity) {
+        this.length = length;
+        this.lastModified = lastModified;
+        this.key = key;
+        starts = new long[capacity];
+        ends = new long[capacity];
+        firsts = new long[capacity];
+        lasts = new long[capacity];
+    }
+
+    /**
+     * Get the file where the index of a data file is saved.
+     *
+     * @param file The data file
+     * @return The hidden index file in the same directory.
+     */
+    public static File getIndexFile(@NotNull File file) {
+        final File absolute = file.getAbsoluteFile();
+        return new File(absolute.getParentFile(), "." + absolute.getName() + EXTENSION);
+    }
+
+    /**
+     * Determine if a file is an index created by this class.
+     *
+     * @param file The file to check
+     * @return true if it is an index file (it should not be read as data).
+     */
+    public static boolean isIndexFile(@NotNull File file) {
+        return file.getName().startsWith(".") && file.getName().contains(EXTENSION);
+    }
+
+    /**
+     * Get the index of a file, it is built and saved if it does not exist or if the file has changed.
+     *
+     * @param file      The data file
+     * @param key       Description of how dates are read, an index built with another key is not used
+     * @param separator The column separator of the file
+     * @param firstLine The number of lines before the first data line
+     * @param dates     The parser of the dates of lines
+     * @return The index, or null if the file is too small to need one or can not be indexed.
+     */
+    @Nullable
+    public static TimeIndex get(@NotNull File file, @NotNull String key, char separator, int firstLine,
+                                @NotNull Dates dates) {
+        Validate.notNull(file);
+        Validate.notNull(key);
+        Validate.notNull(dates);
+        if (file.length() < MIN_FILE_SIZE) return null;
+        TimeIndex index = load(file, key);
+        if (index != null) return index;
+        try {
+            final long start = System.nanoTime();
+            index = build(file, key, separator, firstLine, dates);
+            log.info("Index of " + file.getName() + " built in " + (System.nanoTime() - start) / 1000000 + " ms");
+        } catch (IOException e) {
+            log.info("Can not index " + file, e);
+            return null;
+        }
+        try {
+            index.save(getIndexFile(file));
+        } catch (IOException e) {
+            log.info("Can not save the index of " + file + ", it will be built again next time", e);
+        }
+        return index;
+    }
+
+    /**
+     * Load the saved index of a file.
+     *
+     * @param file The data file
+     * @param key  Description of how dates are read
+     * @return The index, or null if there is no index for the current version of the file.
+     */
+    @Nullable
+    public static TimeIndex load(@NotNull File file, @NotNull String key) {
+        final File indexFile = getIndexFile(file);
+        if (!indexFile.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            final long length = in.readLong(), lastModified = in.readLong();
+            final String indexKey = in.readUTF();
+            if (length != file.length() || lastModified != file.lastModified() || !key.equals(indexKey)
+                    || in.readInt() != CHUNK_SIZE) {
+                log.debug("Index of " + file + " is out of date");
+                return null;
+            }
+            final int count = in.readInt();
+            final TimeIndex index = new TimeIndex(length, lastModified, key, count);
+            for (int i = 0; i < count; i++) {
+                index.add(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+            }
+            return index;
+        } catch (IOException e) {
+            log.info("Can not read the index of " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Read a file to build its index.
+     * <p>The file is decoded as ISO-8859-1, so a char is a byte and positions given by the tokenizer are positions in
+     * the file. Separators, quotes and line breaks are the same in all the charsets used by data files.</p>
+     */
+    private static TimeIndex build(File file, String key, char separator, int firstLine, Dates dates)
+            throws IOException {
+        final long length = file.length(), lastModified = file.lastModified();
+        final TimeIndex index = new TimeIndex(length, lastModified, key, 16);
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "ISO-8859-1"))) {
+            final CsvTokenizer line = new CsvTokenizer(reader, separator, '"');
+            for (int i = 0; i < firstLine; i++) {
+                if (!line.next()) return index;
+            }
+            long start = line.getOffset(), first = NO_DATE, last = NO_DATE;
+            boolean unknown = false;
+            int lines = 0;
+            while (line.next()) {
+                final long date = dates.parse(line);
+                if (date == UNKNOWN_DATE) {
+                    unknown = true;
+                } else if (date != NO_DATE) {
+                    if (first == NO_DATE || date < first) first = date;
+                    if (last == NO_DATE || date > last) last = date;
+                }
+                if (++lines == CHUNK_SIZE) {
+                    index.addChunk(start, line.getOffset(), first, last, unknown);
+                    start = line.getOffset();
+                    first = last = NO_DATE;
+                    unknown = false;
+                    lines = 0;
+                }
+            }
+            if (lines > 0) index.addChunk(start, line.getOffset(), first, last, unknown);
+        }
+        if (file.length() != length || file.lastModified() != lastModified) {
+            throw new IOException("The file has been modified while it was indexed");
+        }
+        return index;
+    }
+
+    private void addChunk(long start, long end, long first, long last, boolean unknown) {
+        if (unknown) add(start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+        else if (first != NO_DATE) add(start, end, first, last);
+    }
+
+    private void add(long start, long end, long first, long last) {
+        if (count == starts.length) {
+            final int capacity = Math.max(16, count * 2);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            lasts = Arrays.copyOf(lasts, capacity);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        firsts[count] = first;
+        lasts[count] = last;
+        count++;
+    }
+
+    /**
+     * Save the index, the previous index file is atomically replaced.
+     */
+    private void save(File indexFile) throws IOException {
+        final Path temp = Files.createTempFile(indexFile.getParentFile().toPath(), indexFile.getName() + ".", ".tmp"); // NON-NLS
+        boolean done = false;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(length);
+                out.writeLong(lastModified);
+                out.writeUTF(key);
+                out.writeInt(CHUNK_SIZE);
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(starts[i]);
+                    out.writeLong(ends[i]);
+                    out.writeLong(firsts[i]);
+                    out.writeLong(lasts[i]);
+                }
+            }
+            SpeleoFileWriter.replace(temp.toFile(), indexFile);
+            done = true;
+        } finally {
+            if (!done) Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Get the parts of the file which must be read for the date range of options.
+     * <p>Contiguous chunks are merged, so the number of ranges is about the number of sorted blocks in the file.</p>
+     *
+     * @param options The options with the date range
+     * @return A list of {@code [start, end[} positions in the file, in the file order.
+     */
+    public List<long[]> getRanges(@NotNull ReadOptions options) {
+        final long start = options.getStart() == null ? Long.MIN_VALUE : options.getStart().getTime();
+        final long end = options.getEnd() == null ? Long.MAX_VALUE : options.getEnd().getTime();
+        final List<long[]> ranges = new ArrayList<>();
+        long[] current = null;
+        for (int i = 0; i < count; i++) {
+            if (firsts[i] > end || lasts[i] < start) continue;
+            if (current != null && current[1] == starts[i]) {
+                current[1] = ends[i];
+            } else {
+                current = new long[]{starts[i], ends[i]};
+                ranges.add(current);
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Open a part of a file.
+     *
+     * @param file    The data file
+     * @param range   The {@code [start, end[} positions to read
+     * @param charset The charset of the file
+     * @return A reader of this part, it must be closed by the caller.
+     * @throws IOException If the file can not be read.
+     */
+    public static Reader open(@NotNull File file, @NotNull long[] range, @NotNull Charset charset)
+            throws IOException {
+        final RandomAccessFile input = new RandomAccessFile(file, "r"); // NON-NLS
+        try {
+            input.seek(range[0]);
+            return new BufferedReader(new InputStreamReader(
+                    new BoundedInputStream(Channels.newInputStream(input.getChannel()), range[1] - range[0]),
+                    charset));
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(input);
+            throw e;
+        }
+    }
+}
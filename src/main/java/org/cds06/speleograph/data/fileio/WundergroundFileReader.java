@@ -14,10 +14,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 
 /**
@@ -27,14 +26,14 @@ import java.util.Date;
  *
  * @author Philippe VIENNE
  */
-public class WundergroundFileReader implements DataFileReader {
+public class WundergroundFileReader implements IncrementalFileReader {
 
     private static final I18nSupport resourceBundle = new I18nSupport();
 
     /**
      * Wunderground Date Format.
      */
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("y-M-d H:m:s");
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("y-M-d H:m:s");
 
     /**
      * Logger for errors and information.
@@ -71,6 +70,11 @@ public class WundergroundFileReader implements DataFileReader {
      */
     private static final int WATER_COLUMN = 9; // TODO : OR 12 ??
 
+    /**
+     * Column index for the UTC date.
+     */
+    private static final int DATE_COLUMN = 15;
+
     /**
      *
      * @param file The file to open
@@ -78,43 +82,156 @@ public class WundergroundFileReader implements DataFileReader {
      */
     @Override
     public void readFile(File file) throws FileReadingError {
-        log.debug("Start to read file "+file);
-        try {
-            FileReader fileReader = new FileReader(file);
-
-            BufferedReader reader = new BufferedReader(fileReader);
+        readFile(new ReadCursor(file, false));
+    }
 
+    /**
+     *
+     * @param file The file to open
+     * @param options What to read in the file
+     * @throws org.cds06.speleograph.data.fileio.FileReadingError
+     */
+    @Override
+    public void readFile(File file, ReadOptions options) throws FileReadingError {
+        readFile(new ReadCursor(file, false, options));
+    }
 
-            ArrayList<String> data = new ArrayList<>();
-            String line,buffer="";
-            while ((line=reader.readLine())!=null){
-                buffer+=StringUtils.normalizeSpace(line);
-                if(StringUtils.countMatches(buffer,",")>=16){
-                    data.add(buffer);
-                    buffer="";
+    /**
+     *
+     * @param cursor The position in the file
+     * @return The number of bytes read
+     * @throws org.cds06.speleograph.data.fileio.FileReadingError
+     */
+    @Override
+    public long readFile(ReadCursor cursor) throws FileReadingError {
+        final File file = cursor.getFile();
+        log.debug("Start to read file "+file+" from "+cursor.getOffset());
+        final long consumed;
+        try {
+            Reader newLines = cursor.openNewLines();
+            if (newLines == null) return 0;
+            BufferedReader reader = new BufferedReader(newLines);
+
+            State state = (State) cursor.getState();
+            if (state == null) {
+                state = new State(file, cursor.getOptions());
+                cursor.setState(state);
+                for (Series series : new Series[]{state.temperature, state.pressure, state.water}) {
+                    if (series != null) cursor.addSeries(series);
                 }
             }
-
-            Series temperature = new Series(file, Type.TEMPERATURE); // Temperature
-            Series pressure = new Series(file,Type.PRESSURE); // Pressure
-            Series water = new Series(file,Type.WATER); // Water
-
-            for(String d:data){
-                String[] lineSplit = StringUtils.splitPreserveAllTokens(d,',');
-                try{
-                    Date date = dateFormat.parse(lineSplit[15]);
-                    temperature.add(new Item(temperature,date,Double.valueOf(lineSplit[TEMPERATURE_COLUMN])));
-                    pressure.add(new Item(pressure,date,Double.valueOf(lineSplit[PRESSURE_COLUMN])));
-                    water.add(new Item(water,date,Double.valueOf(lineSplit[WATER_COLUMN])));
-                } catch(Exception e){
-                    e.printStackTrace(System.err);
+            final ReadOptions options = cursor.getOptions();
+            final int[] commas = new int[DATE_COLUMN + 1];
+            String line,buffer=state.buffer;
+            try {
+                while ((line=reader.readLine())!=null){
+                    buffer+=normalizeSpace(line);
+                    if(StringUtils.countMatches(buffer,",")>=16){
+                        final String d = buffer;
+                        buffer="";
+                        // Only the columns of the read series are cut from the record
+                        if (findCommas(d, commas) < commas.length) continue;
+                        if (!readRecord(d, commas, state, options)) {
+                            log.info("End of the date range reached in " + file.getName()); //NON-NLS
+                            break;
+                        }
+                    }
                 }
+            } finally {
+                reader.close();
             }
+            state.buffer = buffer; // An incomplete record, continued by the next lines
+            consumed = cursor.advance();
 
         } catch (IOException e) {
             throw new FileReadingError("I/O Exception : Can not read this file !",FileReadingError.Part.HEAD,e);
         }
         log.debug("Ended to read file "+file);
+        return consumed;
+    }
+
+    /**
+     * Read a record of the file.
+     * <p>The values are only parsed if the date of the record is in the date range of the options.</p>
+     *
+     * @return false if the record is after the end of the date range and the file is sorted.
+     */
+    private boolean readRecord(String d, int[] commas, State state, ReadOptions options) {
+        Series temperature = state.temperature, pressure = state.pressure, water = state.water;
+        try{
+            Date date = dateFormat.parse(field(d, commas, DATE_COLUMN));
+            if (!options.accept(date)) return !options.isAfterEnd(date);
+            if (temperature != null)
+                temperature.add(new Item(temperature,date,Double.valueOf(field(d, commas, TEMPERATURE_COLUMN))));
+            if (pressure != null)
+                pressure.add(new Item(pressure,date,Double.valueOf(field(d, commas, PRESSURE_COLUMN))));
+            if (water != null)
+                water.add(new Item(water,date,Double.valueOf(field(d, commas, WATER_COLUMN))));
+        } catch(Exception e){
+            e.printStackTrace(System.err);
+        }
+        return true;
+    }
+
+    /**
+     * Trim a line and replace each block of white spaces by one space.
+     * <p>Same result as {@link StringUtils#normalizeSpace(String)}, without a regular expression.</p>
+     */
+    private static String normalizeSpace(String line) {
+        final String trimmed = line.trim();
+        final StringBuilder builder = new StringBuilder(trimmed.length());
+        boolean space = false;
+        for (int i = 0; i < trimmed.length(); i++) {
+            final char c = trimmed.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (!space) builder.append(' ');
+                space = true;
+            } else {
+                builder.append(c);
+                space = false;
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Find the positions of the first commas of a record.
+     *
+     * @param record The record
+     * @param commas Filled with the position of the commas
+     * @return The number of commas found (at most the array length).
+     */
+    private static int findCommas(String record, int[] commas) {
+        int count = 0;
+        for (int i = record.indexOf(','); i != -1 && count < commas.length; i = record.indexOf(',', i + 1)) {
+            commas[count++] = i;
+        }
+        return count;
+    }
+
+    /**
+     * Cut a column from a record.
+     */
+    private static String field(String record, int[] commas, int column) {
+        return record.substring(column == 0 ? 0 : commas[column - 1] + 1, commas[column]);
+    }
+
+    /**
+     * State of the reader between two reads of a file.
+     */
+    private static class State {
+
+        /**
+         * The series of the file, null if their type is not read.
+         */
+        private final Series temperature, pressure, water;
+        private String buffer = "";
+
+        private State(File file, ReadOptions options) {
+            temperature = options.accept(Type.TEMPERATURE) ? new Series(file, Type.TEMPERATURE) : null; // Temperature
+            pressure = options.accept(Type.PRESSURE) ? new Series(file,Type.PRESSURE) : null; // Pressure
+            water = options.accept(Type.WATER) ? new Series(file,Type.WATER) : null; // Water
+        }
     }
 
     @Override
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.store;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Item;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Store made of the items of another store followed by appended items.
+ * <p>The other store, the head, is not copied: appended items are kept in arrays of primitives after it. A series in a
+ * {@link RegularStore} or a {@link CompressedStore} which gets new items (from a watched file, a journal ...) keeps
+ * its items packed, then it is packed again in a single store once the new items are read, see
+ * {@link org.cds06.speleograph.data.Series#pack()}.</p>
+ * <p>Like a {@link MappedStore}, only one thread can append items, but any thread can read the items which were
+ * already appended.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public final class AppendableStore implements SeriesStore {
+
+    private final SeriesStore head;
+    private final int headSize;
+    private final boolean minMax;
+    /**
+     * Appended items, the arrays are replaced by bigger ones when they are full.
+     */
+    private volatile Tail tail;
+    private volatile int size;
+
+    /**
+     * Create a store with the items of another one.
+     *
+     * @param head The store with the first items, it must not change
+     */
+    public AppendableStore(@NotNull SeriesStore head) {
+        Validate.notNull(head);
+        this.head = head;
+        this.headSize = head.size();
+        this.minMax = head.isMinMax();
+        this.tail = new Tail(16, minMax);
+        this.size = headSize;
+    }
+
+    /**
+     * Get the store with the first items.
+     *
+     * @return The store given at creation
+     */
+    public SeriesStore getHead() {
+        return head;
+    }
+
+    /**
+     * Add an item at the end of the store.
+     *
+     * @param item The item
+     */
+    public void append(@NotNull Item item) {
+        append(item.getDate().getTime(), item.getValue(), item.getLow(), item.getHigh());
+    }
+
+    /**
+     * Add an item at the end of the store.
+     *
+     * @param time  The date in milliseconds
+     * @param value The value (ignored for min/max stores)
+     * @param low   The low value (ignored if it is not a min/max store)
+     * @param high  The high value (ignored if it is not a min/max store)
+     */
+    public void append(long time, double value, double low, double high) {
+        final int index = size - headSize;
+        Tail current = tail;
+        if (index == current.times.length) {
+            current = current.grow(index * 2, minMax);
+            tail = current; // Readers see the copied items before the new one
+        }
+        current.times[index] = time;
+        if (minMax) {
+            current.low[index] = low;
+            current.high[index] = high;
+        } else {
+            current.values[index] = value;
+        }
+        size = headSize + index + 1; // Publish the item to readers
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getTime(int index) {
+        checkIndex(index);
+        return index < headSize ? head.getTime(index) : tail.times[index - headSize];
+    }
+
+    @Override
+    public double getValue(int index) {
+        checkIndex(index);
+        if (index < headSize) return head.getValue(index);
+        return minMax ? Double.NaN : tail.values[index - headSize];
+    }
+
+    @Override
+    public double getLow(int index) {
+        checkIndex(index);
+        if (index < headSize) return head.getLow(index);
+        return minMax ? tail.low[index - headSize] : Double.NaN;
+    }
+
+    @Override
+    public double getHigh(int index) {
+        checkIndex(index);
+        if (index < headSize) return head.getHigh(index);
+        return minMax ? tail.high[index - headSize] : Double.NaN;
+    }
+
+    @Override
+    public boolean isMinMax() {
+        return minMax;
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        return 64 + head.getMemoryUsage() + 8L * tail.times.length * (minMax ? 3 : 2);
+    }
+
+    private void checkIndex(int index) {
+        final int size = this.size;
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    /**
+     * Arrays of the appended items.
+     */
+    private static final class Tail {
+        private final long[] times;
+        private final double[] values;
+        private final double[] low;
+        private final double[] high;
+
+        private Tail(int capacity, boolean minMax) {
+            this(new long[capacity], minMax ? null : new double[capacity], minMax ? new double[capacity] : null,
+                    minMax ? new double[capacity] : null);
+        }
+
+        private Tail(long[] times, double[] values, double[] low, double[] high) {
+            this.times = times;
+            this.values = values;
+            this.low = low;
+            this.high = high;
+        }
+
+        private Tail grow(int capacity, boolean minMax) {
+            return new Tail(Arrays.copyOf(times, capacity), minMax ? null : Arrays.copyOf(values, capacity),
+                    minMax ? Arrays.copyOf(low, capacity) : null, minMax ? Arrays.copyOf(high, capacity) : null);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.data.store;
+
+/**
+ * Read bits written by a {@link BitOutput}.
+ */
+class BitInput {
+
+    private final byte[] buffer;
+    private int position = 0;
+
+    BitInput(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Read bits, most significant bit first.
+     *
+     * @param count The number of bits to read (0 to 64)
+     * @return The bits in the lowest part of the result
+     */
+    long read(int count) {
+        long value = 0;
+        while (count > 0) {
+            final int available = 8 - (position & 7);
+            final int n = Math.min(available, count);
+            final int bits = (buffer[position >>> 3] >>> (available - n)) & ((1 << n) - 1);
+            value = (value << n) | bits;
+            position += n;
+            count -= n;
+        }
+        return value;
+    }
+
+    boolean readBit() {
+        return read(1) != 0;
+    }
+}
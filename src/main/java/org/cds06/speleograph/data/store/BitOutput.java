@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.data.store;
+
+import java.util.Arrays;
+
+/**
+ * Write bits in a growing byte array.
+ */
+class BitOutput {
+
+    private byte[] buffer;
+    private int bitCount = 0;
+
+    BitOutput(int capacity) {
+        buffer = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Write the lowest bits of a number, most significant bit first.
+     *
+     * @param value The bits
+     * @param count The number of bits to write (0 to 64)
+     */
+    void write(long value, int count) {
+        if (count == 0) return;
+        final int needed = (bitCount + count + 7) >>> 3;
+        if (needed > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+        while (count > 0) {
+            final int free = 8 - (bitCount & 7);
+            final int n = Math.min(free, count);
+            final int bits = (int) (value >>> (count - n)) & ((1 << n) - 1);
+            buffer[bitCount >>> 3] |= bits << (free - n);
+            bitCount += n;
+            count -= n;
+        }
+    }
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Get the written bytes.
+     *
+     * @return A copy of the used part of the buffer
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, (bitCount + 7) >>> 3);
+    }
+}
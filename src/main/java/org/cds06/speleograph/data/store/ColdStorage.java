@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.store;
+
+import org.cds06.speleograph.data.Item;
+import org.cds06.speleograph.data.Series;
+import org.jetbrains.annotations.NonNls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Move the items of hidden series to a {@link CompressedStore}.
+ * <p>Every {@link #TICK_DELAY} milliseconds, series which are hidden are compressed on a background thread, then their
+ * items are replaced by the compressed ones on the Swing thread. A compressed series which is displayed again gets
+ * back its items in a {@link RegularStore}, so the chart stays fast on the series the user works with. Displayed
+ * series are never compressed: they are read each time the chart is painted, so they would be compressed and
+ * uncompressed again and again.</p>
+ * <p>Series with less than {@link #MIN_ITEMS} items are never compressed, they use too few memory to be worth it.
+ * Series in a {@link MappedStore} are not in the heap, they are left as they are.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class ColdStorage implements ActionListener {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(ColdStorage.class);
+
+    /**
+     * Delay between two checks of the series (in milliseconds).
+     */
+    public static final int TICK_DELAY = 15000;
+
+    /**
+     * Minimal number of items of a series to compress it.
+     */
+    public static final int MIN_ITEMS = 4 * CompressedStore.CHUNK_SIZE;
+
+    private final Timer timer = new Timer(TICK_DELAY, this);
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@SuppressWarnings("NullableProblems") Runnable r) {
+            Thread thread = new Thread(r, "SpeleoGraph cold storage"); // NON-NLS
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * Series which are being compressed (only used on the Swing thread).
+     */
+    private final Set<Series> pending = new HashSet<>();
+
+    /**
+     * Start to check series.
+     */
+    public void start() {
+        timer.start();
+    }
+
+    /**
+     * Stop to check series, series which are compressed stay compressed.
+     */
+    public void stop() {
+        timer.stop();
+    }
+
+    /**
+     * Check the series (called by the timer on the Swing thread).
+     *
+     * @param e The timer event
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        for (Series series : new ArrayList<>(Series.getInstances())) {
+            final SeriesStore store = series.getStore();
+            if (store instanceof CompressedStore) {
+                if (series.isShow()) {
+                    series.setStore(RegularStore.copyOf(store));
+                    log.debug("Series " + series.getName() + " is shown, uncompress it");
+                }
+            } else if ((store == null || store instanceof RegularStore) && !series.isShow() &&
+                    !pending.contains(series)) {
+                compress(series);
+            }
+        }
+    }
+
+    /**
+     * Compress a series in background.
+     */
+    private void compress(final Series series) {
+        final SeriesStore original = series.getStore();
+        final int count = series.getItems().size();
+        if (count < MIN_ITEMS) return;
+        // A list can be modified by the Swing thread while it is compressed, so the worker reads a copy of it
+        final List<Item> items = original == null ? new ArrayList<>(series.getItems()) : null;
+        final int version = series.getVersion();
+        final boolean minMax = series.isMinMax();
+        pending.add(series);
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                CompressedStore compressed = null;
+                try {
+                    compressed = original != null ? CompressedStore.compress(original) :
+                            CompressedStore.compress(items, minMax);
+                } catch (RuntimeException e) {
+                    log.error("Can not compress series " + series.getName(), e);
+                }
+                final CompressedStore store = compressed;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        pending.remove(series);
+                        if (store == null) return;
+                        if (!Series.getInstances().contains(series)) return;
+                        final int size = series.getItems().size();
+                        // The series may have changed or be displayed again since we started
+                        if (series.getVersion() != version || series.getStore() != original || size != count ||
+                                series.isShow()) {
+                            return;
+                        }
+                        series.setStore(store);
+                        log.debug("Series " + series.getName() + " compressed, " + count + " items in " +
+                                store.getMemoryUsage() + " bytes");
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.data.store;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Item;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Store which keeps items compressed in memory.
+ * <p>Items are cut in chunks of {@link #CHUNK_SIZE} items. In a chunk, dates are written as the difference between
+ * two consecutive intervals (which is zero for regular samples) and values are written as the bits which differ from
+ * the previous value (few for slowly changing values), like the Gorilla format of Facebook. Regularly sampled logger
+ * data usually needs one or two bytes by item instead of about fifty for an {@link Item}.</p>
+ * <p>Chunks are decompressed on access. The last decompressed chunks are kept in a cache shared by all stores, so
+ * reading items in order does not decompress a chunk more than once.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public final class CompressedStore implements SeriesStore {
+
+    /**
+     * Number of items in a chunk.
+     */
+    public static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Number of decompressed chunks kept in memory for all stores.
+     */
+    private static final int CACHED_CHUNKS = 256;
+
+    private static final Map<ChunkKey, Chunk> cache = new LinkedHashMap<ChunkKey, Chunk>(CACHED_CHUNKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ChunkKey, Chunk> eldest) {
+            return size() > CACHED_CHUNKS;
+        }
+    };
+
+    private final byte[][] chunks;
+    private final int size;
+    private final boolean minMax;
+
+    /**
+     * The last chunk read from this store, avoid a cache lookup for consecutive reads.
+     */
+    private volatile Chunk last;
+
+    private CompressedStore(byte[][] chunks, int size, boolean minMax) {
+        this.chunks = chunks;
+        this.size = size;
+        this.minMax = minMax;
+    }
+
+    /**
+     * Compress items.
+     *
+     * @param items  The items to compress
+     * @param minMax true to keep low and high values
+     * @return The store
+     */
+    public static CompressedStore compress(@NotNull List<Item> items, boolean minMax) {
+        Validate.notNull(items);
+        final int size = items.size();
+        final byte[][] chunks = new byte[(size + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+        final long[] times = new long[CHUNK_SIZE];
+        final double[] values = new double[CHUNK_SIZE], low = new double[CHUNK_SIZE], high = new double[CHUNK_SIZE];
+        for (int c = 0; c < chunks.length; c++) {
+            final int start = c * CHUNK_SIZE, count = Math.min(CHUNK_SIZE, size - start);
+            for (int i = 0; i < count; i++) {
+                final Item item = items.get(start + i);
+                times[i] = item.getDate().getTime();
+                values[i] = item.getValue();
+                low[i] = item.getLow();
+                high[i] = item.getHigh();
+            }
+            chunks[c] = encode(times, values, minMax ? low : null, minMax ? high : null, count);
+        }
+        return new CompressedStore(chunks, size, minMax);
+    }
+
+    /**
+     * Compress the content of another store.
+     *
+     * @param store The store to copy
+     * @return The compressed store
+     */
+    public static CompressedStore compress(@NotNull SeriesStore store) {
+        Validate.notNull(store);
+        return compress(store, store.size());
+    }
+
+    /**
+     * Compress the first items of another store.
+     *
+     * @param store The store to copy
+     * @param size  The number of items to copy
+     * @return The compressed store
+     */
+    public static CompressedStore compress(@NotNull SeriesStore store, int size) {
+        Validate.notNull(store);
+        Validate.isTrue(size <= store.size(), "The store does not have enough items"); // NON-NLS
+        final boolean minMax = store.isMinMax();
+        final byte[][] chunks = new byte[(size + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+        final long[] times = new long[CHUNK_SIZE];
+        final double[] values = new double[CHUNK_SIZE], low = new double[CHUNK_SIZE], high = new double[CHUNK_SIZE];
+        for (int c = 0; c < chunks.length; c++) {
+            final int start = c * CHUNK_SIZE, count = Math.min(CHUNK_SIZE, size - start);
+            for (int i = 0; i < count; i++) {
+                times[i] = store.getTime(start + i);
+                values[i] = store.getValue(start + i);
+                low[i] = store.getLow(start + i);
+                high[i] = store.getHigh(start + i);
+            }
+            chunks[c] = encode(times, values, minMax ? low : null, minMax ? high : null, count);
+        }
+        return new CompressedStore(chunks, size, minMax);
+    }
+
+    /**
+     * Create a store from chunks compressed by another store, for instance read from a file.
+     *
+     * @param chunks The compressed chunks, all of them have {@link #CHUNK_SIZE} items except the last one
+     * @param size   The number of items
+     * @param minMax true if chunks contain low and high values
+     * @return The store, it uses the given arrays
+     * @see #getChunkData(int)
+     */
+    public static CompressedStore of(@NotNull byte[][] chunks, int size, boolean minMax) {
+        Validate.notNull(chunks);
+        Validate.isTrue(chunks.length == (size + CHUNK_SIZE - 1) / CHUNK_SIZE, "Wrong number of chunks"); // NON-NLS
+        return new CompressedStore(chunks, size, minMax);
+    }
+
+    /**
+     * Get the number of chunks.
+     *
+     * @return The number of chunks of {@link #CHUNK_SIZE} items.
+     */
+    public int getChunkCount() {
+        return chunks.length;
+    }
+
+    /**
+     * Get the compressed data of a chunk.
+     *
+     * @param number The chunk index
+     * @return The data, it must not be modified.
+     */
+    public byte[] getChunkData(int number) {
+        return chunks[number];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getTime(int index) {
+        return getChunk(index).times[index % CHUNK_SIZE];
+    }
+
+    @Override
+    public double getValue(int index) {
+        return getChunk(index).values[index % CHUNK_SIZE];
+    }
+
+    @Override
+    public double getLow(int index) {
+        final Chunk chunk = getChunk(index);
+        return chunk.low == null ? Double.NaN : chunk.low[index % CHUNK_SIZE];
+    }
+
+    @Override
+    public double getHigh(int index) {
+        final Chunk chunk = getChunk(index);
+        return chunk.high == null ? Double.NaN : chunk.high[index % CHUNK_SIZE];
+    }
+
+    @Override
+    public boolean isMinMax() {
+        return minMax;
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        long memory = 32 + 16L * chunks.length;
+        for (byte[] chunk : chunks) memory += chunk.length;
+        return memory;
+    }
+
+    /**
+     * Get the decompressed chunk which contains an item.
+     */
+    private Chunk getChunk(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        final int number = index / CHUNK_SIZE;
+        Chunk chunk = last;
+        if (chunk != null && chunk.number == number) return chunk;
+        final ChunkKey key = new ChunkKey(this, number);
+        synchronized (cache) {
+            chunk = cache.get(key);
+        }
+        if (chunk == null) {
+            chunk = decode(number, chunks[number], Math.min(CHUNK_SIZE, size - number * CHUNK_SIZE), minMax);
+            synchronized (cache) {
+                cache.put(key, chunk);
+            }
+        }
+        last = chunk;
+        return chunk;
+    }
+
+    // Encoding
+
+    private static byte[] encode(long[] times, double[] values, double[] low, double[] high, int count) {
+        final BitOutput out = new BitOutput(count * (low == null ? 2 : 4));
+        writeTimes(out, times, count);
+        writeValues(out, values, count);
+        if (low != null) {
+            writeValues(out, low, count);
+            writeValues(out, high, count);
+        }
+        return out.toByteArray();
+    }
+
+    private static Chunk decode(int number, byte[] data, int count, boolean minMax) {
+        final BitInput in = new BitInput(data);
+        final Chunk chunk = new Chunk(number, count, minMax);
+        readTimes(in, chunk.times, count);
+        readValues(in, chunk.values, count);
+        if (minMax) {
+            readValues(in, chunk.low, count);
+            readValues(in, chunk.high, count);
+        }
+        return chunk;
+    }
+
+    /**
+     * Write dates as delta of deltas.
+     */
+    private static void writeTimes(BitOutput out, long[] times, int count) {
+        out.write(times[0], 64);
+        long previousDelta = 0;
+        for (int i = 1; i < count; i++) {
+            final long delta = times[i] - times[i - 1];
+            final long deltaOfDelta = delta - previousDelta;
+            previousDelta = delta;
+            if (deltaOfDelta == 0) {
+                out.write(0, 1);
+            } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                out.write(0x2, 2);
+                out.write(deltaOfDelta + 63, 7);
+            } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                out.write(0x6, 3);
+                out.write(deltaOfDelta + 255, 9);
+            } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                out.write(0xE, 4);
+                out.write(deltaOfDelta + 2047, 12);
+            } else {
+                out.write(0xF, 4);
+                out.write(deltaOfDelta, 64);
+            }
+        }
+    }
+
+    private static void readTimes(BitInput in, long[] times, int count) {
+        times[0] = in.read(64);
+        long delta = 0;
+        for (int i = 1; i < count; i++) {
+            long deltaOfDelta;
+            if (!in.readBit()) {
+                deltaOfDelta = 0;
+            } else if (!in.readBit()) {
+                deltaOfDelta = in.read(7) - 63;
+            } else if (!in.readBit()) {
+                deltaOfDelta = in.read(9) - 255;
+            } else if (!in.readBit()) {
+                deltaOfDelta = in.read(12) - 2047;
+            } else {
+                deltaOfDelta = in.read(64);
+            }
+            delta += deltaOfDelta;
+            times[i] = times[i - 1] + delta;
+        }
+    }
+
+    /**
+     * Write values as XOR with the previous one.
+     */
+    private static void writeValues(BitOutput out, double[] values, int count) {
+        long previous = Double.doubleToRawLongBits(values[0]);
+        out.write(previous, 64);
+        int previousLeading = -1, previousTrailing = 0;
+        for (int i = 1; i < count; i++) {
+            final long bits = Double.doubleToRawLongBits(values[i]);
+            final long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            out.write(1, 1);
+            final int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            final int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                out.write(0, 1);
+                out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                final int significant = 64 - leading - trailing;
+                out.write(1, 1);
+                out.write(leading, 5);
+                out.write(significant - 1, 6);
+                out.write(xor >>> trailing, significant);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+    }
+
+    private static void readValues(BitInput in, double[] values, int count) {
+        long previous = in.read(64);
+        values[0] = Double.longBitsToDouble(previous);
+        int leading = 0, trailing = 0;
+        for (int i = 1; i < count; i++) {
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.read(5);
+                    final int significant = (int) in.read(6) + 1;
+                    trailing = 64 - leading - significant;
+                }
+                previous ^= in.read(64 - leading - trailing) << trailing;
+            }
+            values[i] = Double.longBitsToDouble(previous);
+        }
+    }
+
+    /**
+     * A decompressed chunk.
+     */
+    private static final class Chunk {
+        private final int number;
+        private final long[] times;
+        private final double[] values;
+        private final double[] low;
+        private final double[] high;
+
+        private Chunk(int number, int count, boolean minMax) {
+            this.number = number;
+            times = new long[count];
+            values = new double[count];
+            low = minMax ? new double[count] : null;
+            high = minMax ? new double[count] : null;
+        }
+    }
+
+    /**
+     * Identify a chunk in the cache.
+     */
+    private static final class ChunkKey {
+        private final CompressedStore store;
+        private final int number;
+
+        private ChunkKey(CompressedStore store, int number) {
+            this.store = store;
+            this.number = number;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ChunkKey)) return false;
+            ChunkKey key = (ChunkKey) o;
+            return store == key.store && number == key.number;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(store) + number;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.store;
+
+/**
+ * Operations on the columns of items: arrays of dates and of values.
+ * <p>Transformations of series read their items by chunks of {@link #CHUNK_SIZE} items in arrays, then call these
+ * operations on the arrays instead of creating an {@link org.cds06.speleograph.data.Item} for each result. Each
+ * operation is a simple loop over a range of an array, without call or object, that the JIT compiler turns into
+ * vector instructions when it can.</p>
+ * <p>Operations work in place on the range {@code [from, to)} of the arrays, unless they have a target array.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public final class Kernels {
+
+    /**
+     * Number of items of the chunks read by transformations, small enough for arrays to stay in the processor cache.
+     */
+    public static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Distance used to pair the items of two series with {@link #match}, in milliseconds: two items are taken at the
+     * same moment when there are at most three whole minutes between them.
+     */
+    public static final long PAIRING_DISTANCE = 4 * 60000L;
+
+    private Kernels() {
+    }
+
+    /**
+     * Add a value to values.
+     *
+     * @param values The values
+     * @param from   The first index
+     * @param to     The index after the last one
+     * @param offset The value to add
+     */
+    public static void add(double[] values, int from, int to, double offset) {
+        for (int i = from; i < to; i++) values[i] += offset;
+    }
+
+    /**
+     * Shift dates.
+     *
+     * @param times  The dates in milliseconds
+     * @param from   The first index
+     * @param to     The index after the last one
+     * @param offset The time to add in milliseconds
+     */
+    public static void add(long[] times, int from, int to, long offset) {
+        for (int i = from; i < to; i++) times[i] += offset;
+    }
+
+    /**
+     * Multiply values by a factor.
+     *
+     * @param values The values
+     * @param from   The first index
+     * @param to     The index after the last one
+     * @param factor The factor
+     */
+    public static void scale(double[] values, int from, int to, double factor) {
+        for (int i = from; i < to; i++) values[i] *= factor;
+    }
+
+    /**
+     * Subtract values from other ones: {@code target = a - b}.
+     *
+     * @param a      The values to subtract from
+     * @param b      The values to subtract
+     * @param target The array of the results, it can be {@code a} or {@code b}
+     * @param from   The first index
+     * @param to     The index after the last one
+     */
+    public static void subtract(double[] a, double[] b, double[] target, int from, int to) {
+        for (int i = from; i < to; i++) target[i] = a[i] - b[i];
+    }
+
+    /**
+     * Replace values by the sum of the values up to them.
+     *
+     * @param values  The values
+     * @param from    The first index
+     * @param to      The index after the last one
+     * @param initial The sum of the values before the range (the result of the call for the previous chunk)
+     * @return The sum of all values up to the end of the range
+     */
+    public static double prefixSum(double[] values, int from, int to, double initial) {
+        double sum = initial;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+            values[i] = sum;
+        }
+        return sum;
+    }
+
+    /**
+     * Keep the items which are strictly between two dates, and move them to the start of the range.
+     * <p>The columns which are null are ignored. Items do not have to be sorted.</p>
+     *
+     * @param times  The dates in milliseconds
+     * @param values The values, or null
+     * @param low    The low values, or null
+     * @param high   The high values, or null
+     * @param from   The first index
+     * @param to     The index after the last one
+     * @param start  The date before the kept items (excluded)
+     * @param end    The date after the kept items (excluded)
+     * @return The index after the last kept item
+     */
+    public static int select(long[] times, double[] values, double[] low, double[] high, int from, int to,
+                             long start, long end) {
+        int kept = from;
+        for (int i = from; i < to; i++) {
+            final long time = times[i];
+            // Items are always copied, the next one overwrites those which are not kept
+            times[kept] = time;
+            if (values != null) values[kept] = values[i];
+            if (low != null) low[kept] = low[i];
+            if (high != null) high[kept] = high[i];
+            kept += time > start && time < end ? 1 : 0;
+        }
+        return kept;
+    }
+
+    /**
+     * Compute the sum of values.
+     *
+     * @param values The values
+     * @param from   The first index
+     * @param to     The index after the last one
+     * @return The sum
+     */
+    public static double sum(double[] values, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) sum += values[i];
+        return sum;
+    }
+
+    /**
+     * Copy values at some indexes: {@code target[i] = values[indexes[i]]}.
+     *
+     * @param values  The values
+     * @param indexes The indexes of the copied values
+     * @param target  The array of the copied values
+     * @param count   The number of values to copy
+     */
+    public static void gather(double[] values, int[] indexes, double[] target, int count) {
+        for (int i = 0; i < count; i++) target[i] = values[indexes[i]];
+    }
+
+    /**
+     * Copy dates at some indexes: {@code target[i] = times[indexes[i]]}.
+     *
+     * @param times   The dates
+     * @param indexes The indexes of the copied dates
+     * @param target  The array of the copied dates
+     * @param count   The number of dates to copy
+     */
+    public static void gather(long[] times, int[] indexes, long[] target, int count) {
+        for (int i = 0; i < count; i++) target[i] = times[indexes[i]];
+    }
+
+    /**
+     * Get the order of items by date.
+     * <p>The sort is stable: items at the same date stay in their order. It is a merge sort of indexes, which takes
+     * {@code n log(n)} steps and two arrays of {@code count} indexes.</p>
+     *
+     * @param times The dates
+     * @param count The number of items
+     * @return The indexes of the items, sorted by date
+     */
+    public static int[] order(long[] times, int count) {
+        int[] indexes = new int[count], buffer = new int[count];
+        for (int i = 0; i < count; i++) indexes[i] = i;
+        for (int width = 1; width < count; width *= 2) {
+            for (int from = 0; from < count; from += 2 * width) {
+                final int middle = Math.min(from + width, count), to = Math.min(from + 2 * width, count);
+                int i = from, j = middle, k = from;
+                while (i < middle && j < to) {
+                    buffer[k++] = times[indexes[j]] < times[indexes[i]] ? indexes[j++] : indexes[i++];
+                }
+                while (i < middle) buffer[k++] = indexes[i++];
+                while (j < to) buffer[k++] = indexes[j++];
+            }
+            final int[] sorted = buffer;
+            buffer = indexes;
+            indexes = sorted;
+        }
+        return indexes;
+    }
+
+    /**
+     * Pair the items of two series which are at about the same date.
+     * <p>Both series must be sorted. For each item of the reference, in order, the items of the other series which are
+     * less than {@code distance} after it are paired with it, except those which have already been paired. Items of
+     * the other series which are {@code distance} or more before it are skipped. Each item of the other series is
+     * paired at most once, so arrays of {@code count} indexes are always big enough.</p>
+     *
+     * @param reference        The dates of the reference series
+     * @param referenceCount   The number of items of the reference series
+     * @param times            The dates of the other series
+     * @param count            The number of items of the other series
+     * @param distance         The time between two items from which they are not paired, in milliseconds
+     * @param referenceIndexes The array of the indexes of the paired items of the reference
+     * @param indexes          The array of the indexes of the paired items of the other series
+     * @return The number of pairs
+     */
+    public static int match(long[] reference, int referenceCount, long[] times, int count, long distance,
+                            int[] referenceIndexes, int[] indexes) {
+        int pairs = 0, j = 0;
+        for (int i = 0; i < referenceCount && j < count; i++) {
+            final long time = reference[i];
+            while (j < count) {
+                final long other = times[j];
+                if (time - other >= distance) {
+                    j++;
+                } else if (other - time >= distance) {
+                    break;
+                } else {
+                    referenceIndexes[pairs] = i;
+                    indexes[pairs] = j;
+                    pairs++;
+                    j++;
+                }
+            }
+        }
+        return pairs;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.store;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Item;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Store which keeps items in memory-mapped files.
+ * <p>Each column (dates, values, low and high values) is written in its own file of the {@link #getCacheDirectory()
+ * cache directory}. Files are mapped in segments of {@link #SEGMENT_SIZE} items, the operating system loads in memory
+ * the parts which are read and can drop them when memory is needed. The Java heap only contains a reference for each
+ * segment, so a series can have far more items than the heap could hold. Items are numbered by an {@code int} like
+ * the items of a series, so a store is limited to {@link Integer#MAX_VALUE} items (about two billion).</p>
+ * <p>Unlike other stores, items can be appended to a mapped store. Only one thread can append items, but any thread
+ * can read the items which were already appended.</p>
+ * <p>Files are deleted when the store is closed or when the application exits.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public final class MappedStore implements SeriesStore, Closeable {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(MappedStore.class);
+
+    /**
+     * Number of items in a mapped segment.
+     */
+    public static final int SEGMENT_SIZE = 1 << 20;
+    private static final int SEGMENT_SHIFT = 20;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * Number of items of a series above which it is moved to a mapped store, can be changed with the
+     * {@value #SPILL_THRESHOLD_PROPERTY} system property.
+     */
+    public static final int DEFAULT_SPILL_THRESHOLD = 2 * 1000 * 1000;
+
+    @NonNls
+    public static final String SPILL_THRESHOLD_PROPERTY = "speleograph.spillThreshold";
+
+    /**
+     * System property with the directory where the files of stores are created, {@code java.io.tmpdir/SpeleoGraph}
+     * by default.
+     */
+    @NonNls
+    public static final String CACHE_DIRECTORY_PROPERTY = "speleograph.cacheDirectory";
+
+    private final Column times;
+    private final Column values;
+    private final Column low;
+    private final Column high;
+    private final boolean minMax;
+    private volatile int size = 0;
+
+    private MappedStore(boolean minMax) throws IOException {
+        this.minMax = minMax;
+        File directory = getCacheDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can not create cache directory " + directory);
+        times = new Column(directory);
+        try {
+            values = minMax ? null : new Column(directory);
+            low = minMax ? new Column(directory) : null;
+            high = minMax ? new Column(directory) : null;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the directory where the files of new stores are created, see {@link #CACHE_DIRECTORY_PROPERTY}.
+     *
+     * @return The directory (it may not exist yet)
+     */
+    public static File getCacheDirectory() {
+        final String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        if (directory != null) return new File(directory);
+        return new File(System.getProperty("java.io.tmpdir"), "SpeleoGraph"); // NON-NLS
+    }
+
+    /**
+     * Get the number of items of a series above which items are moved to a mapped store.
+     *
+     * @return The number of items
+     */
+    public static int getSpillThreshold() {
+        return Integer.getInteger(SPILL_THRESHOLD_PROPERTY, DEFAULT_SPILL_THRESHOLD);
+    }
+
+    /**
+     * Create an empty store.
+     *
+     * @param minMax true to store low and high values
+     * @return The store
+     * @throws IOException if the files can not be created
+     */
+    public static MappedStore create(boolean minMax) throws IOException {
+        return new MappedStore(minMax);
+    }
+
+    /**
+     * Create a store with items.
+     *
+     * @param items  The items to copy
+     * @param minMax true to store low and high values
+     * @return The store
+     * @throws IOException if the files can not be written
+     */
+    public static MappedStore copyOf(@NotNull List<Item> items, boolean minMax) throws IOException {
+        Validate.notNull(items);
+        final MappedStore store = new MappedStore(minMax);
+        try {
+            for (Item item : items) store.append(item);
+        } catch (RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    /**
+     * Create a store with the items of another store.
+     *
+     * @param source The store to copy
+     * @return The store
+     * @throws IOException if the files can not be written
+     */
+    public static MappedStore copyOf(@NotNull SeriesStore source) throws IOException {
+        Validate.notNull(source);
+        final MappedStore store = new MappedStore(source.isMinMax());
+        try {
+            for (int i = 0; i < source.size(); i++) {
+                store.append(source.getTime(i), source.getValue(i), source.getLow(i), source.getHigh(i));
+            }
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    /**
+     * Add an item at the end of the store.
+     *
+     * @param item The item
+     * @throws IOException if the files can not be extended
+     */
+    public void append(@NotNull Item item) throws IOException {
+        append(item.getDate().getTime(), item.getValue(), item.getLow(), item.getHigh());
+    }
+
+    /**
+     * Add an item at the end of the store.
+     *
+     * @param time  The date in milliseconds
+     * @param value The value (ignored for min/max stores)
+     * @param low   The low value (ignored if it is not a min/max store)
+     * @param high  The high value (ignored if it is not a min/max store)
+     * @throws IOException if the files can not be extended, or if the store has {@link Integer#MAX_VALUE} items
+     */
+    public void append(long time, double value, double low, double high) throws IOException {
+        final int index = size;
+        if (index == Integer.MAX_VALUE) throw new IOException("Store is full, it has " + index + " items");
+        times.putLong(index, time);
+        if (minMax) {
+            this.low.putDouble(index, low);
+            this.high.putDouble(index, high);
+        } else {
+            values.putDouble(index, value);
+        }
+        size = index + 1; // Publish the item to readers
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getTime(int index) {
+        checkIndex(index);
+        return times.getLong(index);
+    }
+
+    @Override
+    public double getValue(int index) {
+        checkIndex(index);
+        return minMax ? Double.NaN : values.getDouble(index);
+    }
+
+    @Override
+    public double getLow(int index) {
+        checkIndex(index);
+        return minMax ? low.getDouble(index) : Double.NaN;
+    }
+
+    @Override
+    public double getHigh(int index) {
+        checkIndex(index);
+        return minMax ? high.getDouble(index) : Double.NaN;
+    }
+
+    @Override
+    public boolean isMinMax() {
+        return minMax;
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        return 64 + 3 * (64 + 16L * ((size >>> SEGMENT_SHIFT) + 1));
+    }
+
+    /**
+     * Close the files of the store and delete them.
+     * <p>Items can not be appended after, but the mapped items stay readable until the store is garbage collected (a
+     * chart snapshot may still read them).</p>
+     */
+    @Override
+    public void close() {
+        for (Column column : new Column[]{times, values, low, high}) {
+            if (column != null) column.close();
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    /**
+     * A file which contains 8 bytes for each item.
+     */
+    private static final class Column {
+        private final File file;
+        private final RandomAccessFile access;
+        private final FileChannel channel;
+        private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+        private Column(File directory) throws IOException {
+            file = File.createTempFile("column", ".bin", directory); // NON-NLS
+            file.deleteOnExit();
+            access = new RandomAccessFile(file, "rw"); // NON-NLS
+            channel = access.getChannel();
+        }
+
+        private MappedByteBuffer getSegment(int index, boolean write) throws IOException {
+            final int number = index >>> SEGMENT_SHIFT;
+            MappedByteBuffer[] current = segments;
+            if (number < current.length) return current[number];
+            if (!write) throw new IndexOutOfBoundsException("Index: " + index);
+            current = Arrays.copyOf(current, number + 1);
+            for (int i = segments.length; i <= number; i++) {
+                current[i] = channel.map(FileChannel.MapMode.READ_WRITE, 8L * SEGMENT_SIZE * i, 8L * SEGMENT_SIZE);
+            }
+            segments = current;
+            return current[number];
+        }
+
+        private void putLong(int index, long value) throws IOException {
+            getSegment(index, true).putLong((index & SEGMENT_MASK) << 3, value);
+        }
+
+        private void putDouble(int index, double value) throws IOException {
+            getSegment(index, true).putDouble((index & SEGMENT_MASK) << 3, value);
+        }
+
+        private long getLong(int index) {
+            return segments[index >>> SEGMENT_SHIFT].getLong((index & SEGMENT_MASK) << 3);
+        }
+
+        private double getDouble(int index) {
+            return segments[index >>> SEGMENT_SHIFT].getDouble((index & SEGMENT_MASK) << 3);
+        }
+
+        private void close() {
+            try {
+                access.close();
+            } catch (IOException e) {
+                log.warn("Can not close " + file, e);
+            }
+            // Mapped files can not be deleted on some systems until buffers are collected, then deleteOnExit will do it
+            if (!file.delete()) log.debug("Can not delete " + file + " now");
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.store;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Item;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Store which keeps values in arrays and computes the dates of regularly sampled items.
+ * <p>Items are cut in runs. A run of at least {@link #MIN_RUN_SIZE} items where the time between an item and the
+ * next one is always the same only keeps its first date and its interval: the date of an item is computed from its
+ * index. Items between these runs keep their dates in an array. A logger which samples at a fixed interval gives a few
+ * runs, so the store only needs the 8 bytes of the value of each item (16 for min/max items), instead of about ninety
+ * for an {@link Item} in a list.</p>
+ * <p>Unlike a {@link CompressedStore}, items are read without decompression, so a series in this store stays fast to
+ * draw.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public final class RegularStore implements SeriesStore {
+
+    /**
+     * Minimal number of items of a run whose dates are computed.
+     */
+    public static final int MIN_RUN_SIZE = 16;
+
+    private final int size;
+    private final boolean minMax;
+    private final double[] values;
+    private final double[] low;
+    private final double[] high;
+
+    private final int runCount;
+    /**
+     * Index of the first item of each run.
+     */
+    private final int[] runFirst;
+    /**
+     * Date of the first item of a computed run, or position in {@link #times} of the first item of another run.
+     */
+    private final long[] runStart;
+    /**
+     * Interval between the items of a computed run, or -1 for a run whose dates are kept.
+     */
+    private final long[] runInterval;
+    private final long[] times;
+
+    /**
+     * The last run read, consecutive reads are usually in the same run.
+     */
+    private volatile int lastRun = 0;
+
+    private RegularStore(Builder builder, double[] values, double[] low, double[] high) {
+        this.size = builder.size;
+        this.minMax = values == null;
+        this.values = values;
+        this.low = low;
+        this.high = high;
+        this.runCount = builder.runCount;
+        this.runFirst = Arrays.copyOf(builder.runFirst, runCount);
+        this.runStart = Arrays.copyOf(builder.runStart, runCount);
+        this.runInterval = Arrays.copyOf(builder.runInterval, runCount);
+        this.times = Arrays.copyOf(builder.times, builder.timeCount);
+    }
+
+    /**
+     * Store items.
+     *
+     * @param items  The items to copy, in the series order
+     * @param minMax true to keep low and high values
+     * @return The store
+     */
+    public static RegularStore copyOf(@NotNull final List<Item> items, boolean minMax) {
+        Validate.notNull(items);
+        final int size = items.size();
+        final Builder builder = new Builder(new Times() {
+            @Override
+            long get(int index) {
+                return items.get(index).getDate().getTime();
+            }
+        }, size);
+        final double[] values = minMax ? null : new double[size];
+        final double[] low = minMax ? new double[size] : null, high = minMax ? new double[size] : null;
+        for (int i = 0; i < size; i++) {
+            final Item item = items.get(i);
+            if (minMax) {
+                low[i] = item.getLow();
+                high[i] = item.getHigh();
+            } else {
+                values[i] = item.getValue();
+            }
+        }
+        return new RegularStore(builder, values, low, high);
+    }
+
+    /**
+     * Copy the content of another store.
+     *
+     * @param store The store to copy
+     * @return The store
+     */
+    public static RegularStore copyOf(@NotNull final SeriesStore store) {
+        Validate.notNull(store);
+        final int size = store.size();
+        final boolean minMax = store.isMinMax();
+        final Builder builder = new Builder(new Times() {
+            @Override
+            long get(int index) {
+                return store.getTime(index);
+            }
+        }, size);
+        final double[] values = minMax ? null : new double[size];
+        final double[] low = minMax ? new double[size] : null, high = minMax ? new double[size] : null;
+        for (int i = 0; i < size; i++) {
+            if (minMax) {
+                low[i] = store.getLow(i);
+                high[i] = store.getHigh(i);
+            } else {
+                values[i] = store.getValue(i);
+            }
+        }
+        return new RegularStore(builder, values, low, high);
+    }
+
+    /**
+     * Create a store from columns.
+     *
+     * @param times  The dates in milliseconds
+     * @param values The values, null for min/max items
+     * @param low    The low values, null if items are not min/max ones
+     * @param high   The high values, null if items are not min/max ones
+     * @param size   The number of items, from the start of the arrays
+     * @return The store, it uses the value arrays if they have exactly {@code size} items
+     */
+    public static RegularStore of(@NotNull final long[] times, double[] values, double[] low, double[] high,
+                                  int size) {
+        Validate.notNull(times);
+        Validate.isTrue(values != null || (low != null && high != null),
+                "Values or low and high values are needed"); // NON-NLS
+        final Builder builder = new Builder(new Times() {
+            @Override
+            long get(int index) {
+                return times[index];
+            }
+        }, size);
+        if (values != null) return new RegularStore(builder, trim(values, size), null, null);
+        return new RegularStore(builder, null, trim(low, size), trim(high, size));
+    }
+
+    private static double[] trim(double[] column, int size) {
+        return column.length == size ? column : Arrays.copyOf(column, size);
+    }
+
+    /**
+     * Get the number of runs.
+     *
+     * @return The number of runs, with computed dates or not.
+     */
+    public int getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * Get the number of items whose dates are kept.
+     *
+     * @return The number of items out of the computed runs.
+     */
+    public int getIrregularCount() {
+        return times.length;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getTime(int index) {
+        checkIndex(index);
+        final int run = getRun(index);
+        final long interval = runInterval[run];
+        if (interval < 0) return times[(int) runStart[run] + index - runFirst[run]];
+        return runStart[run] + (index - runFirst[run]) * interval;
+    }
+
+    @Override
+    public double getValue(int index) {
+        checkIndex(index);
+        return minMax ? Double.NaN : values[index];
+    }
+
+    @Override
+    public double getLow(int index) {
+        checkIndex(index);
+        return minMax ? low[index] : Double.NaN;
+    }
+
+    @Override
+    public double getHigh(int index) {
+        checkIndex(index);
+        return minMax ? high[index] : Double.NaN;
+    }
+
+    @Override
+    public boolean isMinMax() {
+        return minMax;
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        return 64 + 8L * size * (minMax ? 2 : 1) + 20L * runCount + 8L * times.length;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    /**
+     * Find the run which contains an item.
+     */
+    private int getRun(int index) {
+        int run = lastRun;
+        if (runFirst[run] <= index && (run + 1 == runCount || index < runFirst[run + 1])) return run;
+        run = Arrays.binarySearch(runFirst, 0, runCount, index);
+        if (run < 0) run = -run - 2;
+        lastRun = run;
+        return run;
+    }
+
+    /**
+     * Access to the dates of the stored items.
+     */
+    private abstract static class Times {
+        abstract long get(int index);
+    }
+
+    /**
+     * Cut dates in runs.
+     */
+    private static final class Builder {
+        private final int size;
+        private int runCount = 0;
+        private int[] runFirst = new int[16];
+        private long[] runStart = new long[16];
+        private long[] runInterval = new long[16];
+        private int timeCount = 0;
+        private long[] times = new long[16];
+
+        private Builder(Times source, int size) {
+            this.size = size;
+            int i = 0;
+            while (i < size) {
+                // Length of the run of equal intervals which starts at this item
+                int end = i + 1;
+                if (end < size) {
+                    final long interval = source.get(end) - source.get(i);
+                    long previous = source.get(end);
+                    end++;
+                    while (end < size) {
+                        final long time = source.get(end);
+                        if (time - previous != interval) break;
+                        previous = time;
+                        end++;
+                    }
+                    if (end - i >= MIN_RUN_SIZE && interval >= 0) {
+                        addRun(i, source.get(i), interval);
+                        i = end;
+                        continue;
+                    }
+                }
+                // Not long enough: keep the date of this item and look for a run from the next one
+                if (runCount == 0 || runInterval[runCount - 1] >= 0) addRun(i, timeCount, -1);
+                addTime(source.get(i));
+                i++;
+            }
+        }
+
+        private void addRun(int first, long start, long interval) {
+            if (runCount == runFirst.length) {
+                runFirst = Arrays.copyOf(runFirst, runCount * 2);
+                runStart = Arrays.copyOf(runStart, runCount * 2);
+                runInterval = Arrays.copyOf(runInterval, runCount * 2);
+            }
+            runFirst[runCount] = first;
+            runStart[runCount] = start;
+            runInterval[runCount] = interval;
+            runCount++;
+        }
+
+        private void addTime(long time) {
+            if (timeCount == times.length) times = Arrays.copyOf(times, timeCount * 2);
+            times[timeCount++] = time;
+        }
+    }
+}
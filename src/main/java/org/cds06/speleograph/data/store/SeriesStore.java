@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.data.store;
+
+/**
+ * Storage of the items of a series out of {@link org.cds06.speleograph.data.Item} objects.
+ * <p>Items of a store are never modified: a series which is edited gets a new store or a list, and its previous store
+ * stays valid for the chart snapshots and the undo history which still read it. Items can only be appended, to a
+ * {@link MappedStore} or an {@link AppendableStore}, after the ones already there. Stores can be read from any
+ * thread, a reader sees the items which were in the store when it read its size.</p>
+ * <p>Series move their items between stores: a list is packed in a {@link RegularStore}, a hidden series is moved to
+ * a {@link CompressedStore} by the {@link ColdStorage}, a big one to a {@link MappedStore}, which the series closes
+ * once it does not use it any more.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public interface SeriesStore {
+
+    /**
+     * Get the number of items in the store.
+     *
+     * @return The number of items
+     */
+    public int size();
+
+    /**
+     * Get the date of an item.
+     *
+     * @param index The item index
+     * @return The date in milliseconds
+     */
+    public long getTime(int index);
+
+    /**
+     * Get the value of an item.
+     *
+     * @param index The item index
+     * @return The value (NaN for min/max items)
+     */
+    public double getValue(int index);
+
+    /**
+     * Get the low value of an item.
+     *
+     * @param index The item index
+     * @return The low value (NaN if items are not min/max ones)
+     */
+    public double getLow(int index);
+
+    /**
+     * Get the high value of an item.
+     *
+     * @param index The item index
+     * @return The high value (NaN if items are not min/max ones)
+     */
+    public double getHigh(int index);
+
+    /**
+     * Check if items have low and high values.
+     *
+     * @return true for min/max items
+     */
+    public boolean isMinMax();
+
+    /**
+     * Get the memory used by the store in the Java heap.
+     *
+     * @return An approximation in bytes
+     */
+    public long getMemoryUsage();
+}
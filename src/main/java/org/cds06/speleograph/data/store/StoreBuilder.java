@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.data.store;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Build a store from chunks of columns, see {@link Kernels}.
+ * <p>A result of more than {@link MappedStore#getSpillThreshold()} items is written directly in a {@link MappedStore},
+ * a smaller one is kept in arrays and becomes a {@link RegularStore}.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public final class StoreBuilder {
+
+    private final boolean minMax;
+    private MappedStore mapped;
+    private long[] times;
+    private double[] values;
+    private double[] low;
+    private double[] high;
+    private int size = 0;
+
+    /**
+     * Create a builder.
+     *
+     * @param minMax   true to store low and high values
+     * @param expected The expected number of items
+     * @throws IOException If a mapped store is needed and can not be created
+     */
+    public StoreBuilder(boolean minMax, int expected) throws IOException {
+        this.minMax = minMax;
+        if (expected >= MappedStore.getSpillThreshold()) {
+            mapped = MappedStore.create(minMax);
+        } else {
+            times = new long[Math.max(expected, 16)];
+            values = minMax ? null : new double[times.length];
+            low = minMax ? new double[times.length] : null;
+            high = minMax ? new double[times.length] : null;
+        }
+    }
+
+    /**
+     * Add items at the end of the store.
+     *
+     * @param times  The dates in milliseconds
+     * @param values The values (ignored for min/max stores)
+     * @param low    The low values (ignored if it is not a min/max store)
+     * @param high   The high values (ignored if it is not a min/max store)
+     * @param count  The number of items, from the start of the arrays
+     * @throws IOException If the mapped store can not be extended
+     */
+    public void append(long[] times, double[] values, double[] low, double[] high, int count) throws IOException {
+        if (mapped != null) {
+            for (int i = 0; i < count; i++) {
+                mapped.append(times[i], minMax ? Double.NaN : values[i], minMax ? low[i] : Double.NaN,
+                        minMax ? high[i] : Double.NaN);
+            }
+            return;
+        }
+        if (size + count > this.times.length) grow(size + count);
+        System.arraycopy(times, 0, this.times, size, count);
+        if (minMax) {
+            System.arraycopy(low, 0, this.low, size, count);
+            System.arraycopy(high, 0, this.high, size, count);
+        } else {
+            System.arraycopy(values, 0, this.values, size, count);
+        }
+        size += count;
+    }
+
+    private void grow(int minimum) {
+        final int length = Math.max(minimum, times.length * 2);
+        times = Arrays.copyOf(times, length);
+        if (minMax) {
+            low = Arrays.copyOf(low, length);
+            high = Arrays.copyOf(high, length);
+        } else {
+            values = Arrays.copyOf(values, length);
+        }
+    }
+
+    /**
+     * Get the number of items added.
+     *
+     * @return The number of items
+     */
+    public int size() {
+        return mapped != null ? mapped.size() : size;
+    }
+
+    /**
+     * Create the store, the builder can not be used after.
+     *
+     * @return The store with the added items
+     */
+    public SeriesStore build() {
+        if (mapped != null) return mapped;
+        return RegularStore.of(times, values, low, high, size);
+    }
+
+    /**
+     * Drop the added items, when the store will not be built.
+     */
+    public void discard() {
+        if (mapped != null) mapped.close();
+        mapped = null;
+        times = null;
+        values = low = high = null;
+    }
+}
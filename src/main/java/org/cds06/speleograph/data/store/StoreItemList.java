@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.data.store;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Item;
+import org.cds06.speleograph.data.Series;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractList;
+import java.util.Date;
+import java.util.RandomAccess;
+
+/**
+ * Read only list of the items of a {@link SeriesStore}.
+ * <p>Items are created when they are read, so code written for lists of items can read a store. Code which reads
+ * many items should use the store directly.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class StoreItemList extends AbstractList<Item> implements RandomAccess {
+
+    private final Series series;
+    private final SeriesStore store;
+    private final int size;
+
+    /**
+     * Create the list.
+     *
+     * @param series The series which owns the items
+     * @param store  The store which contains them
+     */
+    public StoreItemList(@NotNull Series series, @NotNull SeriesStore store) {
+        this(series, store, -1);
+    }
+
+    /**
+     * Create a list of the first items of a store.
+     * <p>Used to keep the items of a store which grows, like a {@link MappedStore}: items appended later are not in
+     * the list.</p>
+     *
+     * @param series The series which owns the items
+     * @param store  The store which contains them
+     * @param size   The number of items in the list, -1 for all items of the store
+     */
+    public StoreItemList(@NotNull Series series, @NotNull SeriesStore store, int size) {
+        Validate.notNull(series);
+        Validate.notNull(store);
+        Validate.isTrue(size <= store.size(), "The store does not have enough items"); // NON-NLS
+        this.series = series;
+        this.store = store;
+        this.size = size;
+    }
+
+    public SeriesStore getStore() {
+        return store;
+    }
+
+    @Override
+    public Item get(int index) {
+        final Date date = new Date(store.getTime(index));
+        if (store.isMinMax()) return new Item(series, date, store.getLow(index), store.getHigh(index));
+        return new Item(series, date, store.getValue(index));
+    }
+
+    @Override
+    public int size() {
+        return size < 0 ? store.size() : size;
+    }
+}
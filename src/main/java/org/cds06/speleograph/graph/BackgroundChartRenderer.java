@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.graph;
+
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.NonNls;
+import org.jfree.chart.ChartPanel;
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.entity.StandardEntityCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Draw a chart into an image on a background thread.
+ * <p>When the {@link ChartPanel} asks to draw the chart, this class makes a {@link ChartCopy} of it. The copy is
+ * drawn on a worker thread into a {@link BufferedImage}. Meanwhile the panel displays the last drawn frame, so the Swing thread is never blocked by the
+ * drawing of big series.</p>
+ * <p>Only the most recent request is drawn: if requests arrive while the worker is busy, the older ones are dropped.
+ * When a frame is done, the panel is repainted with it.</p>
+ * <p>Series which have many more items than pixels are decimated with a {@link TileCache} before being drawn, so
+ * panning or zooming on big series only computes the parts of the date axis which were not seen before.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class BackgroundChartRenderer {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(BackgroundChartRenderer.class);
+
+    /**
+     * The panel where frames are displayed.
+     */
+    private final ChartPanel panel;
+
+    /**
+     * The worker which draws frames.
+     */
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@SuppressWarnings("NullableProblems") Runnable r) {
+            Thread thread = new Thread(r, "SpeleoGraph chart renderer"); // NON-NLS
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    });
+
+    /**
+     * Decimated series, only used by the worker.
+     */
+    private final TileCache tileCache = new TileCache();
+
+    /**
+     * The next job to draw, null if there is nothing waiting.
+     */
+    private final AtomicReference<Job> pending = new AtomicReference<>();
+
+    /**
+     * The last frame received from the worker (only used on the Swing thread).
+     */
+    private Frame frame;
+
+    /**
+     * Identifier of the last submitted job (only used on the Swing thread).
+     */
+    private long lastSequence = 0;
+    private long requestedGeneration = -1;
+    private int requestedWidth = -1, requestedHeight = -1;
+
+    /**
+     * Create a renderer for a panel.
+     *
+     * @param panel The panel which displays the chart.
+     */
+    public BackgroundChartRenderer(ChartPanel panel) {
+        Validate.notNull(panel);
+        this.panel = panel;
+    }
+
+    /**
+     * Determine if a draw call comes from the panel linked to this renderer.
+     * <p>Other draw calls (save as image, print) must be done directly.</p>
+     *
+     * @param info The rendering info given to the draw call.
+     * @return true if we should draw it in background.
+     */
+    public boolean isPanelDrawing(ChartRenderingInfo info) {
+        return info != null && info == panel.getChartRenderingInfo();
+    }
+
+    /**
+     * Paint the chart for the panel.
+     * <p>This function displays the last frame and asks for a new one if the chart has changed since.</p>
+     *
+     * @param chart      The chart to draw
+     * @param generation A number which changes each time the chart changes
+     * @param g2         The graphics where the panel wants the chart
+     * @param area       The area to draw into
+     * @param info       The rendering information of the panel, filled with the displayed frame information.
+     * @return false if the chart can not be drawn in background.
+     */
+    public boolean paint(JFreeChart chart, long generation, Graphics2D g2, Rectangle2D area, ChartRenderingInfo info) {
+        final int width = (int) Math.ceil(area.getWidth()), height = (int) Math.ceil(area.getHeight());
+        if (width <= 0 || height <= 0) return true;
+        final Frame current = frame;
+        final boolean sameSize = current != null && current.width == width && current.height == height;
+        if (!(sameSize && current.generation == generation) &&
+                !(requestedGeneration == generation && requestedWidth == width && requestedHeight == height)) {
+            try {
+                submit(createJob(chart, generation, area));
+            } catch (CloneNotSupportedException e) {
+                log.error("Can not copy the chart, draw it directly", e);
+                return false;
+            }
+        }
+        info.clear();
+        if (current == null) {
+            Paint background = chart.getBackgroundPaint();
+            if (background != null) {
+                g2.setPaint(background);
+                g2.fill(area);
+            }
+            return true;
+        }
+        g2.drawImage(current.image,
+                (int) area.getX(), (int) area.getY(), width, height, null);
+        if (sameSize) current.copyInto(info);
+        return true;
+    }
+
+    /**
+     * Build a job to draw the chart in its current state.
+     * <p>Called on the Swing thread, so it must stay cheap: we only clone the chart structure and take snapshots of
+     * series.</p>
+     */
+    private Job createJob(JFreeChart chart, long generation, Rectangle2D area) throws CloneNotSupportedException {
+        final Job job = new Job();
+        job.sequence = ++lastSequence;
+        job.generation = generation;
+        job.area = (Rectangle2D) area.clone();
+        job.copy = ChartCopy.of(chart);
+        requestedGeneration = generation;
+        requestedWidth = (int) Math.ceil(area.getWidth());
+        requestedHeight = (int) Math.ceil(area.getHeight());
+        return job;
+    }
+
+    /**
+     * Add a job to do, dropping the one which was waiting.
+     */
+    private void submit(Job job) {
+        if (pending.getAndSet(job) != null) return; // The worker has not started the previous job, it will take this one
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                Job next = pending.getAndSet(null);
+                if (next != null) render(next);
+            }
+        });
+    }
+
+    /**
+     * Draw a job (on the worker thread).
+     */
+    private void render(Job job) {
+        final int width = (int) Math.ceil(job.area.getWidth()), height = (int) Math.ceil(job.area.getHeight());
+        final Frame result = new Frame();
+        result.sequence = job.sequence;
+        result.generation = job.generation;
+        result.width = width;
+        result.height = height;
+        result.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        job.copy.decimate(width, tileCache);
+        final Graphics2D g2 = result.image.createGraphics();
+        try {
+            g2.translate(-job.area.getX(), -job.area.getY());
+            job.copy.getChart().draw(g2, job.area, null, result.info);
+        } catch (RuntimeException e) {
+            log.error("Error while drawing the chart in background", e);
+            return;
+        } finally {
+            g2.dispose();
+        }
+        job.copy.translateEntities(result.info);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                display(result);
+            }
+        });
+    }
+
+    /**
+     * Display a frame if it is newer than the current one (on the Swing thread).
+     */
+    private void display(Frame result) {
+        if (frame != null && frame.sequence > result.sequence) return; // Stale frame
+        frame = result;
+        panel.setRefreshBuffer(true);
+        panel.repaint();
+    }
+
+    /**
+     * A drawing request.
+     */
+    private static class Job {
+        private long sequence;
+        private long generation;
+        private Rectangle2D area;
+        private ChartCopy copy;
+    }
+
+    /**
+     * A drawn chart.
+     */
+    private static class Frame {
+        private long sequence;
+        private long generation;
+        private int width;
+        private int height;
+        private BufferedImage image;
+        private final ChartRenderingInfo info = new ChartRenderingInfo();
+
+        /**
+         * Copy the rendering information of this frame in the panel's one, it is used for mouse interactions.
+         */
+        private void copyInto(ChartRenderingInfo target) {
+            target.setChartArea(info.getChartArea());
+            target.getPlotInfo().setPlotArea(info.getPlotInfo().getPlotArea());
+            target.getPlotInfo().setDataArea(info.getPlotInfo().getDataArea());
+            if (info.getEntityCollection() != null) {
+                // The panel clears its collection before each paint, so it must not be the frame one.
+                StandardEntityCollection entities = new StandardEntityCollection();
+                entities.addAll(info.getEntityCollection());
+                target.setEntityCollection(entities);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.graph;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Series;
+import org.jetbrains.annotations.NotNull;
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.LegendItemSource;
+import org.jfree.chart.axis.Axis;
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.entity.*;
+import org.jfree.chart.plot.Plot;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.title.LegendTitle;
+import org.jfree.chart.title.Title;
+import org.jfree.data.xy.XYDataset;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A copy of a chart which can be drawn on any thread.
+ * <p>The copy has its own axes, renderers and titles. Axes keep the range they had when the copy was done and every
+ * {@link Series} is replaced by a {@link SeriesSnapshot}, so editing the original chart does not change the copy.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class ChartCopy {
+
+    private final JFreeChart chart;
+
+    /**
+     * Link objects of the copy to the objects of the original chart.
+     */
+    private final Map<Object, Object> translations = new IdentityHashMap<>();
+
+    private ChartCopy(JFreeChart original) throws CloneNotSupportedException {
+        chart = (JFreeChart) original.clone();
+        if (chart instanceof SpeleoChart) ((SpeleoChart) chart).setBackgroundRenderer(null);
+        final Plot modelPlot = original.getPlot(), copyPlot = chart.getPlot();
+        translations.put(copyPlot, modelPlot);
+        if (modelPlot instanceof XYPlot && copyPlot instanceof XYPlot) {
+            prepareXYPlot((XYPlot) modelPlot, (XYPlot) copyPlot);
+        }
+        for (int i = 0; i < chart.getSubtitleCount(); i++) {
+            Title title = chart.getSubtitle(i);
+            if (title instanceof LegendTitle) {
+                ((LegendTitle) title).setSources(new LegendItemSource[]{copyPlot});
+            }
+        }
+    }
+
+    /**
+     * Copy a chart.
+     * <p>This function must be called on the thread which edits the chart and the series (the Swing thread).</p>
+     *
+     * @param chart The chart to copy
+     * @return The copy
+     * @throws CloneNotSupportedException if a component of the chart can not be copied.
+     */
+    public static ChartCopy of(@NotNull JFreeChart chart) throws CloneNotSupportedException {
+        Validate.notNull(chart);
+        return new ChartCopy(chart);
+    }
+
+    /**
+     * Get the copied chart.
+     *
+     * @return The chart to draw
+     */
+    public JFreeChart getChart() {
+        return chart;
+    }
+
+    /**
+     * Freeze axes of the copy (they already have the range computed by the model) and replace series by snapshots.
+     */
+    private void prepareXYPlot(XYPlot model, XYPlot copy) {
+        for (int i = 0; i < copy.getDomainAxisCount(); i++) {
+            if (copy.getDomainAxis(i) == null) continue;
+            copy.getDomainAxis(i).setAutoRange(false);
+            translations.put(copy.getDomainAxis(i), model.getDomainAxis(i));
+        }
+        for (int i = 0; i < copy.getRangeAxisCount(); i++) {
+            if (copy.getRangeAxis(i) == null) continue;
+            copy.getRangeAxis(i).setAutoRange(false);
+            translations.put(copy.getRangeAxis(i), model.getRangeAxis(i));
+        }
+        final int max = Math.max(copy.getDatasetCount(), Series.getInstances().size());
+        for (int i = 0; i < max; i++) {
+            XYDataset dataset = copy.getDataset(i);
+            if (dataset instanceof Series) {
+                SeriesSnapshot snapshot = SeriesSnapshot.of((Series) dataset);
+                copy.setDataset(i, snapshot);
+                translations.put(snapshot, dataset);
+            }
+        }
+    }
+
+    /**
+     * Decimate the snapshots of the copy for the range shown by their axis.
+     *
+     * @param width The width of the drawing (in pixels)
+     * @param cache The cache to take decimated tiles from
+     */
+    public void decimate(int width, @NotNull TileCache cache) {
+        if (!(chart.getPlot() instanceof XYPlot)) return;
+        final XYPlot plot = (XYPlot) chart.getPlot();
+        for (int i = 0; i < plot.getDatasetCount(); i++) {
+            final XYDataset dataset = plot.getDataset(i);
+            final ValueAxis axis = plot.getDomainAxisForDataset(i);
+            if (dataset instanceof SeriesSnapshot && axis != null) {
+                ((SeriesSnapshot) dataset).decimate(axis.getLowerBound(), axis.getUpperBound(), width, cache);
+            }
+        }
+    }
+
+    /**
+     * Make entities of a drawing of the copy point to the objects of the original chart.
+     *
+     * @param info The rendering information filled when the copy was drawn.
+     */
+    public void translateEntities(ChartRenderingInfo info) {
+        final EntityCollection entities = info.getEntityCollection();
+        if (entities == null) return;
+        final StandardEntityCollection translated = new StandardEntityCollection();
+        for (Object o : entities.getEntities()) {
+            ChartEntity entity = (ChartEntity) o;
+            if (entity instanceof AxisEntity) {
+                AxisEntity axisEntity = (AxisEntity) entity;
+                Object axis = translations.get(axisEntity.getAxis());
+                if (axis != null) entity = new AxisEntity(entity.getArea(), (Axis) axis,
+                        entity.getToolTipText(), entity.getURLText());
+            } else if (entity instanceof PlotEntity) {
+                Object plot = translations.get(((PlotEntity) entity).getPlot());
+                if (plot != null) entity = new PlotEntity(entity.getArea(), (Plot) plot,
+                        entity.getToolTipText(), entity.getURLText());
+            } else if (entity instanceof XYItemEntity) {
+                XYItemEntity itemEntity = (XYItemEntity) entity;
+                if (itemEntity.getDataset() instanceof SeriesSnapshot) {
+                    SeriesSnapshot snapshot = (SeriesSnapshot) itemEntity.getDataset();
+                    itemEntity.setItem(snapshot.getSourceIndex(itemEntity.getItem()));
+                }
+                Object dataset = translations.get(itemEntity.getDataset());
+                if (dataset != null) itemEntity.setDataset((XYDataset) dataset);
+            }
+            translated.add(entity);
+        }
+        info.setEntityCollection(translated);
+    }
+}
@@ -38,16 +38,22 @@ import org.slf4j.LoggerFactory;
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class help to create a menu to edit the opened series.
  * <p>It can be used in a {@link javax.swing.JMenuBar} or as a simple {@link javax.swing.JPopupMenu}</p>
+ * <p>The actions of a series are only created when its menu is opened. When a series changes, its menu is renamed
+ * and its actions will be created again on the next opening; menus of other series are not touched.</p>
  *
  * @author Philippe VIENNE
  * @since 1.0
@@ -61,7 +67,7 @@ public class SeriesMenu implements DatasetChangeListener {
     private SpeleoGraphApp application;
 
     private JMenu menu = new JMenu("Séries");
-    private HashMap<Series, JPopupMenu> menus = new HashMap<>(20);
+    private Map<Series, SeriesEntry> entries = new IdentityHashMap<>(20);
     private List<Series> series = Series.getInstances();
 
     public SeriesMenu(SpeleoGraphApp app) {
@@ -77,18 +83,93 @@ public class SeriesMenu implements DatasetChangeListener {
      */
     @Override
     public void datasetChanged(DatasetChangeEvent event) {
-        menu.removeAll();
-        for (Series s : series.toArray(new Series[series.size()])) {
-            this.menus.put(s, createPopupMenuForSeries(s));
-            JMenu jMenu = new JMenu(s.getName());
-            for (Component item : createPopupMenuForSeries(s).getComponents()) {
+        if (event.getSource() instanceof Series) {
+            final Series changed = (Series) event.getSource();
+            final SeriesEntry entry = entries.get(changed);
+            if (entry != null && series.contains(changed)) {
+                entry.menu.setText(changed.getName());
+                entry.invalidate();
+            }
+        }
+        synchronize();
+    }
+
+    /**
+     * Add menus of new series, remove menus of deleted ones and keep menus in the order of series.
+     */
+    private void synchronize() {
+        boolean ordered = menu.getMenuComponentCount() == series.size();
+        for (int i = 0; i < series.size(); i++) {
+            final Series s = series.get(i);
+            SeriesEntry entry = entries.get(s);
+            if (entry == null) {
+                entry = new SeriesEntry(s);
+                entries.put(s, entry);
+            }
+            ordered = ordered && menu.getMenuComponent(i) == entry.menu;
+        }
+        if (entries.size() > series.size()) {
+            entries.keySet().retainAll(new HashSet<>(series));
+        }
+        if (!ordered) {
+            // First and last series do not have the same actions
+            menu.removeAll();
+            for (Series s : series) {
+                final SeriesEntry entry = entries.get(s);
+                entry.invalidate();
+                menu.add(entry.menu);
+            }
+        }
+        menu.setVisible(menu.getMenuComponentCount() > 0);
+    }
+
+    /**
+     * Menus of a series, their actions are created when they are opened.
+     */
+    private final class SeriesEntry implements MenuListener {
+        private final Series series;
+        private final JMenu menu;
+        private boolean built = false;
+        private JPopupMenu popup;
+
+        private SeriesEntry(Series series) {
+            this.series = series;
+            menu = new JMenu(series.getName());
+            menu.addMenuListener(this);
+        }
+
+        /**
+         * Forget the actions, they will be created again with the new state of the series.
+         */
+        private void invalidate() {
+            built = false;
+            popup = null;
+        }
+
+        private JPopupMenu getPopupMenu() {
+            if (popup == null) popup = createPopupMenuForSeries(series);
+            return popup;
+        }
+
+        @Override
+        public void menuSelected(MenuEvent e) {
+            if (built) return;
+            menu.removeAll();
+            for (Component item : createPopupMenuForSeries(series).getComponents()) {
                 if (item instanceof JMenuItem || item instanceof JSeparator) {
-                    jMenu.add(item);
+                    menu.add(item);
                 }
             }
-            menu.add(jMenu);
+            built = true;
+        }
+
+        @Override
+        public void menuDeselected(MenuEvent e) {
+        }
+
+        @Override
+        public void menuCanceled(MenuEvent e) {
         }
-        menu.setVisible(menu.getMenuComponentCount() > 0);
     }
 
     private JPopupMenu createPopupMenuForSeries(final Series series) {
@@ -161,7 +242,8 @@ public class SeriesMenu implements DatasetChangeListener {
         }
 
         menu.add(new SetTypeMenu(series));
-
+        menu.add(new RollingAction(series));
+        menu.add(new FormulaAction(series));
 
         if (series.isWater()) {
             menu.addSeparator();
@@ -366,9 +448,7 @@ public class SeriesMenu implements DatasetChangeListener {
     }
 
     public JPopupMenu getPopupMenu(Series s) {
-        if (!menus.containsKey(s)) {
-            createPopupMenuForSeries(s);
-        }
-        return menus.get(s);
+        final SeriesEntry entry = entries.get(s);
+        return entry == null ? createPopupMenuForSeries(s) : entry.getPopupMenu();
     }
 }
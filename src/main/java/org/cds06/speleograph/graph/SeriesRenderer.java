@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.graph;
+
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.NotNull;
+import org.jfree.chart.LegendItem;
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.entity.EntityCollection;
+import org.jfree.chart.plot.CrosshairState;
+import org.jfree.chart.plot.Plot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.plot.PlotRenderingInfo;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.renderer.xy.AbstractXYItemRenderer;
+import org.jfree.chart.renderer.xy.XYItemRendererState;
+import org.jfree.data.Range;
+import org.jfree.data.xy.OHLCDataset;
+import org.jfree.data.xy.XYDataset;
+import org.jfree.ui.RectangleEdge;
+import org.jfree.util.PublicCloneable;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Renderer of a series, which draws all its visible items at once.
+ * <p>JFreeChart renderers draw each item on its own, with a shape and an entity for each one. This renderer waits for
+ * the last visible item, then builds a single path with all items and draws it. Items which are drawn on the same
+ * pixel column are reduced to the first, the lowest, the highest and the last of them, so the path never has more
+ * than four points for each pixel even if the series has millions of items. Lines are broken at the
+ * {@link SeriesSnapshot#isGapBefore gaps} of the series and at missing values.</p>
+ * <p>Series are drawn as a line, as an area filled down to zero or, for min/max series, as a vertical bar from the low
+ * to the high value of each item. A stepped series keeps the value of an item up to the next one.</p>
+ * <p>Entities are only created when a tooltip or an URL generator is set.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class SeriesRenderer extends AbstractXYItemRenderer implements PublicCloneable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DrawStyle style;
+    private boolean stepped;
+
+    /**
+     * Create a renderer.
+     *
+     * @param style   How to draw the series, {@link DrawStyle#AUTO} is not accepted
+     * @param stepped true to keep the value of an item up to the next one
+     */
+    public SeriesRenderer(@NotNull DrawStyle style, boolean stepped) {
+        Validate.notNull(style);
+        Validate.isTrue(style != DrawStyle.AUTO, "The style of a renderer must be chosen"); // NON-NLS
+        this.style = style;
+        this.stepped = stepped;
+    }
+
+    public DrawStyle getStyle() {
+        return style;
+    }
+
+    public boolean isStepped() {
+        return stepped;
+    }
+
+    public void setStepped(boolean stepped) {
+        if (this.stepped == stepped) return;
+        this.stepped = stepped;
+        fireChangeEvent();
+    }
+
+    /**
+     * Wait for the last visible item of the series, then draw all visible items.
+     */
+    @Override
+    public void drawItem(Graphics2D g2, XYItemRendererState state, Rectangle2D dataArea, PlotRenderingInfo info,
+                         XYPlot plot, ValueAxis domainAxis, ValueAxis rangeAxis, XYDataset dataset, int series,
+                         int item, CrosshairState crosshairState, int pass) {
+        if (item != state.getLastItemIndex() || !getItemVisible(series, item)) return;
+        final EntityCollection entities = state.getEntityCollection();
+        final boolean withEntities = entities != null
+                && (getToolTipGenerator(series, item) != null || getURLGenerator() != null);
+        final Columns columns = new Columns(plot.getOrientation() == PlotOrientation.HORIZONTAL,
+                rangeAxis.valueToJava2D(0, dataArea, plot.getRangeAxisEdge()));
+        final RectangleEdge domainEdge = plot.getDomainAxisEdge(), rangeEdge = plot.getRangeAxisEdge();
+        final boolean highLow = style == DrawStyle.HIGH_LOW && dataset instanceof OHLCDataset;
+        final SeriesSnapshot snapshot = dataset instanceof SeriesSnapshot ? (SeriesSnapshot) dataset : null;
+        for (int i = state.getFirstItemIndex(); i <= item; i++) {
+            final double x = domainAxis.valueToJava2D(dataset.getXValue(series, i), dataArea, domainEdge);
+            if (i > state.getFirstItemIndex() && snapshot != null && snapshot.isGapBefore(i)) columns.end();
+            if (highLow) {
+                final OHLCDataset ohlc = (OHLCDataset) dataset;
+                final double low = rangeAxis.valueToJava2D(ohlc.getLowValue(series, i), dataArea, rangeEdge);
+                final double high = rangeAxis.valueToJava2D(ohlc.getHighValue(series, i), dataArea, rangeEdge);
+                if (Double.isNaN(x) || Double.isNaN(low) || Double.isNaN(high)) continue;
+                columns.bar(x, Math.min(low, high), Math.max(low, high));
+                if (withEntities) addEntity(entities, null, dataset, series, i, x, high);
+            } else {
+                final double y = rangeAxis.valueToJava2D(dataset.getYValue(series, i), dataArea, rangeEdge);
+                if (Double.isNaN(x) || Double.isNaN(y)) {
+                    columns.end();
+                    continue;
+                }
+                columns.point(x, y);
+                if (withEntities) addEntity(entities, null, dataset, series, i, x, y);
+            }
+        }
+        columns.end();
+        g2.setPaint(lookupSeriesPaint(series));
+        if (style == DrawStyle.AREA) {
+            g2.fill(columns.path);
+        } else {
+            g2.setStroke(lookupSeriesStroke(series));
+            g2.draw(columns.path);
+        }
+    }
+
+    /**
+     * Min/max series are bounded by their low and high values.
+     */
+    @Override
+    public Range findRangeBounds(XYDataset dataset) {
+        return findRangeBounds(dataset, style == DrawStyle.HIGH_LOW);
+    }
+
+    @Override
+    public LegendItem getLegendItem(int datasetIndex, int series) {
+        LegendItem legend = super.getLegendItem(datasetIndex, series);
+        if (legend == null) return null;
+        return new LegendItem(legend.getLabel(), legend.getDescription(), legend.getToolTipText(),
+                legend.getURLText(), Plot.DEFAULT_LEGEND_ITEM_BOX, legend.getFillPaint());
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        return super.clone();
+    }
+
+    /**
+     * Builder of the path of a series, which reduces the points drawn on the same pixel column.
+     */
+    private final class Columns {
+        private final Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, 1024);
+        private final boolean horizontal;
+        private final double zero;
+
+        /**
+         * The pixel column of the points which are not in the path yet, or NaN if there is none.
+         */
+        private double column = Double.NaN;
+        private int count;
+        private double firstX, firstY, lastX, lastY, min, max;
+
+        /**
+         * true if the path has a point of the current line, false if the next point starts a new line.
+         */
+        private boolean started = false;
+        private double startX, previousX, previousY;
+
+        private Columns(boolean horizontal, double zero) {
+            this.horizontal = horizontal;
+            this.zero = zero;
+        }
+
+        /**
+         * Add a point of a line.
+         */
+        void point(double x, double y) {
+            if (Math.floor(x) != column) {
+                flush();
+                column = Math.floor(x);
+                count = 0;
+                firstX = x;
+                firstY = min = max = y;
+            }
+            count++;
+            lastX = x;
+            lastY = y;
+            if (y < min) min = y;
+            if (y > max) max = y;
+        }
+
+        /**
+         * Add a vertical bar.
+         */
+        void bar(double x, double low, double high) {
+            if (Math.floor(x) == column) {
+                if (low < min) min = low;
+                if (high > max) max = high;
+                return;
+            }
+            flush();
+            column = Math.floor(x);
+            count = 1;
+            firstX = x;
+            min = low;
+            max = high;
+        }
+
+        /**
+         * Finish the current line, the next point starts a new one.
+         */
+        void end() {
+            flush();
+            if (started && style == DrawStyle.AREA) {
+                to(previousX, zero);
+                to(startX, zero);
+                path.closePath();
+            }
+            started = false;
+        }
+
+        private void flush() {
+            if (Double.isNaN(column)) return;
+            column = Double.NaN;
+            if (style == DrawStyle.HIGH_LOW) {
+                move(firstX, min);
+                to(firstX, max);
+                return;
+            }
+            if (!started) {
+                if (style == DrawStyle.AREA) {
+                    move(firstX, zero);
+                    to(firstX, firstY);
+                } else {
+                    move(firstX, firstY);
+                }
+                startX = firstX;
+                started = true;
+            } else {
+                if (stepped) to(firstX, previousY);
+                to(firstX, firstY);
+            }
+            if (count > 2) {
+                to(firstX, min);
+                to(firstX, max);
+            }
+            if (count > 1) {
+                if (stepped) to(firstX, lastY);
+                to(lastX, lastY);
+            }
+            previousX = lastX;
+            previousY = lastY;
+        }
+
+        private void move(double x, double y) {
+            if (horizontal) path.moveTo(y, x);
+            else path.moveTo(x, y);
+        }
+
+        private void to(double x, double y) {
+            if (horizontal) path.lineTo(y, x);
+            else path.lineTo(x, y);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.graph;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Item;
+import org.cds06.speleograph.data.SamplingIndex;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.store.SeriesStore;
+import org.jetbrains.annotations.NotNull;
+import org.jfree.data.DomainOrder;
+import org.jfree.data.xy.AbstractXYDataset;
+import org.jfree.data.xy.OHLCDataset;
+
+import java.util.List;
+
+/**
+ * Immutable view of a {@link Series} taken at a given time.
+ * <p>A snapshot keeps the store of the series and the number of items it had when the snapshot was taken. Stores can
+ * be read from any thread: regular and compressed stores never change, and items appended to a mapped or an
+ * appendable store are published after the ones already read. Series replace their store instead of modifying it,
+ * so the first {@code count} items stay valid even if the series is edited after. Items of a series which is not in a
+ * store are copied in an array when the snapshot is taken, because a list of items can be modified while it is read.
+ * This lets the chart be drawn on another thread than the Swing one without locking the series.</p>
+ * <p>Before being drawn, a snapshot is {@link #decimate limited to the displayed range}: it then only exposes the
+ * items of this range, copied in arrays of primitive values. When there are much more of them than pixels to draw
+ * them, it exposes the points selected by a {@link TileCache} instead. Charts then read each point from an array,
+ * without boxing, bounds check or lookup in the list or the store of the series.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class SeriesSnapshot extends AbstractXYDataset implements OHLCDataset {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Above this number of items for each pixel, a snapshot is decimated.
+     */
+    private static final int MAX_POINTS_PER_PIXEL = 8;
+
+    private final Series source;
+    private final String key;
+    /**
+     * The items of the series when they are not in a store, null otherwise.
+     */
+    private final Item[] items;
+    /**
+     * The store of the series items, read directly instead of creating items from it. Null if items are in a list.
+     */
+    private final SeriesStore store;
+    private final int count;
+    private final boolean minMax;
+    private final int version;
+    private final SamplingIndex index;
+
+    /**
+     * Points displayed when the snapshot is limited to a range, null otherwise.
+     */
+    private TileCache.Points points;
+
+    private SeriesSnapshot(Series source) {
+        this.source = source;
+        this.key = source.getName();
+        this.store = source.getStore();
+        if (store != null) {
+            this.items = null;
+            this.count = store.size();
+        } else {
+            final List<Item> list = source.getItems();
+            this.items = list.toArray(new Item[list.size()]);
+            this.count = items.length;
+        }
+        this.minMax = source.isMinMax();
+        this.version = source.getVersion();
+        this.index = source.getSamplingIndex();
+        setGroup(source.getGroup());
+    }
+
+    /**
+     * Take a snapshot of a series.
+     * <p>This function must be called on the thread which edits series (the Swing thread).</p>
+     *
+     * @param series The series to copy (not null)
+     * @return The snapshot
+     */
+    public static SeriesSnapshot of(@NotNull Series series) {
+        Validate.notNull(series);
+        return new SeriesSnapshot(series);
+    }
+
+    /**
+     * Get the series used to create this snapshot.
+     *
+     * @return The original series.
+     */
+    public Series getSource() {
+        return source;
+    }
+
+    /**
+     * Get the date of an item of the series, even if the snapshot is decimated.
+     *
+     * @param index The item index in the series, lower than {@link #getCount()}
+     * @return The date in milliseconds
+     */
+    long getItemTime(int index) {
+        return store != null ? store.getTime(index) : items[index].getDate().getTime();
+    }
+
+    /**
+     * Get the value of an item of the series, even if the snapshot is decimated.
+     *
+     * @param index The item index in the series, lower than {@link #getCount()}
+     * @return The value (NaN for min/max items)
+     */
+    double getItemValue(int index) {
+        return store != null ? store.getValue(index) : items[index].getValue();
+    }
+
+    /**
+     * Get the low value of an item of the series, even if the snapshot is decimated.
+     *
+     * @param index The item index in the series, lower than {@link #getCount()}
+     * @return The low value (NaN if items are not min/max ones)
+     */
+    double getItemLow(int index) {
+        return store != null ? store.getLow(index) : items[index].getLow();
+    }
+
+    /**
+     * Get the high value of an item of the series, even if the snapshot is decimated.
+     *
+     * @param index The item index in the series, lower than {@link #getCount()}
+     * @return The high value (NaN if items are not min/max ones)
+     */
+    double getItemHigh(int index) {
+        return store != null ? store.getHigh(index) : items[index].getHigh();
+    }
+
+    /**
+     * Get the number of items of the series when the snapshot was taken.
+     *
+     * @return The number of items, even if the snapshot is decimated.
+     */
+    int getCount() {
+        return count;
+    }
+
+    boolean isMinMax() {
+        return minMax;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Search the first item which is at or after a date.
+     *
+     * @param time The date (in milliseconds)
+     * @return The item index, or the number of items if all items are before the date.
+     */
+    int indexOf(long time) {
+        if (index.isRegular()) return index.indexOf(time); // Computed from the segments without reading items
+        int low = 0, high = count;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (getItemTime(middle) < time) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Reduce the points of this snapshot to what is needed to draw a date range.
+     * <p>If there are not too many items in the range, the snapshot exposes them, plus the item before and the item
+     * after them so lines are drawn up to the edges of the chart. Otherwise, it exposes the points of the tiles which
+     * cover the range, plus the item before and the item after them.</p>
+     * <p>This function must be called before the snapshot is used by a chart.</p>
+     *
+     * @param lower Start of the displayed range (in milliseconds)
+     * @param upper End of the displayed range (in milliseconds)
+     * @param width Width of the drawing (in pixels)
+     * @param cache The cache to take tiles from
+     */
+    public void decimate(double lower, double upper, int width, @NotNull TileCache cache) {
+        Validate.notNull(cache);
+        points = null;
+        if (count == 0 || !(upper > lower)) return;
+        final int first = indexOf((long) Math.floor(lower)), end = indexOf((long) Math.ceil(upper) + 1);
+        if (end - first <= MAX_POINTS_PER_PIXEL * Math.max(width, 1)) {
+            final int from = Math.max(first - 1, 0), to = Math.min(end + 1, count);
+            final TileCache.Points.Builder builder = new TileCache.Points.Builder(minMax, to - from);
+            builder.addRange(from, to, this);
+            points = builder.build();
+            return;
+        }
+        final int level = TileCache.getLevel(upper - lower, width);
+        if (level < 0) return;
+        final long firstTile = TileCache.getTileIndex((long) Math.floor(lower), level);
+        final long lastTile = TileCache.getTileIndex((long) Math.ceil(upper), level);
+        final TileCache.Points.Builder builder = new TileCache.Points.Builder(minMax, 8 * width + 2);
+        final int before = indexOf(firstTile * TileCache.getTileDuration(level)) - 1;
+        if (before >= 0) builder.add(before, this);
+        for (long tile = firstTile; tile <= lastTile; tile++) {
+            builder.addAll(cache.getTile(this, level, tile));
+        }
+        final int after = indexOf((lastTile + 1) * TileCache.getTileDuration(level));
+        if (after < count) builder.add(after, this);
+        points = builder.build();
+    }
+
+    /**
+     * Check if this snapshot has been limited to a range.
+     *
+     * @return true if the snapshot exposes the points of a range instead of all items of the series.
+     */
+    public boolean isDecimated() {
+        return points != null;
+    }
+
+    /**
+     * Determine if there is a gap in the series before an item, so the line must not join it to the previous one.
+     *
+     * @param item The item index in this snapshot, at least 1
+     * @return true if the series has a gap between the previous item of this snapshot and this one
+     * @see SamplingIndex
+     */
+    public boolean isGapBefore(int item) {
+        return index.getGapCount() > 0 && index.hasGap(getSourceIndex(item - 1), getSourceIndex(item));
+    }
+
+    /**
+     * Get the index in the series of an item of this snapshot.
+     *
+     * @param item The item index in this snapshot
+     * @return The item index in the series
+     */
+    public int getSourceIndex(int item) {
+        return points == null ? item : points.getIndex(item);
+    }
+
+    @Override
+    public int getSeriesCount() {
+        return 1;
+    }
+
+    @Override
+    public String getSeriesKey(int series) {
+        return key;
+    }
+
+    @Override
+    public DomainOrder getDomainOrder() {
+        return DomainOrder.ASCENDING;
+    }
+
+    @Override
+    public int getItemCount(int series) {
+        return points == null ? count : points.size();
+    }
+
+    @Override
+    public Number getX(int series, int item) {
+        return getXValue(series, item);
+    }
+
+    @Override
+    public double getXValue(int series, int item) {
+        return points == null ? getItemTime(item) : points.getX(item);
+    }
+
+    @Override
+    public Number getY(int series, int item) {
+        return getYValue(series, item);
+    }
+
+    @Override
+    public double getYValue(int series, int item) {
+        return points == null ? getItemValue(item) : points.getY(item);
+    }
+
+    @Override
+    public Number getHigh(int series, int item) {
+        return getHighValue(series, item);
+    }
+
+    @Override
+    public double getHighValue(int series, int item) {
+        if (!minMax) return Double.NaN;
+        return points == null ? getItemHigh(item) : points.getHigh(item);
+    }
+
+    @Override
+    public Number getLow(int series, int item) {
+        return getLowValue(series, item);
+    }
+
+    @Override
+    public double getLowValue(int series, int item) {
+        if (!minMax) return Double.NaN;
+        return points == null ? getItemLow(item) : points.getLow(item);
+    }
+
+    @Override
+    public Number getOpen(int series, int item) {
+        return getOpenValue(series, item);
+    }
+
+    @Override
+    public double getOpenValue(int series, int item) {
+        return Double.NaN;
+    }
+
+    @Override
+    public Number getClose(int series, int item) {
+        return getCloseValue(series, item);
+    }
+
+    @Override
+    public double getCloseValue(int series, int item) {
+        return Double.NaN;
+    }
+
+    @Override
+    public Number getVolume(int series, int item) {
+        return getVolumeValue(series, item);
+    }
+
+    @Override
+    public double getVolumeValue(int series, int item) {
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.graph;
+
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.event.ChartChangeEvent;
+import org.jfree.chart.plot.Plot;
+
+import java.awt.*;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Chart used by SpeleoGraph.
+ * <p>When a {@link BackgroundChartRenderer} is set, the draw requests coming from its panel are delegated to it, so
+ * the chart is drawn on a background thread. Other draw requests (export, print) are done as usual.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class SpeleoChart extends JFreeChart {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Incremented each time the chart (or one of its components) changes.
+     */
+    private long generation;
+
+    private transient BackgroundChartRenderer backgroundRenderer;
+
+    /**
+     * Creates a new chart with a legend.
+     *
+     * @param plot The plot (not null)
+     */
+    public SpeleoChart(Plot plot) {
+        super(plot);
+    }
+
+    public BackgroundChartRenderer getBackgroundRenderer() {
+        return backgroundRenderer;
+    }
+
+    /**
+     * Set the renderer used to draw this chart on its panel.
+     *
+     * @param backgroundRenderer The renderer, or null to draw on the calling thread.
+     */
+    public void setBackgroundRenderer(BackgroundChartRenderer backgroundRenderer) {
+        this.backgroundRenderer = backgroundRenderer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void draw(Graphics2D g2, Rectangle2D chartArea, Point2D anchor, ChartRenderingInfo info) {
+        final BackgroundChartRenderer renderer = backgroundRenderer;
+        if (renderer != null && renderer.isPanelDrawing(info)
+                && renderer.paint(this, generation, g2, chartArea, info)) {
+            return;
+        }
+        super.draw(g2, chartArea, anchor, info);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void notifyListeners(ChartChangeEvent event) {
+        generation++;
+        super.notifyListeners(event);
+    }
+}
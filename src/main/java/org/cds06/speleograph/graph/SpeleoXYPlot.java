@@ -22,8 +22,15 @@
 
 package org.cds06.speleograph.graph;
 
+import org.cds06.speleograph.data.Series;
+import org.jfree.chart.axis.AxisLocation;
+import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYItemRenderer;
+import org.jfree.data.general.DatasetChangeEvent;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This file is created by PhilippeGeek.
@@ -47,4 +54,41 @@ public class SpeleoXYPlot extends XYPlot {
         }
         return result;
     }
+
+    /**
+     * Display series in this plot.
+     * <p>Each shown series is set as the dataset whose index is its position in the list, with its renderer. Series
+     * which use the same axis share it. The domain axis is not changed.</p>
+     *
+     * @param series The series to display (hidden ones are ignored)
+     * @return true if at least one series is shown.
+     */
+    public boolean showSeries(List<Series> series) {
+        for (int i = 0, max = getDatasetCount(); i < max; i++) {
+            setDataset(i, null);
+            setRangeAxis(i, null);
+            setRenderer(i, null);
+        }
+        final ArrayList<NumberAxis> shownAxis = new ArrayList<>(series.size());
+        for (final Series set : series) {
+            if (set == null) continue;
+            NumberAxis rangeAxis = set.getAxis();
+            if (set.isShow()) {
+                int id = series.indexOf(set);
+                setDataset(id, set);
+                setRenderer(id, set.getRenderer(), false);
+                int index = shownAxis.indexOf(rangeAxis);
+                if (index == -1) {
+                    shownAxis.add(rangeAxis);
+                    index = shownAxis.indexOf(rangeAxis);
+                    setRangeAxis(index, rangeAxis, false);
+                    setRangeAxisLocation(index, AxisLocation.BOTTOM_OR_LEFT);
+                }
+                mapDatasetToRangeAxis(id, index);
+                getRenderer().setSeriesItemLabelsVisible(0, true, true);
+                datasetChanged(new DatasetChangeEvent(this, set));
+            }
+        }
+        return shownAxis.size() > 0;
+    }
 }
@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.graph;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.data.Series;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of decimated series used to draw the chart.
+ * <p>The date axis is cut in tiles. For a zoom level {@code L}, a bucket lasts {@code 2^L} milliseconds and a tile
+ * contains {@link #BUCKETS_PER_TILE} buckets. Each tile keeps, for each bucket, the first, the lowest, the highest and
+ * the last item of the series (four points are enough to draw the bucket as a line would be drawn with all its
+ * items).</p>
+ * <p>Because levels are powers of two, a pan on the chart only computes the tiles which become visible and a small zoom
+ * keeps using the same level. Tiles are evicted in least recently used order when the memory limit is reached.</p>
+ * <p>Tiles do not keep their series: tiles of a deleted series are removed once the series is garbage collected.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class TileCache {
+
+    /**
+     * Number of buckets in a tile.
+     */
+    public static final int BUCKETS_PER_TILE = 256;
+
+    /**
+     * Memory used by default by a cache (in bytes).
+     */
+    public static final long DEFAULT_MEMORY_LIMIT = 32L * 1024 * 1024;
+
+    private final long memoryLimit;
+
+    private long memoryUsed = 0;
+
+    private final LinkedHashMap<Key, Tile> tiles = new LinkedHashMap<>(64, 0.75f, true);
+
+    /**
+     * Keys of the series which have been garbage collected.
+     */
+    private final ReferenceQueue<Series> collected = new ReferenceQueue<>();
+
+    /**
+     * Create a cache with the default memory limit.
+     */
+    public TileCache() {
+        this(DEFAULT_MEMORY_LIMIT);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param memoryLimit Approximate number of bytes the cache can use.
+     */
+    public TileCache(long memoryLimit) {
+        Validate.isTrue(memoryLimit > 0);
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Get the duration of a tile.
+     *
+     * @param level The zoom level
+     * @return The duration in milliseconds
+     */
+    public static long getTileDuration(int level) {
+        return ((long) BUCKETS_PER_TILE) << level;
+    }
+
+    /**
+     * Compute the zoom level to use to draw a date range on a given width.
+     *
+     * @param duration Duration displayed (in milliseconds)
+     * @param width    Width of the drawing (in pixels)
+     * @return The level, such as there is one or two buckets for each pixel, or -1 if no decimation is needed.
+     */
+    public static int getLevel(double duration, int width) {
+        if (width <= 0) return -1;
+        final long bucket = (long) (duration / width);
+        if (bucket < 2) return -1;
+        return 63 - Long.numberOfLeadingZeros(bucket);
+    }
+
+    /**
+     * Get the index of the tile which contains a date.
+     *
+     * @param time  The date (in milliseconds)
+     * @param level The zoom level
+     * @return The tile index
+     */
+    public static long getTileIndex(long time, int level) {
+        final long duration = getTileDuration(level);
+        final long index = time / duration;
+        return (time % duration != 0 && time < 0) ? index - 1 : index;
+    }
+
+    /**
+     * Get a tile of a series, compute it if it is not in the cache.
+     * <p>This function can be called from any thread.</p>
+     *
+     * @param snapshot The state of the series
+     * @param level    The zoom level
+     * @param index    The index of the tile
+     * @return The decimated points of the series in this tile
+     */
+    public Points getTile(SeriesSnapshot snapshot, int level, long index) {
+        final Key key = new Key(snapshot.getSource(), level, index, collected);
+        synchronized (tiles) {
+            Tile tile = tiles.get(key);
+            if (tile != null && tile.isValidFor(snapshot)) return tile.points;
+        }
+        final Tile tile = buildTile(snapshot, level, index);
+        synchronized (tiles) {
+            for (Object removed = collected.poll(); removed != null; removed = collected.poll()) {
+                final Tile old = tiles.remove(removed);
+                if (old != null) memoryUsed -= old.points.getMemorySize();
+            }
+            Tile old = tiles.put(key, tile);
+            if (old != null) memoryUsed -= old.points.getMemorySize();
+            memoryUsed += tile.points.getMemorySize();
+            Iterator<Map.Entry<Key, Tile>> iterator = tiles.entrySet().iterator();
+            while (memoryUsed > memoryLimit && iterator.hasNext()) {
+                Map.Entry<Key, Tile> eldest = iterator.next();
+                if (eldest.getKey().equals(key)) continue;
+                memoryUsed -= eldest.getValue().points.getMemorySize();
+                iterator.remove();
+            }
+        }
+        return tile.points;
+    }
+
+    /**
+     * Get the memory currently used by tiles.
+     *
+     * @return An approximation of used memory in bytes
+     */
+    public long getMemoryUsed() {
+        synchronized (tiles) {
+            return memoryUsed;
+        }
+    }
+
+    /**
+     * Decimate the items of a series which are in a tile.
+     */
+    private static Tile buildTile(SeriesSnapshot snapshot, int level, long index) {
+        final int count = snapshot.getCount();
+        final boolean minMax = snapshot.isMinMax();
+        final long start = index * getTileDuration(level), end = start + getTileDuration(level);
+        final Points.Builder builder = new Points.Builder(minMax, 64);
+        final int[] selected = new int[4];
+        int i = snapshot.indexOf(start);
+        while (i < count) {
+            final long bucket = (snapshot.getItemTime(i) - start) >> level;
+            if (bucket >= BUCKETS_PER_TILE) break;
+            final int first = i;
+            int last = i, lowest = -1, highest = -1;
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            while (i < count) {
+                if ((snapshot.getItemTime(i) - start) >> level != bucket) break;
+                final double low = minMax ? snapshot.getItemLow(i) : snapshot.getItemValue(i);
+                final double high = minMax ? snapshot.getItemHigh(i) : low;
+                if (low < min) {
+                    min = low;
+                    lowest = i;
+                }
+                if (high > max) {
+                    max = high;
+                    highest = i;
+                }
+                last = i;
+                i++;
+            }
+            selected[0] = first;
+            selected[1] = lowest;
+            selected[2] = highest;
+            selected[3] = last;
+            Arrays.sort(selected);
+            int previous = -1;
+            for (int s : selected) {
+                if (s < 0 || s == previous) continue;
+                builder.add(s, snapshot);
+                previous = s;
+            }
+        }
+        final Tile tile = new Tile();
+        tile.points = builder.build();
+        tile.version = snapshot.getVersion();
+        tile.count = count;
+        tile.complete = i < count && snapshot.getItemTime(i) >= end;
+        return tile;
+    }
+
+    /**
+     * A list of points selected from a series.
+     */
+    public static final class Points {
+
+        /**
+         * Empty list.
+         */
+        public static final Points EMPTY = new Points(new int[0], new double[0], new double[0], null, null, 0);
+
+        private final int[] indexes;
+        private final double[] x;
+        private final double[] y;
+        private final double[] low;
+        private final double[] high;
+        private final int size;
+
+        private Points(int[] indexes, double[] x, double[] y, double[] low, double[] high, int size) {
+            this.indexes = indexes;
+            this.x = x;
+            this.y = y;
+            this.low = low;
+            this.high = high;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Get the index of a point in the series it comes from.
+         *
+         * @param i The point index
+         * @return The item index in the series
+         */
+        public int getIndex(int i) {
+            return indexes[i];
+        }
+
+        public double getX(int i) {
+            return x[i];
+        }
+
+        public double getY(int i) {
+            return y[i];
+        }
+
+        public double getLow(int i) {
+            return low == null ? Double.NaN : low[i];
+        }
+
+        public double getHigh(int i) {
+            return high == null ? Double.NaN : high[i];
+        }
+
+        private long getMemorySize() {
+            return 64L + (long) indexes.length * (low == null ? 20 : 36);
+        }
+
+        /**
+         * Accumulate points in ascending order.
+         */
+        static final class Builder {
+            private final boolean minMax;
+            private int[] indexes;
+            private double[] x, y, low, high;
+            private int size = 0;
+
+            Builder(boolean minMax, int capacity) {
+                this.minMax = minMax;
+                capacity = Math.max(capacity, 4);
+                indexes = new int[capacity];
+                x = new double[capacity];
+                y = new double[capacity];
+                if (minMax) {
+                    low = new double[capacity];
+                    high = new double[capacity];
+                }
+            }
+
+            void add(int index, SeriesSnapshot snapshot) {
+                ensureCapacity(size + 1);
+                indexes[size] = index;
+                x[size] = snapshot.getItemTime(index);
+                y[size] = snapshot.getItemValue(index);
+                if (minMax) {
+                    low[size] = snapshot.getItemLow(index);
+                    high[size] = snapshot.getItemHigh(index);
+                }
+                size++;
+            }
+
+            /**
+             * Add consecutive items of a snapshot, reading its columns in a single loop.
+             */
+            void addRange(int from, int to, SeriesSnapshot snapshot) {
+                ensureCapacity(size + to - from);
+                for (int index = from; index < to; index++, size++) {
+                    indexes[size] = index;
+                    x[size] = snapshot.getItemTime(index);
+                    y[size] = snapshot.getItemValue(index);
+                    if (minMax) {
+                        low[size] = snapshot.getItemLow(index);
+                        high[size] = snapshot.getItemHigh(index);
+                    }
+                }
+            }
+
+            void addAll(Points points) {
+                ensureCapacity(size + points.size);
+                System.arraycopy(points.indexes, 0, indexes, size, points.size);
+                System.arraycopy(points.x, 0, x, size, points.size);
+                System.arraycopy(points.y, 0, y, size, points.size);
+                if (minMax) {
+                    System.arraycopy(points.low, 0, low, size, points.size);
+                    System.arraycopy(points.high, 0, high, size, points.size);
+                }
+                size += points.size;
+            }
+
+            private void ensureCapacity(int needed) {
+                if (needed <= indexes.length) return;
+                final int capacity = Math.max(needed, indexes.length * 2);
+                indexes = Arrays.copyOf(indexes, capacity);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                if (minMax) {
+                    low = Arrays.copyOf(low, capacity);
+                    high = Arrays.copyOf(high, capacity);
+                }
+            }
+
+            Points build() {
+                return new Points(Arrays.copyOf(indexes, size), Arrays.copyOf(x, size), Arrays.copyOf(y, size),
+                        minMax ? Arrays.copyOf(low, size) : null, minMax ? Arrays.copyOf(high, size) : null, size);
+            }
+        }
+    }
+
+    /**
+     * A cached tile.
+     */
+    private static final class Tile {
+        private Points points;
+        /**
+         * Version of the series when the tile was built.
+         */
+        private int version;
+        /**
+         * Number of items in the series when the tile was built.
+         */
+        private int count;
+        /**
+         * True if the series had items after the end of the tile, so appended items can not change it.
+         */
+        private boolean complete;
+
+        private boolean isValidFor(SeriesSnapshot snapshot) {
+            return version == snapshot.getVersion() && (complete || count == snapshot.getCount());
+        }
+    }
+
+    /**
+     * Identify a tile.
+     */
+    private static final class Key extends WeakReference<Series> {
+        private final int level;
+        private final long index;
+        private final int hash;
+
+        private Key(Series series, int level, long index, ReferenceQueue<Series> queue) {
+            super(series, queue);
+            this.level = level;
+            this.index = index;
+            int result = System.identityHashCode(series);
+            result = 31 * result + level;
+            hash = 31 * result + (int) (index ^ (index >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            final Series series = get();
+            return series != null && series == key.get() && level == key.level && index == key.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
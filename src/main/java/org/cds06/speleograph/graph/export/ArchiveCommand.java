@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.cds06.speleograph.graph.export;
+
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.Type;
+import org.cds06.speleograph.data.fileio.*;
+import org.jetbrains.annotations.NonNls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Manage an {@link Archive} from the command line.
+ * <p>Usage: {@code SpeleoGraph archive DIR add SITE FILE...} or {@code SpeleoGraph archive DIR list}. The data of an
+ * archive are drawn with {@code SpeleoGraph export --archive DIR --site SITE}, see {@link BatchExport}.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+@NonNls
+public class ArchiveCommand {
+
+    private static final Logger log = LoggerFactory.getLogger(ArchiveCommand.class);
+
+    /**
+     * First argument which manages an archive instead of starting the application.
+     */
+    public static final String COMMAND = "archive";
+
+    private static final String USAGE = "Usage: SpeleoGraph " + COMMAND + " DIR add [--reader READER] SITE FILE...\n" +
+            "       SpeleoGraph " + COMMAND + " DIR list\n" +
+            "Keep the data of several sites in the archive directory DIR, it is created if needed.\n" +
+            "  add SITE FILE...  read files and add their series to the site SITE\n" +
+            "  --reader READER   speleo, columnar, reefnet, hobo or wunderground (default: guessed)\n" +
+            "  list              print the sites, types and files of the archive\n" +
+            "Draw the data of a site with: SpeleoGraph " + BatchExport.COMMAND + " --archive DIR --site SITE\n";
+
+    private ArchiveCommand() {
+    }
+
+    /**
+     * Run an archive command.
+     *
+     * @param args The arguments after the {@link #COMMAND}.
+     * @return The exit code: 0 on success, 1 if a file failed, 2 on a usage error.
+     */
+    public static int run(String... args) {
+        final PrintStream out = System.out;
+        try {
+            if (args.length < 2) throw new IllegalArgumentException("Missing archive command");
+            final File directory = new File(args[0]);
+            switch (args[1]) {
+                case "add":
+                    return add(Archive.open(directory), Arrays.copyOfRange(args, 2, args.length), out);
+                case "list":
+                    if (args.length > 2) throw new IllegalArgumentException("Unknown argument " + args[2]);
+                    if (!Archive.isArchive(directory))
+                        throw new IllegalArgumentException(directory + " is not an archive");
+                    list(Archive.open(directory), out);
+                    return 0;
+                default:
+                    throw new IllegalArgumentException("Unknown archive command " + args[1]);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            return 2;
+        } catch (IOException e) {
+            log.error("Can not open the archive " + args[0], e);
+            System.err.println(args[0] + ": " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static int add(Archive archive, String[] args, PrintStream out) {
+        DataFileReader reader = null;
+        int i = 0;
+        if (args.length > 1 && "--reader".equals(args[0])) {
+            reader = BatchExport.getReader(args[1]);
+            i = 2;
+        }
+        if (args.length - i < 2) throw new IllegalArgumentException("add needs a site and files");
+        final String site = args[i].trim();
+        if (site.isEmpty()) throw new IllegalArgumentException("The site name is empty");
+        int failures = 0;
+        for (File file : getFiles(Arrays.copyOfRange(args, i + 1, args.length))) {
+            Series.startBatch();
+            List<Series> series = null;
+            try {
+                (reader != null ? reader : FileImporter.guessReader(file)).readFile(file);
+                series = Series.endBatch();
+                final List<ColumnarFileWriter.Entry> entries = ColumnarFileWriter.snapshot(series);
+                for (Archive.Partition partition : archive.add(site, entries)) out.println(partition);
+            } catch (FileReadingError | IOException | RuntimeException e) {
+                log.error("Can not add " + file, e);
+                System.err.println(file + ": " + e.getMessage());
+                failures++;
+            } finally {
+                if (series == null) series = Series.endBatch();
+                for (Series s : series) s.delete();
+            }
+        }
+        return failures == 0 ? 0 : 1;
+    }
+
+    private static List<File> getFiles(String[] names) {
+        final List<File> files = new ArrayList<>(names.length);
+        for (String name : names) {
+            if (name.startsWith("--")) throw new IllegalArgumentException("Unknown option " + name);
+            files.add(new File(name).getAbsoluteFile());
+        }
+        return files;
+    }
+
+    private static void list(Archive archive, PrintStream out) {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        for (String site : archive.getSites()) {
+            out.println(site);
+            for (Type type : archive.getTypes(site)) {
+                out.println("  " + type);
+                for (Archive.Partition partition : archive.getPartitions()) {
+                    if (!partition.getSite().equals(site) || !partition.getType().equals(type)) continue;
+                    out.println("    " + format.format(partition.getFirstDate()) + " - " +
+                            format.format(partition.getLastDate()) + "  " + partition.getSize() + " items  " +
+                            partition.getSource());
+                }
+            }
+        }
+    }
+}
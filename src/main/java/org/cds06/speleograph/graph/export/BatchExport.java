@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.graph.export;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.cds06.speleograph.data.Series;
+import org.cds06.speleograph.data.Type;
+import org.cds06.speleograph.data.fileio.*;
+import org.cds06.speleograph.graph.SpeleoChart;
+import org.cds06.speleograph.graph.SpeleoXYPlot;
+import org.jetbrains.annotations.NonNls;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.StandardChartTheme;
+import org.jfree.chart.axis.DateAxis;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Export charts from the command line, without displaying the application.
+ * <p>Usage: {@code SpeleoGraph export [options] FILE...}. By default, each file is drawn in its own chart, saved next
+ * to it with the extension of the format. With {@code --output}, all files are drawn in one chart.</p>
+ * <p>With {@code --archive DIR --site SITE}, the data of a site are read from an {@link Archive} instead of files.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+@NonNls
+public class BatchExport {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchExport.class);
+
+    /**
+     * First argument which starts a batch export instead of the application.
+     */
+    public static final String COMMAND = "export";
+
+    private static final String USAGE = "Usage: SpeleoGraph " + COMMAND + " [options] FILE...\n" +
+            "       SpeleoGraph " + COMMAND + " [options] --archive DIR --site SITE\n" +
+            "Draw data files to images without opening the application.\n" +
+            "  --output FILE     draw all files in one chart saved to FILE\n" +
+            "  --directory DIR   save one chart for each file in DIR (default: next to the file)\n" +
+            "  --format FORMAT   png, svg or pdf (default: extension of --output, else png)\n" +
+            "  --width POINTS    width of the chart (default: 800)\n" +
+            "  --height POINTS   height of the chart (default: 600)\n" +
+            "  --dpi DPI         resolution used for images and decimation (default: 72)\n" +
+            "  --reader READER   speleo, columnar, reefnet, hobo or wunderground (default: guessed)\n" +
+            "  --types TYPES     read only these types, separated by commas: temperature, pressure, water,\n" +
+            "                    temperature-min-max, water-height or the name of a type (default: all)\n" +
+            "  --from DATE       read only the data from DATE, written yyyy-MM-dd or yyyy-MM-dd HH:mm:ss\n" +
+            "  --to DATE         read only the data until DATE (a day without time is included)\n" +
+            "  --sorted yes|no   stop reading a file after --to, the data are sorted by date (default: yes)\n" +
+            "  --archive DIR     read the data of --site in the archive DIR instead of files\n" +
+            "  --site SITE       the site to read in the archive (default chart: SITE.png in --directory)\n";
+
+    private final ChartExporter exporter = new ChartExporter();
+    private final List<File> inputs = new ArrayList<>();
+    private File output;
+    private File directory;
+    private ExportFormat format;
+    private DataFileReader reader;
+    private Archive archive;
+    private String site;
+    private final ReadOptions options = new ReadOptions();
+    private final PrintStream out;
+
+    private Date from, to;
+
+    private BatchExport(PrintStream out) {
+        this.out = out;
+        options.setSorted(true);
+    }
+
+    /**
+     * Run a batch export.
+     *
+     * @param args The arguments after the {@link #COMMAND}.
+     * @return The exit code: 0 on success, 1 if a file failed, 2 on a usage error.
+     */
+    public static int run(String... args) {
+        final BatchExport export = new BatchExport(System.err);
+        try {
+            export.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            return 2;
+        }
+        return export.export();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (!arg.startsWith("--")) {
+                inputs.add(new File(arg));
+                continue;
+            }
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + arg);
+            final String value = args[++i];
+            switch (arg) {
+                case "--output":
+                    output = new File(value);
+                    break;
+                case "--directory":
+                    directory = new File(value);
+                    break;
+                case "--format":
+                    format = ExportFormat.forExtension(value);
+                    if (format == null) throw new IllegalArgumentException("Unknown format " + value);
+                    break;
+                case "--width":
+                    exporter.setWidth(parsePositive(arg, value));
+                    break;
+                case "--height":
+                    exporter.setHeight(parsePositive(arg, value));
+                    break;
+                case "--dpi":
+                    exporter.setResolution(parsePositive(arg, value));
+                    break;
+                case "--reader":
+                    reader = getReader(value);
+                    break;
+                case "--types":
+                    options.setTypes(parseTypes(value));
+                    break;
+                case "--from":
+                    from = parseDate(arg, value, false);
+                    break;
+                case "--to":
+                    to = parseDate(arg, value, true);
+                    break;
+                case "--archive":
+                    if (!Archive.isArchive(new File(value)))
+                        throw new IllegalArgumentException(value + " is not an archive");
+                    try {
+                        archive = Archive.open(new File(value));
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Can not open the archive " + value + ": " + e.getMessage());
+                    }
+                    break;
+                case "--site":
+                    site = value;
+                    break;
+                case "--sorted":
+                    if (!"yes".equals(value) && !"no".equals(value))
+                        throw new IllegalArgumentException(arg + " must be yes or no: " + value);
+                    options.setSorted("yes".equals(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (archive != null || site != null) {
+            if (archive == null || site == null) throw new IllegalArgumentException("--archive needs --site");
+            if (!archive.getSites().contains(site)) throw new IllegalArgumentException("Unknown site " + site);
+            if (!inputs.isEmpty()) throw new IllegalArgumentException("Files can not be read with --archive");
+        } else if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No file to export");
+        }
+        if (from != null && to != null && from.after(to))
+            throw new IllegalArgumentException("--from must be before --to");
+        options.setDateRange(from, to);
+        if (format == null) {
+            format = output == null ? ExportFormat.PNG : ExportFormat.forFile(output);
+            if (format == null) throw new IllegalArgumentException("Unknown format for " + output);
+        }
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Can not create directory " + directory);
+        }
+    }
+
+    private static int parsePositive(String option, String value) {
+        try {
+            final int number = Integer.parseInt(value);
+            if (number > 0) return number;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(option + " must be a positive number: " + value);
+    }
+
+    /**
+     * Parse a date of the command line.
+     *
+     * @param option   The option name, for error messages
+     * @param value    The date, with or without time
+     * @param endOfDay If true, a date without time is the last millisecond of the day.
+     */
+    private static Date parseDate(String option, String value, boolean endOfDay) {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        format.setLenient(false);
+        try {
+            return format.parse(value);
+        } catch (ParseException ignored) {
+        }
+        try {
+            format.applyPattern("yyyy-MM-dd");
+            final Date day = format.parse(value);
+            if (!endOfDay) return day;
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTime(day);
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            calendar.add(Calendar.MILLISECOND, -1);
+            return calendar.getTime();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(option + " must be a date like 2013-06-30 or 2013-06-30 12:00:00: "
+                    + value);
+        }
+    }
+
+    private static List<Type> parseTypes(String value) {
+        final List<Type> types = new ArrayList<>();
+        for (String name : StringUtils.split(value, ',')) {
+            types.add(getType(name.trim()));
+        }
+        return types;
+    }
+
+    private static Type getType(String name) {
+        switch (name.toLowerCase()) {
+            case "temperature":
+                return Type.TEMPERATURE;
+            case "temperature-min-max":
+                return Type.TEMPERATURE_MIN_MAX;
+            case "pressure":
+                return Type.PRESSURE;
+            case "water":
+                return Type.WATER;
+            case "water-height":
+                return Type.WATER_HEIGHT;
+            default:
+                for (Type type : Type.getInstances()) {
+                    if (type.getName().equalsIgnoreCase(name)) return type;
+                }
+                throw new IllegalArgumentException("Unknown type " + name);
+        }
+    }
+
+    static DataFileReader getReader(String name) {
+        switch (name.toLowerCase()) {
+            case "speleo":
+                return new SpeleoFileReader();
+            case "reefnet":
+                return new ReefnetFileReader();
+            case "hobo":
+                return new HoboFileReader();
+            case "wunderground":
+                return new WundergroundFileReader();
+            case "columnar":
+                return new ColumnarFileReader();
+            default:
+                throw new IllegalArgumentException("Unknown reader " + name);
+        }
+    }
+
+    /**
+     * Find the reader of a file when none is given.
+     * <p>Wunderground files can not be recognized, they must be read with {@code --reader wunderground}.</p>
+     */
+    private static DataFileReader guessReader(File file) throws FileReadingError {
+        try {
+            return FileImporter.guessReader(file);
+        } catch (FileReadingError e) {
+            throw new FileReadingError("Unknown file format, use --reader", FileReadingError.Part.HEAD, e);
+        }
+    }
+
+    private int export() {
+        int failures = 0;
+        if (archive != null) {
+            final File target = output != null ? output : new File(directory != null ? directory : new File("."),
+                    site + "." + format.getExtension());
+            if (!exportChart(inputs, target)) failures++;
+        } else if (output != null) {
+            if (!exportChart(inputs, output)) failures++;
+        } else {
+            for (File input : inputs) {
+                final File parent = directory != null ? directory : input.getAbsoluteFile().getParentFile();
+                final File target = new File(parent,
+                        FilenameUtils.getBaseName(input.getName()) + "." + format.getExtension());
+                if (!exportChart(Collections.singletonList(input), target)) failures++;
+            }
+        }
+        return failures == 0 ? 0 : 1;
+    }
+
+    /**
+     * Read files (or the site of the archive), draw them in a chart and save it.
+     *
+     * @return true on success
+     */
+    private boolean exportChart(List<File> files, File target) {
+        final List<Series> before = new ArrayList<>(Series.getInstances());
+        final Object source = archive != null ? site : files;
+        try {
+            if (archive != null) archive.query(site, options);
+            for (File file : files) {
+                (reader != null ? reader : guessReader(file)).readFile(file, options);
+            }
+            final List<Series> read = new ArrayList<>(Series.getInstances());
+            read.removeAll(before);
+            if (read.isEmpty()) {
+                out.println(source + ": no data");
+                return false;
+            }
+            boolean shown = false;
+            for (Series series : read) shown |= series.isShow();
+            if (!shown) {
+                for (Series series : read) series.setShow(true);
+            }
+            exporter.export(ChartExporter.copy(createChart(read)), target, format);
+            out.println(target);
+            return true;
+        } catch (FileReadingError | IOException | RuntimeException e) {
+            log.error("Can not export " + source, e);
+            out.println(source + ": " + e.getMessage());
+            return false;
+        } finally {
+            for (Series series : new ArrayList<>(Series.getInstances())) {
+                if (!before.contains(series)) series.delete();
+            }
+        }
+    }
+
+    /**
+     * Create a chart like the one of the application.
+     */
+    private static JFreeChart createChart(List<Series> series) {
+        final SpeleoXYPlot plot = new SpeleoXYPlot();
+        final JFreeChart chart = new SpeleoChart(plot);
+        new StandardChartTheme("JFree").apply(chart);
+        plot.showSeries(series);
+        plot.setDomainAxis(new DateAxis());
+        return chart;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.graph.export;
+
+import org.apache.commons.lang3.Validate;
+import org.cds06.speleograph.graph.ChartCopy;
+import org.cds06.speleograph.graph.TileCache;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jfree.chart.JFreeChart;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
+
+/**
+ * Export charts to image files without displaying them.
+ * <p>The size of an export is given in points (1/72 inch), like the size of a chart on screen. The resolution gives
+ * the number of pixels for each inch: a PNG export is drawn on {@code size * resolution / 72} pixels with fonts and
+ * lines scaled accordingly, and series are decimated for this number of pixels, whatever the format is.</p>
+ * <p>SVG and PDF exports are written while the chart is drawn, they do not need the whole document in memory.</p>
+ * <p>An exporter can be used from any thread, but the chart to export must be copied (see {@link ChartCopy}) on the
+ * thread which edits it.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public class ChartExporter {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(ChartExporter.class);
+
+    /**
+     * Resolution of a screen, in dots per inch.
+     */
+    public static final int SCREEN_RESOLUTION = 72;
+
+    private int width = 800;
+    private int height = 600;
+    private int resolution = SCREEN_RESOLUTION;
+
+    private final TileCache tileCache;
+
+    /**
+     * Create an exporter with its own tile cache.
+     */
+    public ChartExporter() {
+        this(new TileCache());
+    }
+
+    /**
+     * Create an exporter.
+     *
+     * @param tileCache The cache used to decimate series, it can be shared between exporters of the same series.
+     */
+    public ChartExporter(@NotNull TileCache tileCache) {
+        Validate.notNull(tileCache);
+        this.tileCache = tileCache;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Set the width of exports.
+     *
+     * @param width The width in points (more than 0)
+     */
+    public void setWidth(int width) {
+        Validate.isTrue(width > 0, "Width must be positive"); // NON-NLS
+        this.width = width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Set the height of exports.
+     *
+     * @param height The height in points (more than 0)
+     */
+    public void setHeight(int height) {
+        Validate.isTrue(height > 0, "Height must be positive"); // NON-NLS
+        this.height = height;
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Set the resolution of exports.
+     *
+     * @param resolution Number of pixels by inch (more than 0)
+     */
+    public void setResolution(int resolution) {
+        Validate.isTrue(resolution > 0, "Resolution must be positive"); // NON-NLS
+        this.resolution = resolution;
+    }
+
+    /**
+     * Export a chart to a file, the format is found with the file extension.
+     *
+     * @param chart The chart (it is copied before the export, so it must not be edited by another thread)
+     * @param file  The file to write
+     * @throws IOException if the file can not be written or the extension is unknown.
+     */
+    public void export(@NotNull JFreeChart chart, @NotNull File file) throws IOException {
+        final ExportFormat format = ExportFormat.forFile(file);
+        if (format == null) throw new IOException("Unknown export format for " + file.getName()); // NON-NLS
+        export(copy(chart), file, format);
+    }
+
+    /**
+     * Export a copy of a chart to a file.
+     *
+     * @param copy   The chart copy
+     * @param file   The file to write
+     * @param format The format of the file
+     * @throws IOException if the file can not be written.
+     */
+    public void export(@NotNull ChartCopy copy, @NotNull File file, @NotNull ExportFormat format)
+            throws IOException {
+        Validate.notNull(file);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            export(copy, out, format);
+        }
+    }
+
+    /**
+     * Export a copy of a chart to a stream.
+     *
+     * @param copy   The chart copy
+     * @param out    The stream, it is closed at the end of the export.
+     * @param format The format of the document
+     * @throws IOException if the document can not be written.
+     */
+    public void export(@NotNull ChartCopy copy, @NotNull OutputStream out, @NotNull ExportFormat format)
+            throws IOException {
+        Validate.notNull(copy);
+        Validate.notNull(out);
+        Validate.notNull(format);
+        final long start = System.currentTimeMillis();
+        final double scale = (double) resolution / SCREEN_RESOLUTION;
+        copy.decimate((int) Math.ceil(width * scale), tileCache);
+        final Rectangle2D area = new Rectangle2D.Double(0, 0, width, height);
+        switch (format) {
+            case PNG:
+                exportPng(copy.getChart(), area, scale, out);
+                break;
+            case SVG:
+                try (SvgGraphics2D g2 = new SvgGraphics2D(out, width, height)) {
+                    copy.getChart().draw(g2, area);
+                }
+                break;
+            case PDF:
+                try (PdfGraphics2D g2 = new PdfGraphics2D(out, width, height)) {
+                    copy.getChart().draw(g2, area);
+                }
+                break;
+        }
+        log.info("Chart exported as " + format + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Copy a chart to export it.
+     *
+     * @param chart The chart
+     * @return The copy
+     * @throws IOException if the chart can not be copied.
+     */
+    public static ChartCopy copy(@NotNull JFreeChart chart) throws IOException {
+        try {
+            return ChartCopy.of(chart);
+        } catch (CloneNotSupportedException e) {
+            throw new IOException("Can not copy the chart", e); // NON-NLS
+        }
+    }
+
+    private void exportPng(JFreeChart chart, Rectangle2D area, double scale, OutputStream out) throws IOException {
+        final BufferedImage image = new BufferedImage((int) Math.ceil(width * scale), (int) Math.ceil(height * scale),
+                BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g2 = image.createGraphics();
+        try {
+            g2.scale(scale, scale);
+            chart.draw(g2, area);
+        } finally {
+            g2.dispose();
+        }
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next(); // NON-NLS
+        final ImageWriteParam param = writer.getDefaultWriteParam();
+        final IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        setResolution(metadata);
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+    }
+
+    /**
+     * Store the resolution in the image metadata (pHYs chunk for PNG).
+     */
+    @NonNls
+    private void setResolution(IIOMetadata metadata) {
+        final String pixelSize = Double.toString(25.4 / resolution); // Millimeters by pixel
+        final IIOMetadataNode horizontal = new IIOMetadataNode("HorizontalPixelSize");
+        horizontal.setAttribute("value", pixelSize);
+        final IIOMetadataNode vertical = new IIOMetadataNode("VerticalPixelSize");
+        vertical.setAttribute("value", pixelSize);
+        final IIOMetadataNode dimension = new IIOMetadataNode("Dimension");
+        dimension.appendChild(horizontal);
+        dimension.appendChild(vertical);
+        final IIOMetadataNode root = new IIOMetadataNode("javax_imageio_1.0");
+        root.appendChild(dimension);
+        try {
+            metadata.mergeTree("javax_imageio_1.0", root);
+        } catch (IIOInvalidTreeException e) {
+            log.warn("Can not set the image resolution", e);
+        }
+    }
+}
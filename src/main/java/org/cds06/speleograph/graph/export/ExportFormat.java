@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.graph.export;
+
+import org.apache.commons.io.FilenameUtils;
+import org.jetbrains.annotations.NonNls;
+
+import java.io.File;
+
+/**
+ * Formats a chart can be exported to.
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public enum ExportFormat {
+    PNG("png", "Image PNG"), // NON-NLS
+    SVG("svg", "Image vectorielle SVG"), // NON-NLS
+    PDF("pdf", "Document PDF"); // NON-NLS
+
+    @NonNls
+    private final String extension;
+    private final String description;
+
+    private ExportFormat(String extension, String description) {
+        this.extension = extension;
+        this.description = description;
+    }
+
+    /**
+     * Get the usual extension of the format.
+     *
+     * @return The extension (without dot)
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Find a format by its extension.
+     *
+     * @param extension The extension, case is ignored
+     * @return The format, or null if no format uses this extension.
+     */
+    public static ExportFormat forExtension(String extension) {
+        for (ExportFormat format : values()) {
+            if (format.extension.equalsIgnoreCase(extension)) return format;
+        }
+        return null;
+    }
+
+    /**
+     * Find the format of a file by its extension.
+     *
+     * @param file The file
+     * @return The format, or null if the extension is unknown.
+     */
+    public static ExportFormat forFile(File file) {
+        return forExtension(FilenameUtils.getExtension(file.getName()));
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.graph.export;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.cds06.speleograph.SpeleoGraphApp;
+import org.jetbrains.annotations.NonNls;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Graphics which write a one page PDF document.
+ * <p>The page content is compressed and written to the stream as soon as it is drawn. Only the resources (fonts,
+ * images, transparency states) are kept until the end of the document, they are written after the content.</p>
+ * <p>Texts use the standard PDF fonts (Helvetica, Times and Courier), so they are not embedded.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+@NonNls
+public class PdfGraphics2D extends VectorGraphics2D {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final Charset TEXT_CHARSET = Charset.isSupported("windows-1252") ?
+            Charset.forName("windows-1252") : Charset.forName("ISO-8859-1");
+
+    private static final int CATALOG = 1, PAGES = 2, PAGE = 3, CONTENT = 4, CONTENT_LENGTH = 5, INFO = 6;
+
+    private final Document document;
+
+    /**
+     * Start a PDF document.
+     *
+     * @param out    The stream to write to (closed with the graphics)
+     * @param width  The width of the page (in points)
+     * @param height The height of the page (in points)
+     * @throws IOException if we can not write the header.
+     */
+    public PdfGraphics2D(OutputStream out, double width, double height) throws IOException {
+        document = new Document(new CountingOutputStream(new BufferedOutputStream(out)), width, height);
+        document.raw("%PDF-1.4\n%âãÏÓ\n");
+        document.startObject(CONTENT);
+        document.raw("<< /Length " + CONTENT_LENGTH + " 0 R /Filter /FlateDecode >>\nstream\n");
+        document.contentStart = document.out.getByteCount();
+        document.content = new BufferedOutputStream(new DeflaterOutputStream(
+                new CloseShieldOutputStream(document.out), new Deflater(Deflater.DEFAULT_COMPRESSION)), 1 << 16);
+        // Use the Java coordinates: origin on the top left corner, y axis to the bottom.
+        document.write("1 0 0 -1 0 " + format(height) + " cm\n");
+    }
+
+    private PdfGraphics2D(PdfGraphics2D parent) {
+        super(parent);
+        document = parent.document;
+    }
+
+    @Override
+    protected VectorGraphics2D createChild() {
+        return new PdfGraphics2D(this);
+    }
+
+    @Override
+    protected void writeShape(Shape shape, boolean fill) throws IOException {
+        final Stroke stroke = getStroke();
+        if (!fill && !(stroke instanceof BasicStroke)) {
+            writeShape(stroke.createStrokedShape(shape), true);
+            return;
+        }
+        applyClip();
+        final AffineTransform transform = getTransform();
+        final boolean local = !transform.isIdentity();
+        final GraphicState saved = document.state.copy();
+        if (local) {
+            document.write("q\n");
+            writeMatrix(transform);
+        }
+        applyAlpha();
+        final Color color = getPaintColor();
+        if (fill) {
+            applyFillColor(color);
+        } else {
+            applyStrokeColor(color);
+            applyStroke((BasicStroke) stroke);
+        }
+        writePath(shape);
+        if (fill) {
+            document.write(shape.getPathIterator(null).getWindingRule() == PathIterator.WIND_EVEN_ODD ? "f*\n" : "f\n");
+        } else {
+            document.write("S\n");
+        }
+        if (local) restore(saved);
+    }
+
+    @Override
+    protected void writeText(String text, float x, float y) throws IOException {
+        applyClip();
+        final AffineTransform transform = getTransform();
+        final boolean local = !transform.isIdentity();
+        final GraphicState saved = document.state.copy();
+        if (local) {
+            document.write("q\n");
+            writeMatrix(transform);
+        }
+        applyAlpha();
+        applyFillColor(getPaintColor());
+        final Font font = getFont();
+        document.write("BT\n/" + document.getFontName(font) + " " + format(font.getSize2D()) + " Tf\n");
+        document.write("1 0 0 -1 " + format(x) + " " + format(y) + " Tm\n(");
+        document.content.write(escape(text));
+        document.write(") Tj\nET\n");
+        if (local) restore(saved);
+    }
+
+    @Override
+    protected void writeImage(BufferedImage image, AffineTransform imageTransform) throws IOException {
+        applyClip();
+        final String name = document.addImage(image);
+        final AffineTransform transform = getTransform();
+        transform.concatenate(imageTransform);
+        transform.scale(image.getWidth(), image.getHeight());
+        transform.concatenate(new AffineTransform(1, 0, 0, -1, 0, 1));
+        final GraphicState saved = document.state.copy();
+        document.write("q\n");
+        writeMatrix(transform);
+        applyAlpha();
+        document.write("/" + name + " Do\n");
+        restore(saved);
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        if (document.clipOpen) document.write("Q\n");
+        document.clipOpen = false;
+        document.content.close();
+        final long length = document.out.getByteCount() - document.contentStart;
+        document.raw("\nendstream\nendobj\n");
+        document.startObject(CONTENT_LENGTH);
+        document.raw(length + "\nendobj\n");
+        document.writeResources();
+        document.writeTrailer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (document.closed) return;
+        document.closed = true;
+        try {
+            finish();
+        } finally {
+            document.out.close();
+        }
+        if (document.error != null) throw document.error;
+    }
+
+    @Override
+    protected void error(IOException e) {
+        super.error(e);
+        if (document.error == null) document.error = e;
+    }
+
+    /**
+     * Set the clip of the page if it is not the current one.
+     */
+    private void applyClip() throws IOException {
+        final Shape clip = getDeviceClip();
+        if (clip == document.clip || (clip instanceof Rectangle2D && clip.equals(document.clip))) return;
+        if (document.clipOpen) {
+            document.write("Q\n");
+            document.state = new GraphicState();
+        }
+        document.clipOpen = false;
+        document.clip = clip;
+        if (clip == null) return;
+        document.write("q\n");
+        writePath(clip);
+        document.write(clip.getPathIterator(null).getWindingRule() == PathIterator.WIND_EVEN_ODD ? "W* n\n" : "W n\n");
+        document.clipOpen = true;
+    }
+
+    /**
+     * End a local graphic state (opened with q).
+     *
+     * @param saved The state before the q operator
+     */
+    private void restore(GraphicState saved) throws IOException {
+        document.write("Q\n");
+        document.state = saved;
+    }
+
+    private void applyAlpha() throws IOException {
+        final float alpha = Math.round(getOpacity() * 1000) / 1000f;
+        if (alpha == document.state.alpha) return;
+        document.write("/" + document.getStateName(alpha) + " gs\n");
+        document.state.alpha = alpha;
+    }
+
+    private void applyFillColor(Color color) throws IOException {
+        if (color.getRGB() == document.state.fillColor) return;
+        document.write(formatColor(color) + " rg\n");
+        document.state.fillColor = color.getRGB();
+    }
+
+    private void applyStrokeColor(Color color) throws IOException {
+        if (color.getRGB() == document.state.strokeColor) return;
+        document.write(formatColor(color) + " RG\n");
+        document.state.strokeColor = color.getRGB();
+    }
+
+    private void applyStroke(BasicStroke stroke) throws IOException {
+        if (stroke.equals(document.state.stroke)) return;
+        final StringBuilder builder = new StringBuilder(40);
+        builder.append(format(stroke.getLineWidth())).append(" w ");
+        builder.append(stroke.getEndCap() == BasicStroke.CAP_BUTT ? 0 :
+                stroke.getEndCap() == BasicStroke.CAP_ROUND ? 1 : 2).append(" J ");
+        builder.append(stroke.getLineJoin() == BasicStroke.JOIN_MITER ? 0 :
+                stroke.getLineJoin() == BasicStroke.JOIN_ROUND ? 1 : 2).append(" j ");
+        builder.append(format(Math.max(1, stroke.getMiterLimit()))).append(" M [");
+        final float[] dash = stroke.getDashArray();
+        if (dash != null) {
+            for (int i = 0; i < dash.length; i++) {
+                if (i > 0) builder.append(' ');
+                builder.append(format(dash[i]));
+            }
+        }
+        builder.append("] ").append(format(stroke.getDashPhase())).append(" d\n");
+        document.write(builder.toString());
+        document.state.stroke = stroke;
+    }
+
+    private void writeMatrix(AffineTransform t) throws IOException {
+        document.write(format(t.getScaleX()) + " " + format(t.getShearY()) + " " + format(t.getShearX()) + " "
+                + format(t.getScaleY()) + " " + format(t.getTranslateX()) + " " + format(t.getTranslateY()) + " cm\n");
+    }
+
+    private void writePath(Shape shape) throws IOException {
+        if (shape instanceof Rectangle2D) {
+            final Rectangle2D r = (Rectangle2D) shape;
+            document.write(format(r.getX()) + " " + format(r.getY()) + " " + format(r.getWidth()) + " "
+                    + format(r.getHeight()) + " re\n");
+            return;
+        }
+        final PathIterator iterator = shape.getPathIterator(null);
+        final double[] c = new double[6];
+        final StringBuilder builder = new StringBuilder(256);
+        double x = 0, y = 0;
+        while (!iterator.isDone()) {
+            switch (iterator.currentSegment(c)) {
+                case PathIterator.SEG_MOVETO:
+                    builder.append(format(c[0])).append(' ').append(format(c[1])).append(" m\n");
+                    x = c[0];
+                    y = c[1];
+                    break;
+                case PathIterator.SEG_LINETO:
+                    builder.append(format(c[0])).append(' ').append(format(c[1])).append(" l\n");
+                    x = c[0];
+                    y = c[1];
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    builder.append(format(x + 2 * (c[0] - x) / 3)).append(' ')
+                            .append(format(y + 2 * (c[1] - y) / 3)).append(' ')
+                            .append(format(c[2] + 2 * (c[0] - c[2]) / 3)).append(' ')
+                            .append(format(c[3] + 2 * (c[1] - c[3]) / 3)).append(' ')
+                            .append(format(c[2])).append(' ').append(format(c[3])).append(" c\n");
+                    x = c[2];
+                    y = c[3];
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    builder.append(format(c[0])).append(' ').append(format(c[1])).append(' ')
+                            .append(format(c[2])).append(' ').append(format(c[3])).append(' ')
+                            .append(format(c[4])).append(' ').append(format(c[5])).append(" c\n");
+                    x = c[4];
+                    y = c[5];
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    builder.append("h\n");
+                    break;
+            }
+            if (builder.length() > 4096) {
+                document.write(builder.toString());
+                builder.setLength(0);
+            }
+            iterator.next();
+        }
+        document.write(builder.toString());
+    }
+
+    private static String formatColor(Color color) {
+        return format(color.getRed() / 255.0) + " " + format(color.getGreen() / 255.0) + " "
+                + format(color.getBlue() / 255.0);
+    }
+
+    /**
+     * Encode a text for a PDF string.
+     */
+    private static byte[] escape(String text) {
+        final byte[] bytes = text.getBytes(TEXT_CHARSET);
+        final ByteArrayOutputStream escaped = new ByteArrayOutputStream(bytes.length + 8);
+        for (byte b : bytes) {
+            if (b == '(' || b == ')' || b == '\\') escaped.write('\\');
+            if (b == '\n' || b == '\r') b = ' ';
+            escaped.write(b);
+        }
+        return escaped.toByteArray();
+    }
+
+    /**
+     * Get the name of the standard font which is the nearest of a font.
+     */
+    private static String getBaseFont(Font font) {
+        final String family = getGenericFamily(font);
+        final boolean bold = font.isBold(), italic = font.isItalic();
+        if ("serif".equals(family)) {
+            return bold ? (italic ? "Times-BoldItalic" : "Times-Bold") : (italic ? "Times-Italic" : "Times-Roman");
+        } else if ("monospace".equals(family)) {
+            return "Courier" + (bold ? (italic ? "-BoldOblique" : "-Bold") : (italic ? "-Oblique" : ""));
+        }
+        return "Helvetica" + (bold ? (italic ? "-BoldOblique" : "-Bold") : (italic ? "-Oblique" : ""));
+    }
+
+    /**
+     * State shared by the graphics of a document.
+     */
+    private static class Document {
+        private final CountingOutputStream out;
+        private final double width, height;
+        private OutputStream content;
+        private long contentStart;
+        private final List<Long> offsets = new ArrayList<>();
+        private boolean closed = false;
+        private IOException error;
+
+        private Shape clip;
+        private boolean clipOpen = false;
+        private GraphicState state = new GraphicState();
+
+        private final Map<String, String> fonts = new LinkedHashMap<>();
+        private final Map<Float, String> states = new LinkedHashMap<>();
+        private final List<BufferedImage> images = new ArrayList<>();
+
+        private Document(CountingOutputStream out, double width, double height) {
+            this.out = out;
+            this.width = width;
+            this.height = height;
+            for (int i = 0; i <= INFO; i++) offsets.add(0L);
+        }
+
+        private void raw(String text) throws IOException {
+            out.write(text.getBytes(TEXT_CHARSET));
+        }
+
+        private void write(String text) throws IOException {
+            content.write(text.getBytes(ASCII));
+        }
+
+        private void startObject(int number) throws IOException {
+            offsets.set(number, out.getByteCount());
+            raw(number + " 0 obj\n");
+        }
+
+        private int newObject() throws IOException {
+            offsets.add(out.getByteCount());
+            final int number = offsets.size() - 1;
+            raw(number + " 0 obj\n");
+            return number;
+        }
+
+        private String getFontName(Font font) {
+            final String baseFont = getBaseFont(font);
+            String name = fonts.get(baseFont);
+            if (name == null) {
+                name = "F" + (fonts.size() + 1);
+                fonts.put(baseFont, name);
+            }
+            return name;
+        }
+
+        private String getStateName(float alpha) {
+            String name = states.get(alpha);
+            if (name == null) {
+                name = "GS" + (states.size() + 1);
+                states.put(alpha, name);
+            }
+            return name;
+        }
+
+        private String addImage(BufferedImage image) {
+            images.add(image);
+            return "Im" + images.size();
+        }
+
+        /**
+         * Write fonts, transparency states, images and the page which uses them.
+         */
+        private void writeResources() throws IOException {
+            final StringBuilder resources = new StringBuilder("/ProcSet [/PDF /Text /ImageB /ImageC]");
+            if (!fonts.isEmpty()) {
+                resources.append(" /Font <<");
+                for (Map.Entry<String, String> font : fonts.entrySet()) {
+                    final int number = newObject();
+                    raw("<< /Type /Font /Subtype /Type1 /BaseFont /" + font.getKey()
+                            + " /Encoding /WinAnsiEncoding >>\nendobj\n");
+                    resources.append(" /").append(font.getValue()).append(' ').append(number).append(" 0 R");
+                }
+                resources.append(" >>");
+            }
+            if (!states.isEmpty()) {
+                resources.append(" /ExtGState <<");
+                for (Map.Entry<Float, String> state : states.entrySet()) {
+                    final int number = newObject();
+                    raw("<< /Type /ExtGState /CA " + format(state.getKey()) + " /ca " + format(state.getKey())
+                            + " >>\nendobj\n");
+                    resources.append(" /").append(state.getValue()).append(' ').append(number).append(" 0 R");
+                }
+                resources.append(" >>");
+            }
+            if (!images.isEmpty()) {
+                resources.append(" /XObject <<");
+                for (int i = 0; i < images.size(); i++) {
+                    final int number = writeImage(images.get(i));
+                    resources.append(" /Im").append(i + 1).append(' ').append(number).append(" 0 R");
+                }
+                resources.append(" >>");
+            }
+            startObject(PAGE);
+            raw("<< /Type /Page /Parent " + PAGES + " 0 R /MediaBox [0 0 " + format(width) + " " + format(height)
+                    + "] /Contents " + CONTENT + " 0 R /Resources << " + resources + " >> >>\nendobj\n");
+        }
+
+        /**
+         * Write an image (and its transparency mask) as compressed RGB samples.
+         *
+         * @return The object number of the image
+         */
+        private int writeImage(BufferedImage image) throws IOException {
+            final int w = image.getWidth(), h = image.getHeight();
+            final boolean alpha = image.getColorModel().hasAlpha();
+            final ByteArrayOutputStream rgb = new ByteArrayOutputStream(), mask = new ByteArrayOutputStream();
+            try (DeflaterOutputStream rgbOut = new DeflaterOutputStream(rgb);
+                 DeflaterOutputStream maskOut = new DeflaterOutputStream(mask)) {
+                final int[] row = new int[w];
+                for (int y = 0; y < h; y++) {
+                    image.getRGB(0, y, w, 1, row, 0, w);
+                    for (int argb : row) {
+                        rgbOut.write(argb >> 16);
+                        rgbOut.write(argb >> 8);
+                        rgbOut.write(argb);
+                        if (alpha) maskOut.write(argb >>> 24);
+                    }
+                }
+            }
+            int maskNumber = -1;
+            if (alpha) {
+                maskNumber = newObject();
+                raw("<< /Type /XObject /Subtype /Image /Width " + w + " /Height " + h
+                        + " /ColorSpace /DeviceGray /BitsPerComponent 8 /Filter /FlateDecode /Length "
+                        + mask.size() + " >>\nstream\n");
+                mask.writeTo(out);
+                raw("\nendstream\nendobj\n");
+            }
+            final int number = newObject();
+            raw("<< /Type /XObject /Subtype /Image /Width " + w + " /Height " + h
+                    + " /ColorSpace /DeviceRGB /BitsPerComponent 8 /Filter /FlateDecode /Length " + rgb.size()
+                    + (alpha ? " /SMask " + maskNumber + " 0 R" : "") + " >>\nstream\n");
+            rgb.writeTo(out);
+            raw("\nendstream\nendobj\n");
+            return number;
+        }
+
+        private void writeTrailer() throws IOException {
+            startObject(PAGES);
+            raw("<< /Type /Pages /Kids [" + PAGE + " 0 R] /Count 1 >>\nendobj\n");
+            startObject(CATALOG);
+            raw("<< /Type /Catalog /Pages " + PAGES + " 0 R >>\nendobj\n");
+            startObject(INFO);
+            raw("<< /Producer (" + SpeleoGraphApp.APP_NAME + " " + SpeleoGraphApp.APP_VERSION + ") >>\nendobj\n");
+            final long xref = out.getByteCount();
+            final StringBuilder table = new StringBuilder("xref\n0 " + offsets.size() + "\n0000000000 65535 f \n");
+            for (int i = 1; i < offsets.size(); i++) {
+                final String offset = Long.toString(offsets.get(i));
+                for (int j = offset.length(); j < 10; j++) table.append('0');
+                table.append(offset).append(" 00000 n \n");
+            }
+            table.append("trailer\n<< /Size ").append(offsets.size()).append(" /Root ").append(CATALOG)
+                    .append(" 0 R /Info ").append(INFO).append(" 0 R >>\nstartxref\n").append(xref)
+                    .append("\n%%EOF\n");
+            raw(table.toString());
+        }
+    }
+
+    /**
+     * The parts of the PDF graphic state already written to the page.
+     */
+    private static class GraphicState {
+        private int fillColor = Color.BLACK.getRGB();
+        private int strokeColor = Color.BLACK.getRGB();
+        /**
+         * The stroke, null if it is the default PDF one.
+         */
+        private BasicStroke stroke;
+        private float alpha = 1f;
+
+        private GraphicState copy() {
+            final GraphicState copy = new GraphicState();
+            copy.fillColor = fillColor;
+            copy.strokeColor = strokeColor;
+            copy.stroke = stroke;
+            copy.alpha = alpha;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.graph.export;
+
+import org.apache.commons.codec.binary.Base64;
+import org.jetbrains.annotations.NonNls;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Graphics which write a SVG document.
+ * <p>Elements are written to the stream as soon as they are drawn. Consecutive elements which share the same clip are
+ * grouped in a {@code <g>} element, so the document stays small.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+@NonNls
+public class SvgGraphics2D extends VectorGraphics2D {
+
+    private final Document document;
+
+    /**
+     * Start a SVG document.
+     *
+     * @param out    The stream to write to (closed with the graphics)
+     * @param width  The width of the document (in points)
+     * @param height The height of the document (in points)
+     * @throws IOException if we can not write the header.
+     */
+    public SvgGraphics2D(OutputStream out, double width, double height) throws IOException {
+        document = new Document(new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8"))));
+        final Writer writer = document.writer;
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\"");
+        writer.write(" version=\"1.1\" width=\"" + format(width) + "pt\" height=\"" + format(height) + "pt\"");
+        writer.write(" viewBox=\"0 0 " + format(width) + " " + format(height) + "\">\n");
+    }
+
+    private SvgGraphics2D(SvgGraphics2D parent) {
+        super(parent);
+        document = parent.document;
+    }
+
+    @Override
+    protected VectorGraphics2D createChild() {
+        return new SvgGraphics2D(this);
+    }
+
+    @Override
+    protected void writeShape(Shape shape, boolean fill) throws IOException {
+        final Stroke stroke = getStroke();
+        if (!fill && !(stroke instanceof BasicStroke)) {
+            writeShape(stroke.createStrokedShape(shape), true);
+            return;
+        }
+        final Writer writer = startElement();
+        if (shape instanceof Rectangle2D) {
+            final Rectangle2D r = (Rectangle2D) shape;
+            writer.write("<rect x=\"" + format(r.getX()) + "\" y=\"" + format(r.getY()) + "\" width=\""
+                    + format(r.getWidth()) + "\" height=\"" + format(r.getHeight()) + "\"");
+        } else {
+            writer.write("<path d=\"");
+            writePath(writer, shape);
+            writer.write('"');
+        }
+        writeTransform(writer, getTransform());
+        final String color = toHex(getPaintColor());
+        final float opacity = getOpacity();
+        if (fill) {
+            writer.write(" fill=\"" + color + "\"");
+            if (opacity < 1) writer.write(" fill-opacity=\"" + format(opacity) + "\"");
+            if (shape.getPathIterator(null).getWindingRule() == PathIterator.WIND_EVEN_ODD) {
+                writer.write(" fill-rule=\"evenodd\"");
+            }
+        } else {
+            final BasicStroke basicStroke = (BasicStroke) stroke;
+            writer.write(" fill=\"none\" stroke=\"" + color + "\" stroke-width=\""
+                    + format(basicStroke.getLineWidth()) + "\"");
+            if (opacity < 1) writer.write(" stroke-opacity=\"" + format(opacity) + "\"");
+            switch (basicStroke.getEndCap()) {
+                case BasicStroke.CAP_ROUND:
+                    writer.write(" stroke-linecap=\"round\"");
+                    break;
+                case BasicStroke.CAP_SQUARE:
+                    writer.write(" stroke-linecap=\"square\"");
+                    break;
+            }
+            switch (basicStroke.getLineJoin()) {
+                case BasicStroke.JOIN_ROUND:
+                    writer.write(" stroke-linejoin=\"round\"");
+                    break;
+                case BasicStroke.JOIN_BEVEL:
+                    writer.write(" stroke-linejoin=\"bevel\"");
+                    break;
+                default:
+                    if (basicStroke.getMiterLimit() != 4f) {
+                        writer.write(" stroke-miterlimit=\"" + format(basicStroke.getMiterLimit()) + "\"");
+                    }
+            }
+            final float[] dash = basicStroke.getDashArray();
+            if (dash != null && dash.length > 0) {
+                writer.write(" stroke-dasharray=\"");
+                for (int i = 0; i < dash.length; i++) {
+                    if (i > 0) writer.write(',');
+                    writer.write(format(dash[i]));
+                }
+                writer.write('"');
+                if (basicStroke.getDashPhase() != 0) {
+                    writer.write(" stroke-dashoffset=\"" + format(basicStroke.getDashPhase()) + "\"");
+                }
+            }
+        }
+        writer.write("/>\n");
+    }
+
+    @Override
+    protected void writeText(String text, float x, float y) throws IOException {
+        final Writer writer = startElement();
+        final Font font = getFont();
+        writer.write("<text x=\"" + format(x) + "\" y=\"" + format(y) + "\"");
+        writeTransform(writer, getTransform());
+        writer.write(" font-family=\"" + escape(getGenericFamily(font)) + "\" font-size=\""
+                + format(font.getSize2D()) + "\"");
+        if (font.isBold()) writer.write(" font-weight=\"bold\"");
+        if (font.isItalic()) writer.write(" font-style=\"italic\"");
+        writer.write(" fill=\"" + toHex(getPaintColor()) + "\"");
+        final float opacity = getOpacity();
+        if (opacity < 1) writer.write(" fill-opacity=\"" + format(opacity) + "\"");
+        writer.write(" xml:space=\"preserve\">");
+        writer.write(escape(text));
+        writer.write("</text>\n");
+    }
+
+    @Override
+    protected void writeImage(BufferedImage image, AffineTransform imageTransform) throws IOException {
+        final ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        final Writer writer = startElement();
+        final AffineTransform transform = getTransform();
+        transform.concatenate(imageTransform);
+        writer.write("<image x=\"0\" y=\"0\" width=\"" + image.getWidth() + "\" height=\"" + image.getHeight() + "\"");
+        writeTransform(writer, transform);
+        writer.write(" xlink:href=\"data:image/png;base64,");
+        writer.write(Base64.encodeBase64String(png.toByteArray()));
+        writer.write("\"/>\n");
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        final Writer writer = document.writer;
+        if (document.groupOpen) writer.write("</g>\n");
+        document.groupOpen = false;
+        writer.write("</svg>\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (document.closed) return;
+        document.closed = true;
+        try {
+            finish();
+        } finally {
+            document.writer.close();
+        }
+        if (document.error != null) throw document.error;
+    }
+
+    @Override
+    protected void error(IOException e) {
+        super.error(e);
+        if (document.error == null) document.error = e;
+    }
+
+    /**
+     * Prepare the writing of an element: open a group with the current clip if needed.
+     *
+     * @return The writer to use
+     */
+    private Writer startElement() throws IOException {
+        final Writer writer = document.writer;
+        final Shape clip = getDeviceClip();
+        if (document.groupOpen && sameClip(clip, document.clip)) return writer;
+        if (document.groupOpen) writer.write("</g>\n");
+        document.groupOpen = false;
+        document.clip = clip;
+        if (clip == null) return writer;
+        final String id = "clip" + (++document.lastId);
+        writer.write("<clipPath id=\"" + id + "\"><path d=\"");
+        writePath(writer, clip);
+        writer.write("\"/></clipPath>\n<g clip-path=\"url(#" + id + ")\">\n");
+        document.groupOpen = true;
+        return writer;
+    }
+
+    private static boolean sameClip(Shape a, Shape b) {
+        if (a == b) return true;
+        return a instanceof Rectangle2D && b instanceof Rectangle2D && a.equals(b);
+    }
+
+    private static void writePath(Writer writer, Shape shape) throws IOException {
+        final PathIterator iterator = shape.getPathIterator(null);
+        final double[] c = new double[6];
+        final StringBuilder d = new StringBuilder(64);
+        while (!iterator.isDone()) {
+            switch (iterator.currentSegment(c)) {
+                case PathIterator.SEG_MOVETO:
+                    d.append('M').append(format(c[0])).append(' ').append(format(c[1]));
+                    break;
+                case PathIterator.SEG_LINETO:
+                    d.append('L').append(format(c[0])).append(' ').append(format(c[1]));
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    d.append('Q').append(format(c[0])).append(' ').append(format(c[1])).append(' ')
+                            .append(format(c[2])).append(' ').append(format(c[3]));
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    d.append('C').append(format(c[0])).append(' ').append(format(c[1])).append(' ')
+                            .append(format(c[2])).append(' ').append(format(c[3])).append(' ')
+                            .append(format(c[4])).append(' ').append(format(c[5]));
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    d.append('Z');
+                    break;
+            }
+            if (d.length() > 4096) {
+                writer.write(d.toString());
+                d.setLength(0);
+            }
+            iterator.next();
+        }
+        writer.write(d.toString());
+    }
+
+    private static void writeTransform(Writer writer, AffineTransform t) throws IOException {
+        if (t.isIdentity()) return;
+        if (t.getType() == AffineTransform.TYPE_TRANSLATION) {
+            writer.write(" transform=\"translate(" + format(t.getTranslateX()) + " " + format(t.getTranslateY())
+                    + ")\"");
+            return;
+        }
+        writer.write(" transform=\"matrix(" + format(t.getScaleX()) + " " + format(t.getShearY()) + " "
+                + format(t.getShearX()) + " " + format(t.getScaleY()) + " "
+                + format(t.getTranslateX()) + " " + format(t.getTranslateY()) + ")\"");
+    }
+
+    private static String toHex(Color color) {
+        return String.format("#%06x", color.getRGB() & 0xffffff);
+    }
+
+    private static String escape(String text) {
+        final StringBuilder builder = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    builder.append("&lt;");
+                    break;
+                case '>':
+                    builder.append("&gt;");
+                    break;
+                case '&':
+                    builder.append("&amp;");
+                    break;
+                case '"':
+                    builder.append("&quot;");
+                    break;
+                default:
+                    if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') continue;
+                    builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * State shared by the graphics of a document.
+     */
+    private static class Document {
+        private final Writer writer;
+        private Shape clip;
+        private boolean groupOpen = false;
+        private int lastId = 0;
+        private boolean closed = false;
+        private IOException error;
+
+        private Document(Writer writer) {
+            this.writer = writer;
+        }
+    }
+}
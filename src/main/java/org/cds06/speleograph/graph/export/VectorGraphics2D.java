@@ -0,0 +1,727 @@
+/*
+ * Copyright (c) 2013 Philippe VIENNE
+ *
+ * This file is a part of SpeleoGraph
+ *
+ * SpeleoGraph is free software: you can redistribute
+ * it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * SpeleoGraph is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with SpeleoGraph.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cds06.speleograph.graph.export;
+
+import org.jetbrains.annotations.NonNls;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.awt.image.renderable.RenderableImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.AttributedCharacterIterator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Base of the {@link Graphics2D} which write vector documents.
+ * <p>This class keeps the graphic state (transform, clip, paint, stroke, font) and converts every drawing primitive to
+ * one of the {@code write*} calls. Subclasses write each call directly to their output: no document is kept in memory,
+ * so charts with many points can be exported with a small memory footprint.</p>
+ * <p>Graphics created with {@link #create()} share the output of their parent. The document is completed when the
+ * root graphics is {@link #close() closed}.</p>
+ *
+ * @author Philippe VIENNE
+ * @since 2.0
+ */
+public abstract class VectorGraphics2D extends Graphics2D implements Closeable {
+
+    @NonNls
+    private static final Logger log = LoggerFactory.getLogger(VectorGraphics2D.class);
+
+    /**
+     * Used to measure texts.
+     */
+    private static final Graphics2D measure = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+
+    private static final FontRenderContext fontRenderContext = new FontRenderContext(null, true, true);
+
+    private AffineTransform transform = new AffineTransform();
+    /**
+     * The clip in device coordinates, null if there is no clip.
+     */
+    private Shape clip;
+    private Paint paint = Color.BLACK;
+    private Color color = Color.BLACK;
+    private Color background = Color.WHITE;
+    private Stroke stroke = new BasicStroke(1f);
+    private Font font = new Font(Font.SANS_SERIF, Font.PLAIN, 12);
+    private Composite composite = AlphaComposite.SrcOver;
+    private final RenderingHints hints = new RenderingHints(null);
+
+    /**
+     * Create a root graphics.
+     */
+    protected VectorGraphics2D() {
+    }
+
+    /**
+     * Create a graphics with the same state than another one.
+     *
+     * @param parent The graphics to copy
+     */
+    protected VectorGraphics2D(VectorGraphics2D parent) {
+        transform = new AffineTransform(parent.transform);
+        clip = parent.clip;
+        paint = parent.paint;
+        color = parent.color;
+        background = parent.background;
+        stroke = parent.stroke;
+        font = parent.font;
+        composite = parent.composite;
+        hints.putAll(parent.hints);
+    }
+
+    /**
+     * Create a graphics which writes to the same output.
+     *
+     * @return A graphics initialised with the state of this one (copied by the {@link #VectorGraphics2D(VectorGraphics2D)}
+     * constructor).
+     */
+    protected abstract VectorGraphics2D createChild();
+
+    /**
+     * Write a shape.
+     *
+     * @param shape The shape in user coordinates (see {@link #getTransform()} to convert them to the document ones)
+     * @param fill  true to fill the shape with the paint, false to stroke its outline.
+     * @throws IOException on output error.
+     */
+    protected abstract void writeShape(Shape shape, boolean fill) throws IOException;
+
+    /**
+     * Write a text with the current font and paint.
+     *
+     * @param text The text
+     * @param x    The x coordinate of the baseline start (user coordinates)
+     * @param y    The y coordinate of the baseline (user coordinates)
+     * @throws IOException on output error.
+     */
+    protected abstract void writeText(String text, float x, float y) throws IOException;
+
+    /**
+     * Write an image.
+     *
+     * @param image          The image
+     * @param imageTransform Transform from image pixels to user coordinates
+     * @throws IOException on output error.
+     */
+    protected abstract void writeImage(BufferedImage image, AffineTransform imageTransform) throws IOException;
+
+    /**
+     * Complete the document (only called on the root graphics).
+     *
+     * @throws IOException on output error.
+     */
+    protected abstract void finish() throws IOException;
+
+    /**
+     * Complete the document and close the output.
+     *
+     * @throws IOException on output error.
+     */
+    @Override
+    public abstract void close() throws IOException;
+
+    /**
+     * Get the opacity to apply to the paint (composite alpha multiplied by the color alpha).
+     *
+     * @return A value between 0 and 1.
+     */
+    protected float getOpacity() {
+        float alpha = getPaintColor().getAlpha() / 255f;
+        if (composite instanceof AlphaComposite) alpha *= ((AlphaComposite) composite).getAlpha();
+        return alpha;
+    }
+
+    /**
+     * Get the color which represents the paint.
+     * <p>Gradients are approximated by their first color.</p>
+     *
+     * @return The color to write.
+     */
+    protected Color getPaintColor() {
+        if (paint instanceof Color) return (Color) paint;
+        if (paint instanceof GradientPaint) return ((GradientPaint) paint).getColor1();
+        if (paint instanceof MultipleGradientPaint) return ((MultipleGradientPaint) paint).getColors()[0];
+        return color;
+    }
+
+    /**
+     * Get the clip in document coordinates.
+     *
+     * @return The clip, or null if nothing is clipped.
+     */
+    protected Shape getDeviceClip() {
+        return clip;
+    }
+
+    /**
+     * Format a number for a document: at most three decimals, '.' as decimal separator.
+     *
+     * @param value The number
+     * @return The formatted number
+     */
+    protected static String format(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return "0";
+        final long scaled = Math.round(Math.abs(value) * 1000);
+        final StringBuilder builder = new StringBuilder(12);
+        if (value < 0 && scaled != 0) builder.append('-');
+        builder.append(scaled / 1000);
+        int decimals = (int) (scaled % 1000);
+        if (decimals != 0) {
+            builder.append('.');
+            if (decimals < 100) builder.append('0');
+            if (decimals < 10) builder.append('0');
+            while (decimals % 10 == 0) decimals /= 10;
+            builder.append(decimals);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Log an output error.
+     * <p>Graphics functions can not throw {@link IOException}, so errors are logged and the subclass must report them
+     * when the document is closed.</p>
+     *
+     * @param e The error
+     */
+    protected void error(IOException e) {
+        log.error("Can not write the document", e);
+    }
+
+    // Drawing primitives
+
+    @Override
+    public void draw(Shape s) {
+        try {
+            writeShape(s, false);
+        } catch (IOException e) {
+            error(e);
+        }
+    }
+
+    @Override
+    public void fill(Shape s) {
+        try {
+            writeShape(s, true);
+        } catch (IOException e) {
+            error(e);
+        }
+    }
+
+    @Override
+    public void drawString(String str, int x, int y) {
+        drawString(str, (float) x, (float) y);
+    }
+
+    @Override
+    public void drawString(String str, float x, float y) {
+        if (str == null || str.length() == 0) return;
+        try {
+            writeText(str, x, y);
+        } catch (IOException e) {
+            error(e);
+        }
+    }
+
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        drawString(iterator, (float) x, (float) y);
+    }
+
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+        final StringBuilder text = new StringBuilder();
+        for (char c = iterator.first(); c != AttributedCharacterIterator.DONE; c = iterator.next()) text.append(c);
+        drawString(text.toString(), x, y);
+    }
+
+    @Override
+    public void drawGlyphVector(GlyphVector g, float x, float y) {
+        fill(g.getOutline(x, y));
+    }
+
+    @Override
+    public void drawChars(char[] data, int offset, int length, int x, int y) {
+        drawString(new String(data, offset, length), x, y);
+    }
+
+    @Override
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        draw(new Line2D.Float(x1, y1, x2, y2));
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height) {
+        fill(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void clearRect(int x, int y, int width, int height) {
+        final Paint old = paint;
+        setPaint(background);
+        fillRect(x, y, width, height);
+        setPaint(old);
+    }
+
+    @Override
+    public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        draw(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    @Override
+    public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        fill(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    @Override
+    public void drawOval(int x, int y, int width, int height) {
+        draw(new Ellipse2D.Float(x, y, width, height));
+    }
+
+    @Override
+    public void fillOval(int x, int y, int width, int height) {
+        fill(new Ellipse2D.Float(x, y, width, height));
+    }
+
+    @Override
+    public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        draw(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+    }
+
+    @Override
+    public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        fill(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
+    }
+
+    @Override
+    public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+        if (nPoints < 2) return;
+        final Path2D.Float path = new Path2D.Float();
+        path.moveTo(xPoints[0], yPoints[0]);
+        for (int i = 1; i < nPoints; i++) path.lineTo(xPoints[i], yPoints[i]);
+        draw(path);
+    }
+
+    @Override
+    public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        draw(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    @Override
+    public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        fill(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    // Images
+
+    @Override
+    public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) {
+        final BufferedImage image = toBufferedImage(img);
+        if (image == null) return false;
+        try {
+            writeImage(image, xform == null ? new AffineTransform() : new AffineTransform(xform));
+        } catch (IOException e) {
+            error(e);
+        }
+        return true;
+    }
+
+    @Override
+    public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+        final BufferedImage image = op == null ? img : op.filter(img, null);
+        drawImage(image, AffineTransform.getTranslateInstance(x, y), null);
+    }
+
+    @Override
+    public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+        if (img instanceof BufferedImage) {
+            drawImage((BufferedImage) img, xform, null);
+            return;
+        }
+        final ColorModel model = img.getColorModel();
+        final WritableRaster raster = model.createCompatibleWritableRaster(img.getWidth(), img.getHeight());
+        img.copyData(raster);
+        drawImage(new BufferedImage(model, raster, model.isAlphaPremultiplied(), null), xform, null);
+    }
+
+    @Override
+    public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+        drawRenderedImage(img.createDefaultRendering(), xform);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+        return drawImage(img, AffineTransform.getTranslateInstance(x, y), observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+        final int w = img.getWidth(observer), h = img.getHeight(observer);
+        if (w <= 0 || h <= 0) return false;
+        final AffineTransform xform = AffineTransform.getTranslateInstance(x, y);
+        xform.scale((double) width / w, (double) height / h);
+        return drawImage(img, xform, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+        return drawImage(img, x, y, img.getWidth(observer), img.getHeight(observer), bgcolor, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+        if (bgcolor != null) {
+            final Paint old = paint;
+            setPaint(bgcolor);
+            fillRect(x, y, width, height);
+            setPaint(old);
+        }
+        return drawImage(img, x, y, width, height, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2,
+                             ImageObserver observer) {
+        final BufferedImage image = toBufferedImage(img);
+        if (image == null || sx2 <= sx1 || sy2 <= sy1) return false;
+        final BufferedImage part = image.getSubimage(sx1, sy1, sx2 - sx1, sy2 - sy1);
+        return drawImage(part, Math.min(dx1, dx2), Math.min(dy1, dy2),
+                Math.abs(dx2 - dx1), Math.abs(dy2 - dy1), observer);
+    }
+
+    @Override
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2,
+                             Color bgcolor, ImageObserver observer) {
+        if (bgcolor != null) {
+            final Paint old = paint;
+            setPaint(bgcolor);
+            fillRect(Math.min(dx1, dx2), Math.min(dy1, dy2), Math.abs(dx2 - dx1), Math.abs(dy2 - dy1));
+            setPaint(old);
+        }
+        return drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, observer);
+    }
+
+    private static BufferedImage toBufferedImage(Image img) {
+        if (img == null) return null;
+        if (img instanceof BufferedImage) return (BufferedImage) img;
+        final int width = img.getWidth(null), height = img.getHeight(null);
+        if (width <= 0 || height <= 0) return null;
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g2 = image.createGraphics();
+        g2.drawImage(img, 0, 0, null);
+        g2.dispose();
+        return image;
+    }
+
+    // State
+
+    @Override
+    public Graphics create() {
+        return createChild();
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    @Override
+    public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+        final Shape shape = onStroke ? stroke.createStrokedShape(s) : s;
+        return transform.createTransformedShape(shape).intersects(rect);
+    }
+
+    @Override
+    public GraphicsConfiguration getDeviceConfiguration() {
+        return measure.getDeviceConfiguration();
+    }
+
+    @Override
+    public void setComposite(Composite comp) {
+        composite = comp;
+    }
+
+    @Override
+    public Composite getComposite() {
+        return composite;
+    }
+
+    @Override
+    public void setPaint(Paint paint) {
+        if (paint == null) return;
+        this.paint = paint;
+        if (paint instanceof Color) color = (Color) paint;
+    }
+
+    @Override
+    public Paint getPaint() {
+        return paint;
+    }
+
+    @Override
+    public Color getColor() {
+        return color;
+    }
+
+    @Override
+    public void setColor(Color c) {
+        if (c == null) return;
+        color = c;
+        paint = c;
+    }
+
+    @Override
+    public void setBackground(Color color) {
+        background = color;
+    }
+
+    @Override
+    public Color getBackground() {
+        return background;
+    }
+
+    @Override
+    public void setStroke(Stroke s) {
+        stroke = s;
+    }
+
+    @Override
+    public Stroke getStroke() {
+        return stroke;
+    }
+
+    @Override
+    public void setPaintMode() {
+        composite = AlphaComposite.SrcOver;
+    }
+
+    @Override
+    public void setXORMode(Color c1) {
+        log.debug("XOR mode is not supported by vector documents");
+    }
+
+    @Override
+    public Font getFont() {
+        return font;
+    }
+
+    @Override
+    public void setFont(Font font) {
+        if (font != null) this.font = font;
+    }
+
+    @Override
+    public FontMetrics getFontMetrics(Font f) {
+        return measure.getFontMetrics(f);
+    }
+
+    @Override
+    public FontRenderContext getFontRenderContext() {
+        return fontRenderContext;
+    }
+
+    @Override
+    public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
+        hints.put(hintKey, hintValue);
+    }
+
+    @Override
+    public Object getRenderingHint(RenderingHints.Key hintKey) {
+        return hints.get(hintKey);
+    }
+
+    @Override
+    public void setRenderingHints(Map<?, ?> hints) {
+        this.hints.clear();
+        this.hints.putAll(hints);
+    }
+
+    @Override
+    public void addRenderingHints(Map<?, ?> hints) {
+        this.hints.putAll(hints);
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return (RenderingHints) hints.clone();
+    }
+
+    @Override
+    public void translate(int x, int y) {
+        transform.translate(x, y);
+    }
+
+    @Override
+    public void translate(double tx, double ty) {
+        transform.translate(tx, ty);
+    }
+
+    @Override
+    public void rotate(double theta) {
+        transform.rotate(theta);
+    }
+
+    @Override
+    public void rotate(double theta, double x, double y) {
+        transform.rotate(theta, x, y);
+    }
+
+    @Override
+    public void scale(double sx, double sy) {
+        transform.scale(sx, sy);
+    }
+
+    @Override
+    public void shear(double shx, double shy) {
+        transform.shear(shx, shy);
+    }
+
+    @Override
+    public void transform(AffineTransform tx) {
+        transform.concatenate(tx);
+    }
+
+    @Override
+    public void setTransform(AffineTransform tx) {
+        transform = new AffineTransform(tx);
+    }
+
+    @Override
+    public AffineTransform getTransform() {
+        return new AffineTransform(transform);
+    }
+
+    // Clip
+
+    @Override
+    public Shape getClip() {
+        if (clip == null) return null;
+        try {
+            return transform.createInverse().createTransformedShape(clip);
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Rectangle getClipBounds() {
+        final Shape userClip = getClip();
+        return userClip == null ? null : userClip.getBounds();
+    }
+
+    @Override
+    public void clip(Shape s) {
+        if (s == null) {
+            clip = null;
+            return;
+        }
+        final Shape deviceShape = toDevice(s);
+        if (clip == null) {
+            clip = deviceShape;
+        } else if (clip instanceof Rectangle2D && deviceShape instanceof Rectangle2D) {
+            clip = ((Rectangle2D) clip).createIntersection((Rectangle2D) deviceShape);
+        } else {
+            final Area area = new Area(clip);
+            area.intersect(new Area(deviceShape));
+            clip = area;
+        }
+    }
+
+    @Override
+    public void clipRect(int x, int y, int width, int height) {
+        clip(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void setClip(int x, int y, int width, int height) {
+        setClip(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void setClip(Shape clip) {
+        this.clip = clip == null ? null : toDevice(clip);
+    }
+
+    /**
+     * Convert a shape to device coordinates, rectangles stay rectangles when the transform allows it.
+     */
+    private Shape toDevice(Shape s) {
+        final Shape deviceShape = transform.createTransformedShape(s);
+        if (s instanceof Rectangle2D && transform.getShearX() == 0 && transform.getShearY() == 0) {
+            return deviceShape.getBounds2D();
+        }
+        return deviceShape;
+    }
+
+    @Override
+    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+        log.debug("copyArea is not supported by vector documents");
+    }
+
+    // Helpers for subclasses
+
+    /**
+     * Get the outline of a text, used when a document can not write the font.
+     *
+     * @param text The text
+     * @param x    The x coordinate of the baseline start
+     * @param y    The y coordinate of the baseline
+     * @return The outline in user coordinates
+     */
+    protected Shape getTextOutline(String text, float x, float y) {
+        final TextLayout layout = new TextLayout(text, font, fontRenderContext);
+        return layout.getOutline(AffineTransform.getTranslateInstance(x, y));
+    }
+
+    /**
+     * Get a CSS like family name for a font.
+     *
+     * @param font The font
+     * @return A generic family name if the font is a logical one, else the font family.
+     */
+    protected static String getGenericFamily(Font font) {
+        final String family = font.getFamily();
+        final String generic = GENERIC_FAMILIES.get(font.getName());
+        if (generic != null) return generic;
+        final String genericFamily = GENERIC_FAMILIES.get(family);
+        return genericFamily != null ? genericFamily : family;
+    }
+
+    @NonNls
+    private static final Map<String, String> GENERIC_FAMILIES = new HashMap<>();
+
+    static {
+        GENERIC_FAMILIES.put(Font.SANS_SERIF, "sans-serif"); // NON-NLS
+        GENERIC_FAMILIES.put(Font.SERIF, "serif"); // NON-NLS
+        GENERIC_FAMILIES.put(Font.MONOSPACED, "monospace"); // NON-NLS
+        GENERIC_FAMILIES.put(Font.DIALOG, "sans-serif"); // NON-NLS
+        GENERIC_FAMILIES.put(Font.DIALOG_INPUT, "monospace"); // NON-NLS
+    }
+}
@@ -5,6 +5,7 @@ import org.cds06.speleograph.data.Series;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Created by Gabriel Augendre.
@@ -26,7 +27,7 @@ public class Modification {
     /**
      * The item list to be saved (items before modification).
      */
-    private final ArrayList<Item> items;
+    private final List<Item> items;
 
     /**
      * The linked series.
@@ -50,7 +51,7 @@ public class Modification {
      * @param series The linked series.
      * @param applyToAll Intended to say of the modification applies to every series or just one.
      */
-    public Modification(String name, Date date, ArrayList<Item> items, Series series, boolean applyToAll) {
+    public Modification(String name, Date date, List<Item> items, Series series, boolean applyToAll) {
         this.name = name;
         this.date = date;
         this.items = items;
@@ -66,7 +67,7 @@ public class Modification {
         return date;
     }
 
-    public ArrayList<Item> getItems() {
+    public List<Item> getItems() {
         return items;
     }
 